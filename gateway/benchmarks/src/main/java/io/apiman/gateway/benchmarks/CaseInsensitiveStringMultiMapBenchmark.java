@@ -0,0 +1,140 @@
+/*
+ * Copyright 2017 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.apiman.gateway.benchmarks;
+
+import io.apiman.gateway.engine.beans.util.CaseInsensitiveStringMultiMap;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the header map the way the gateway uses it: a request's headers are
+ * copied into a new map, a few of them (mostly well-known ones) are looked up in
+ * whatever case the caller uses, and all of them are copied out again.  A
+ * case-insensitive {@link TreeMap} is measured the same way, as a baseline.
+ *
+ * @author eric.wittmann@redhat.com
+ */
+@SuppressWarnings("nls")
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class CaseInsensitiveStringMultiMapBenchmark {
+
+    private static final String[] WELL_KNOWN = {
+            "Accept", "Accept-Encoding", "Authorization", "Cache-Control", "Connection",
+            "Content-Length", "Content-Type", "Cookie", "Host", "User-Agent", "X-API-Key",
+            "X-Forwarded-For"
+    };
+
+    private static final String[] LOOKUPS = {
+            "content-type", "CONTENT-LENGTH", "X-Api-Key", "authorization", "host", "X-Custom-1"
+    };
+
+    /**
+     * The number of headers.
+     */
+    @Param({ "8", "32", "128" })
+    public int size;
+
+    private String[] names;
+    private String[] values;
+    private CaseInsensitiveStringMultiMap map;
+    private TreeMap<String, List<String>> treeMap;
+
+    @Setup
+    public void setup() {
+        names = new String[size];
+        values = new String[size];
+        for (int i = 0; i < size; i++) {
+            names[i] = i < WELL_KNOWN.length ? WELL_KNOWN[i] : "X-Custom-" + i;
+            values[i] = "value-" + i;
+        }
+        map = populate();
+        treeMap = populateTreeMap();
+    }
+
+    @Benchmark
+    public CaseInsensitiveStringMultiMap populate() {
+        CaseInsensitiveStringMultiMap rval = new CaseInsensitiveStringMultiMap(names.length);
+        for (int i = 0; i < names.length; i++) {
+            rval.add(names[i], values[i]);
+        }
+        return rval;
+    }
+
+    @Benchmark
+    public void get(Blackhole blackhole) {
+        for (String name : LOOKUPS) {
+            blackhole.consume(map.get(name));
+        }
+    }
+
+    @Benchmark
+    public void iterate(Blackhole blackhole) {
+        for (Entry<String, String> entry : map) {
+            blackhole.consume(entry.getKey());
+            blackhole.consume(entry.getValue());
+        }
+    }
+
+    @Benchmark
+    public TreeMap<String, List<String>> populateTreeMap() {
+        TreeMap<String, List<String>> rval = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        for (int i = 0; i < names.length; i++) {
+            rval.computeIfAbsent(names[i], key -> new ArrayList<>(1)).add(values[i]);
+        }
+        return rval;
+    }
+
+    @Benchmark
+    public void getTreeMap(Blackhole blackhole) {
+        for (String name : LOOKUPS) {
+            List<String> values = treeMap.get(name);
+            blackhole.consume(values == null ? null : values.get(0));
+        }
+    }
+
+    @Benchmark
+    public void iterateTreeMap(Blackhole blackhole) {
+        for (Entry<String, List<String>> entry : treeMap.entrySet()) {
+            for (String value : entry.getValue()) {
+                blackhole.consume(entry.getKey());
+                blackhole.consume(value);
+            }
+        }
+    }
+
+}
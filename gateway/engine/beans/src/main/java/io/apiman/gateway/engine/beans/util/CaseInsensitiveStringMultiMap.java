@@ -19,16 +19,18 @@ package io.apiman.gateway.engine.beans.util;
 import java.io.Serializable;
 import java.nio.ByteOrder;
 import java.util.AbstractMap;
+import java.util.AbstractSet;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.TreeMap;
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 
 import net.openhft.hashing.Access;
 import net.openhft.hashing.LongHashFunction;
@@ -44,7 +46,13 @@ import net.openhft.hashing.LongHashFunction;
  * </p>
  * <p>
  * Case is ignored (avoiding {@link String#toLowerCase()} <code>String</code> allocation)
- * before being hashed (<code>xxHash</code>).
+ * before being hashed (<code>xxHash</code>).  The hashes of well-known header names
+ * are computed once, up front (see {@link PrehashedKeys}).
+ * </p>
+ * <p>
+ * The table grows (doubling) once the number of keys exceeds three quarters of its
+ * size, so that requests with many headers don't degrade into long chains.
+ * Iterating over the map (or its keys) does not allocate any entries.
  * </p>
  * <p>
  *     Constraints:
@@ -59,16 +67,23 @@ import net.openhft.hashing.LongHashFunction;
 public class CaseInsensitiveStringMultiMap implements IStringMultiMap, Serializable {
     private static final long serialVersionUID = -2052530527825235543L;
     private static final Access<String> LOWER_CASE_ACCESS_INSTANCE = new LowerCaseAccess();
-    //private static final float MAX_LOAD_FACTOR = 0.75f;
+    private static final float MAX_LOAD_FACTOR = 0.75f;
+    private static final int DEFAULT_CAPACITY = 32;
     private Element[] hashArray;
     private int keyCount = 0;
+    private int threshold;
 
     public CaseInsensitiveStringMultiMap() {
-        hashArray = new Element[32];
+        allocate(DEFAULT_CAPACITY);
     }
 
+    /**
+     * Constructor.
+     * @param sizeHint the number of keys expected; the table is sized to hold them
+     * without growing
+     */
     public CaseInsensitiveStringMultiMap(int sizeHint) {
-        hashArray = new Element[(int) (sizeHint*1.25)];
+        allocate(tableSizeFor((int) Math.min(1 << 30, (long) Math.ceil(sizeHint / MAX_LOAD_FACTOR))));
     }
 
     @Override
@@ -76,25 +91,61 @@ public class CaseInsensitiveStringMultiMap implements IStringMultiMap, Serializa
         return new ElemIterator(hashArray);
     }
 
+    /**
+     * Performs the given action for each entry (including each of the values of
+     * keys with multiple values), without allocating an iterator.
+     */
+    @Override
+    public void forEach(Consumer<? super Entry<String, String>> action) {
+        for (Element oElem : hashArray) {
+            for (Element iElem = oElem; iElem != null; iElem = iElem.getNext()) {
+                action.accept(iElem);
+            }
+        }
+    }
+
+    /**
+     * Performs the given action for each key/value pair (including each of the values
+     * of keys with multiple values), without allocating.
+     * @param action the action
+     */
+    public void forEach(BiConsumer<String, String> action) {
+        for (Element oElem : hashArray) {
+            for (Element iElem = oElem; iElem != null; iElem = iElem.getNext()) {
+                action.accept(iElem.getKey(), iElem.getValue());
+            }
+        }
+    }
+
     @Override
     public IStringMultiMap put(String key, String value) {
         long keyHash = getHash(key);
         int idx = getIndex(keyHash);
-        if (hashArray[idx] == null) {
-            keyCount++;
-            hashArray[idx] = new Element(key, value, keyHash);
-        } else {
-            remove(key);
-            add(key, value);
+        Element head = hashArray[idx];
+        if (head != null) {
+            head = head.removeByHash(keyHash, key);
         }
+        Element newHead = new Element(key, value, keyHash);
+        newHead.previous = head;
+        hashArray[idx] = newHead;
+        keyAdded();
         return this;
     }
 
     private int getIndex(long hash) {
-        return Math.abs((int) (hash % hashArray.length));
+        return indexFor(hash, hashArray.length);
+    }
+
+    private static int indexFor(long hash, int tableSize) {
+        return ((int) (hash ^ (hash >>> 32))) & (tableSize - 1);
+    }
+
+    private static long getHash(String text) {
+        Long hash = PrehashedKeys.getHash(text);
+        return hash != null ? hash : computeHash(text);
     }
 
-    private long getHash(String text) {
+    static long computeHash(String text) {
         return LongHashFunction.xx_r39().hash(text,
                 LOWER_CASE_ACCESS_INSTANCE, 0, text.length());
     }
@@ -111,16 +162,13 @@ public class CaseInsensitiveStringMultiMap implements IStringMultiMap, Serializa
         long hash = getHash(key);
         int idx = getIndex(hash);
         Element existingHead = hashArray[idx];
-        if (existingHead == null) {
-            hashArray[idx] = new Element(key, value, hash);
-            keyCount++;
-        } else { // Last element appears first in list.
-            if (existingHead.getByHash(hash, key) == null) {
-                keyCount++; // If it's a unique key collision and we've not actually seen this key before.
-            }
-            Element newHead = new Element(key, value, hash);
-            newHead.previous = existingHead;
-            hashArray[idx] = newHead;
+        Element newHead = new Element(key, value, hash);
+        // Last element appears first in list.
+        newHead.previous = existingHead;
+        hashArray[idx] = newHead;
+        // If it's a unique key collision and we've not actually seen this key before.
+        if (existingHead == null || existingHead.getByHash(hash, key) == null) {
+            keyAdded();
         }
         return this;
     }
@@ -130,8 +178,7 @@ public class CaseInsensitiveStringMultiMap implements IStringMultiMap, Serializa
         return this;
     }
 
-    private Element getElement(String key) {
-        long hash = getHash(key);
+    private Element getElement(String key, long hash) {
         Element head = hashArray[getIndex(hash)];
         return head == null ? null : head.getByHash(hash, key);
     }
@@ -152,6 +199,9 @@ public class CaseInsensitiveStringMultiMap implements IStringMultiMap, Serializa
 
     @Override
     public IStringMultiMap remove(String key) {
+        if (keyCount == 0) {
+            return this;
+        }
         long hash = getHash(key);
         int idx = getIndex(hash);
         Element headElem = hashArray[idx];
@@ -162,15 +212,19 @@ public class CaseInsensitiveStringMultiMap implements IStringMultiMap, Serializa
 
     @Override
     public String get(String key) {
-        Element elem = getElement(key); // Just return the first value, ignore all others (i.e. most recently added one)
+        if (keyCount == 0) {
+            return null;
+        }
+        Element elem = getElement(key, getHash(key)); // Just return the first value, ignore all others (i.e. most recently added one)
         return elem == null ? null : elem.getValue();
     }
 
     @Override
     public List<Entry<String, String>> getAllEntries(String key) {
         if (keyCount > 0) {
-            Element elem = getElement(key);
-            return elem == null ? Collections.emptyList() : elem.getAllEntries(key, getHash(key));
+            long hash = getHash(key);
+            Element elem = getElement(key, hash);
+            return elem == null ? Collections.emptyList() : elem.getAllEntries(key, hash);
         }
         return Collections.emptyList();
     }
@@ -178,8 +232,9 @@ public class CaseInsensitiveStringMultiMap implements IStringMultiMap, Serializa
     @Override
     public List<String> getAll(String key) {
         if (keyCount > 0) {
-            Element elem = getElement(key);
-            return elem == null ? Collections.emptyList() : elem.getAllValues(key, getHash(key));
+            long hash = getHash(key);
+            Element elem = getElement(key, hash);
+            return elem == null ? Collections.emptyList() : elem.getAllValues(key, hash);
          }
         return Collections.emptyList();
     }
@@ -194,11 +249,10 @@ public class CaseInsensitiveStringMultiMap implements IStringMultiMap, Serializa
         List<Entry<String, String>> entryList = new ArrayList<>(keyCount);
         // Look at all top-level elements
         for (Element oElem : hashArray) {
-            if (oElem != null) { // Add any non-null elements
-                // If there are multiple values, will also add those
-                for (Element iElem = oElem; iElem != null; iElem = iElem.getNext()) {
-                    entryList.add(iElem);
-                }
+            // Add any non-null elements
+            // If there are multiple values, will also add those
+            for (Element iElem = oElem; iElem != null; iElem = iElem.getNext()) {
+                entryList.add(iElem);
             }
         }
         return entryList;
@@ -209,13 +263,11 @@ public class CaseInsensitiveStringMultiMap implements IStringMultiMap, Serializa
         Map<String, String> map = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
         // Look at all top-level elements
         for (Element oElem : hashArray) {
-            if (oElem != null) {
-                // Must check all bucket entries as can be hash collision
-                for (Entry<String, String> iElem : oElem.getAllEntries()) {
-                    // Add any non-null ones that aren't already in (NB: LIFO)
-                    if (!map.containsKey(iElem.getKey()))
-                        map.put(iElem.getKey(), iElem.getValue());
-                }
+            // Must check all bucket entries as can be hash collision
+            for (Element iElem = oElem; iElem != null; iElem = iElem.getNext()) {
+                // Add any non-null ones that aren't already in (NB: LIFO)
+                if (iElem.isLatest(oElem))
+                    map.put(iElem.getKey(), iElem.getValue());
             }
         }
         return map;
@@ -223,15 +275,17 @@ public class CaseInsensitiveStringMultiMap implements IStringMultiMap, Serializa
 
     @Override
     public boolean containsKey(String key) {
-        long hash = getHash(key);
-        int idx = getIndex(hash);
-        // Check if there's an entry the idx, *and* check that the key is not just a collision
-        return hashArray[idx] != null && hashArray[idx].getByHash(hash, key) != null;
+        return keyCount > 0 && getElement(key, getHash(key)) != null;
     }
 
+    /**
+     * Returns a (case insensitive) view of the keys.  Where a key was added with
+     * different cases, the case of the most recently added one is used.
+     * @see io.apiman.gateway.engine.beans.util.IStringMultiMap#keySet()
+     */
     @Override
-    public Set<String> keySet() { // TODO
-        return toMap().keySet();
+    public Set<String> keySet() {
+        return new KeySet();
     }
 
     @Override
@@ -244,22 +298,74 @@ public class CaseInsensitiveStringMultiMap implements IStringMultiMap, Serializa
     @Override
     @SuppressWarnings("nls")
     public String toString() {
-        String elems = keySet().stream()
-                .map(this::getAllEntries)
-                .map(pairs -> pairs.get(0).getKey() + " => [" + joinValues(pairs) + "]")
-                .collect(Collectors.joining(", "));
-        return "{" + elems + "}";
+        List<String> keys = new ArrayList<>(keySet());
+        keys.sort(String.CASE_INSENSITIVE_ORDER);
+        StringBuilder sb = new StringBuilder("{");
+        for (String key : keys) {
+            if (sb.length() > 1) {
+                sb.append(", ");
+            }
+            sb.append(key).append(" => [");
+            List<String> values = getAll(key);
+            for (int i = values.size() - 1; i >= 0; i--) {
+                sb.append(values.get(i));
+                if (i > 0) {
+                    sb.append(", ");
+                }
+            }
+            sb.append(']');
+        }
+        return sb.append('}').toString();
     }
 
-    @SuppressWarnings("nls")
-    private String joinValues(List<Entry<String, String>> pairs) {
-        return IntStream.rangeClosed(1, pairs.size())
-                .mapToObj(i -> pairs.get(pairs.size() - i))
-                .map(Entry::getValue)
-                .collect(Collectors.joining(", "));
+    /**
+     * Counts a newly added key, growing the table if needed.
+     */
+    private void keyAdded() {
+        if (++keyCount > threshold) {
+            resize(hashArray.length * 2);
+        }
+    }
+
+    /**
+     * Rehashes all of the elements into a table of the given size.  The relative
+     * order of the values of each key is preserved.
+     */
+    private void resize(int newSize) {
+        Element[] oldArray = hashArray;
+        allocate(newSize);
+        List<Element> chain = new ArrayList<>();
+        for (Element oElem : oldArray) {
+            for (Element iElem = oElem; iElem != null; iElem = iElem.getNext()) {
+                chain.add(iElem);
+            }
+            // Re-insert oldest first, so that the newest ends up at the head again
+            for (int i = chain.size() - 1; i >= 0; i--) {
+                Element elem = chain.get(i);
+                int idx = getIndex(elem.getKeyHash());
+                elem.previous = hashArray[idx];
+                hashArray[idx] = elem;
+            }
+            chain.clear();
+        }
+    }
+
+    private void allocate(int size) {
+        hashArray = new Element[size];
+        threshold = size >= (1 << 30) ? Integer.MAX_VALUE : (int) (size * MAX_LOAD_FACTOR);
+    }
+
+    private static int tableSizeFor(int capacity) {
+        int size = 2;
+        while (size < capacity && size < (1 << 30)) {
+            size <<= 1;
+        }
+        return size;
     }
 
     private static boolean insensitiveEquals(String a, String b) {
+        if (a == b)
+            return true;
         if (a.length() != b.length())
             return false;
 
@@ -372,6 +478,19 @@ public class CaseInsensitiveStringMultiMap implements IStringMultiMap, Serializa
             return keyHash;
         }
 
+        /**
+         * Returns true if this is the most recently added element for its key, i.e.
+         * there is no element for the same key between the given head and this one.
+         */
+        public boolean isLatest(Element head) {
+            for (Element elem = head; elem != this; elem = elem.getNext()) {
+                if (elem.eq(keyHash, getKey())) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
         public List<String> getAllValues(String key, long hashCode) {
             List<String> allElems = new ArrayList<>();
             for (Element elem = this; elem != null; elem = elem.getNext()) {
@@ -401,6 +520,73 @@ public class CaseInsensitiveStringMultiMap implements IStringMultiMap, Serializa
         }
     }
 
+    /**
+     * A view of the distinct keys, backed by the map.
+     */
+    private final class KeySet extends AbstractSet<String> {
+
+        @Override
+        public Iterator<String> iterator() {
+            return new KeyIterator(hashArray);
+        }
+
+        @Override
+        public int size() {
+            return keyCount;
+        }
+
+        @Override
+        public boolean contains(Object key) {
+            return key instanceof String && containsKey((String) key);
+        }
+    }
+
+    /**
+     * Iterates over the distinct keys, skipping the older values of keys with
+     * multiple values.
+     */
+    private static final class KeyIterator implements Iterator<String> {
+        final Element[] hashTable;
+        Element head;
+        Element next;
+        int idx = 0;
+
+        public KeyIterator(Element[] hashTable) {
+            this.hashTable = hashTable;
+            advance(null);
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public String next() {
+            if (next == null)
+                throw new NoSuchElementException();
+            Element selected = next;
+            advance(selected.getNext());
+            return selected.getKey();
+        }
+
+        private void advance(Element candidate) {
+            while (true) {
+                for (; candidate != null; candidate = candidate.getNext()) {
+                    if (candidate.isLatest(head)) {
+                        next = candidate;
+                        return;
+                    }
+                }
+                if (idx >= hashTable.length) {
+                    next = null;
+                    return;
+                }
+                head = candidate = hashTable[idx++];
+            }
+        }
+    }
+
     private static final class ElemIterator implements Iterator<Entry<String, String>> {
         final Element[] hashTable;
         Element next;
@@ -420,6 +606,8 @@ public class CaseInsensitiveStringMultiMap implements IStringMultiMap, Serializa
 
         @Override
         public Entry<String, String> next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
             selected = next;
             setNext();
             return selected;
@@ -17,6 +17,7 @@
 package io.apiman.gateway.engine.beans.util;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 
 import com.fasterxml.jackson.core.JsonGenerator;
@@ -43,7 +44,10 @@ public class HeaderMapSerializer extends JsonSerializer<HeaderMap> {
             throws IOException, JsonProcessingException {
         gen.writeStartObject(); // {
 
-        for (String key : map.keySet()) {
+        // Keys are written in a stable (case insensitive) order
+        List<String> keys = new ArrayList<>(map.keySet());
+        keys.sort(String.CASE_INSENSITIVE_ORDER);
+        for (String key : keys) {
             List<String> values = map.getAll(key);
 
             if (values.size() <= 1) {
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2017 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.apiman.gateway.engine.beans.util;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The (case insensitive) hashes of well-known header names, computed once.  The
+ * names are looked up in their usual and lower case forms, so for the headers
+ * seen on almost every request the lookup only costs a {@link String#hashCode()}
+ * (which the string caches) and an equality check, rather than hashing the whole
+ * name again.
+ *
+ * @author eric.wittmann@redhat.com
+ */
+@SuppressWarnings("nls")
+final class PrehashedKeys {
+
+    private static final String[] WELL_KNOWN_KEYS = {
+            "Accept", "Accept-Charset", "Accept-Encoding", "Accept-Language", "Authorization",
+            "Cache-Control", "Connection", "Content-Encoding", "Content-Length", "Content-Type",
+            "Cookie", "Date", "ETag", "Expires", "Host", "If-Modified-Since", "If-None-Match",
+            "Keep-Alive", "Last-Modified", "Location", "Origin", "Pragma", "Referer", "Server",
+            "Set-Cookie", "Transfer-Encoding", "User-Agent", "Vary", "Via", "WWW-Authenticate",
+            "X-API-Key", "X-Forwarded-For", "X-Forwarded-Host", "X-Forwarded-Proto",
+            "X-Identity-Validator", "X-Powered-By", "X-Request-ID"
+    };
+    private static final Map<String, Long> HASHES = new HashMap<>();
+    static {
+        for (String key : WELL_KNOWN_KEYS) {
+            Long hash = CaseInsensitiveStringMultiMap.computeHash(key);
+            HASHES.put(key, hash);
+            HASHES.put(key.toLowerCase(Locale.ENGLISH), hash);
+        }
+    }
+
+    /**
+     * Constructor.
+     */
+    private PrehashedKeys() {
+    }
+
+    /**
+     * Returns the precomputed hash of the given key, or null if it isn't a
+     * well-known key (in its usual or lower case form).
+     * @param key the key
+     * @return the hash or null
+     */
+    static Long getHash(String key) {
+        return HASHES.get(key);
+    }
+
+}
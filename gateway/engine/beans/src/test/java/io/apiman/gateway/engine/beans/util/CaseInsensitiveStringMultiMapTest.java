@@ -324,6 +324,34 @@ public class CaseInsensitiveStringMultiMapTest {
         Assert.assertEquals(1, mmap.size());
     }
 
+    @Theory
+    public void shouldGrowBeyondSizeHint(int size) {
+        CaseInsensitiveStringMultiMap mmap = new CaseInsensitiveStringMultiMap(size % 8);
+        for (int i = 0; i < 100; i++) {
+            mmap.add("key-" + i, "first").add("KEY-" + i, "second");
+        }
+        Assert.assertEquals(100, mmap.size());
+        Assert.assertEquals(100, mmap.keySet().size());
+        for (int i = 0; i < 100; i++) {
+            // Value order must survive rehashing
+            Assert.assertEquals(Arrays.asList("second", "first"), mmap.getAll("Key-" + i));
+            Assert.assertTrue(mmap.keySet().contains("key-" + i));
+        }
+    }
+
+    @Theory
+    public void shouldMatchWellKnownKeysInAnyCase(int size) {
+        CaseInsensitiveStringMultiMap mmap = new CaseInsensitiveStringMultiMap(size);
+        mmap.add("Content-Type", "text/plain").add("content-length", "10").add("X-Api-Key", "12345");
+        Assert.assertEquals("text/plain", mmap.get("content-type"));
+        Assert.assertEquals("text/plain", mmap.get("CONTENT-TYPE"));
+        Assert.assertEquals("10", mmap.get("Content-Length"));
+        Assert.assertEquals("12345", mmap.get("X-API-Key"));
+        mmap.put("CONTENT-TYPE", "application/json");
+        Assert.assertEquals(Collections.singletonList("application/json"), mmap.getAll("Content-Type"));
+        Assert.assertEquals(3, mmap.size());
+    }
+
     private Entry<String, String> ent(String k, String v) {
         return new AbstractMap.SimpleImmutableEntry<>(k, v);
     }
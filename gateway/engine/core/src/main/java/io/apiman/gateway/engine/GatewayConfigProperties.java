@@ -41,5 +41,6 @@ public class GatewayConfigProperties {
     public static final String ERROR_WRITER_CLASS = "apiman-gateway.writers.error";
     public static final String INITIALIZERS = "apiman-gateway.initializers";
     public static final String REQUEST_PARSER_CLASS = "apiman-gateway.request-parser";
+    public static final String CREDENTIAL_CACHE_SECRET = "apiman-gateway.policies.credential-cache.secret";
 
 }
@@ -30,4 +30,11 @@ package io.apiman.gateway.engine;
  */
 public interface IComponent {
 
+    /**
+     * Releases everything the component holds on to (e.g. its threads).  Called when
+     * the engine is shut down.
+     */
+    default void close() {
+    }
+
 }
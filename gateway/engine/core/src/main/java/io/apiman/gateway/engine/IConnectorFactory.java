@@ -39,4 +39,18 @@ public interface IConnectorFactory {
     public IApiConnector createConnector(ApiRequest request, Api api,
             RequiredAuthType requiredAuthType, boolean hasDataPolicy);
 
+    /**
+     * Called when an API has been retired, so that anything the factory holds on to
+     * for it (clients, connection pools, health checks) can be released.
+     * @param api the retired API
+     */
+    default void apiRetired(Api api) {
+    }
+
+    /**
+     * Releases everything the factory holds on to.  Called when the engine is shut down.
+     */
+    default void close() {
+    }
+
 }
@@ -64,4 +64,11 @@ public interface IEngine {
      */
     IApiRequestPathParser getApiRequestPathParser();
 
+    /**
+     * Shuts down the engine, releasing the back-end connections (and anything else)
+     * held by its connector factory, and closing its components.
+     */
+    default void shutdown() {
+    }
+
 }
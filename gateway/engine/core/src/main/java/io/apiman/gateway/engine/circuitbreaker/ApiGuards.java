@@ -0,0 +1,136 @@
+/*
+ * Copyright 2017 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.apiman.gateway.engine.circuitbreaker;
+
+import io.apiman.gateway.engine.beans.Api;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * The guards of the guarded APIs, as used by a connector factory.  Each API endpoint's
+ * guard is acquired (see {@link BackendGuards}) when the API first uses the endpoint,
+ * and released when the API is retired or re-published with a different endpoint
+ * configuration.
+ *
+ * @author eric.wittmann@redhat.com
+ */
+public class ApiGuards {
+
+    private final ConcurrentHashMap<String, EndpointGuards> apis = new ConcurrentHashMap<>();
+
+    /**
+     * Constructor.
+     */
+    public ApiGuards() {
+    }
+
+    /**
+     * Gets the guards of the given API's endpoints.
+     * @param api the API
+     * @return the guard of each of the API's endpoints, or null if the API is not guarded
+     */
+    public Function<String, BackendGuard> get(Api api) {
+        if (!BackendGuard.isGuarded(api.getEndpointProperties())) {
+            if (!apis.isEmpty()) {
+                // It may have been guarded before being re-published.
+                remove(api);
+            }
+            return null;
+        }
+        String key = key(api);
+        EndpointGuards guards = apis.get(key);
+        if (guards != null && guards.matches(api)) {
+            return guards;
+        }
+        return apis.compute(key, (k, existing) -> {
+            if (existing != null) {
+                if (existing.matches(api)) {
+                    return existing;
+                }
+                existing.close();
+            }
+            return new EndpointGuards(api);
+        });
+    }
+
+    /**
+     * Removes (and releases) the guards of the given API, if it has any.
+     * @param api the API
+     */
+    public void remove(Api api) {
+        EndpointGuards guards = apis.remove(key(api));
+        if (guards != null) {
+            guards.close();
+        }
+    }
+
+    /**
+     * Releases the guards of all of the APIs.
+     */
+    public void close() {
+        apis.values().forEach(EndpointGuards::close);
+        apis.clear();
+    }
+
+    private static String key(Api api) {
+        return api.getOrganizationId() + '|' + api.getApiId() + '|' + api.getVersion();
+    }
+
+    /**
+     * The guards of a single API's endpoints.
+     */
+    private static final class EndpointGuards implements Function<String, BackendGuard> {
+
+        private final String endpoint;
+        private final Map<String, String> endpointProperties;
+        private final ConcurrentHashMap<String, BackendGuard> guards = new ConcurrentHashMap<>();
+        private boolean closed;
+
+        private EndpointGuards(Api api) {
+            this.endpoint = api.getEndpoint();
+            this.endpointProperties = new HashMap<>(api.getEndpointProperties());
+        }
+
+        private boolean matches(Api api) {
+            return endpoint.equals(api.getEndpoint()) && endpointProperties.equals(api.getEndpointProperties());
+        }
+
+        @Override
+        public BackendGuard apply(String uri) {
+            BackendGuard guard = guards.get(uri);
+            if (guard != null) {
+                return guard;
+            }
+            synchronized (this) {
+                if (!closed) {
+                    return guards.computeIfAbsent(uri, u -> BackendGuards.acquire(u, endpointProperties));
+                }
+            }
+            // Retired or re-published since the request started.
+            return BackendGuards.peek(uri, endpointProperties);
+        }
+
+        private synchronized void close() {
+            closed = true;
+            guards.values().forEach(BackendGuards::release);
+            guards.clear();
+        }
+    }
+
+}
@@ -0,0 +1,299 @@
+/*
+ * Copyright 2017 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.apiman.gateway.engine.circuitbreaker;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Protects a single back-end (and the gateway from it) with a circuit breaker and
+ * a limit on the number of concurrent requests (a bulkhead).
+ *
+ * The circuit breaker opens after a number of consecutive connector errors
+ * (connection failures, timeouts) and rejects every request while it is open.
+ * Once the open time has elapsed it lets a few trial requests through: the first
+ * trial that succeeds closes the breaker again, while a failed trial re-opens it.
+ *
+ * The bulkhead rejects requests while the configured number of requests are already
+ * in progress, so that a slow back-end can't tie up all of the gateway's connections
+ * and memory.
+ *
+ * A guard is configured via the API's endpoint properties:
+ * <ul>
+ *   <li>circuitbreaker.failures - consecutive failures before the breaker opens (default 0, i.e. no breaker)</li>
+ *   <li>circuitbreaker.openTime - how long the breaker stays open for, in millis (default 30000)</li>
+ *   <li>circuitbreaker.halfOpenRequests - the number of concurrent trial requests (default 1)</li>
+ *   <li>bulkhead.maxConcurrent - the maximum number of requests in progress (default 0, i.e. unlimited)</li>
+ * </ul>
+ *
+ * @author eric.wittmann@redhat.com
+ */
+public class BackendGuard {
+
+    public static final String FAILURES = "circuitbreaker.failures"; //$NON-NLS-1$
+    public static final String OPEN_TIME = "circuitbreaker.openTime"; //$NON-NLS-1$
+    public static final String HALF_OPEN_REQUESTS = "circuitbreaker.halfOpenRequests"; //$NON-NLS-1$
+    public static final String MAX_CONCURRENT = "bulkhead.maxConcurrent"; //$NON-NLS-1$
+
+    private final String backend;
+    private final String configuration;
+    private final int maxFailures;
+    private final long openTime;
+    private final int halfOpenRequests;
+    private final int maxConcurrent;
+
+    private volatile CircuitBreakerState state = CircuitBreakerState.CLOSED;
+    private long openUntil;
+    private int trials;
+    private final AtomicInteger failures = new AtomicInteger();
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicLong rejected = new AtomicLong();
+    // The number of API endpoints using this guard (see BackendGuards)
+    int users;
+
+    /**
+     * Constructor.
+     * @param backend the back-end (e.g. http://host:port)
+     * @param endpointProperties the API's endpoint properties
+     */
+    public BackendGuard(String backend, Map<String, String> endpointProperties) {
+        this.backend = backend;
+        maxFailures = getInt(endpointProperties, FAILURES, 0);
+        openTime = getOpenTime(endpointProperties);
+        halfOpenRequests = getHalfOpenRequests(endpointProperties);
+        maxConcurrent = getInt(endpointProperties, MAX_CONCURRENT, 0);
+        configuration = getConfiguration(endpointProperties);
+    }
+
+    /**
+     * Returns true if the given endpoint properties configure a circuit breaker
+     * and/or a bulkhead.
+     * @param endpointProperties the API's endpoint properties
+     */
+    public static boolean isGuarded(Map<String, String> endpointProperties) {
+        return getInt(endpointProperties, FAILURES, 0) > 0 || getInt(endpointProperties, MAX_CONCURRENT, 0) > 0;
+    }
+
+    /**
+     * Returns the guard configuration of the given endpoint properties, with the
+     * defaults filled in (e.g. "failures=5,openTime=30000,halfOpenRequests=1,maxConcurrent=0").
+     * Endpoint properties that configure their guards the same way have the same
+     * configuration.
+     * @param endpointProperties the API's endpoint properties
+     */
+    public static String getConfiguration(Map<String, String> endpointProperties) {
+        return "failures=" + getInt(endpointProperties, FAILURES, 0) //$NON-NLS-1$
+                + ",openTime=" + getOpenTime(endpointProperties) //$NON-NLS-1$
+                + ",halfOpenRequests=" + getHalfOpenRequests(endpointProperties) //$NON-NLS-1$
+                + ",maxConcurrent=" + getInt(endpointProperties, MAX_CONCURRENT, 0); //$NON-NLS-1$
+    }
+
+    private static long getOpenTime(Map<String, String> endpointProperties) {
+        return new Long(getProperty(endpointProperties, OPEN_TIME, "30000")); //$NON-NLS-1$
+    }
+
+    private static int getHalfOpenRequests(Map<String, String> endpointProperties) {
+        return Math.max(1, getInt(endpointProperties, HALF_OPEN_REQUESTS, 1));
+    }
+
+    private static int getInt(Map<String, String> endpointProperties, String name, int defaultValue) {
+        return new Integer(getProperty(endpointProperties, name, String.valueOf(defaultValue)));
+    }
+
+    private static String getProperty(Map<String, String> endpointProperties, String name, String defaultValue) {
+        String value = endpointProperties.get(name);
+        return value == null || value.trim().isEmpty() ? defaultValue : value.trim();
+    }
+
+    /**
+     * Asks to send a request to the back-end.  The returned permit must be released
+     * once the back-end has responded (or failed to).
+     * @return the permit, or null if the request must be rejected
+     */
+    public Permit tryAcquire() {
+        boolean trial = false;
+        if (maxFailures > 0 && state != CircuitBreakerState.CLOSED) {
+            synchronized (this) {
+                updateState();
+                if (state == CircuitBreakerState.OPEN
+                        || (state == CircuitBreakerState.HALF_OPEN && trials >= halfOpenRequests)) {
+                    rejected.incrementAndGet();
+                    return null;
+                }
+                if (state == CircuitBreakerState.HALF_OPEN) {
+                    trials++;
+                    trial = true;
+                }
+            }
+        }
+        while (true) {
+            int current = active.get();
+            if (maxConcurrent > 0 && current >= maxConcurrent) {
+                if (trial) {
+                    endTrial();
+                }
+                rejected.incrementAndGet();
+                return null;
+            }
+            if (active.compareAndSet(current, current + 1)) {
+                return new Permit(trial);
+            }
+        }
+    }
+
+    /**
+     * Moves an open breaker to half-open once the open time has elapsed.
+     */
+    private void updateState() {
+        if (state == CircuitBreakerState.OPEN && System.currentTimeMillis() >= openUntil) {
+            state = CircuitBreakerState.HALF_OPEN;
+            trials = 0;
+        }
+    }
+
+    private void succeeded(boolean trial) {
+        failures.set(0);
+        if (trial) {
+            synchronized (this) {
+                trials--;
+                if (state == CircuitBreakerState.HALF_OPEN) {
+                    state = CircuitBreakerState.CLOSED;
+                }
+            }
+        }
+    }
+
+    private void failed(boolean trial) {
+        if (maxFailures <= 0) {
+            return;
+        }
+        if (trial || failures.incrementAndGet() >= maxFailures) {
+            synchronized (this) {
+                if (trial) {
+                    trials--;
+                }
+                if (trial || state == CircuitBreakerState.CLOSED) {
+                    state = CircuitBreakerState.OPEN;
+                    openUntil = System.currentTimeMillis() + openTime;
+                    failures.set(0);
+                }
+            }
+        }
+    }
+
+    private synchronized void endTrial() {
+        trials--;
+    }
+
+    /**
+     * @return the back-end this guard protects
+     */
+    public String getBackend() {
+        return backend;
+    }
+
+    /**
+     * @return the configuration of this guard (see {@link #getConfiguration(Map)})
+     */
+    public String getConfiguration() {
+        return configuration;
+    }
+
+    /**
+     * @return the current state of the circuit breaker
+     */
+    public CircuitBreakerState getState() {
+        if (state == CircuitBreakerState.OPEN) {
+            synchronized (this) {
+                updateState();
+            }
+        }
+        return state;
+    }
+
+    /**
+     * @return the number of requests currently in progress
+     */
+    public int getActiveRequests() {
+        return active.get();
+    }
+
+    /**
+     * @return the maximum number of concurrent requests (0 if unlimited)
+     */
+    public int getMaxConcurrent() {
+        return maxConcurrent;
+    }
+
+    /**
+     * @return the number of requests rejected so far
+     */
+    public long getRejectedRequests() {
+        return rejected.get();
+    }
+
+    /**
+     * A request's permission to use the back-end.  The outcome is judged at most once
+     * (by {@link #succeeded()} or {@link #failed()}) and the permit is released at
+     * most once (by {@link #failed()} or {@link #release()}); later calls are ignored.
+     */
+    public final class Permit {
+
+        private final boolean trial;
+        private final AtomicBoolean judged = new AtomicBoolean();
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Permit(boolean trial) {
+            this.trial = trial;
+        }
+
+        /**
+         * Records that the back-end responded.  The permit is still held until it is
+         * released (i.e. until the response has been delivered).
+         */
+        public void succeeded() {
+            if (judged.compareAndSet(false, true)) {
+                BackendGuard.this.succeeded(trial);
+            }
+        }
+
+        /**
+         * Records a connector error and releases the permit.
+         */
+        public void failed() {
+            if (judged.compareAndSet(false, true)) {
+                BackendGuard.this.failed(trial);
+            }
+            release();
+        }
+
+        /**
+         * Releases the permit (without judging the back-end, if that hasn't been
+         * done already - e.g. the request was aborted by the client).
+         */
+        public void release() {
+            if (judged.compareAndSet(false, true) && trial) {
+                endTrial();
+            }
+            if (released.compareAndSet(false, true)) {
+                active.decrementAndGet();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2017 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.apiman.gateway.engine.circuitbreaker;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The guards of all of the back-ends the gateway talks to.  There is a guard per
+ * back-end (scheme, host and port) and guard configuration, shared by every API (and
+ * connector factory) that uses that back-end with that configuration:
+ * <ul>
+ *   <li>APIs that configure the same circuit breaker and bulkhead for a back-end
+ *       share its state - a back-end that is failing or slow is failing or slow for
+ *       all of them, and their requests count towards the same concurrency limit.</li>
+ *   <li>APIs that configure a back-end differently each get a guard of their own, so
+ *       each is held to its own limits.  Requests from APIs with another guard
+ *       configuration (or none at all) don't count towards a guard's bulkhead.</li>
+ * </ul>
+ * Guards are resolved once per API endpoint (when the API is first used, rather than
+ * for every request) by {@link #acquire(String, Map)}, and dropped once every API
+ * endpoint that acquired them has {@link #release(BackendGuard) released} them (e.g.
+ * because the APIs were retired).
+ *
+ * @author eric.wittmann@redhat.com
+ */
+public final class BackendGuards {
+
+    private static final ConcurrentHashMap<String, BackendGuard> guards = new ConcurrentHashMap<>();
+
+    /**
+     * Constructor.
+     */
+    private BackendGuards() {
+    }
+
+    /**
+     * Acquires the guard for the back-end of the given endpoint, as configured by the
+     * given endpoint properties.  The guard must be released once the endpoint no
+     * longer uses it.
+     * @param endpoint the endpoint
+     * @param endpointProperties the API's endpoint properties
+     * @return the guard
+     */
+    public static BackendGuard acquire(String endpoint, Map<String, String> endpointProperties) {
+        String backend = getBackend(endpoint);
+        return guards.compute(key(backend, BackendGuard.getConfiguration(endpointProperties)), (k, guard) -> {
+            if (guard == null) {
+                guard = new BackendGuard(backend, endpointProperties);
+            }
+            guard.users++;
+            return guard;
+        });
+    }
+
+    /**
+     * Releases a guard acquired by {@link #acquire(String, Map)}, dropping it if no
+     * other endpoint uses it.
+     * @param guard the guard
+     */
+    public static void release(BackendGuard guard) {
+        guards.computeIfPresent(key(guard.getBackend(), guard.getConfiguration()),
+                (k, existing) -> existing != guard || --existing.users > 0 ? existing : null);
+    }
+
+    /**
+     * Gets the guard for the back-end of the given endpoint without acquiring it, for
+     * a request that is still in progress after its API endpoint released its guard
+     * (e.g. the API was retired in the meantime).
+     * @param endpoint the endpoint
+     * @param endpointProperties the API's endpoint properties
+     * @return the guard, or a guard of its own if no endpoint uses one any more
+     */
+    public static BackendGuard peek(String endpoint, Map<String, String> endpointProperties) {
+        String backend = getBackend(endpoint);
+        BackendGuard guard = guards.get(key(backend, BackendGuard.getConfiguration(endpointProperties)));
+        return guard != null ? guard : new BackendGuard(backend, endpointProperties);
+    }
+
+    private static String key(String backend, String configuration) {
+        return backend + ' ' + configuration;
+    }
+
+    /**
+     * @return all of the guards
+     */
+    public static List<BackendGuard> getAll() {
+        return new ArrayList<>(guards.values());
+    }
+
+    /**
+     * Returns the back-end (scheme://host:port) of the given endpoint.
+     * @param endpoint the endpoint
+     */
+    static String getBackend(String endpoint) {
+        try {
+            URI uri = new URI(endpoint);
+            if (uri.getScheme() == null || uri.getHost() == null) {
+                return endpoint;
+            }
+            String scheme = uri.getScheme().toLowerCase();
+            int port = uri.getPort();
+            if (port == -1) {
+                port = "https".equals(scheme) ? 443 : 80; //$NON-NLS-1$
+            }
+            return scheme + "://" + uri.getHost().toLowerCase() + ':' + port; //$NON-NLS-1$
+        } catch (Exception e) {
+            return endpoint;
+        }
+    }
+
+}
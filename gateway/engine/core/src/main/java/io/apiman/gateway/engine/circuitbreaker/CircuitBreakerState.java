@@ -0,0 +1,39 @@
+/*
+ * Copyright 2017 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.apiman.gateway.engine.circuitbreaker;
+
+/**
+ * The state of a {@link BackendGuard}'s circuit breaker.
+ *
+ * @author eric.wittmann@redhat.com
+ */
+public enum CircuitBreakerState {
+
+    /**
+     * Requests are sent to the back-end.
+     */
+    CLOSED,
+    /**
+     * The back-end has been failing - requests are rejected without being sent.
+     */
+    OPEN,
+    /**
+     * The breaker has been open for long enough - a limited number of trial
+     * requests are sent to find out whether the back-end has recovered.
+     */
+    HALF_OPEN;
+
+}
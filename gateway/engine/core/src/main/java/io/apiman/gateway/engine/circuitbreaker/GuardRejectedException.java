@@ -0,0 +1,40 @@
+/*
+ * Copyright 2017 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.apiman.gateway.engine.circuitbreaker;
+
+import io.apiman.gateway.engine.beans.exceptions.ConnectorException;
+
+/**
+ * Thrown (with a 503) when a {@link BackendGuard} rejects a request because its
+ * circuit breaker is open or its bulkhead is full.  The request never reached the
+ * back-end, so it says nothing about the endpoint's health.
+ *
+ * @author eric.wittmann@redhat.com
+ */
+public class GuardRejectedException extends ConnectorException {
+
+    private static final long serialVersionUID = 4785190273541637402L;
+
+    /**
+     * Constructor.
+     * @param message an error message
+     */
+    public GuardRejectedException(String message) {
+        super(message);
+        setStatusCode(503);
+    }
+
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright 2017 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.apiman.gateway.engine.circuitbreaker;
+
+import io.apiman.gateway.engine.IApiConnection;
+import io.apiman.gateway.engine.IApiConnectionResponse;
+import io.apiman.gateway.engine.async.AsyncResultImpl;
+import io.apiman.gateway.engine.async.IAsyncHandler;
+import io.apiman.gateway.engine.async.IAsyncResultHandler;
+import io.apiman.gateway.engine.beans.ApiRequest;
+import io.apiman.gateway.engine.beans.ApiResponse;
+import io.apiman.gateway.engine.beans.exceptions.ConnectorException;
+import io.apiman.gateway.engine.circuitbreaker.BackendGuard.Permit;
+import io.apiman.gateway.engine.i18n.Messages;
+import io.apiman.gateway.engine.io.IApimanBuffer;
+import io.apiman.gateway.engine.lb.LoadBalancedConnector.IEndpointConnector;
+
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * A connector that only sends a request to its endpoint if the endpoint's
+ * {@link BackendGuard} allows it, failing fast (with a {@link GuardRejectedException})
+ * otherwise.  The guard
+ * is told the outcome of each request, and the request counts towards the guard's
+ * concurrency limit until its response has been delivered.
+ *
+ * @author eric.wittmann@redhat.com
+ */
+public class GuardedConnector implements IEndpointConnector {
+
+    private final Function<String, BackendGuard> guards;
+    private final IEndpointConnector connector;
+
+    /**
+     * Constructor.
+     * @param guards the (already resolved) guard of each of the API's endpoints
+     * @param connector connects to the endpoint
+     */
+    public GuardedConnector(Function<String, BackendGuard> guards, IEndpointConnector connector) {
+        this.guards = guards;
+        this.connector = connector;
+    }
+
+    /**
+     * Guards the given connector, if the API's endpoint properties ask for it.
+     * @param endpointProperties the API's endpoint properties
+     * @param guards the (already resolved) guard of each of the API's endpoints
+     * @param connector connects to the endpoint
+     * @return the (possibly) guarded connector
+     */
+    public static IEndpointConnector guard(Map<String, String> endpointProperties, Function<String, BackendGuard> guards,
+            IEndpointConnector connector) {
+        return BackendGuard.isGuarded(endpointProperties) ? new GuardedConnector(guards, connector) : connector;
+    }
+
+    /**
+     * @see io.apiman.gateway.engine.lb.LoadBalancedConnector.IEndpointConnector#connect(java.lang.String, io.apiman.gateway.engine.beans.ApiRequest, io.apiman.gateway.engine.async.IAsyncResultHandler)
+     */
+    @Override
+    public IApiConnection connect(String endpoint, ApiRequest request,
+            IAsyncResultHandler<IApiConnectionResponse> handler) throws ConnectorException {
+        BackendGuard guard = guards.apply(endpoint);
+        final Permit permit = guard.tryAcquire();
+        if (permit == null) {
+            String key = guard.getState() == CircuitBreakerState.CLOSED ? "GuardedConnector.TooManyRequests" //$NON-NLS-1$
+                    : "GuardedConnector.CircuitBreakerOpen"; //$NON-NLS-1$
+            throw new GuardRejectedException(Messages.i18n.format(key, guard.getBackend()));
+        }
+        try {
+            IApiConnection connection = connector.connect(endpoint, request, result -> {
+                if (result.isSuccess()) {
+                    permit.succeeded();
+                    handler.handle(AsyncResultImpl.create(new GuardedResponse(result.getResult(), permit)));
+                } else {
+                    permit.failed();
+                    handler.handle(result);
+                }
+            });
+            return new GuardedConnection(connection, permit);
+        } catch (RuntimeException e) {
+            permit.failed();
+            throw e;
+        }
+    }
+
+    /**
+     * Reports connector errors that are thrown (rather than passed to the response
+     * handler) while the request is being sent.
+     */
+    private static final class GuardedConnection implements IApiConnection {
+
+        private final IApiConnection delegate;
+        private final Permit permit;
+
+        private GuardedConnection(IApiConnection delegate, Permit permit) {
+            this.delegate = delegate;
+            this.permit = permit;
+        }
+
+        @Override
+        public void write(IApimanBuffer chunk) {
+            try {
+                delegate.write(chunk);
+            } catch (RuntimeException e) {
+                permit.failed();
+                throw e;
+            }
+        }
+
+        @Override
+        public void end() {
+            try {
+                delegate.end();
+            } catch (RuntimeException e) {
+                permit.failed();
+                throw e;
+            }
+        }
+
+        @Override
+        public void abort(Throwable t) {
+            permit.release();
+            delegate.abort(t);
+        }
+
+        @Override
+        public boolean isFinished() {
+            return delegate.isFinished();
+        }
+
+        @Override
+        public boolean isConnected() {
+            return delegate.isConnected();
+        }
+
+        @Override
+        public void drainHandler(IAsyncHandler<Void> drainHandler) {
+            delegate.drainHandler(drainHandler);
+        }
+
+        @Override
+        public boolean isFull() {
+            return delegate.isFull();
+        }
+    }
+
+    /**
+     * Holds on to the permit until the response has been delivered (or aborted).
+     */
+    private static final class GuardedResponse implements IApiConnectionResponse {
+
+        private final IApiConnectionResponse delegate;
+        private final Permit permit;
+
+        private GuardedResponse(IApiConnectionResponse delegate, Permit permit) {
+            this.delegate = delegate;
+            this.permit = permit;
+        }
+
+        @Override
+        public ApiResponse getHead() {
+            return delegate.getHead();
+        }
+
+        @Override
+        public void bodyHandler(IAsyncHandler<IApimanBuffer> bodyHandler) {
+            delegate.bodyHandler(bodyHandler);
+        }
+
+        @Override
+        public void endHandler(IAsyncHandler<Void> endHandler) {
+            delegate.endHandler(result -> {
+                permit.release();
+                endHandler.handle(result);
+            });
+        }
+
+        @Override
+        public void transmit() {
+            try {
+                delegate.transmit();
+            } catch (RuntimeException e) {
+                permit.release();
+                throw e;
+            }
+        }
+
+        @Override
+        public void pause() {
+            delegate.pause();
+        }
+
+        @Override
+        public void resume() {
+            delegate.resume();
+        }
+
+        @Override
+        public boolean isFinished() {
+            return delegate.isFinished();
+        }
+
+        @Override
+        public void abort(Throwable t) {
+            permit.release();
+            delegate.abort(t);
+        }
+    }
+
+}
@@ -73,4 +73,12 @@ public interface IBufferFactoryComponent extends IComponent {
      * @param buffer
      */
     IApimanBuffer cloneBuffer(IApimanBuffer buffer);
+
+    /**
+     * Tells the factory that a buffer it created is no longer needed, so that it
+     * may be reused (e.g. pooled).  The buffer must not be used afterwards.
+     * @param buffer the buffer
+     */
+    default void release(IApimanBuffer buffer) {
+    }
 }
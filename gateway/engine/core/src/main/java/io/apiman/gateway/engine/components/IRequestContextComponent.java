@@ -0,0 +1,38 @@
+/*
+ * Copyright 2017 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.apiman.gateway.engine.components;
+
+import io.apiman.gateway.engine.IComponent;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Gives access to the execution context of the request being processed (e.g. its
+ * Vert.x context), so that a request which is resumed from elsewhere - another
+ * request's thread, or a timer thread - carries on where it belongs.
+ *
+ * @author eric.wittmann@redhat.com
+ */
+public interface IRequestContextComponent extends IComponent {
+
+    /**
+     * Returns an executor that runs tasks on the execution context of the calling
+     * request.  Must be called while processing that request.
+     * @return the executor
+     */
+    Executor getCurrentContext();
+
+}
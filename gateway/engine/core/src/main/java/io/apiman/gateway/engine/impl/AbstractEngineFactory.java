@@ -27,6 +27,7 @@ import io.apiman.gateway.engine.IGatewayInitializer;
 import io.apiman.gateway.engine.IMetrics;
 import io.apiman.gateway.engine.IPluginRegistry;
 import io.apiman.gateway.engine.IRegistry;
+import io.apiman.gateway.engine.logging.CurrentLoggerFactory;
 import io.apiman.gateway.engine.policy.IPolicyFactory;
 
 import java.util.List;
@@ -53,12 +54,13 @@ public abstract class AbstractEngineFactory implements IEngineFactory {
         IPluginRegistry pluginRegistry = createPluginRegistry();
         IDataEncrypter encrypter = createDataEncrypter(pluginRegistry);
         CurrentDataEncrypter.instance = encrypter;
+        IDelegateFactory logFactory = createLoggerFactory(pluginRegistry);
+        CurrentLoggerFactory.instance = logFactory;
         IRegistry registry = createRegistry(pluginRegistry, encrypter);
         IComponentRegistry componentRegistry = createComponentRegistry(pluginRegistry);
         IConnectorFactory cfactory = createConnectorFactory(pluginRegistry);
         IPolicyFactory pfactory = createPolicyFactory(pluginRegistry);
         IMetrics metrics = createMetrics(pluginRegistry);
-        IDelegateFactory logFactory = createLoggerFactory(pluginRegistry);
         IApiRequestPathParser pathParser = createRequestPathParser(pluginRegistry);
 
         List<IGatewayInitializer> initializers = createInitializers(pluginRegistry);
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2017 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.apiman.gateway.engine.impl;
+
+import io.apiman.gateway.engine.beans.Api;
+import io.apiman.gateway.engine.beans.Policy;
+import io.apiman.gateway.engine.policy.PolicyWithConfiguration;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * A pre-compiled, immutable execution plan for an API (or an API accessed via
+ * a contract).  The plan holds everything the engine needs to execute a
+ * request: the API with all property replacements already resolved and the
+ * loaded policy instances along with their parsed configuration.
+ *
+ * Plans are compiled once by the {@link ApiExecutionPlanCache} and then shared
+ * by every request made against the same API/contract.
+ *
+ * @author eric.wittmann@redhat.com
+ */
+public final class ApiExecutionPlan {
+
+    private final Api sourceApi;
+    private final List<Policy> sourcePolicies;
+
+    private final Api api;
+    private final List<Policy> resolvedPolicies;
+    private final List<PolicyWithConfiguration> policies;
+    private final boolean hasDataPolicy;
+
+    /**
+     * Constructor.
+     * @param sourceApi the api (as found in the registry) the plan was compiled from
+     * @param sourcePolicies the policies (as found in the registry) the plan was compiled from
+     * @param api the api with all property replacements resolved
+     * @param resolvedPolicies the policies with all property replacements resolved
+     * @param policies the loaded policies along with their parsed configuration
+     * @param hasDataPolicy true if any of the policies is a data policy
+     */
+    public ApiExecutionPlan(Api sourceApi, List<Policy> sourcePolicies, Api api,
+            List<Policy> resolvedPolicies, List<PolicyWithConfiguration> policies, boolean hasDataPolicy) {
+        this.sourceApi = sourceApi;
+        this.sourcePolicies = sourcePolicies;
+        this.api = api;
+        this.resolvedPolicies = Collections.unmodifiableList(resolvedPolicies);
+        this.policies = Collections.unmodifiableList(policies);
+        this.hasDataPolicy = hasDataPolicy;
+    }
+
+    /**
+     * Returns true if this plan was compiled from the given api and policies.  Registries
+     * that keep their entities in memory will hand back the very same instances on every
+     * lookup, in which case this is a simple identity check.  Otherwise the relevant bits
+     * of the api definition are compared so that a stale plan is never used.
+     * @param api the api as found in the registry
+     * @param policies the policies as found in the registry
+     * @return true if the plan is (still) valid for the given api and policies
+     */
+    public boolean isCompiledFrom(Api api, List<Policy> policies) {
+        if (api == sourceApi && policies == sourcePolicies) {
+            return true;
+        }
+        return api != null && sourceApi != null
+                && api.isPublicAPI() == sourceApi.isPublicAPI()
+                && api.isParsePayload() == sourceApi.isParsePayload()
+                && Objects.equals(api.getEndpoint(), sourceApi.getEndpoint())
+                && Objects.equals(api.getEndpointType(), sourceApi.getEndpointType())
+                && Objects.equals(api.getEndpointContentType(), sourceApi.getEndpointContentType())
+                && Objects.equals(api.getEndpointProperties(), sourceApi.getEndpointProperties())
+                && Objects.equals(api.getApiPolicies(), sourceApi.getApiPolicies())
+                && Objects.equals(policies, sourcePolicies);
+    }
+
+    /**
+     * @return the api, with all property replacements resolved
+     */
+    public Api getApi() {
+        return api;
+    }
+
+    /**
+     * @return the policies, with all property replacements resolved
+     */
+    public List<Policy> getResolvedPolicies() {
+        return resolvedPolicies;
+    }
+
+    /**
+     * @return the loaded policies along with their configuration
+     */
+    public List<PolicyWithConfiguration> getPolicies() {
+        return policies;
+    }
+
+    /**
+     * @return true if the policy chain contains any data policies
+     */
+    public boolean hasDataPolicy() {
+        return hasDataPolicy;
+    }
+
+}
@@ -0,0 +1,315 @@
+/*
+ * Copyright 2017 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.apiman.gateway.engine.impl;
+
+import io.apiman.common.util.ApimanStrLookup;
+import io.apiman.gateway.engine.async.AsyncResultImpl;
+import io.apiman.gateway.engine.async.IAsyncResult;
+import io.apiman.gateway.engine.async.IAsyncResultHandler;
+import io.apiman.gateway.engine.beans.Api;
+import io.apiman.gateway.engine.beans.ApiContract;
+import io.apiman.gateway.engine.beans.Policy;
+import io.apiman.gateway.engine.policy.IDataPolicy;
+import io.apiman.gateway.engine.policy.IPolicy;
+import io.apiman.gateway.engine.policy.IPolicyFactory;
+import io.apiman.gateway.engine.policy.PolicyWithConfiguration;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+import org.apache.commons.lang3.text.StrLookup;
+import org.apache.commons.lang3.text.StrSubstitutor;
+
+/**
+ * Compiles and caches {@link ApiExecutionPlan}s.  Compiling a plan resolves all
+ * property replacements in the API's endpoint, endpoint properties and policy
+ * configurations, and then loads every policy (and its configuration) via the
+ * {@link IPolicyFactory}.  All of that happens once per API (or per contract)
+ * rather than once per request.
+ *
+ * Plans are eagerly compiled when an API is published (see
+ * {@link ExecutionPlanRegistryWrapper}) and lazily compiled on first use
+ * otherwise.  A cached plan is only ever used if it was compiled from the same
+ * API/policy definition the registry currently returns, so registries that are
+ * modified without going through this node (e.g. clustered or polling
+ * registries) never see a stale plan.
+ *
+ * @author eric.wittmann@redhat.com
+ */
+public class ApiExecutionPlanCache {
+
+    private static StrLookup<String> LOOKUP = new ApimanStrLookup();
+    private static StrSubstitutor PROPERTY_SUBSTITUTOR = new StrSubstitutor(LOOKUP);
+    static {
+        PROPERTY_SUBSTITUTOR.setValueDelimiter(':');
+    }
+
+    private static final int DEFAULT_MAX_CONTRACT_PLANS = 10000;
+
+    private final IPolicyFactory policyFactory;
+    private final Map<String, ApiExecutionPlan> apiPlans = new ConcurrentHashMap<>();
+    // One plan per (client, api) pair that has been used, so these are bounded.
+    private final ConcurrentLruCache<String, ApiExecutionPlan> contractPlans;
+
+    /**
+     * Constructor.
+     * @param policyFactory the policy factory used to load policies and their config
+     */
+    public ApiExecutionPlanCache(IPolicyFactory policyFactory) {
+        this(policyFactory, DEFAULT_MAX_CONTRACT_PLANS);
+    }
+
+    /**
+     * Constructor.
+     * @param policyFactory the policy factory used to load policies and their config
+     * @param maxContractPlans the maximum number of contract plans to keep
+     */
+    public ApiExecutionPlanCache(IPolicyFactory policyFactory, int maxContractPlans) {
+        this.policyFactory = policyFactory;
+        this.contractPlans = new ConcurrentLruCache<>(maxContractPlans, 16, (key, plan) -> 1,
+                (key, plan) -> release(plan));
+    }
+
+    /**
+     * Gets the execution plan for a public api, compiling it if necessary.
+     * @param api the api (as found in the registry)
+     * @param handler the result handler
+     */
+    public void getPlan(Api api, IAsyncResultHandler<ApiExecutionPlan> handler) {
+        String key = getApiIndex(api.getOrganizationId(), api.getApiId(), api.getVersion());
+        getPlan(apiPlans::get, apiPlans::put, key, api, api.getApiPolicies(), handler);
+    }
+
+    /**
+     * Gets the execution plan for an api accessed via the given contract, compiling it
+     * if necessary.
+     * @param apiKey the api key used to look up the contract
+     * @param contract the contract (as found in the registry)
+     * @param handler the result handler
+     */
+    public void getPlan(String apiKey, ApiContract contract, IAsyncResultHandler<ApiExecutionPlan> handler) {
+        Api api = contract.getApi();
+        String key = getContractIndex(apiKey, api.getOrganizationId(), api.getApiId(), api.getVersion());
+        getPlan(contractPlans::get, contractPlans::put, key, api, contract.getPolicies(), handler);
+    }
+
+    /**
+     * Compiles the plan for a public api (unless a valid one is already cached).  Any
+     * error is silently dropped - it will be reported again on first use.
+     * @param api the api (as found in the registry)
+     */
+    public void warm(Api api) {
+        getPlan(api, (IAsyncResult<ApiExecutionPlan> result) -> {});
+    }
+
+    /**
+     * Discards all plans (public and contract) compiled for the given api.
+     * @param organizationId the api org id
+     * @param apiId the api id
+     * @param version the api version
+     */
+    public void invalidateApi(String organizationId, String apiId, String version) {
+        String apiIdx = getApiIndex(organizationId, apiId, version);
+        release(apiPlans.remove(apiIdx));
+        String suffix = "::" + apiIdx; //$NON-NLS-1$
+        invalidateContracts(key -> key.endsWith(suffix));
+    }
+
+    /**
+     * Discards all contract plans compiled for the given api key.
+     * @param apiKey the client's api key
+     */
+    public void invalidateClient(String apiKey) {
+        String prefix = apiKey + "::"; //$NON-NLS-1$
+        invalidateContracts(key -> key.startsWith(prefix));
+    }
+
+    /**
+     * Discards all contract plans whose key matches the given filter.
+     */
+    private void invalidateContracts(Predicate<String> filter) {
+        contractPlans.removeIf((key, plan) -> filter.test(key));
+    }
+
+    /**
+     * Tells the policy factory that the configs loaded for a discarded plan are no
+     * longer needed, so that they do not linger in its config cache.
+     */
+    private void release(ApiExecutionPlan plan) {
+        if (plan != null) {
+            for (Policy policy : plan.getResolvedPolicies()) {
+                policyFactory.evictConfig(policy.getPolicyImpl(), policy.getPolicyJsonConfig());
+            }
+        }
+    }
+
+    /**
+     * Returns the cached plan if it is still valid, otherwise compiles a new one.
+     */
+    private void getPlan(Function<String, ApiExecutionPlan> lookup, BiConsumer<String, ApiExecutionPlan> store,
+            String key, Api api, List<Policy> policies, IAsyncResultHandler<ApiExecutionPlan> handler) {
+        ApiExecutionPlan plan = lookup.apply(key);
+        if (plan != null && plan.isCompiledFrom(api, policies)) {
+            handler.handle(AsyncResultImpl.create(plan));
+            return;
+        }
+        // Not synchronized - if two requests race to compile the same plan, the last
+        // one wins, which is harmless.
+        compile(api, policies, (IAsyncResult<ApiExecutionPlan> result) -> {
+            if (result.isSuccess()) {
+                store.accept(key, result.getResult());
+            }
+            handler.handle(result);
+        });
+    }
+
+    /**
+     * Compiles a new execution plan.  This operation is done asynchronously so that
+     * plugins can be downloaded if needed.  If any of the policies fails to load, the
+     * error of the first failing policy (in chain order) is reported.
+     * @param api the api
+     * @param policies the policies to apply to requests made against the api
+     * @param handler the result handler
+     */
+    public void compile(Api api, List<Policy> policies, IAsyncResultHandler<ApiExecutionPlan> handler) {
+        final Api resolvedApi = resolveApi(api);
+        final List<Policy> resolvedPolicies = policies == api.getApiPolicies()
+                ? resolvedApi.getApiPolicies() : resolvePolicies(policies);
+        final int numPolicies = resolvedPolicies.size();
+
+        // If there aren't any policies, then no need to asynchronously load them!
+        if (numPolicies == 0) {
+            handler.handle(AsyncResultImpl.create(new ApiExecutionPlan(api, policies, resolvedApi,
+                    resolvedPolicies, Collections.emptyList(), false)));
+            return;
+        }
+
+        final PolicyWithConfiguration[] loaded = new PolicyWithConfiguration[numPolicies];
+        final Throwable[] errors = new Throwable[numPolicies];
+        final AtomicInteger remaining = new AtomicInteger(numPolicies);
+        final AtomicBoolean hasDataPolicy = new AtomicBoolean(false);
+
+        for (int idx = 0; idx < numPolicies; idx++) {
+            final int localIdx = idx;
+            final Policy policy = resolvedPolicies.get(idx);
+            policyFactory.loadPolicy(policy.getPolicyImpl(), (IAsyncResult<IPolicy> result) -> {
+                if (result.isSuccess()) {
+                    IPolicy policyImpl = result.getResult();
+                    // Test whether pipeline contains any data policies. Connectors can use this for Content-Length pass-through.
+                    if (policyImpl instanceof IDataPolicy) {
+                        hasDataPolicy.set(true);
+                    }
+                    try {
+                        Object policyConfig = policyFactory.loadConfig(policyImpl, policy.getPolicyImpl(), policy.getPolicyJsonConfig());
+                        loaded[localIdx] = new PolicyWithConfiguration(policyImpl, policyConfig);
+                    } catch (Throwable t) {
+                        errors[localIdx] = t;
+                    }
+                } else {
+                    errors[localIdx] = result.getError();
+                }
+                // Have we done them all?
+                if (remaining.decrementAndGet() == 0) {
+                    // Did we get any errors?  If yes, report the first one. If no, then send back
+                    // the fully compiled plan.
+                    for (Throwable error : errors) {
+                        if (error != null) {
+                            handler.handle(AsyncResultImpl.create(error, ApiExecutionPlan.class));
+                            return;
+                        }
+                    }
+                    handler.handle(AsyncResultImpl.create(new ApiExecutionPlan(api, policies, resolvedApi,
+                            resolvedPolicies, Arrays.asList(loaded), hasDataPolicy.get())));
+                }
+            });
+        }
+    }
+
+    /**
+     * Creates a copy of the given api with all property replacements resolved.  The
+     * original is left untouched since it may be shared by the registry.
+     */
+    protected static Api resolveApi(Api api) {
+        Api rval = new Api();
+        rval.setPublicAPI(api.isPublicAPI());
+        rval.setOrganizationId(api.getOrganizationId());
+        rval.setApiId(api.getApiId());
+        rval.setVersion(api.getVersion());
+        rval.setEndpointType(api.getEndpointType());
+        rval.setEndpointContentType(api.getEndpointContentType());
+        rval.setParsePayload(api.isParsePayload());
+        rval.setMaxPayloadBufferSize(api.getMaxPayloadBufferSize());
+        rval.setEndpoint(resolveProperties(api.getEndpoint()));
+
+        Map<String, String> properties = new HashMap<>();
+        if (api.getEndpointProperties() != null) {
+            for (Entry<String, String> entry : api.getEndpointProperties().entrySet()) {
+                properties.put(entry.getKey(), resolveProperties(entry.getValue()));
+            }
+        }
+        rval.setEndpointProperties(properties);
+        rval.setApiPolicies(resolvePolicies(api.getApiPolicies()));
+        return rval;
+    }
+
+    /**
+     * Creates a copy of the given list of policies with all property replacements resolved.
+     */
+    protected static List<Policy> resolvePolicies(List<Policy> policies) {
+        if (policies == null) {
+            return new ArrayList<>();
+        }
+        List<Policy> rval = new ArrayList<>(policies.size());
+        for (Policy policy : policies) {
+            Policy resolved = new Policy();
+            resolved.setPolicyImpl(policy.getPolicyImpl());
+            resolved.setPolicyJsonConfig(resolveProperties(policy.getPolicyJsonConfig()));
+            rval.add(resolved);
+        }
+        return rval;
+    }
+
+    /**
+     * Resolve a property
+     */
+    private static String resolveProperties(String value) {
+        if (value != null && value.contains("${")) { //$NON-NLS-1$
+            return PROPERTY_SUBSTITUTOR.replace(value);
+        } else {
+            return value;
+        }
+    }
+
+    private static String getApiIndex(String orgId, String apiId, String version) {
+        return orgId + "|" + apiId + "|" + version; //$NON-NLS-1$ //$NON-NLS-2$
+    }
+
+    private static String getContractIndex(String apiKey, String orgId, String apiId, String version) {
+        return apiKey + "::" + getApiIndex(orgId, apiId, version); //$NON-NLS-1$
+    }
+
+}
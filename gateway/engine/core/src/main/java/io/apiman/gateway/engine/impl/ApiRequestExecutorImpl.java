@@ -15,7 +15,6 @@
  */
 package io.apiman.gateway.engine.impl;
 
-import io.apiman.common.util.ApimanStrLookup;
 import io.apiman.gateway.engine.GatewayConfigProperties;
 import io.apiman.gateway.engine.IApiConnection;
 import io.apiman.gateway.engine.IApiConnectionResponse;
@@ -34,7 +33,6 @@ import io.apiman.gateway.engine.beans.Api;
 import io.apiman.gateway.engine.beans.ApiContract;
 import io.apiman.gateway.engine.beans.ApiRequest;
 import io.apiman.gateway.engine.beans.ApiResponse;
-import io.apiman.gateway.engine.beans.Policy;
 import io.apiman.gateway.engine.beans.PolicyFailure;
 import io.apiman.gateway.engine.beans.exceptions.ApiNotFoundException;
 import io.apiman.gateway.engine.beans.exceptions.InvalidApiException;
@@ -42,37 +40,26 @@ import io.apiman.gateway.engine.beans.exceptions.InvalidContractException;
 import io.apiman.gateway.engine.beans.exceptions.RequestAbortedException;
 import io.apiman.gateway.engine.components.IBufferFactoryComponent;
 import io.apiman.gateway.engine.i18n.Messages;
-import io.apiman.gateway.engine.io.ByteBuffer;
+import io.apiman.gateway.engine.io.ChainedBuffer;
 import io.apiman.gateway.engine.io.BytesPayloadIO;
 import io.apiman.gateway.engine.io.IApimanBuffer;
 import io.apiman.gateway.engine.io.IPayloadIO;
 import io.apiman.gateway.engine.io.ISignalWriteStream;
 import io.apiman.gateway.engine.io.JsonPayloadIO;
 import io.apiman.gateway.engine.io.SoapPayloadIO;
+import io.apiman.gateway.engine.io.StreamingPayloadIO;
 import io.apiman.gateway.engine.io.XmlPayloadIO;
 import io.apiman.gateway.engine.metrics.RequestMetric;
 import io.apiman.gateway.engine.policy.Chain;
 import io.apiman.gateway.engine.policy.IConnectorInterceptor;
-import io.apiman.gateway.engine.policy.IDataPolicy;
-import io.apiman.gateway.engine.policy.IPolicy;
 import io.apiman.gateway.engine.policy.IPolicyContext;
-import io.apiman.gateway.engine.policy.IPolicyFactory;
 import io.apiman.gateway.engine.policy.PolicyContextKeys;
 import io.apiman.gateway.engine.policy.PolicyWithConfiguration;
 import io.apiman.gateway.engine.policy.RequestChain;
 import io.apiman.gateway.engine.policy.ResponseChain;
 
-import java.util.ArrayList;
 import java.util.Date;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
-import java.util.Map.Entry;
-import java.util.Set;
-import java.util.TreeSet;
-
-import org.apache.commons.lang3.text.StrLookup;
-import org.apache.commons.lang3.text.StrSubstitutor;
 
 /**
  * Manages a single request-response sequence. It is executed in the following
@@ -94,18 +81,11 @@ public class ApiRequestExecutorImpl implements IApiRequestExecutor {
 
     private static final long DEFAULT_MAX_PAYLOAD_BUFFER_SIZE = 5 * 1024 * 1024; // in bytes
 
-    private static StrLookup<String> LOOKUP = new ApimanStrLookup();
-    private static StrSubstitutor PROPERTY_SUBSTITUTOR = new StrSubstitutor(LOOKUP);
-    static {
-        PROPERTY_SUBSTITUTOR.setValueDelimiter(':');
-    }
-
     private final IRegistry registry;
     private ApiRequest request;
     private Api api;
     private IPolicyContext context;
-    private List<Policy> policies;
-    private final IPolicyFactory policyFactory;
+    private final ApiExecutionPlanCache planCache;
     private final IConnectorFactory connectorFactory;
     private final IBufferFactoryComponent bufferFactory;
     private boolean finished = false;
@@ -139,20 +119,20 @@ public class ApiRequestExecutorImpl implements IApiRequestExecutor {
      * @param resultHandler the result handler
      * @param registry the registry
      * @param context the context
-     * @param policyFactory the policy factory
+     * @param planCache the execution plan cache
      * @param connectorFactory the connector factory
      * @param metrics the metrics instance
      * @param bufferFactory the buffer factory
      */
     public ApiRequestExecutorImpl(ApiRequest apiRequest,
             IAsyncResultHandler<IEngineResult> resultHandler, IRegistry registry, IPolicyContext context,
-            IPolicyFactory policyFactory, IConnectorFactory connectorFactory, IMetrics metrics,
+            ApiExecutionPlanCache planCache, IConnectorFactory connectorFactory, IMetrics metrics,
             IBufferFactoryComponent bufferFactory) {
         this.request = apiRequest;
         this.registry = registry;
         this.resultHandler = wrapResultHandler(resultHandler);
         this.context = context;
-        this.policyFactory = policyFactory;
+        this.planCache = planCache;
         this.connectorFactory = connectorFactory;
         this.policyFailureHandler = createPolicyFailureHandler();
         this.policyErrorHandler = createPolicyErrorHandler();
@@ -166,17 +146,20 @@ public class ApiRequestExecutorImpl implements IApiRequestExecutor {
     }
 
     /**
-     * Wraps the result handler so that metrics can be properly recorded.
+     * Wraps the result handler so that metrics can be properly recorded, and so that
+     * policies are told when the request fails.
      */
     private IAsyncResultHandler<IEngineResult> wrapResultHandler(final IAsyncResultHandler<IEngineResult> handler) {
         return (IAsyncResult<IEngineResult> result) -> {
             boolean doRecord = true;
             if (result.isError()) {
                 recordErrorMetrics(result.getError());
+                requestFailed();
             } else {
                 IEngineResult engineResult = result.getResult();
                 if (engineResult.isFailure()) {
                     recordFailureMetrics(engineResult.getPolicyFailure());
+                    requestFailed();
                 } else {
                     recordSuccessMetrics(engineResult.getApiResponse());
                     doRecord = false; // don't record the metric now because we need to record # of bytes downloaded, which hasn't happened yet
@@ -190,6 +173,29 @@ public class ApiRequestExecutorImpl implements IApiRequestExecutor {
         };
     }
 
+    /**
+     * Calls the handlers the policies registered for when the request fails (see
+     * {@link IPolicyContext#addRequestFailedHandler(IAsyncHandler)}).
+     */
+    private void requestFailed() {
+        if (context == null) {
+            return;
+        }
+        List<IAsyncHandler<Void>> handlers = context.getAttribute(PolicyContextKeys.REQUEST_FAILED_HANDLERS, null);
+        if (handlers == null) {
+            return;
+        }
+        context.removeAttribute(PolicyContextKeys.REQUEST_FAILED_HANDLERS);
+        for (IAsyncHandler<Void> handler : handlers) {
+            try {
+                handler.handle(null);
+            } catch (Throwable t) {
+                // Don't let one policy's clean-up stop the others (or the response).
+                context.getLogger(ApiRequestExecutorImpl.class).error(t);
+            }
+        }
+    }
+
     /**
      * Record success metrics
      */
@@ -310,8 +316,8 @@ public class ApiRequestExecutorImpl implements IApiRequestExecutor {
                         }
                     });
 
-                    // Load and executes the policies
-                    loadPolicies(policiesLoadedHandler);
+                    // Execute the (already loaded) policies
+                    policiesLoadedHandler.handle(policyImpls);
                 } else {
                     resultHandler.handle(AsyncResultImpl.create(result.getError(), IEngineResult.class));
                 }
@@ -335,21 +341,25 @@ public class ApiRequestExecutorImpl implements IApiRequestExecutor {
                                 error.setStatusCode(403); // Forbidden
                                 resultHandler.handle(AsyncResultImpl.create(error, IEngineResult.class));
                             } else {
-                                resolvePropertyReplacements(api);
-
-                                request.setApi(api);
-                                policies = api.getApiPolicies();
-                                policyImpls = new ArrayList<>(policies.size());
-
-                                // If the API is configured to be "stateful", we need to parse the
-                                // inbound request body into an object appropriate to the type and
-                                // format of the API.  This could be a SOAP message, an XML document,
-                                // or a JSON document
-                                if (api.isParsePayload()) {
-                                    parsePayload(payloadParserHandler);
-                                } else {
-                                    loadPolicies(policiesLoadedHandler);
-                                }
+                                planCache.getPlan(api, (IAsyncResult<ApiExecutionPlan> planResult) -> {
+                                    if (planResult.isError()) {
+                                        policyErrorHandler.handle(planResult.getError());
+                                        return;
+                                    }
+                                    ApiExecutionPlan plan = planResult.getResult();
+                                    applyPlan(plan);
+                                    request.setApi(api);
+
+                                    // If the API is configured to be "stateful", we need to parse the
+                                    // inbound request body into an object appropriate to the type and
+                                    // format of the API.  This could be a SOAP message, an XML document,
+                                    // or a JSON document
+                                    if (api.isParsePayload()) {
+                                        parsePayload(payloadParserHandler);
+                                    } else {
+                                        policiesLoadedHandler.handle(policyImpls);
+                                    }
+                                });
                             }
                         } else if (apiResult.isError()) {
                             resultHandler.handle(AsyncResultImpl.create(apiResult.getError(), IEngineResult.class));
@@ -362,40 +372,45 @@ public class ApiRequestExecutorImpl implements IApiRequestExecutor {
             String apiKey = request.getApiKey();
             registry.getContract(apiOrgId, apiId, apiVersion, apiKey, (IAsyncResult<ApiContract> contractResult) -> {
                 if (contractResult.isSuccess()) {
-                    ApiContract apiContract = contractResult.getResult();
+                    ApiContract registryContract = contractResult.getResult();
 
-                    resolvePropertyReplacements(apiContract);
-
-                    requestMetric.setClientOrgId(apiContract.getClient().getOrganizationId());
-                    requestMetric.setClientId(apiContract.getClient().getClientId());
-                    requestMetric.setClientVersion(apiContract.getClient().getVersion());
-                    requestMetric.setPlanId(apiContract.getPlan());
+                    requestMetric.setClientOrgId(registryContract.getClient().getOrganizationId());
+                    requestMetric.setClientId(registryContract.getClient().getClientId());
+                    requestMetric.setClientVersion(registryContract.getClient().getVersion());
+                    requestMetric.setPlanId(registryContract.getPlan());
                     requestMetric.setContractId(request.getApiKey());
 
-                    api = apiContract.getApi();
-                    request.setContract(apiContract);
-                    request.setApi(api);
-                    policies = apiContract.getPolicies();
-                    policyImpls = new ArrayList<>(policies.size());
-                    if (request.getApiOrgId() != null) {
-                        try {
-                            validateRequest(request);
-                        } catch (InvalidContractException e) {
-                            resultHandler.handle(AsyncResultImpl.create(e, IEngineResult.class));
+                    planCache.getPlan(apiKey, registryContract, (IAsyncResult<ApiExecutionPlan> planResult) -> {
+                        if (planResult.isError()) {
+                            policyErrorHandler.handle(planResult.getError());
                             return;
                         }
-                    }
+                        ApiExecutionPlan plan = planResult.getResult();
+                        applyPlan(plan);
+                        ApiContract apiContract = new ApiContract(api, registryContract.getClient(),
+                                registryContract.getPlan(), plan.getResolvedPolicies());
+                        request.setContract(apiContract);
+                        request.setApi(api);
+                        if (request.getApiOrgId() != null) {
+                            try {
+                                validateRequest(request);
+                            } catch (InvalidContractException e) {
+                                resultHandler.handle(AsyncResultImpl.create(e, IEngineResult.class));
+                                return;
+                            }
+                        }
 
-                    // If the API is configured to be "stateful", we need to parse the
-                    // inbound request body into an object appropriate to the type and
-                    // format of the API.  This could be a SOAP message, an XML document,
-                    // or a JSON document
-                    if (api.isParsePayload()) {
-                        parsePayload(payloadParserHandler);
-                    } else {
-                        // Load and executes the policies
-                        loadPolicies(policiesLoadedHandler);
-                    }
+                        // If the API is configured to be "stateful", we need to parse the
+                        // inbound request body into an object appropriate to the type and
+                        // format of the API.  This could be a SOAP message, an XML document,
+                        // or a JSON document
+                        if (api.isParsePayload()) {
+                            parsePayload(payloadParserHandler);
+                        } else {
+                            // Execute the (already loaded) policies
+                            policiesLoadedHandler.handle(policyImpls);
+                        }
+                    });
                 } else {
                     resultHandler.handle(AsyncResultImpl.create(contractResult.getError(), IEngineResult.class));
                 }
@@ -412,6 +427,9 @@ public class ApiRequestExecutorImpl implements IApiRequestExecutor {
      *   <li>REST+xml</li>
      *   <li>SOAP+xml</li>
      * </ul>
+     * If the API's endpoint has the {@value StreamingPayloadIO#ENDPOINT_PROPERTY} property
+     * set then the body is instead wrapped in a {@link io.apiman.gateway.engine.io.StreamingPayload},
+     * which gives policies access to individual values without parsing the whole body.
      * @param payloadResultHandler
      */
     protected void parsePayload(IAsyncResultHandler<Object> payloadResultHandler) {
@@ -425,14 +443,16 @@ public class ApiRequestExecutorImpl implements IApiRequestExecutor {
         }
 
         // Now "handle" the inbound request stream, which will cause bytes to be streamed
-        // to the writeStream we provide (which will store the bytes in a buffer for parsing)
-        final ByteBuffer buffer = new ByteBuffer(2048);
+        // to the writeStream we provide (which will store the bytes in a buffer for parsing).
+        // A chained buffer never re-copies what it already holds as it grows.
+        final ChainedBuffer buffer = new ChainedBuffer();
         inboundStreamHandler.handle(new ISignalWriteStream() {
             private boolean done = false;
 
             @Override
             public void abort(Throwable t) {
                 done = true;
+                buffer.release();
                 payloadResultHandler.handle(AsyncResultImpl.create(new RuntimeException("Inbound request stream aborted.", t))); //$NON-NLS-1$
             }
 
@@ -449,6 +469,7 @@ public class ApiRequestExecutorImpl implements IApiRequestExecutor {
                 if (buffer.length() > api.getMaxPayloadBufferSize()) {
                     payloadResultHandler.handle(AsyncResultImpl.create(new Exception("Max request payload size exceeded."))); //$NON-NLS-1$
                     done = true;
+                    buffer.release();
                     return;
                 }
                 buffer.append(chunk);
@@ -466,7 +487,17 @@ public class ApiRequestExecutorImpl implements IApiRequestExecutor {
                     payloadResultHandler.handle(AsyncResultImpl.create(null));
                 } else {
                     payloadIO = null;
-                    if ("soap".equalsIgnoreCase(api.getEndpointType())) { //$NON-NLS-1$
+                    boolean streaming = api.getEndpointProperties() != null
+                            && "true".equals(api.getEndpointProperties().get(StreamingPayloadIO.ENDPOINT_PROPERTY)); //$NON-NLS-1$
+                    if (streaming && "soap".equalsIgnoreCase(api.getEndpointType())) { //$NON-NLS-1$
+                        payloadIO = new StreamingPayloadIO(true);
+                    } else if (streaming && "rest".equalsIgnoreCase(api.getEndpointType())) { //$NON-NLS-1$
+                        if ("xml".equalsIgnoreCase(api.getEndpointContentType())) { //$NON-NLS-1$
+                            payloadIO = new StreamingPayloadIO(true);
+                        } else if ("json".equalsIgnoreCase(api.getEndpointContentType())) { //$NON-NLS-1$
+                            payloadIO = new StreamingPayloadIO(false);
+                        }
+                    } else if ("soap".equalsIgnoreCase(api.getEndpointType())) { //$NON-NLS-1$
                         payloadIO = new SoapPayloadIO();
                     } else if ("rest".equalsIgnoreCase(api.getEndpointType())) { //$NON-NLS-1$
                         if ("xml".equalsIgnoreCase(api.getEndpointContentType())) { //$NON-NLS-1$
@@ -478,8 +509,10 @@ public class ApiRequestExecutorImpl implements IApiRequestExecutor {
                     if (payloadIO == null) {
                         payloadIO = new BytesPayloadIO();
                     }
+                    byte[] bytes = buffer.getBytes();
+                    buffer.release();
                     try {
-                        Object payload = payloadIO.unmarshall(buffer.getBytes());
+                        Object payload = payloadIO.unmarshall(bytes);
                         payloadResultHandler.handle(AsyncResultImpl.create(payload));
                     } catch (Exception e) {
                         payloadResultHandler.handle(AsyncResultImpl.create(new Exception("Failed to parse inbound request payload.", e))); //$NON-NLS-1$
@@ -523,62 +556,13 @@ public class ApiRequestExecutorImpl implements IApiRequestExecutor {
     }
 
     /**
-     * Response API property replacements
-     */
-    protected void resolvePropertyReplacements(Api api) {
-        if (api == null) {
-            return;
-        }
-        String endpoint = api.getEndpoint();
-        endpoint = resolveProperties(endpoint);
-        api.setEndpoint(endpoint);
-
-        Map<String, String> properties = api.getEndpointProperties();
-        for (Entry<String, String> entry : properties.entrySet()) {
-            String value = entry.getValue();
-            value = resolveProperties(value);
-            entry.setValue(value);
-        }
-
-        resolvePropertyReplacements(api.getApiPolicies());
-    }
-
-    /**
-     * Resolve contract property replacements
+     * Applies the pre-compiled execution plan to this request.  The plan's api has all
+     * property replacements already resolved and its policies are already loaded.
      */
-    protected void resolvePropertyReplacements(ApiContract apiContract) {
-        if (apiContract == null) {
-            return;
-        }
-        Api api = apiContract.getApi();
-        if (api != null) {
-            resolvePropertyReplacements(api);
-        }
-        resolvePropertyReplacements(apiContract.getPolicies());
-    }
-
-    /**
-     * Resolve property replacements for list of policies
-     */
-    private void resolvePropertyReplacements(List<Policy> apiPolicies) {
-        if (apiPolicies != null) {
-            for (Policy policy : apiPolicies) {
-                String config = policy.getPolicyJsonConfig();
-                config = resolveProperties(config);
-                policy.setPolicyJsonConfig(config);
-            }
-        }
-    }
-
-    /**
-     * Resolve a property
-     */
-    private String resolveProperties(String value) {
-        if (value.contains("${")) { //$NON-NLS-1$
-            return PROPERTY_SUBSTITUTOR.replace(value);
-        } else {
-            return value;
-        }
+    private void applyPlan(ApiExecutionPlan plan) {
+        api = plan.getApi();
+        policyImpls = plan.getPolicies();
+        hasDataPolicy = plan.hasDataPolicy();
     }
 
     /**
@@ -608,68 +592,6 @@ public class ApiRequestExecutorImpl implements IApiRequestExecutor {
         }
     }
 
-    /**
-     * Get/resolve the list of policies into a list of policies with config.  This operation is
-     * done asynchronously so that plugins can be downloaded if needed.  Any errors in resolving
-     * the policies will be reported back via the policyErrorHandler.
-     */
-    private void loadPolicies(final IAsyncHandler<List<PolicyWithConfiguration>> handler) {
-        final Set<Integer> totalCounter = new HashSet<>();
-        final Set<Integer> errorCounter = new TreeSet<>();
-        final List<PolicyWithConfiguration> rval = new ArrayList<>(policies.size());
-        final List<Throwable> errors = new ArrayList<>(policies.size());
-        final int numPolicies = policies.size();
-        int index = 0;
-
-        // If there aren't any policies, then no need to asynchronously load them!
-        if (policies.isEmpty()) {
-            handler.handle(policyImpls);
-            return;
-        }
-
-        for (final Policy policy : policies) {
-            rval.add(null);
-            errors.add(null);
-            final int localIdx = index++;
-            policyFactory.loadPolicy(policy.getPolicyImpl(), (IAsyncResult<IPolicy> result) -> {
-                if (result.isSuccess()) {
-                    IPolicy policyImpl = result.getResult();
-                    // Test whether pipeline contains any data policies. Connectors can use this for Content-Length pass-through.
-                    if (policyImpl instanceof IDataPolicy) {
-                        hasDataPolicy = true;
-                    }
-                    try {
-                        Object policyConfig = policyFactory.loadConfig(policyImpl, policy.getPolicyImpl(), policy.getPolicyJsonConfig());
-                        PolicyWithConfiguration pwc = new PolicyWithConfiguration(policyImpl, policyConfig);
-                        rval.set(localIdx, pwc);
-                    } catch (Throwable t) {
-                        errors.set(localIdx, t);
-                        errorCounter.add(localIdx);
-                    }
-                } else {
-                    Throwable error = result.getError();
-                    errors.set(localIdx, error);
-                    errorCounter.add(localIdx);
-                }
-                totalCounter.add(localIdx);
-                // Have we done them all?
-                if (totalCounter.size() == numPolicies) {
-                    // Did we get any errors?  If yes, report the first one. If no, then send back
-                    // the fully resolved list of policies.
-                    if (!errorCounter.isEmpty()) {
-                        int errorIdx = errorCounter.iterator().next();
-                        Throwable error = errors.get(errorIdx);
-                        // TODO add some logging here to indicate which policy error'd out
-                        //Policy errorPolicy = policies.get(errorIdx);
-                        policyErrorHandler.handle(error);
-                    } else {
-                        handler.handle(rval);
-                    }
-                }
-            });
-        }
-    }
-
     /**
      * Creates a response handler that is called by the api connector once a connection
      * to the back end api has been made and a response received.
@@ -688,6 +610,8 @@ public class ApiRequestExecutorImpl implements IApiRequestExecutor {
                     // Send the api response to the caller.
                     final EngineResultImpl engineResult = new EngineResultImpl(response);
                     engineResult.setConnectorResponseStream(apiConnectionResponse);
+                    // Flow control: pausing the result pauses the chain, which pauses the connector.
+                    engineResult.setBodyStream(responseChain);
 
                     resultHandler.handle(AsyncResultImpl.create(engineResult));
 
@@ -712,6 +636,7 @@ public class ApiRequestExecutorImpl implements IApiRequestExecutor {
 
                 // Indicate back-end response is finished to the response chain.
                 apiConnectionResponse.endHandler(isEnd -> responseChain.end());
+                responseChain.sourceStream(apiConnectionResponse);
 
                 responseChain.doApply(apiResponse);
             } else {
@@ -0,0 +1,253 @@
+/*
+ * Copyright 2017 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.apiman.gateway.engine.impl;
+
+import io.apiman.gateway.engine.async.AsyncResultImpl;
+import io.apiman.gateway.engine.async.IAsyncFuture;
+import io.apiman.gateway.engine.async.IAsyncHandler;
+import io.apiman.gateway.engine.async.IAsyncResultHandler;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs blocking tasks on a dedicated, bounded pool of worker threads.  Tasks are
+ * queued (up to a maximum depth) while all of the workers are busy, and rejected
+ * once the queue is full, so that a slow back-end (e.g. a database) can't tie up
+ * an unbounded number of threads.  Tasks that take longer than the timeout
+ * (counted from submission, so including the time spent queued) fail with a
+ * {@link TimeoutException} and are interrupted.
+ *
+ * Tasks submitted from one of the workers run inline instead, so that nested
+ * blocking calls can neither deadlock nor be rejected halfway through.
+ *
+ * @author eric.wittmann@redhat.com
+ */
+public class BlockingTaskExecutor {
+
+    public static final String MAX_THREADS = "maxThreads"; //$NON-NLS-1$
+    public static final String MAX_QUEUE_DEPTH = "maxQueueDepth"; //$NON-NLS-1$
+    public static final String TIMEOUT = "timeout"; //$NON-NLS-1$
+
+    private static final int DEFAULT_MAX_THREADS = 20;
+    private static final int DEFAULT_MAX_QUEUE_DEPTH = 100;
+    private static final long DEFAULT_TIMEOUT = 30000; // millis
+
+    private static final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "apiman-blocking-task-timer"); //$NON-NLS-1$
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final ThreadPoolExecutor executor;
+    private final long timeout;
+
+    /**
+     * Constructor.
+     * @param name the name of the worker threads
+     */
+    public BlockingTaskExecutor(String name) {
+        this(name, Collections.<String, String>emptyMap());
+    }
+
+    /**
+     * Constructor.
+     * @param name the name of the worker threads
+     * @param config the config (see the constants for the supported keys)
+     */
+    public BlockingTaskExecutor(final String name, Map<String, String> config) {
+        int maxThreads = Math.max(getInt(config, MAX_THREADS, DEFAULT_MAX_THREADS), 1);
+        int maxQueueDepth = Math.max(getInt(config, MAX_QUEUE_DEPTH, DEFAULT_MAX_QUEUE_DEPTH), 1);
+        String timeoutValue = config.get(TIMEOUT);
+        timeout = timeoutValue == null ? DEFAULT_TIMEOUT : Long.parseLong(timeoutValue.trim());
+        final AtomicInteger threadCount = new AtomicInteger();
+        executor = new ThreadPoolExecutor(maxThreads, maxThreads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(maxQueueDepth), runnable -> {
+                    Thread thread = new WorkerThread(runnable, name + "-" + threadCount.incrementAndGet()); //$NON-NLS-1$
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Runs the given task on a worker and waits (on the calling thread) for its
+     * result.
+     * @param task the task
+     * @return the task's result
+     * @throws RejectedExecutionException if the queue is full
+     * @throws TimeoutException if the task timed out
+     * @throws Exception if the task failed
+     */
+    public <T> T call(Callable<T> task) throws Exception {
+        if (isWorker()) {
+            return task.call();
+        }
+        Future<T> future = submit(task);
+        try {
+            return timeout > 0 ? future.get(timeout, TimeUnit.MILLISECONDS) : future.get();
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            throw timedOut();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw e;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Runs the given blocking code on a worker.  The result handler is called
+     * exactly once: on the worker when the code completes its future, or on
+     * whichever thread notices first that the task was rejected or timed out.
+     * @param blockingCode the blocking code
+     * @param resultHandler the result handler
+     */
+    public <T> void execute(final IAsyncHandler<IAsyncFuture<T>> blockingCode, final IAsyncResultHandler<T> resultHandler) {
+        execute(blockingCode, resultHandler, isWorker());
+    }
+
+    /**
+     * Like {@link #execute(IAsyncHandler, IAsyncResultHandler)}, but the blocking code
+     * is always queued for a worker (and subject to the timeout), even when called
+     * from one of the workers, so the caller never runs it.  Only the rejection of
+     * the task is reported on the calling thread.
+     * @param blockingCode the blocking code
+     * @param resultHandler the result handler
+     */
+    public <T> void executeAsync(final IAsyncHandler<IAsyncFuture<T>> blockingCode, final IAsyncResultHandler<T> resultHandler) {
+        execute(blockingCode, resultHandler, false);
+    }
+
+    private <T> void execute(final IAsyncHandler<IAsyncFuture<T>> blockingCode, final IAsyncResultHandler<T> resultHandler,
+            boolean inline) {
+        final AtomicBoolean done = new AtomicBoolean();
+        final ScheduledFuture<?>[] timeoutTask = new ScheduledFuture<?>[1];
+        final IAsyncResultHandler<T> once = result -> {
+            if (done.compareAndSet(false, true)) {
+                synchronized (timeoutTask) {
+                    if (timeoutTask[0] != null) {
+                        timeoutTask[0].cancel(false);
+                    }
+                }
+                resultHandler.handle(result);
+            }
+        };
+        final IAsyncFuture<T> future = IAsyncFuture.<T>create().setActionHandler(once);
+        Callable<Void> task = () -> {
+            try {
+                blockingCode.handle(future);
+            } catch (Exception e) {
+                future.fail(e);
+            }
+            return null;
+        };
+        if (inline) {
+            try {
+                task.call();
+            } catch (Exception e) {
+                // Can't happen: the task handles its own failures.
+            }
+            return;
+        }
+        final Future<Void> running;
+        try {
+            running = submit(task);
+        } catch (RejectedExecutionException e) {
+            once.handle(AsyncResultImpl.<T>create(e));
+            return;
+        }
+        if (timeout > 0) {
+            synchronized (timeoutTask) {
+                if (!done.get()) {
+                    timeoutTask[0] = timer.schedule(() -> {
+                        if (!done.get()) {
+                            // Report the timeout before interrupting, so that it wins.
+                            once.handle(AsyncResultImpl.<T>create(timedOut()));
+                            running.cancel(true);
+                        }
+                    }, timeout, TimeUnit.MILLISECONDS);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return true if the calling thread is one of this executor's workers
+     */
+    public boolean isWorker() {
+        Thread thread = Thread.currentThread();
+        return thread instanceof WorkerThread && ((WorkerThread) thread).getOwner() == this;
+    }
+
+    /**
+     * Stops the workers (once they have finished the tasks already submitted).
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    private <T> Future<T> submit(Callable<T> task) throws RejectedExecutionException {
+        try {
+            return executor.submit(task);
+        } catch (RejectedExecutionException e) {
+            throw new RejectedExecutionException("Too many blocking tasks queued (" //$NON-NLS-1$
+                    + executor.getQueue().size() + "); rejected."); //$NON-NLS-1$
+        }
+    }
+
+    private TimeoutException timedOut() {
+        return new TimeoutException("Blocking task timed out after " + timeout + "ms."); //$NON-NLS-1$ //$NON-NLS-2$
+    }
+
+    private static int getInt(Map<String, String> config, String key, int defaultValue) {
+        String value = config.get(key);
+        return value == null ? defaultValue : Integer.parseInt(value.trim());
+    }
+
+    /**
+     * A worker thread, which knows the executor it belongs to.
+     */
+    private final class WorkerThread extends Thread {
+
+        private WorkerThread(Runnable runnable, String name) {
+            super(runnable, name);
+        }
+
+        private BlockingTaskExecutor getOwner() {
+            return BlockingTaskExecutor.this;
+        }
+    }
+
+}
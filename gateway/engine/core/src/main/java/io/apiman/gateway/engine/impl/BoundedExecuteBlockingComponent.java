@@ -0,0 +1,72 @@
+/*
+ * Copyright 2017 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.apiman.gateway.engine.impl;
+
+import io.apiman.gateway.engine.async.IAsyncFuture;
+import io.apiman.gateway.engine.async.IAsyncHandler;
+import io.apiman.gateway.engine.async.IAsyncResultHandler;
+import io.apiman.gateway.engine.components.IExecuteBlockingComponent;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * An execute-blocking component that runs the blocking code on a bounded pool of
+ * worker threads rather than on the calling thread.  Supports the following
+ * config properties:
+ *
+ * <ul>
+ *   <li>maxThreads - the number of worker threads (default 20)</li>
+ *   <li>maxQueueDepth - the number of tasks that may wait for a worker (default 100)</li>
+ *   <li>timeout - the time (in millis) after which a task is failed (default 30000)</li>
+ * </ul>
+ *
+ * Once the queue is full, further tasks fail immediately with a
+ * {@link java.util.concurrent.RejectedExecutionException} rather than piling up.
+ * Note that the result handler is called on the worker thread (or on the timer
+ * thread in the case of a timeout) - there is no event loop to hand it back to on
+ * the blocking platforms.
+ *
+ * @author eric.wittmann@redhat.com
+ */
+public class BoundedExecuteBlockingComponent implements IExecuteBlockingComponent {
+
+    private final BlockingTaskExecutor executor;
+
+    /**
+     * Constructor.
+     */
+    public BoundedExecuteBlockingComponent() {
+        this(Collections.<String, String>emptyMap());
+    }
+
+    /**
+     * Constructor.
+     * @param config the component config
+     */
+    public BoundedExecuteBlockingComponent(Map<String, String> config) {
+        executor = new BlockingTaskExecutor("apiman-execute-blocking", config); //$NON-NLS-1$
+    }
+
+    /**
+     * @see io.apiman.gateway.engine.components.IExecuteBlockingComponent#executeBlocking(io.apiman.gateway.engine.async.IAsyncHandler, io.apiman.gateway.engine.async.IAsyncResultHandler)
+     */
+    @Override
+    public <T> void executeBlocking(IAsyncHandler<IAsyncFuture<T>> blockingCode, IAsyncResultHandler<T> resultHandler) {
+        executor.execute(blockingCode, resultHandler);
+    }
+
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2017 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.apiman.gateway.engine.impl;
+
+import io.apiman.gateway.engine.async.IAsyncResultHandler;
+import io.apiman.gateway.engine.components.jdbc.IJdbcClient;
+import io.apiman.gateway.engine.components.jdbc.IJdbcConnection;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.sql.DataSource;
+
+/**
+ * An asynchronous JDBC component that runs the (blocking) JDBC calls on a bounded
+ * pool of worker threads, so that a slow or unresponsive database can only ever tie
+ * up a fixed number of threads, and never the calling thread.  Connecting and each
+ * operation on a connection are queued for a worker, and their handlers are called
+ * (on the worker, or on the timer thread if the operation timed out) once they
+ * complete.  Operations fail once they time out, and immediately (rather than
+ * queueing indefinitely) once too many operations are pending.  Supports the same
+ * config properties as the {@link BoundedExecuteBlockingComponent}.
+ *
+ * Unlike the {@link DefaultJdbcComponent}, connections are not closed for the
+ * caller when its connect handler returns, since its operations are still
+ * running - the caller must close them once it is done.
+ *
+ * @author eric.wittmann@redhat.com
+ */
+public class BoundedJdbcComponent extends DefaultJdbcComponent {
+
+    private final BlockingTaskExecutor executor;
+
+    /**
+     * Constructor.
+     */
+    public BoundedJdbcComponent() {
+        this(Collections.<String, String>emptyMap());
+    }
+
+    /**
+     * Constructor.
+     * @param config the component config
+     */
+    public BoundedJdbcComponent(Map<String, String> config) {
+        executor = new BlockingTaskExecutor("apiman-jdbc", config); //$NON-NLS-1$
+    }
+
+    /**
+     * @see io.apiman.gateway.engine.impl.DefaultJdbcComponent#createClient(javax.sql.DataSource)
+     */
+    @Override
+    protected IJdbcClient createClient(DataSource ds) {
+        return new BoundedJdbcClient(ds, executor);
+    }
+
+    /**
+     * JDBC client impl.
+     * @author eric.wittmann@redhat.com
+     */
+    private static class BoundedJdbcClient implements IJdbcClient {
+
+        private static final Object ABANDONED = new Object();
+
+        private final DataSource ds;
+        private final BlockingTaskExecutor executor;
+
+        /**
+         * Constructor.
+         */
+        public BoundedJdbcClient(DataSource ds, BlockingTaskExecutor executor) {
+            this.ds = ds;
+            this.executor = executor;
+        }
+
+        /**
+         * Gets a connection from the datasource on one of the workers, and passes it
+         * to the handler there.  If the connect times out, then whichever side comes
+         * second closes the connection, so that it isn't leaked from the pool.
+         * @see io.apiman.gateway.engine.components.jdbc.IJdbcClient#connect(io.apiman.gateway.engine.async.IAsyncResultHandler)
+         */
+        @Override
+        public void connect(IAsyncResultHandler<IJdbcConnection> handler) {
+            AtomicReference<Object> handoff = new AtomicReference<>();
+            executor.<IJdbcConnection>executeAsync(future -> {
+                try {
+                    Connection connection = ds.getConnection();
+                    if (handoff.compareAndSet(null, connection)) {
+                        future.completed(new BoundedJdbcConnection(connection, executor));
+                    } else {
+                        connection.close();
+                    }
+                } catch (SQLException e) {
+                    future.fail(e);
+                }
+            }, result -> {
+                if (result.isError() && !handoff.compareAndSet(null, ABANDONED)) {
+                    Object connection = handoff.get();
+                    if (connection instanceof Connection) {
+                        try {
+                            ((Connection) connection).close();
+                        } catch (Exception e) {
+                            // eat it
+                        }
+                    }
+                }
+                handler.handle(result);
+            });
+        }
+
+    }
+
+}
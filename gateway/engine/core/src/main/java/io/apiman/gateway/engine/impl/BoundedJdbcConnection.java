@@ -0,0 +1,215 @@
+/*
+ * Copyright 2017 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.apiman.gateway.engine.impl;
+
+import io.apiman.gateway.engine.async.AsyncResultImpl;
+import io.apiman.gateway.engine.async.IAsyncResultHandler;
+import io.apiman.gateway.engine.components.jdbc.IJdbcConnection;
+import io.apiman.gateway.engine.components.jdbc.IJdbcResultSet;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * An asynchronous implementation of the {@link IJdbcConnection} interface that
+ * queues each operation for one of the workers of a {@link BlockingTaskExecutor}
+ * and passes its outcome to the handler once it completes (or times out), without
+ * ever blocking the caller.  Operations run one at a time, since a JDBC connection
+ * isn't safe for concurrent use, so callers should issue each operation from the
+ * handler of the previous one.  Query results are
+ * read in full on the worker, so the result set handed to the caller never
+ * touches the database.
+ *
+ * A connection that has had an operation time out is abandoned: it may still be
+ * in use by the worker, so further operations fail.  Closing a connection never
+ * blocks either: it is closed on one of the workers, once the operation in
+ * progress on it (if any) has finished or timed out.
+ *
+ * @author eric.wittmann@redhat.com
+ */
+public class BoundedJdbcConnection implements IJdbcConnection {
+
+    private final Connection connection;
+    private final BlockingTaskExecutor executor;
+    private volatile boolean abandoned = false;
+    private volatile boolean closed = false;
+
+    /**
+     * Constructor.
+     * @param connection the connection
+     * @param executor the executor to run the operations on
+     */
+    public BoundedJdbcConnection(Connection connection, BlockingTaskExecutor executor) {
+        this.connection = connection;
+        this.executor = executor;
+    }
+
+    /**
+     * @see java.lang.AutoCloseable#close()
+     */
+    @Override
+    public void close() throws Exception {
+        close(result -> {});
+    }
+
+    /**
+     * @see io.apiman.gateway.engine.components.jdbc.IJdbcConnection#isClosed()
+     */
+    @Override
+    public boolean isClosed() throws Exception {
+        return closed;
+    }
+
+    /**
+     * @see io.apiman.gateway.engine.components.jdbc.IJdbcConnection#query(io.apiman.gateway.engine.async.IAsyncResultHandler, java.lang.String, java.lang.Object[])
+     */
+    @Override
+    public void query(IAsyncResultHandler<IJdbcResultSet> handler, String sql, Object... params) {
+        run(handler, IJdbcResultSet.class, () -> {
+            try (PreparedStatement statement = prepare(sql, params); ResultSet resultSet = statement.executeQuery()) {
+                return new MaterializedJdbcResultSet(resultSet);
+            }
+        });
+    }
+
+    /**
+     * @see io.apiman.gateway.engine.components.jdbc.IJdbcConnection#execute(io.apiman.gateway.engine.async.IAsyncResultHandler, java.lang.String, java.lang.Object[])
+     */
+    @Override
+    public void execute(IAsyncResultHandler<Void> handler, String sql, Object... params) {
+        run(handler, Void.class, () -> {
+            try (PreparedStatement statement = prepare(sql, params)) {
+                statement.execute();
+                return null;
+            }
+        });
+    }
+
+    /**
+     * @see io.apiman.gateway.engine.components.jdbc.IJdbcConnection#setAutoCommit(boolean, io.apiman.gateway.engine.async.IAsyncResultHandler)
+     */
+    @Override
+    public void setAutoCommit(boolean autoCommit, IAsyncResultHandler<Void> handler) {
+        run(handler, Void.class, () -> {
+            connection.setAutoCommit(autoCommit);
+            return null;
+        });
+    }
+
+    /**
+     * @see io.apiman.gateway.engine.components.jdbc.IJdbcConnection#commit(io.apiman.gateway.engine.async.IAsyncResultHandler)
+     */
+    @Override
+    public void commit(IAsyncResultHandler<Void> handler) {
+        run(handler, Void.class, () -> {
+            connection.commit();
+            return null;
+        });
+    }
+
+    /**
+     * @see io.apiman.gateway.engine.components.jdbc.IJdbcConnection#rollback(io.apiman.gateway.engine.async.IAsyncResultHandler)
+     */
+    @Override
+    public void rollback(IAsyncResultHandler<Void> handler) {
+        run(handler, Void.class, () -> {
+            connection.rollback();
+            return null;
+        });
+    }
+
+    /**
+     * @see io.apiman.gateway.engine.components.jdbc.IJdbcConnection#close(io.apiman.gateway.engine.async.IAsyncResultHandler)
+     */
+    @Override
+    public void close(IAsyncResultHandler<Void> handler) {
+        if (closed) {
+            handler.handle(AsyncResultImpl.create((Void) null, Void.class));
+            return;
+        }
+        closed = true;
+        executor.<Void>executeAsync(future -> {
+            try {
+                synchronized (connection) {
+                    connection.close();
+                }
+                future.completed(null);
+            } catch (Exception e) {
+                future.fail(e);
+            }
+        }, result -> {
+            if (result.isError()) {
+                // Rejected or timed out (still in use by an abandoned operation) - don't leak it.
+                try {
+                    connection.close();
+                } catch (Exception e) {
+                    // eat it
+                }
+            }
+            handler.handle(result);
+        });
+    }
+
+    /**
+     * Prepares a statement with the given parameters.
+     */
+    private PreparedStatement prepare(String sql, Object... params) throws Exception {
+        PreparedStatement statement = connection.prepareStatement(sql);
+        try {
+            int idx = 1;
+            for (Object param : params) {
+                statement.setObject(idx++, param);
+            }
+        } catch (Exception e) {
+            statement.close();
+            throw e;
+        }
+        return statement;
+    }
+
+    /**
+     * Queues an operation for one of the workers and passes its outcome to the
+     * handler.  Operations on the connection are serialized, since a JDBC connection
+     * isn't safe for concurrent use.
+     */
+    private <T> void run(IAsyncResultHandler<T> handler, Class<T> type, Callable<T> operation) {
+        if (closed || abandoned) {
+            handler.handle(AsyncResultImpl.create(
+                    new IllegalStateException("JDBC connection is closed or was abandoned after a timeout."), type)); //$NON-NLS-1$
+            return;
+        }
+        executor.<T>executeAsync(future -> {
+            try {
+                T result;
+                synchronized (connection) {
+                    result = operation.call();
+                }
+                future.completed(result);
+            } catch (Exception e) {
+                future.fail(e);
+            }
+        }, result -> {
+            if (result.isError() && result.getError() instanceof TimeoutException) {
+                abandoned = true;
+            }
+            handler.handle(result);
+        });
+    }
+
+}
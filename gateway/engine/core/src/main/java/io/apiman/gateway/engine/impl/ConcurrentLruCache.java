@@ -0,0 +1,278 @@
+/*
+ * Copyright 2017 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.apiman.gateway.engine.impl;
+
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.function.BiConsumer;
+import java.util.function.BiPredicate;
+import java.util.function.ToLongBiFunction;
+
+/**
+ * A bounded, thread-safe cache that evicts its least recently used entries.  The
+ * cache is split into segments (by key hash), each of which is an access-ordered
+ * map with its own lock and its own share of the maximum weight, so that threads
+ * working with different keys don't contend with each other and every operation
+ * (including eviction) is constant time.  As with any segmented cache, the LRU
+ * order is per segment rather than global.
+ *
+ * Entries are weighed (by default every entry weighs 1, which bounds the number of
+ * entries) and an optional listener is told about every entry that leaves the cache,
+ * whether it was evicted, replaced or removed.  The listener is called after the
+ * segment lock has been released.
+ *
+ * @author eric.wittmann@redhat.com
+ */
+public class ConcurrentLruCache<K, V> {
+
+    private static final int DEFAULT_CONCURRENCY_LEVEL = 16;
+    private static final int MIN_SEGMENT_SIZE = 64;
+
+    private final Segment<K, V>[] segments;
+    private final ToLongBiFunction<K, V> weigher;
+    private final BiConsumer<K, V> removalListener;
+
+    /**
+     * Constructor.
+     * @param maxSize the maximum number of entries
+     */
+    public ConcurrentLruCache(long maxSize) {
+        // Small caches aren't worth splitting up (and would lose their LRU order).
+        this(maxSize, (int) Math.min(DEFAULT_CONCURRENCY_LEVEL, maxSize / MIN_SEGMENT_SIZE), (key, value) -> 1, null);
+    }
+
+    /**
+     * Constructor.
+     * @param maxWeight the maximum total weight of the entries
+     * @param concurrencyLevel the number of segments
+     * @param weigher weighs an entry (must be consistent for as long as the entry is cached)
+     * @param removalListener told about every entry that leaves the cache (may be null)
+     */
+    @SuppressWarnings("unchecked")
+    public ConcurrentLruCache(long maxWeight, int concurrencyLevel, ToLongBiFunction<K, V> weigher,
+            BiConsumer<K, V> removalListener) {
+        // Never more segments than there is room for entries.
+        int numSegments = (int) Math.max(1, Math.min(concurrencyLevel, maxWeight));
+        this.segments = new Segment[numSegments];
+        long segmentWeight = Math.max(1, maxWeight / numSegments);
+        for (int i = 0; i < numSegments; i++) {
+            segments[i] = new Segment<>(segmentWeight);
+        }
+        this.weigher = weigher;
+        this.removalListener = removalListener;
+    }
+
+    /**
+     * Gets the value for the given key, marking it as recently used.
+     * @param key the key
+     * @return the value or null if not cached
+     */
+    public V get(K key) {
+        Segment<K, V> segment = segmentFor(key);
+        synchronized (segment) {
+            return segment.map.get(key);
+        }
+    }
+
+    /**
+     * Stores a value, replacing any existing value for the key and evicting the least
+     * recently used entries of the key's segment as needed.  A value that weighs more
+     * than a segment can hold is not stored at all (and any existing value is removed).
+     * @param key the key
+     * @param value the value
+     * @return true if the value was stored
+     */
+    public boolean put(K key, V value) {
+        return store(key, value, false) == value;
+    }
+
+    /**
+     * Stores a value unless the key already has one.
+     * @param key the key
+     * @param value the value
+     * @return the existing value, or the given value if it was stored, or null if it
+     *         was too large to be stored
+     */
+    public V putIfAbsent(K key, V value) {
+        return store(key, value, true);
+    }
+
+    /**
+     * Removes the entry for the given key.
+     * @param key the key
+     * @return the removed value or null
+     */
+    public V remove(K key) {
+        Segment<K, V> segment = segmentFor(key);
+        V removed;
+        synchronized (segment) {
+            removed = segment.map.remove(key);
+            if (removed != null) {
+                segment.weight -= weigher.applyAsLong(key, removed);
+            }
+        }
+        notifyRemoved(key, removed);
+        return removed;
+    }
+
+    /**
+     * Removes the entry for the given key, but only if it has the given value.
+     * @param key the key
+     * @param value the value
+     * @return true if the entry was removed
+     */
+    public boolean remove(K key, V value) {
+        Segment<K, V> segment = segmentFor(key);
+        synchronized (segment) {
+            if (!segment.map.remove(key, value)) {
+                return false;
+            }
+            segment.weight -= weigher.applyAsLong(key, value);
+        }
+        notifyRemoved(key, value);
+        return true;
+    }
+
+    /**
+     * Removes every entry matching the given filter (one segment at a time).
+     * @param filter the filter
+     */
+    public void removeIf(BiPredicate<K, V> filter) {
+        for (Segment<K, V> segment : segments) {
+            List<Entry<K, V>> removed = new ArrayList<>();
+            synchronized (segment) {
+                Iterator<Entry<K, V>> iterator = segment.map.entrySet().iterator();
+                while (iterator.hasNext()) {
+                    Entry<K, V> entry = iterator.next();
+                    if (filter.test(entry.getKey(), entry.getValue())) {
+                        iterator.remove();
+                        segment.weight -= weigher.applyAsLong(entry.getKey(), entry.getValue());
+                        removed.add(entry);
+                    }
+                }
+            }
+            for (Entry<K, V> entry : removed) {
+                notifyRemoved(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Removes all entries.
+     */
+    public void clear() {
+        removeIf((key, value) -> true);
+    }
+
+    /**
+     * @return the number of entries
+     */
+    public int size() {
+        int size = 0;
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                size += segment.map.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @return the weight of the largest value that can be stored (that of a segment)
+     */
+    public long maxEntryWeight() {
+        return segments[0].maxWeight;
+    }
+
+    /**
+     * @return the total weight of the entries
+     */
+    public long weight() {
+        long weight = 0;
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                weight += segment.weight;
+            }
+        }
+        return weight;
+    }
+
+    private V store(K key, V value, boolean onlyIfAbsent) {
+        Segment<K, V> segment = segmentFor(key);
+        long entryWeight = weigher.applyAsLong(key, value);
+        List<Entry<K, V>> removed = new ArrayList<>(1);
+        V rval = value;
+        synchronized (segment) {
+            V existing = segment.map.get(key);
+            if (existing != null && onlyIfAbsent) {
+                return existing;
+            }
+            if (existing != null) {
+                segment.map.remove(key);
+                segment.weight -= weigher.applyAsLong(key, existing);
+                removed.add(new SimpleImmutableEntry<>(key, existing));
+            }
+            if (entryWeight > segment.maxWeight) {
+                rval = null;
+            } else {
+                segment.map.put(key, value);
+                segment.weight += entryWeight;
+                Iterator<Entry<K, V>> iterator = segment.map.entrySet().iterator();
+                while (segment.weight > segment.maxWeight && iterator.hasNext()) {
+                    Entry<K, V> eldest = iterator.next();
+                    iterator.remove();
+                    segment.weight -= weigher.applyAsLong(eldest.getKey(), eldest.getValue());
+                    removed.add(eldest);
+                }
+            }
+        }
+        for (Entry<K, V> entry : removed) {
+            notifyRemoved(entry.getKey(), entry.getValue());
+        }
+        return rval;
+    }
+
+    private void notifyRemoved(K key, V value) {
+        if (value != null && removalListener != null) {
+            removalListener.accept(key, value);
+        }
+    }
+
+    private Segment<K, V> segmentFor(Object key) {
+        int hash = key.hashCode();
+        hash ^= (hash >>> 16);
+        return segments[(hash & 0x7fffffff) % segments.length];
+    }
+
+    /**
+     * A segment of the cache.  Guarded by its own monitor.
+     */
+    private static final class Segment<K, V> {
+
+        private final LinkedHashMap<K, V> map = new LinkedHashMap<>(16, 0.75f, true);
+        private final long maxWeight;
+        private long weight = 0;
+
+        private Segment(long maxWeight) {
+            this.maxWeight = maxWeight;
+        }
+    }
+
+}
@@ -0,0 +1,240 @@
+/*
+ * Copyright 2017 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.apiman.gateway.engine.impl;
+
+import io.apiman.gateway.engine.async.AsyncResultImpl;
+import io.apiman.gateway.engine.async.IAsyncResultHandler;
+import io.apiman.gateway.engine.components.IRateLimiterComponent;
+import io.apiman.gateway.engine.components.rate.RateLimitResponse;
+import io.apiman.gateway.engine.rates.RateBucketPeriod;
+import io.apiman.gateway.engine.rates.RatePeriodBoundaries;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A lock-free implementation of the rate limiter component for use in a single
+ * node environment.  Each bucket holds the window for its current rate period;
+ * counts are updated using CAS so that concurrent requests against the same
+ * bucket never block each other, and period boundaries come from
+ * {@link RatePeriodBoundaries} so no calendar arithmetic is done per request.
+ *
+ * Buckets whose period has elapsed are removed by a background sweeper, so
+ * that the number of buckets held in memory is bounded by the number of
+ * buckets that were active during their current period.  The sweeper also
+ * removes buckets that have not been used for "expiry.idle" seconds (a day by
+ * default, 0 to disable), so that long periods such as months and years do not
+ * pin every bucket ever used; the count of such a bucket is forgotten.  The
+ * sweeper is stopped when the component is closed.
+ *
+ * @author eric.wittmann@redhat.com
+ */
+public class ConcurrentRateLimiterComponent implements IRateLimiterComponent {
+
+    private static final long DEFAULT_EXPIRY_PERIOD = 60;
+    private static final long DEFAULT_IDLE_TIMEOUT = 86400;
+    /** How stale a bucket's last-used time may get before it is refreshed, in ms. */
+    private static final long LAST_USED_RESOLUTION = 1000;
+
+    /** Marks a bucket that has been removed by the sweeper and must no longer be used. */
+    private static final Window EXPIRED = new Window(Long.MIN_VALUE);
+
+    private final ConcurrentHashMap<String, Bucket> buckets = new ConcurrentHashMap<>();
+    private final long idleTimeout;
+    private ScheduledExecutorService expiry;
+
+    /**
+     * Constructor.
+     */
+    public ConcurrentRateLimiterComponent() {
+        this(Collections.emptyMap());
+    }
+
+    /**
+     * Constructor.
+     * @param config the component config
+     */
+    public ConcurrentRateLimiterComponent(Map<String, String> config) {
+        String expiryPeriod = config.get("expiry.period"); //$NON-NLS-1$
+        long period = expiryPeriod == null ? DEFAULT_EXPIRY_PERIOD : new Long(expiryPeriod);
+        String expiryIdle = config.get("expiry.idle"); //$NON-NLS-1$
+        idleTimeout = (expiryIdle == null ? DEFAULT_IDLE_TIMEOUT : new Long(expiryIdle)) * 1000L;
+        if (period > 0) {
+            startExpiryThread(period);
+        }
+    }
+
+    /**
+     * @see io.apiman.gateway.engine.components.IRateLimiterComponent#accept(java.lang.String, io.apiman.gateway.engine.rates.RateBucketPeriod, long, long, io.apiman.gateway.engine.async.IAsyncResultHandler)
+     */
+    @Override
+    public void accept(String bucketId, RateBucketPeriod period, long limit, long increment,
+            IAsyncResultHandler<RateLimitResponse> handler) {
+        long now = System.currentTimeMillis();
+        long boundary = RatePeriodBoundaries.getPeriodBoundary(now, period);
+
+        Window window;
+        do {
+            Bucket bucket = buckets.computeIfAbsent(bucketId, key -> new Bucket(now));
+            window = bucket.getWindow(boundary);
+            if (now - bucket.lastUsed > LAST_USED_RESOLUTION) {
+                bucket.lastUsed = now;
+            }
+            if (window == EXPIRED) {
+                buckets.remove(bucketId, bucket);
+            }
+        } while (window == EXPIRED);
+
+        RateLimitResponse response = new RateLimitResponse();
+        long count;
+        long newCount;
+        do {
+            count = window.count.get();
+            if (count > limit) {
+                response.setAccepted(false);
+                newCount = count;
+                break;
+            }
+            response.setAccepted(count < limit);
+            newCount = count + increment;
+        } while (!window.count.compareAndSet(count, newCount));
+
+        response.setReset((int) ((boundary - now) / 1000L));
+        response.setRemaining(limit - newCount);
+        handler.handle(AsyncResultImpl.<RateLimitResponse>create(response));
+    }
+
+    /**
+     * @see io.apiman.gateway.engine.IComponent#close()
+     */
+    @Override
+    public synchronized void close() {
+        if (expiry != null) {
+            expiry.shutdownNow();
+            expiry = null;
+        }
+    }
+
+    /**
+     * Removes all buckets whose current period has elapsed.  Such buckets would
+     * be reset on their next use anyway, so nothing is lost by discarding them.
+     * Buckets that have been idle for longer than the idle timeout are removed
+     * as well.
+     */
+    protected void expireBuckets() {
+        long now = System.currentTimeMillis();
+        long idleSince = idleTimeout > 0 ? now - idleTimeout : Long.MIN_VALUE;
+        buckets.forEach((bucketId, bucket) -> {
+            if (bucket.expire(now, idleSince)) {
+                buckets.remove(bucketId, bucket);
+            }
+        });
+    }
+
+    /**
+     * @return the number of buckets currently held in memory
+     */
+    protected int getBucketCount() {
+        return buckets.size();
+    }
+
+    /**
+     * Expires idle buckets from time to time.  This is done in a (daemon) thread so
+     * that it does not impact performance of the rate limits.
+     * @param period the expiry period, in seconds
+     */
+    private synchronized void startExpiryThread(long period) {
+        expiry = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "apiman-rate-limiter-expiry"); //$NON-NLS-1$
+            thread.setDaemon(true);
+            return thread;
+        });
+        expiry.scheduleWithFixedDelay(this::expireBuckets, period, period, TimeUnit.SECONDS);
+    }
+
+    /**
+     * A rate limiter bucket.  Holds the window for the bucket's current rate period.
+     */
+    private static final class Bucket {
+
+        private final AtomicReference<Window> window = new AtomicReference<>(new Window(0));
+        private volatile long lastUsed;
+
+        /**
+         * Constructor.
+         * @param now the current time
+         */
+        private Bucket(long now) {
+            this.lastUsed = now;
+        }
+
+        /**
+         * Returns the window ending at the given boundary, starting a new one if the
+         * previous window has ended.  A request racing with the period rollover may
+         * be handed the (newer) window of the next period.  Returns
+         * {@link ConcurrentRateLimiterComponent#EXPIRED} if the bucket has been expired.
+         * @param boundary the end of the current rate period
+         */
+        private Window getWindow(long boundary) {
+            Window current = window.get();
+            while (current != EXPIRED && current.boundary < boundary) {
+                Window next = new Window(boundary);
+                if (window.compareAndSet(current, next)) {
+                    return next;
+                }
+                current = window.get();
+            }
+            return current;
+        }
+
+        /**
+         * Marks the bucket as expired if its current window has ended or if it has
+         * not been used since the given time.
+         * @param now the current time
+         * @param idleSince buckets last used before this time are expired
+         * @return true if the bucket was expired
+         */
+        private boolean expire(long now, long idleSince) {
+            Window current = window.get();
+            return current != EXPIRED && (now >= current.boundary || lastUsed < idleSince)
+                    && window.compareAndSet(current, EXPIRED);
+        }
+    }
+
+    /**
+     * The count of a single rate period.
+     */
+    private static final class Window {
+
+        private final long boundary;
+        private final AtomicLong count = new AtomicLong();
+
+        /**
+         * Constructor.
+         * @param boundary the end of the rate period
+         */
+        private Window(long boundary) {
+            this.boundary = boundary;
+        }
+    }
+
+}
@@ -56,7 +56,7 @@ public class DefaultJdbcComponent implements IJdbcComponent {
             return clients.get(dsName);
         } else {
             DataSource ds = datasourceFromConfig(config);
-            DefaultJdbcClient client = new DefaultJdbcClient(ds);
+            IJdbcClient client = createClient(ds);
             clients.put(dsName, client);
             return client;
         }
@@ -75,6 +75,14 @@ public class DefaultJdbcComponent implements IJdbcComponent {
      */
     @Override
     public IJdbcClient create(DataSource ds) {
+        return createClient(ds);
+    }
+
+    /**
+     * Creates a client for the given datasource.
+     * @param ds the datasource
+     */
+    protected IJdbcClient createClient(DataSource ds) {
         return new DefaultJdbcClient(ds);
     }
 
@@ -43,12 +43,15 @@ public class DefaultLdapClientConnection implements ILdapClientConnection {
         protected LdapConfigBean config;
         protected LDAPConnection connection;
         protected boolean closed;
+        private LDAPConnectionFactory connectionFactory;
         private SSLSocketFactory socketFactory;
 
         public DefaultLdapClientConnection(
                 LdapConfigBean config,
+                LDAPConnectionFactory connectionFactory,
                 SSLSocketFactory socketFactory) {
             this.config = config;
+            this.connectionFactory = connectionFactory;
             this.socketFactory = socketFactory;
         }
 
@@ -67,11 +70,11 @@ public class DefaultLdapClientConnection implements ILdapClientConnection {
             }
         }
 
-        public static void bind(SSLSocketFactory socketFactory, LdapConfigBean config,
-                IAsyncResultHandler<ILdapResult> handler) {
+        public static void bind(LDAPConnectionFactory connectionFactory, SSLSocketFactory socketFactory,
+                LdapConfigBean config, IAsyncResultHandler<ILdapResult> handler) {
             LDAPConnection connection = null;
             try {
-                connection = LDAPConnectionFactory.build(socketFactory, config);
+                connection = connectionFactory.getConnection(socketFactory, config);
                 BindResult bindResponse = connection.bind(config.getBindDn(), config.getBindPassword());
                 evalBindReturn(bindResponse.getResultCode(), bindResponse.getDiagnosticMessage(), null, handler);
                 LDAPConnectionFactory.releaseConnection(connection);
@@ -86,13 +89,16 @@ public class DefaultLdapClientConnection implements ILdapClientConnection {
 
         public void connect(final IAsyncResultHandler<ILdapResult> handler) {
             try {
-                connection = LDAPConnectionFactory.build(socketFactory, config);
+                connection = connectionFactory.getConnection(socketFactory, config);
                 BindResult bindResponse = connection.bind(config.getBindDn(), config.getBindPassword());
                 evalBindReturn(bindResponse.getResultCode(), bindResponse.getDiagnosticMessage(), null, handler);
             } catch (LDAPException e) {
+                LDAPConnectionFactory.releaseConnectionAfterException(connection, e);
+                closed = true;
                 evalBindReturn(e.getResultCode(), e.getMessage(), e, handler);
             } catch (Exception e) {
                 LDAPConnectionFactory.releaseDefunct(connection);
+                closed = true;
                 handler.handle(AsyncResultImpl.<ILdapResult>create(e));
             }
         }
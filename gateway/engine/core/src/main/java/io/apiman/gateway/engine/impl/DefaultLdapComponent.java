@@ -27,6 +27,7 @@ import io.apiman.gateway.engine.components.ldap.result.DefaultExceptionFactory;
 
 import java.security.GeneralSecurityException;
 import java.security.KeyStore;
+import java.util.Map;
 
 import javax.net.ssl.SSLSocketFactory;
 import javax.net.ssl.TrustManager;
@@ -36,11 +37,26 @@ import javax.net.ssl.X509TrustManager;
 import com.unboundid.util.ssl.SSLUtil;
 
 /**
+ * The default LDAP component.  Connections are pooled per LDAP server; see
+ * {@link LDAPConnectionFactory} for the pool settings that can be given in the
+ * component's config.
+ *
  * @author Marc Savy {@literal <msavy@redhat.com>}
  */
 public class DefaultLdapComponent implements ILdapComponent {
 
+    protected final LDAPConnectionFactory connectionFactory;
+
     public DefaultLdapComponent() {
+        connectionFactory = new LDAPConnectionFactory();
+    }
+
+    /**
+     * Constructor.
+     * @param componentConfig the component config
+     */
+    public DefaultLdapComponent(Map<String, String> componentConfig) {
+        connectionFactory = new LDAPConnectionFactory(componentConfig);
     }
 
     protected static SSLSocketFactory DEFAULT_SOCKET_FACTORY;
@@ -65,7 +81,7 @@ public class DefaultLdapComponent implements ILdapComponent {
 
     @Override
     public void connect(LdapConfigBean config, final IAsyncResultHandler<ILdapClientConnection> handler) {
-        final DefaultLdapClientConnection connection = new DefaultLdapClientConnection(config, DEFAULT_SOCKET_FACTORY);
+        final DefaultLdapClientConnection connection = new DefaultLdapClientConnection(config, connectionFactory, DEFAULT_SOCKET_FACTORY);
         connection.connect(new IAsyncResultHandler<ILdapResult>() {
 
             @Override
@@ -75,6 +91,7 @@ public class DefaultLdapComponent implements ILdapComponent {
                     if (ldapResult.getResultCode().isSuccess()) {
                         handler.handle(AsyncResultImpl.<ILdapClientConnection>create(connection));
                     } else { // We don't have any fine-grained handling of exceptions, so bundle all into one.
+                        connection.close();
                         handler.handle(AsyncResultImpl.<ILdapClientConnection>create(DefaultExceptionFactory.create(ldapResult)));
                     }
                 } else {
@@ -86,6 +103,6 @@ public class DefaultLdapComponent implements ILdapComponent {
 
     @Override
     public void bind(LdapConfigBean config, IAsyncResultHandler<ILdapResult> handler) {
-        DefaultLdapClientConnection.bind(DEFAULT_SOCKET_FACTORY, config, handler);
+        DefaultLdapClientConnection.bind(connectionFactory, DEFAULT_SOCKET_FACTORY, config, handler);
     }
 }
@@ -39,6 +39,9 @@ import io.apiman.gateway.engine.policy.PolicyContextImpl;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
 
 /**
  * The implementation of the API Management runtime engine.
@@ -55,6 +58,7 @@ public class EngineImpl implements IEngine {
     private IMetrics metrics;
     private IDelegateFactory logFactory;
     private IApiRequestPathParser requestPathParser;
+    private ApiExecutionPlanCache planCache;
 
     /**
      * Constructor.
@@ -71,7 +75,9 @@ public class EngineImpl implements IEngine {
             final IComponentRegistry componentRegistry, final IConnectorFactory connectorFactory,
             final IPolicyFactory policyFactory, final IMetrics metrics, final IDelegateFactory logFactory,
             final IApiRequestPathParser pathParser) {
-        setRegistry(registry);
+        this.planCache = new ApiExecutionPlanCache(policyFactory);
+        setRegistry(new ExecutionPlanRegistryWrapper(registry, planCache,
+                api -> getConnectorFactory().apiRetired(api)));
         setPluginRegistry(pluginRegistry);
         setComponentRegistry(componentRegistry);
         setConnectorFactory(connectorFactory);
@@ -113,12 +119,27 @@ public class EngineImpl implements IEngine {
                 resultHandler,
                 registry,
                 new PolicyContextImpl(getComponentRegistry(), getLogFactory()),
-                policyFactory,
+                planCache,
                 getConnectorFactory(),
                 getMetrics(),
                 bufferFactory);
     }
 
+    /**
+     * @see io.apiman.gateway.engine.IEngine#shutdown()
+     */
+    @Override
+    public void shutdown() {
+        connectorFactory.close();
+        // A component may be registered under more than one type
+        Set<IComponent> closed = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (IComponent component : componentRegistry.getComponents()) {
+            if (closed.add(component)) {
+                component.close();
+            }
+        }
+    }
+
     /**
      * @see io.apiman.gateway.engine.IEngine#getRegistry()
      */
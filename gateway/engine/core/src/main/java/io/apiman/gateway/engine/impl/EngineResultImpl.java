@@ -19,6 +19,7 @@ import io.apiman.gateway.engine.IEngineResult;
 import io.apiman.gateway.engine.beans.ApiResponse;
 import io.apiman.gateway.engine.beans.PolicyFailure;
 import io.apiman.gateway.engine.io.AbstractStream;
+import io.apiman.gateway.engine.io.IReadStream;
 import io.apiman.gateway.engine.io.ISignalReadStream;
 
 /**
@@ -32,6 +33,7 @@ public class EngineResultImpl extends AbstractStream<ApiResponse> implements IEn
     private ApiResponse apiResponse = null;
     private PolicyFailure policyFailure = null;
     private transient ISignalReadStream<ApiResponse> connectorResponseStream;
+    private transient IReadStream<ApiResponse> bodyStream;
 
     /**
      * Constructor.
@@ -120,6 +122,35 @@ public class EngineResultImpl extends AbstractStream<ApiResponse> implements IEn
         connectorResponseStream.abort(t);
     }
 
+    /**
+     * Pauses the stream the body is read from (the response chain), and so
+     * ultimately the back-end API's response.
+     * @see io.apiman.gateway.engine.io.IReadStream#pause()
+     */
+    @Override
+    public void pause() {
+        if (bodyStream != null) {
+            bodyStream.pause();
+        }
+    }
+
+    /**
+     * @see io.apiman.gateway.engine.io.IReadStream#resume()
+     */
+    @Override
+    public void resume() {
+        if (bodyStream != null) {
+            bodyStream.resume();
+        }
+    }
+
+    /**
+     * @param bodyStream the stream the body is read from
+     */
+    public void setBodyStream(IReadStream<ApiResponse> bodyStream) {
+        this.bodyStream = bodyStream;
+    }
+
     /**
      * @param connectorResponseStream the connectorResponseStream to set
      */
@@ -0,0 +1,195 @@
+/*
+ * Copyright 2017 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.apiman.gateway.engine.impl;
+
+import io.apiman.gateway.engine.IRegistry;
+import io.apiman.gateway.engine.async.IAsyncHandler;
+import io.apiman.gateway.engine.async.IAsyncResult;
+import io.apiman.gateway.engine.async.IAsyncResultHandler;
+import io.apiman.gateway.engine.beans.Api;
+import io.apiman.gateway.engine.beans.ApiContract;
+import io.apiman.gateway.engine.beans.Client;
+
+import java.util.List;
+
+/**
+ * Wraps any {@link IRegistry} implementation in order to keep the engine's
+ * {@link ApiExecutionPlanCache} up to date as APIs and Clients are published,
+ * retired, registered and unregistered.  Retired APIs are also passed to an
+ * (optional) handler, so that e.g. the connector factory can let go of them.
+ *
+ * @author eric.wittmann@redhat.com
+ */
+public class ExecutionPlanRegistryWrapper implements IRegistry {
+
+    private final IRegistry delegate;
+    private final ApiExecutionPlanCache planCache;
+    private final IAsyncHandler<Api> apiRetiredHandler;
+
+    /**
+     * Constructor.
+     * @param delegate the delegated Registry
+     * @param planCache the execution plan cache
+     */
+    public ExecutionPlanRegistryWrapper(IRegistry delegate, ApiExecutionPlanCache planCache) {
+        this(delegate, planCache, api -> {});
+    }
+
+    /**
+     * Constructor.
+     * @param delegate the delegated Registry
+     * @param planCache the execution plan cache
+     * @param apiRetiredHandler called with each successfully retired api
+     */
+    public ExecutionPlanRegistryWrapper(IRegistry delegate, ApiExecutionPlanCache planCache,
+            IAsyncHandler<Api> apiRetiredHandler) {
+        this.delegate = delegate;
+        this.planCache = planCache;
+        this.apiRetiredHandler = apiRetiredHandler;
+    }
+
+    /**
+     * @return the delegated registry
+     */
+    public IRegistry getDelegate() {
+        return delegate;
+    }
+
+    /**
+     * @see io.apiman.gateway.engine.IRegistry#publishApi(io.apiman.gateway.engine.beans.Api, io.apiman.gateway.engine.async.IAsyncResultHandler)
+     */
+    @Override
+    public void publishApi(Api api, IAsyncResultHandler<Void> handler) {
+        delegate.publishApi(api, (IAsyncResult<Void> result) -> {
+            if (result.isSuccess()) {
+                planCache.invalidateApi(api.getOrganizationId(), api.getApiId(), api.getVersion());
+                if (api.isPublicAPI()) {
+                    warm(api.getOrganizationId(), api.getApiId(), api.getVersion());
+                }
+            }
+            handler.handle(result);
+        });
+    }
+
+    /**
+     * Compiles the execution plan for a newly published api.  The api is read back
+     * from the registry (rather than using the one that was published) so that the
+     * plan is compiled from exactly what requests will later be served from.
+     */
+    private void warm(String organizationId, String apiId, String version) {
+        delegate.getApi(organizationId, apiId, version, (IAsyncResult<Api> result) -> {
+            if (result.isSuccess() && result.getResult() != null) {
+                planCache.warm(result.getResult());
+            }
+        });
+    }
+
+    /**
+     * @see io.apiman.gateway.engine.IRegistry#retireApi(io.apiman.gateway.engine.beans.Api, io.apiman.gateway.engine.async.IAsyncResultHandler)
+     */
+    @Override
+    public void retireApi(Api api, IAsyncResultHandler<Void> handler) {
+        delegate.retireApi(api, (IAsyncResult<Void> result) -> {
+            planCache.invalidateApi(api.getOrganizationId(), api.getApiId(), api.getVersion());
+            if (result.isSuccess()) {
+                apiRetiredHandler.handle(api);
+            }
+            handler.handle(result);
+        });
+    }
+
+    /**
+     * @see io.apiman.gateway.engine.IRegistry#registerClient(io.apiman.gateway.engine.beans.Client, io.apiman.gateway.engine.async.IAsyncResultHandler)
+     */
+    @Override
+    public void registerClient(Client client, IAsyncResultHandler<Void> handler) {
+        delegate.registerClient(client, (IAsyncResult<Void> result) -> {
+            if (client.getApiKey() != null) {
+                planCache.invalidateClient(client.getApiKey());
+            }
+            handler.handle(result);
+        });
+    }
+
+    /**
+     * @see io.apiman.gateway.engine.IRegistry#unregisterClient(io.apiman.gateway.engine.beans.Client, io.apiman.gateway.engine.async.IAsyncResultHandler)
+     */
+    @Override
+    public void unregisterClient(Client client, IAsyncResultHandler<Void> handler) {
+        delegate.unregisterClient(client, (IAsyncResult<Void> result) -> {
+            if (client.getApiKey() != null) {
+                planCache.invalidateClient(client.getApiKey());
+            }
+            handler.handle(result);
+        });
+    }
+
+    /**
+     * @see io.apiman.gateway.engine.IRegistry#getApi(java.lang.String, java.lang.String, java.lang.String, io.apiman.gateway.engine.async.IAsyncResultHandler)
+     */
+    @Override
+    public void getApi(String organizationId, String apiId, String apiVersion, IAsyncResultHandler<Api> handler) {
+        delegate.getApi(organizationId, apiId, apiVersion, handler);
+    }
+
+    /**
+     * @see io.apiman.gateway.engine.IRegistry#getClient(java.lang.String, io.apiman.gateway.engine.async.IAsyncResultHandler)
+     */
+    @Override
+    public void getClient(String apiKey, IAsyncResultHandler<Client> handler) {
+        delegate.getClient(apiKey, handler);
+    }
+
+    @Override
+    public void getClient(String organizationId, String clientId, String clientVersion, IAsyncResultHandler<Client> handler) {
+        delegate.getClient(organizationId, clientId, clientVersion, handler);
+    }
+
+    /**
+     * @see io.apiman.gateway.engine.IRegistry#getContract(java.lang.String, java.lang.String, java.lang.String, java.lang.String, io.apiman.gateway.engine.async.IAsyncResultHandler)
+     */
+    @Override
+    public void getContract(String apiOrganizationId, String apiId, String apiVersion, String apiKey,
+            IAsyncResultHandler<ApiContract> handler) {
+        delegate.getContract(apiOrganizationId, apiId, apiVersion, apiKey, handler);
+    }
+
+    @Override
+    public void listApis(String organizationId, int page, int pageSize, IAsyncResultHandler<List<String>> handler) {
+        delegate.listApis(organizationId, page, pageSize, handler);
+    }
+
+    @Override
+    public void listApiVersions(String organizationId, String apiId, int page, int pageSize, IAsyncResultHandler<List<String>> handler) {
+        delegate.listApiVersions(organizationId, apiId, page, pageSize, handler);
+    }
+
+    @Override
+    public void listClients(String organizationId, int page, int pageSize, IAsyncResultHandler<List<String>> handler) {
+        delegate.listClients(organizationId, page, pageSize, handler);
+    }
+
+    @Override
+    public void listClientVersions(String organizationId, String clientId, int page, int pageSize, IAsyncResultHandler<List<String>> handler) {
+        delegate.listClientVersions(organizationId, clientId, page, pageSize, handler);
+    }
+
+    @Override
+    public void listOrgs(IAsyncResultHandler<List<String>> handler) {
+        delegate.listOrgs(handler);
+    }
+
+}
@@ -221,7 +221,7 @@ public class InMemoryRegistry implements IRegistry {
     @Override
     public void listClients(String organizationId, int page, int pageSize, IAsyncResultHandler<List<String>> handler) {
         // For now, ignore paging, but it's there for future. Would need to ensure stable ordering.
-        List<String> res = map.entrySet().stream()
+        List<String> res = getMap().entrySet().stream()
                 .map(Map.Entry::getValue)
                 .filter(entity -> entity instanceof Client)
                 .map(entity -> (Client) entity)
@@ -235,7 +235,7 @@ public class InMemoryRegistry implements IRegistry {
     @Override
     public void listClientVersions(String organizationId, String clientId, int page, int pageSize, IAsyncResultHandler<List<String>> handler) {
         // For now, ignore paging, but it's there for future. Would need to ensure stable ordering.
-        List<String> res = map.entrySet().stream()
+        List<String> res = getMap().entrySet().stream()
                 .map(Map.Entry::getValue)
                 .filter(entity -> entity instanceof Client)
                 .map(entity -> (Client) entity)
@@ -249,7 +249,7 @@ public class InMemoryRegistry implements IRegistry {
     @Override
     public void listApis(String organizationId, int page, int pageSize, IAsyncResultHandler<List<String>> handler) {
         // For now, ignore paging, but it's there for future. Would need to ensure stable ordering.
-        List<String> res = map.entrySet().stream()
+        List<String> res = getMap().entrySet().stream()
                 .map(Map.Entry::getValue)
                 .filter(entity -> entity instanceof Api)
                 .map(entity -> (Api) entity)
@@ -263,7 +263,7 @@ public class InMemoryRegistry implements IRegistry {
     @Override
     public void listApiVersions(String organizationId, String apiId, int page, int pageSize, IAsyncResultHandler<List<String>> handler) {
         // For now, ignore paging, but it's there for future. Would need to ensure stable ordering.
-        List<String> res = map.entrySet().stream()
+        List<String> res = getMap().entrySet().stream()
                 .map(Map.Entry::getValue)
                 .filter(entity -> entity instanceof Api)
                 .map(entity -> (Api) entity)
@@ -277,7 +277,7 @@ public class InMemoryRegistry implements IRegistry {
     @Override
     public void listOrgs(IAsyncResultHandler<List<String>> handler) {
         // TODO: We should track set of OrgId -> AtomicCounter if this API has meaningfully high usage.
-        List<String> res = map.entrySet().stream()
+        List<String> res = getMap().entrySet().stream()
                 .map(Map.Entry::getValue)
                 .map(elem -> {
                     if (elem instanceof Api) {
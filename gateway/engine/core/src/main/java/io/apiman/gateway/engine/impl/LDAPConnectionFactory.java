@@ -16,43 +16,141 @@
 
 package io.apiman.gateway.engine.impl;
 
-import io.apiman.common.datastructures.map.LRUMap;
 import io.apiman.gateway.engine.components.ldap.LdapConfigBean;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
+import javax.net.SocketFactory;
 import javax.net.ssl.SSLSocketFactory;
 
+import com.unboundid.ldap.sdk.GetEntryLDAPConnectionPoolHealthCheck;
 import com.unboundid.ldap.sdk.LDAPConnection;
 import com.unboundid.ldap.sdk.LDAPConnectionPool;
 import com.unboundid.ldap.sdk.LDAPException;
 
 /**
+ * Hands out pooled LDAP connections, so that a new connection (and, for ldaps,
+ * a new TLS handshake) isn't needed for every operation.  There is one pool per
+ * LDAP server (scheme, host and port).
+ *
+ * Callers BIND on every connection they take from a pool, since it may still be
+ * authenticated as whoever used it last.  (Pooling connections per bind DN and
+ * skipping the BIND would be cheaper still, but this component is also used to
+ * verify users' credentials - a connection left bound as a user would go on
+ * accepting that user's old password after it had been changed.)
+ *
+ * Each pool holds between a minimum and maximum number of connections.  Once all
+ * of a pool's connections are in use, callers wait (up to a maximum wait time) for
+ * one to be released rather than opening more connections.  The
+ * available connections are health checked in the background, connections that
+ * have been idle for too long are closed (down to the minimum), and pools that
+ * haven't been used for that long are closed altogether.  The number of pools
+ * is bounded too, the least recently used being closed first.
+ *
  * @author Marc Savy {@literal <msavy@redhat.com>}
  */
 public class LDAPConnectionFactory {
-    private static final int MAX_CONNECTIONS_PER_POOL = 20;
-    private static final int MAX_POOLS = 20;
 
-    private LDAPConnectionFactory() {
+    public static final String MIN_POOL_SIZE = "minPoolSize"; //$NON-NLS-1$
+    public static final String MAX_POOL_SIZE = "maxPoolSize"; //$NON-NLS-1$
+    public static final String MAX_POOLS = "maxPools"; //$NON-NLS-1$
+    public static final String IDLE_TIMEOUT = "idleTimeout"; //$NON-NLS-1$
+    public static final String HEALTH_CHECK_INTERVAL = "healthCheckInterval"; //$NON-NLS-1$
+    public static final String MAX_WAIT_TIME = "maxWaitTime"; //$NON-NLS-1$
+
+    private static final int DEFAULT_MIN_POOL_SIZE = 1;
+    private static final int DEFAULT_MAX_POOL_SIZE = 10;
+    private static final int DEFAULT_MAX_POOLS = 100;
+    private static final long DEFAULT_IDLE_TIMEOUT = 300; // seconds
+    private static final long DEFAULT_HEALTH_CHECK_INTERVAL = 60; // seconds
+    private static final long DEFAULT_MAX_WAIT_TIME = 5; // seconds
+
+    private static final ScheduledExecutorService sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "apiman-ldap-pool-sweeper"); //$NON-NLS-1$
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final int minPoolSize;
+    private final int maxPoolSize;
+    private final int maxPools;
+    private final long idleTimeout;
+    private final long healthCheckInterval;
+    private final long maxWaitTime;
+    private final Map<PoolKey, Pool> pools = new LinkedHashMap<>(16, 0.75f, true);
+    private final ScheduledFuture<?> sweep;
+
+    /**
+     * Constructor.
+     */
+    public LDAPConnectionFactory() {
+        this(Collections.<String, String>emptyMap());
     }
 
-    protected static Map<LdapConfigBean, LDAPConnectionPool> connectionPoolCache =
-            new LRUMap<LdapConfigBean, LDAPConnectionPool>(MAX_POOLS) {
-        private static final long serialVersionUID = 1L;
+    /**
+     * Constructor.
+     * @param config the pool config (see the constants for the supported keys)
+     */
+    public LDAPConnectionFactory(Map<String, String> config) {
+        minPoolSize = Math.max(getInt(config, MIN_POOL_SIZE, DEFAULT_MIN_POOL_SIZE), 1);
+        maxPoolSize = Math.max(getInt(config, MAX_POOL_SIZE, DEFAULT_MAX_POOL_SIZE), minPoolSize);
+        maxPools = Math.max(getInt(config, MAX_POOLS, DEFAULT_MAX_POOLS), 1);
+        idleTimeout = TimeUnit.SECONDS.toMillis(getInt(config, IDLE_TIMEOUT, DEFAULT_IDLE_TIMEOUT));
+        healthCheckInterval = TimeUnit.SECONDS.toMillis(getInt(config, HEALTH_CHECK_INTERVAL, DEFAULT_HEALTH_CHECK_INTERVAL));
+        maxWaitTime = TimeUnit.SECONDS.toMillis(Math.max(getInt(config, MAX_WAIT_TIME, DEFAULT_MAX_WAIT_TIME), 1));
+        long sweepInterval = Math.max(Math.min(idleTimeout, healthCheckInterval), 1000);
+        sweep = sweeper.scheduleWithFixedDelay(this::sweep, sweepInterval, sweepInterval, TimeUnit.MILLISECONDS);
+    }
 
-        @Override
-        protected void handleRemovedElem(Map.Entry<LdapConfigBean, LDAPConnectionPool> eldest) {
-            eldest.getValue().close();
+    /**
+     * Gets a pooled connection to the configured server.  It isn't necessarily
+     * unauthenticated: the caller must BIND before using it.
+     * @param socketFactory the socket factory to use for ldaps
+     * @param config the LDAP config
+     * @throws LDAPException
+     */
+    public LDAPConnection getConnection(SSLSocketFactory socketFactory, LdapConfigBean config) throws LDAPException {
+        PoolKey key = new PoolKey(config);
+        Pool pool;
+        // Mark the pool as used while holding the lock, so that the sweeper can't
+        // close it between our lookup and our taking a connection from it.
+        synchronized (pools) {
+            pool = pools.get(key);
+            if (pool != null) {
+                pool.lastUsed = System.currentTimeMillis();
+            }
         }
-    };
-
-    public static LDAPConnection build(SSLSocketFactory socketFactory, LdapConfigBean config) throws LDAPException {
-        if (isLdaps(config.getScheme()) || socketFactory == null) {
-            return getConnection(connectionPoolCache, socketFactory, config);
-        } else {
-            return getConnection(connectionPoolCache, null, config);
+        if (pool == null) {
+            pool = createPool(socketFactory, config);
+            List<Pool> evicted = new ArrayList<>();
+            synchronized (pools) {
+                Pool existing = pools.putIfAbsent(key, pool);
+                if (existing != null) {
+                    evicted.add(pool);
+                    pool = existing;
+                }
+                pool.lastUsed = System.currentTimeMillis();
+                Iterator<Pool> iterator = pools.values().iterator();
+                while (pools.size() > maxPools && iterator.hasNext()) {
+                    evicted.add(iterator.next());
+                    iterator.remove();
+                }
+            }
+            for (Pool closed : evicted) {
+                closed.connectionPool.close();
+            }
         }
+        return pool.connectionPool.getConnection();
     }
 
     public static void releaseConnection(LDAPConnection connection) {
@@ -70,20 +168,149 @@ public class LDAPConnectionFactory {
             connection.getConnectionPool().releaseConnectionAfterException(connection, e);
     }
 
-    private static LDAPConnection getConnection(Map<LdapConfigBean, LDAPConnectionPool> map,
-            SSLSocketFactory socketFactory, LdapConfigBean config) throws LDAPException {
-        if (!map.containsKey(config)) {
-            LDAPConnection template = new LDAPConnection(config.getHost(), config.getPort());
-            if (socketFactory != null)
-                template.setSocketFactory(socketFactory);
-            map.put(config, new LDAPConnectionPool(template, MAX_CONNECTIONS_PER_POOL));
+    /**
+     * Closes all of the pools (connections in use are closed once released).
+     */
+    public void close() {
+        sweep.cancel(false);
+        List<Pool> closed;
+        synchronized (pools) {
+            closed = new ArrayList<>(pools.values());
+            pools.clear();
+        }
+        for (Pool pool : closed) {
+            pool.connectionPool.close();
+        }
+    }
+
+    /**
+     * @return the number of open pools
+     */
+    public int getPoolCount() {
+        synchronized (pools) {
+            return pools.size();
+        }
+    }
+
+    private Pool createPool(SSLSocketFactory socketFactory, LdapConfigBean config) throws LDAPException {
+        SocketFactory factory = isLdaps(config.getScheme()) ? socketFactory : null;
+        LDAPConnection connection = new LDAPConnection(factory, config.getHost(), config.getPort());
+        try {
+            LDAPConnectionPool connectionPool = new LDAPConnectionPool(connection, minPoolSize, maxPoolSize, null);
+            connectionPool.setConnectionPoolName("apiman-ldap-" + config.getHost() + ":" + config.getPort()); //$NON-NLS-1$ //$NON-NLS-2$
+            // Never open more than the maximum number of connections: wait for one to be
+            // released instead, and fail if none is within the maximum wait time.
+            connectionPool.setCreateIfNecessary(false);
+            connectionPool.setMaxWaitTimeMillis(maxWaitTime);
+            // Check the available connections (and any that an operation failed on) by reading the root DSE
+            connectionPool.setHealthCheck(new GetEntryLDAPConnectionPoolHealthCheck("", 10000L, //$NON-NLS-1$
+                    false, false, false, true, true));
+            connectionPool.setHealthCheckIntervalMillis(healthCheckInterval);
+            return new Pool(connectionPool);
+        } catch (LDAPException e) {
+            connection.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Closes the pools that haven't been used within the idle timeout, and any idle
+     * connections of the others (beyond the minimum pool size).
+     */
+    private void sweep() {
+        long idleSince = System.currentTimeMillis() - idleTimeout;
+        List<Pool> active = new ArrayList<>();
+        List<Pool> closed = new ArrayList<>();
+        synchronized (pools) {
+            for (Iterator<Pool> iterator = pools.values().iterator(); iterator.hasNext(); ) {
+                Pool pool = iterator.next();
+                if (pool.lastUsed < idleSince) {
+                    closed.add(pool);
+                    iterator.remove();
+                } else {
+                    active.add(pool);
+                }
+            }
+        }
+        for (Pool pool : closed) {
+            pool.connectionPool.close();
+        }
+        for (Pool pool : active) {
+            pool.closeIdleConnections(idleSince);
         }
-        return map.get(config).getConnection();
     }
 
     private static boolean isLdaps(String scheme) {
         return scheme.toLowerCase().startsWith("ldaps"); //$NON-NLS-1$
     }
 
+    private static int getInt(Map<String, String> config, String key, long defaultValue) {
+        String value = config.get(key);
+        return (int) (value == null ? defaultValue : Long.parseLong(value.trim()));
+    }
+
+    /**
+     * A pool, along with when it was last used (guarded by the pools lock).
+     */
+    private final class Pool {
+
+        private final LDAPConnectionPool connectionPool;
+        private long lastUsed = System.currentTimeMillis();
+
+        private Pool(LDAPConnectionPool connectionPool) {
+            this.connectionPool = connectionPool;
+        }
+
+        /**
+         * The available connections are handed out oldest first, so keep closing
+         * them until one turns out not to be idle.
+         */
+        private void closeIdleConnections(long idleSince) {
+            while (connectionPool.getCurrentAvailableConnections() > minPoolSize) {
+                LDAPConnection connection;
+                try {
+                    connection = connectionPool.getConnection();
+                } catch (LDAPException e) {
+                    return;
+                }
+                if (connection.getLastCommunicationTime() < idleSince) {
+                    connectionPool.discardConnection(connection);
+                } else {
+                    connectionPool.releaseConnection(connection);
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Identifies a pool.
+     */
+    private static final class PoolKey {
+
+        private final String scheme;
+        private final String host;
+        private final int port;
+
+        private PoolKey(LdapConfigBean config) {
+            this.scheme = config.getScheme().toLowerCase();
+            this.host = config.getHost().toLowerCase();
+            this.port = config.getPort();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof PoolKey)) {
+                return false;
+            }
+            PoolKey other = (PoolKey) obj;
+            return port == other.port && scheme.equals(other.scheme) && host.equals(other.host);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(scheme, host, port);
+        }
+    }
 
 }
@@ -0,0 +1,413 @@
+/*
+ * Copyright 2017 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.apiman.gateway.engine.impl;
+
+import io.apiman.gateway.engine.DependsOnComponents;
+import io.apiman.gateway.engine.async.AsyncResultImpl;
+import io.apiman.gateway.engine.async.IAsyncHandler;
+import io.apiman.gateway.engine.async.IAsyncResultHandler;
+import io.apiman.gateway.engine.components.IBufferFactoryComponent;
+import io.apiman.gateway.engine.components.ICacheStoreComponent;
+import io.apiman.gateway.engine.io.IApimanBuffer;
+import io.apiman.gateway.engine.io.ISignalReadStream;
+import io.apiman.gateway.engine.io.ISignalWriteStream;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * An in-memory implementation of the {@link ICacheStoreComponent} interface that
+ * is bounded by the (approximate) number of bytes held by the cache - both the
+ * cached objects (e.g. response heads) and their binary content - and evicts the
+ * least recently used entries once that bound is reached.  Expired entries are
+ * removed by a background sweeper rather than only when they are next read.
+ *
+ * The cache is segmented (see {@link ConcurrentLruCache}) so that concurrent
+ * requests don't all contend for a single lock; by default there is a segment per
+ * MB of cache (up to 16), and since an entry has to fit in a single segment, that
+ * is also the largest entry that will be cached.  Set 'concurrencyLevel' to 1 for
+ * a single, strictly LRU, segment.  The content of a larger entry is only buffered
+ * until it outgrows the segment; the entry is then abandoned and the buffered
+ * content released, rather than held until the response ends.
+ *
+ * The binary content of the cached entries can optionally be stored off-heap
+ * (in direct byte buffers), so that large caches don't add to GC pressure.  The
+ * content is held (and streamed back out) in blocks, so that reading a cached
+ * entry never needs more heap than a single block.
+ *
+ * @author eric.wittmann@redhat.com
+ */
+@DependsOnComponents( { IBufferFactoryComponent.class } )
+public class LRUCacheStoreComponent implements ICacheStoreComponent {
+
+    private static final long DEFAULT_MAX_CACHE_SIZE = 10 * 1024 * 1024L; // 10 MB
+    private static final long DEFAULT_EXPIRY_PERIOD = 30;
+    private static final long MIN_SEGMENT_SIZE = 1024 * 1024L; // 1 MB
+    private static final int MAX_CONCURRENCY_LEVEL = 16;
+    /** The size of the blocks in which off-heap content is stored and streamed. */
+    private static final int OFF_HEAP_BLOCK_SIZE = 16 * 1024;
+    /** Approximate memory used by a cache entry on top of its key, object and data. */
+    private static final long ENTRY_OVERHEAD = 128;
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private final ConcurrentLruCache<String, CacheEntry> cache;
+    private boolean offHeap = false;
+
+    private IBufferFactoryComponent bufferFactory;
+
+    /**
+     * Constructor.
+     */
+    public LRUCacheStoreComponent() {
+        cache = createCache(DEFAULT_MAX_CACHE_SIZE, defaultConcurrencyLevel(DEFAULT_MAX_CACHE_SIZE));
+        startExpiryThread(DEFAULT_EXPIRY_PERIOD);
+    }
+
+    /**
+     * Constructor.
+     * @param config the component config
+     */
+    public LRUCacheStoreComponent(Map<String, String> config) {
+        String mcs = config.get("maxCacheSize"); //$NON-NLS-1$
+        long maxCacheSize = mcs == null ? DEFAULT_MAX_CACHE_SIZE : new Long(mcs);
+        String cl = config.get("concurrencyLevel"); //$NON-NLS-1$
+        cache = createCache(maxCacheSize, cl == null ? defaultConcurrencyLevel(maxCacheSize) : new Integer(cl));
+        offHeap = "true".equals(config.get("offHeap")); //$NON-NLS-1$ //$NON-NLS-2$
+        String ep = config.get("expiryPeriod"); //$NON-NLS-1$
+        long expiryPeriod = ep == null ? DEFAULT_EXPIRY_PERIOD : new Long(ep);
+        if (expiryPeriod > 0) {
+            startExpiryThread(expiryPeriod);
+        }
+    }
+
+    /**
+     * @see io.apiman.gateway.engine.components.ICacheStoreComponent#put(java.lang.String, java.lang.Object, long)
+     */
+    @Override
+    public <T> void put(String cacheKey, T jsonObject, long timeToLive) throws IOException {
+        store(new CacheEntry(cacheKey, jsonObject, expiresOn(timeToLive), null, null));
+    }
+
+    /**
+     * @see io.apiman.gateway.engine.components.ICacheStoreComponent#putBinary(java.lang.String, java.lang.Object, long)
+     */
+    @Override
+    public <T> ISignalWriteStream putBinary(final String cacheKey, final T jsonObject, final long timeToLive)
+            throws IOException {
+        final long expiresOn = expiresOn(timeToLive);
+        final IApimanBuffer buffer = offHeap ? null : bufferFactory.createBuffer();
+        final List<ByteBuffer> blocks = offHeap ? new ArrayList<>() : null;
+        final long maxDataSize = cache.maxEntryWeight();
+        // The entry only becomes visible once all of its data has been written.
+        return new ISignalWriteStream() {
+            private boolean finished = false;
+            private long written = 0;
+            @Override
+            public void abort(Throwable t) {
+                abandon();
+            }
+            @Override
+            public boolean isFinished() {
+                return finished;
+            }
+            @Override
+            public void write(IApimanBuffer chunk) {
+                if (finished) {
+                    return;
+                }
+                written += chunk.length();
+                if (written > maxDataSize) {
+                    // Too large to ever be cached
+                    abandon();
+                    return;
+                }
+                if (blocks == null) {
+                    buffer.append(chunk);
+                    return;
+                }
+                byte[] bytes = chunk.getBytes();
+                int offset = 0;
+                while (offset < bytes.length) {
+                    ByteBuffer block = blocks.isEmpty() ? null : blocks.get(blocks.size() - 1);
+                    if (block == null || !block.hasRemaining()) {
+                        block = ByteBuffer.allocateDirect(OFF_HEAP_BLOCK_SIZE);
+                        blocks.add(block);
+                    }
+                    int length = Math.min(block.remaining(), bytes.length - offset);
+                    block.put(bytes, offset, length);
+                    offset += length;
+                }
+            }
+            @Override
+            public void end() {
+                if (finished) {
+                    return;
+                }
+                finished = true;
+                if (blocks != null) {
+                    for (int i = 0; i < blocks.size(); i++) {
+                        ByteBuffer block = blocks.get(i);
+                        block.flip();
+                        if (block.remaining() < block.capacity()) {
+                            // Don't hold on to the unused part of the last block
+                            ByteBuffer trimmed = ByteBuffer.allocateDirect(block.remaining());
+                            trimmed.put(block).flip();
+                            block = trimmed;
+                        }
+                        blocks.set(i, block.asReadOnlyBuffer());
+                    }
+                    store(new CacheEntry(cacheKey, jsonObject, expiresOn, null, blocks));
+                } else {
+                    store(new CacheEntry(cacheKey, jsonObject, expiresOn, buffer, null));
+                }
+            }
+            private void abandon() {
+                if (finished) {
+                    return;
+                }
+                finished = true;
+                if (blocks != null) {
+                    blocks.clear();
+                } else {
+                    bufferFactory.release(buffer);
+                }
+            }
+        };
+    }
+
+    /**
+     * @see io.apiman.gateway.engine.components.ICacheStoreComponent#get(java.lang.String, java.lang.Class, io.apiman.gateway.engine.async.IAsyncResultHandler)
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> void get(String cacheKey, Class<T> type, IAsyncResultHandler<T> handler) {
+        CacheEntry entry = lookup(cacheKey);
+        handler.handle(AsyncResultImpl.create(entry == null ? null : (T) entry.head));
+    }
+
+    /**
+     * @see io.apiman.gateway.engine.components.ICacheStoreComponent#getBinary(java.lang.String, java.lang.Class, io.apiman.gateway.engine.async.IAsyncResultHandler)
+     */
+    @Override
+    public <T> void getBinary(String cacheKey, Class<T> type,
+            IAsyncResultHandler<ISignalReadStream<T>> handler) {
+        final CacheEntry entry = lookup(cacheKey);
+        if (entry == null || !entry.hasData()) {
+            handler.handle(AsyncResultImpl.create((ISignalReadStream<T>) null));
+            return;
+        }
+
+        @SuppressWarnings("unchecked")
+        final T head = (T) entry.head;
+        ISignalReadStream<T> rval = new ISignalReadStream<T>() {
+            IAsyncHandler<IApimanBuffer> bodyHandler;
+            IAsyncHandler<Void> endHandler;
+            boolean finished = false;
+
+            @Override
+            public void bodyHandler(IAsyncHandler<IApimanBuffer> bodyHandler) {
+                this.bodyHandler = bodyHandler;
+            }
+            @Override
+            public void endHandler(IAsyncHandler<Void> endHandler) {
+                this.endHandler = endHandler;
+            }
+            @Override
+            public T getHead() {
+                return head;
+            }
+            @Override
+            public boolean isFinished() {
+                return finished;
+            }
+            @Override
+            public void abort(Throwable t) {
+                finished = true;
+            }
+            @Override
+            public void transmit() {
+                if (entry.offHeapData != null) {
+                    // One block at a time, straight from the (shared, read-only) block
+                    for (ByteBuffer block : entry.offHeapData) {
+                        if (finished) {
+                            return;
+                        }
+                        byte[] bytes = new byte[block.remaining()];
+                        block.duplicate().get(bytes);
+                        bodyHandler.handle(bufferFactory.createBuffer(bytes));
+                    }
+                } else {
+                    bodyHandler.handle(entry.data);
+                }
+                endHandler.handle(null);
+            }
+        };
+        handler.handle(AsyncResultImpl.create(rval));
+    }
+
+    /**
+     * Gets the (unexpired) entry for the given key, marking it as recently used.
+     * @param cacheKey the cache key
+     */
+    private CacheEntry lookup(String cacheKey) {
+        CacheEntry entry = cache.get(cacheKey);
+        if (entry != null && entry.isExpired(System.currentTimeMillis())) {
+            cache.remove(cacheKey, entry);
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * Stores the given entry, evicting the least recently used entries if the cache
+     * has grown too large.  Entries that are larger than a segment of the cache are
+     * not stored at all.
+     * @param entry the entry
+     */
+    private void store(CacheEntry entry) {
+        cache.put(entry.key, entry);
+    }
+
+    /**
+     * Removes all expired entries from the cache.
+     */
+    protected void expireEntries() {
+        long now = System.currentTimeMillis();
+        cache.removeIf((key, entry) -> entry.isExpired(now));
+    }
+
+    /**
+     * @return the approximate number of bytes currently held by the cache
+     */
+    protected long getCacheSize() {
+        return cache.weight();
+    }
+
+    /**
+     * Creates the underlying cache, weighing each entry by its (approximate) size.
+     * @param maxCacheSize the maximum size of the cache, in bytes
+     * @param concurrencyLevel the number of segments
+     */
+    private static ConcurrentLruCache<String, CacheEntry> createCache(long maxCacheSize, int concurrencyLevel) {
+        return new ConcurrentLruCache<>(maxCacheSize, concurrencyLevel, (key, entry) -> entry.size, null);
+    }
+
+    /**
+     * A segment per MB of cache, up to a maximum.
+     * @param maxCacheSize the maximum size of the cache, in bytes
+     */
+    private static int defaultConcurrencyLevel(long maxCacheSize) {
+        return (int) Math.max(1, Math.min(MAX_CONCURRENCY_LEVEL, maxCacheSize / MIN_SEGMENT_SIZE));
+    }
+
+    /**
+     * Removes expired entries from time to time.  This is done in a (daemon) thread
+     * so that it does not impact the performance of cache reads.
+     * @param period the expiry period, in seconds
+     */
+    private void startExpiryThread(long period) {
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "apiman-cache-store-expiry"); //$NON-NLS-1$
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(this::expireEntries, period, period, TimeUnit.SECONDS);
+    }
+
+    /**
+     * @param timeToLive the time to live, in seconds
+     */
+    private static long expiresOn(long timeToLive) {
+        return System.currentTimeMillis() + (timeToLive * 1000);
+    }
+
+    /**
+     * Estimates the number of bytes used by the given cached object, based on the
+     * size of its JSON representation.
+     * @param object the cached object
+     */
+    private static long sizeOf(Object object) {
+        if (object == null) {
+            return 0;
+        }
+        try {
+            return mapper.writeValueAsBytes(object).length;
+        } catch (IOException e) {
+            return ENTRY_OVERHEAD;
+        }
+    }
+
+    /**
+     * @param bufferFactory the bufferFactory to set
+     */
+    public void setBufferFactory(IBufferFactoryComponent bufferFactory) {
+        this.bufferFactory = bufferFactory;
+    }
+
+    /**
+     * A single entry in the cache.
+     */
+    private static final class CacheEntry {
+
+        private final String key;
+        private final Object head;
+        private final long expiresOn;
+        private final IApimanBuffer data;
+        private final List<ByteBuffer> offHeapData;
+        private final long size;
+
+        /**
+         * Constructor.
+         * @param key the cache key
+         * @param head the cached object
+         * @param expiresOn when the entry expires
+         * @param data the binary data (if stored on the heap)
+         * @param offHeapData the binary data, in blocks (if stored off-heap)
+         */
+        private CacheEntry(String key, Object head, long expiresOn, IApimanBuffer data,
+                List<ByteBuffer> offHeapData) {
+            this.key = key;
+            this.head = head;
+            this.expiresOn = expiresOn;
+            this.data = data;
+            this.offHeapData = offHeapData;
+            long dataSize = data != null ? data.length() : 0;
+            if (offHeapData != null) {
+                for (ByteBuffer block : offHeapData) {
+                    dataSize += block.capacity();
+                }
+            }
+            this.size = ENTRY_OVERHEAD + key.length() * 2L + sizeOf(head) + dataSize;
+        }
+
+        private boolean hasData() {
+            return data != null || offHeapData != null;
+        }
+
+        private boolean isExpired(long now) {
+            return now > expiresOn;
+        }
+    }
+
+}
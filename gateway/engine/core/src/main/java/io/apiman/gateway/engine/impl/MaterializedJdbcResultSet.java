@@ -0,0 +1,253 @@
+/*
+ * Copyright 2017 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.apiman.gateway.engine.impl;
+
+import io.apiman.gateway.engine.components.jdbc.IJdbcResultSet;
+
+import java.math.BigDecimal;
+import java.sql.Blob;
+import java.sql.Clob;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.joda.time.DateTime;
+
+/**
+ * An implementation of {@link IJdbcResultSet} that holds all of the rows of a
+ * result set in memory, so that it can be read without the database (and on a
+ * different thread than the one that ran the query).  Only suitable for modest
+ * result sets - which is what policies typically query for.
+ *
+ * @author eric.wittmann@redhat.com
+ */
+public class MaterializedJdbcResultSet implements IJdbcResultSet {
+
+    private final List<String> columnNames;
+    private final List<Object[]> rows = new ArrayList<>();
+    private int row = 0;
+
+    /**
+     * Constructor.  Reads all of the (remaining) rows of the given result set.
+     * @param resultSet the result set
+     */
+    public MaterializedJdbcResultSet(ResultSet resultSet) throws SQLException {
+        columnNames = new ArrayList<>();
+        ResultSetMetaData metaData = resultSet.getMetaData();
+        int cols = metaData.getColumnCount();
+        for (int i = 1; i <= cols; i++) {
+            columnNames.add(metaData.getColumnLabel(i));
+        }
+        while (resultSet.next()) {
+            Object[] values = new Object[cols];
+            for (int i = 1; i <= cols; i++) {
+                values[i - 1] = readValue(resultSet.getObject(i));
+            }
+            rows.add(values);
+        }
+    }
+
+    /**
+     * LOBs are only valid while the result set is open, so read them now.
+     */
+    private static Object readValue(Object value) throws SQLException {
+        if (value instanceof Clob) {
+            Clob clob = (Clob) value;
+            return clob.getSubString(1, (int) clob.length());
+        }
+        if (value instanceof Blob) {
+            Blob blob = (Blob) value;
+            return blob.getBytes(1, (int) blob.length());
+        }
+        return value;
+    }
+
+    /**
+     * @see io.apiman.gateway.engine.components.jdbc.IJdbcResultSet#getColumnNames()
+     */
+    @Override
+    public List<String> getColumnNames() {
+        return columnNames;
+    }
+
+    /**
+     * @see io.apiman.gateway.engine.components.jdbc.IJdbcResultSet#getNumColumns()
+     */
+    @Override
+    public int getNumColumns() {
+        return columnNames.size();
+    }
+
+    /**
+     * @see io.apiman.gateway.engine.components.jdbc.IJdbcResultSet#getRow()
+     */
+    @Override
+    public int getRow() {
+        return row;
+    }
+
+    /**
+     * @see io.apiman.gateway.engine.components.jdbc.IJdbcResultSet#next()
+     */
+    @Override
+    public boolean next() {
+        if (row < rows.size()) {
+            row++;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @see io.apiman.gateway.engine.components.jdbc.IJdbcResultSet#hasNext()
+     */
+    @Override
+    public boolean hasNext() {
+        return row < rows.size();
+    }
+
+    /**
+     * @see io.apiman.gateway.engine.components.jdbc.IJdbcResultSet#getString(int)
+     */
+    @Override
+    public String getString(int index) throws IndexOutOfBoundsException {
+        Object value = getValue(index);
+        return value == null ? null : String.valueOf(value);
+    }
+
+    /**
+     * @see io.apiman.gateway.engine.components.jdbc.IJdbcResultSet#getShort(int)
+     */
+    @Override
+    public Short getShort(int index) throws IndexOutOfBoundsException {
+        Number value = getNumber(index);
+        return value == null ? null : value.shortValue();
+    }
+
+    /**
+     * @see io.apiman.gateway.engine.components.jdbc.IJdbcResultSet#getInteger(int)
+     */
+    @Override
+    public Integer getInteger(int index) {
+        Number value = getNumber(index);
+        return value == null ? null : value.intValue();
+    }
+
+    /**
+     * @see io.apiman.gateway.engine.components.jdbc.IJdbcResultSet#getLong(int)
+     */
+    @Override
+    public Long getLong(int index) {
+        Number value = getNumber(index);
+        return value == null ? null : value.longValue();
+    }
+
+    /**
+     * @see io.apiman.gateway.engine.components.jdbc.IJdbcResultSet#getDouble(int)
+     */
+    @Override
+    public Double getDouble(int index) {
+        Number value = getNumber(index);
+        return value == null ? null : value.doubleValue();
+    }
+
+    /**
+     * @see io.apiman.gateway.engine.components.jdbc.IJdbcResultSet#getBigDecimal(int)
+     */
+    @Override
+    public BigDecimal getBigDecimal(int index) {
+        Object value = getValue(index);
+        if (value == null || value instanceof BigDecimal) {
+            return (BigDecimal) value;
+        }
+        try {
+            return new BigDecimal(String.valueOf(value));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @see io.apiman.gateway.engine.components.jdbc.IJdbcResultSet#getBoolean(int)
+     */
+    @Override
+    public Boolean getBoolean(int index) {
+        Object value = getValue(index);
+        if (value == null || value instanceof Boolean) {
+            return (Boolean) value;
+        }
+        if (value instanceof Number) {
+            return ((Number) value).intValue() != 0;
+        }
+        return Boolean.valueOf(String.valueOf(value));
+    }
+
+    /**
+     * @see io.apiman.gateway.engine.components.jdbc.IJdbcResultSet#getBytes(int)
+     */
+    @Override
+    public byte[] getBytes(int index) {
+        Object value = getValue(index);
+        return value instanceof byte[] ? (byte[]) value : null;
+    }
+
+    /**
+     * @see io.apiman.gateway.engine.components.jdbc.IJdbcResultSet#getDateTime(int)
+     */
+    @Override
+    public DateTime getDateTime(int index) {
+        Object value = getValue(index);
+        return value instanceof Date ? new DateTime(((Date) value).getTime()) : null;
+    }
+
+    /**
+     * @see io.apiman.gateway.engine.components.jdbc.IJdbcResultSet#close()
+     */
+    @Override
+    public void close() {
+        rows.clear();
+        row = 0;
+    }
+
+    /**
+     * Gets a value (by 1-based column index) from the current row.
+     */
+    private Object getValue(int index) throws IndexOutOfBoundsException {
+        if (row == 0 || row > rows.size()) {
+            throw new IndexOutOfBoundsException("No current row."); //$NON-NLS-1$
+        }
+        return rows.get(row - 1)[index - 1];
+    }
+
+    /**
+     * Gets a numeric value from the current row.
+     */
+    private Number getNumber(int index) {
+        Object value = getValue(index);
+        if (value == null || value instanceof Number) {
+            return (Number) value;
+        }
+        try {
+            return new BigDecimal(String.valueOf(value).trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2017 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.apiman.gateway.engine.impl;
+
+import io.apiman.gateway.engine.components.IBufferFactoryComponent;
+import io.apiman.gateway.engine.io.ByteArrayPool;
+import io.apiman.gateway.engine.io.ByteBuffer;
+import io.apiman.gateway.engine.io.IApimanBuffer;
+
+import java.io.UnsupportedEncodingException;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Implementation of {@link IBufferFactoryComponent} that takes the backing arrays
+ * of its buffers from a {@link ByteArrayPool}, and returns them to it when the
+ * buffers are released.  Buffers that are never released are simply garbage
+ * collected.
+ *
+ * Configuration options:
+ *
+ *     pool.minBufferSize  - the smallest pooled array (default 256 bytes)
+ *     pool.maxBufferSize  - the largest pooled array (default 64k)
+ *     pool.maxIdle        - the maximum idle arrays per (power of two) size (default 256)
+ *
+ * @author eric.wittmann@redhat.com
+ */
+public class PooledBufferFactoryComponent implements IBufferFactoryComponent {
+
+    private static final int DEFAULT_BUFFER_SIZE = 1024;
+
+    private final ByteArrayPool pool;
+
+    /**
+     * Constructor.
+     */
+    public PooledBufferFactoryComponent() {
+        this(Collections.<String, String>emptyMap());
+    }
+
+    /**
+     * Constructor.
+     * @param config map of configuration options
+     */
+    public PooledBufferFactoryComponent(Map<String, String> config) {
+        int minBufferSize = 256;
+        int maxBufferSize = 64 * 1024;
+        int maxIdle = 256;
+        if (config.containsKey("pool.minBufferSize")) { //$NON-NLS-1$
+            minBufferSize = new Integer(config.get("pool.minBufferSize")); //$NON-NLS-1$
+        }
+        if (config.containsKey("pool.maxBufferSize")) { //$NON-NLS-1$
+            maxBufferSize = new Integer(config.get("pool.maxBufferSize")); //$NON-NLS-1$
+        }
+        if (config.containsKey("pool.maxIdle")) { //$NON-NLS-1$
+            maxIdle = new Integer(config.get("pool.maxIdle")); //$NON-NLS-1$
+        }
+        pool = new ByteArrayPool(minBufferSize, maxBufferSize, maxIdle);
+    }
+
+    /**
+     * @see io.apiman.gateway.engine.components.IBufferFactoryComponent#createBuffer()
+     */
+    @Override
+    public IApimanBuffer createBuffer() {
+        return createBuffer(DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * @see io.apiman.gateway.engine.components.IBufferFactoryComponent#createBuffer(int)
+     */
+    @Override
+    public IApimanBuffer createBuffer(int sizeHint) {
+        return new ByteBuffer(pool.acquire(sizeHint), 0);
+    }
+
+    /**
+     * @see io.apiman.gateway.engine.components.IBufferFactoryComponent#createBuffer(java.lang.String)
+     */
+    @Override
+    public IApimanBuffer createBuffer(String stringData) {
+        return createBuffer(stringData.getBytes());
+    }
+
+    /**
+     * @see io.apiman.gateway.engine.components.IBufferFactoryComponent#createBuffer(java.lang.String,
+     *      java.lang.String)
+     */
+    @Override
+    public IApimanBuffer createBuffer(String stringData, String enc) {
+        try {
+            return createBuffer(stringData.getBytes(enc));
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @see io.apiman.gateway.engine.components.IBufferFactoryComponent#createBuffer(byte[])
+     */
+    @Override
+    public IApimanBuffer createBuffer(byte[] byteData) {
+        IApimanBuffer buffer = createBuffer(byteData.length);
+        buffer.append(byteData);
+        return buffer;
+    }
+
+    /**
+     * @see io.apiman.gateway.engine.components.IBufferFactoryComponent#cloneBuffer(io.apiman.gateway.engine.io.IApimanBuffer)
+     */
+    @Override
+    public IApimanBuffer cloneBuffer(IApimanBuffer buffer) {
+        IApimanBuffer clone = createBuffer(buffer.length());
+        clone.append(buffer);
+        return clone;
+    }
+
+    /**
+     * @see io.apiman.gateway.engine.components.IBufferFactoryComponent#release(io.apiman.gateway.engine.io.IApimanBuffer)
+     */
+    @Override
+    public void release(IApimanBuffer buffer) {
+        if (buffer instanceof ByteBuffer) {
+            pool.release((byte[]) buffer.getNativeBuffer());
+        }
+    }
+
+    /**
+     * @return the pool
+     */
+    protected ByteArrayPool getPool() {
+        return pool;
+    }
+
+}
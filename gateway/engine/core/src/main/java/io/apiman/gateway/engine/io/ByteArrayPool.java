@@ -0,0 +1,125 @@
+/*
+ * Copyright 2017 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.apiman.gateway.engine.io;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A pool of byte arrays, in power-of-two size classes.  Arrays larger than the
+ * maximum pooled size are simply allocated (and never pooled).  Each size class
+ * holds at most a fixed number of idle arrays - releasing an array to a full
+ * size class just leaves it to the garbage collector.
+ *
+ * @author eric.wittmann@redhat.com
+ */
+public class ByteArrayPool {
+
+    /**
+     * The pool shared by default by the engine's buffers.
+     */
+    public static final ByteArrayPool SHARED = new ByteArrayPool(256, 64 * 1024, 256);
+
+    private final int minSize;
+    private final int maxSize;
+    private final int maxPerSizeClass;
+    private final Queue<byte[]>[] sizeClasses;
+    private final AtomicInteger[] counts;
+
+    /**
+     * Constructor.
+     * @param minSize the smallest array size (rounded up to a power of two)
+     * @param maxSize the largest pooled array size (rounded up to a power of two)
+     * @param maxPerSizeClass the maximum number of idle arrays kept per size class
+     */
+    @SuppressWarnings("unchecked")
+    public ByteArrayPool(int minSize, int maxSize, int maxPerSizeClass) {
+        this.minSize = ceilingPowerOfTwo(Math.max(16, minSize));
+        this.maxSize = ceilingPowerOfTwo(Math.max(this.minSize, maxSize));
+        this.maxPerSizeClass = maxPerSizeClass;
+        int classes = Integer.numberOfTrailingZeros(this.maxSize) - Integer.numberOfTrailingZeros(this.minSize) + 1;
+        sizeClasses = new Queue[classes];
+        counts = new AtomicInteger[classes];
+        for (int i = 0; i < classes; i++) {
+            sizeClasses[i] = new ConcurrentLinkedQueue<>();
+            counts[i] = new AtomicInteger();
+        }
+    }
+
+    /**
+     * Gets an array of at least the given size.  Its contents are undefined.
+     * @param size the minimum size
+     * @return the array
+     */
+    public byte[] acquire(int size) {
+        if (size > maxSize) {
+            return new byte[size];
+        }
+        int sizeClass = sizeClass(size);
+        byte[] array = sizeClasses[sizeClass].poll();
+        if (array == null) {
+            return new byte[minSize << sizeClass];
+        }
+        counts[sizeClass].decrementAndGet();
+        return array;
+    }
+
+    /**
+     * Returns an array to the pool.  The caller must no longer use it.
+     * @param array the array
+     */
+    public void release(byte[] array) {
+        int length = array.length;
+        if (length < minSize || length > maxSize || Integer.bitCount(length) != 1) {
+            return;
+        }
+        int sizeClass = sizeClass(length);
+        if (counts[sizeClass].incrementAndGet() > maxPerSizeClass) {
+            counts[sizeClass].decrementAndGet();
+            return;
+        }
+        sizeClasses[sizeClass].offer(array);
+    }
+
+    /**
+     * @return the largest pooled array size
+     */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @return the number of idle arrays in the pool
+     */
+    public int getIdleCount() {
+        int idle = 0;
+        for (AtomicInteger count : counts) {
+            idle += count.get();
+        }
+        return idle;
+    }
+
+    private int sizeClass(int size) {
+        int rounded = ceilingPowerOfTwo(Math.max(size, minSize));
+        return Integer.numberOfTrailingZeros(rounded) - Integer.numberOfTrailingZeros(minSize);
+    }
+
+    private static int ceilingPowerOfTwo(int value) {
+        return value <= 1 ? 1 : Integer.highestOneBit(value - 1) << 1;
+    }
+
+}
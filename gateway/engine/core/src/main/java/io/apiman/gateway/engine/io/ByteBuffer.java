@@ -88,6 +88,8 @@ public class ByteBuffer implements IApimanBuffer {
     }
 
     /**
+     * Returns the backing array, without copying it - note that it may be longer
+     * than the buffer's {@link #length()}.
      * @see io.apiman.gateway.engine.io.IApimanBuffer#getNativeBuffer()
      */
     @Override
@@ -132,17 +134,12 @@ public class ByteBuffer implements IApimanBuffer {
      */
     @Override
     public void append(IApimanBuffer buffer, int offset, int length) {
-        int sizeToAppend = length;
-        int newBufferSize = this.bytesInBuffer + sizeToAppend;
-        if (this.buffer.length >= newBufferSize) {
-            System.arraycopy(buffer.getBytes(), offset, this.buffer, bytesInBuffer, sizeToAppend);
+        if (buffer instanceof ByteBuffer) {
+            // No need for a defensive copy of the source
+            append((byte[]) buffer.getNativeBuffer(), offset, length);
         } else {
-            byte [] newBuffer = new byte[newBufferSize];
-            System.arraycopy(this.buffer, 0, newBuffer, 0, bytesInBuffer);
-            System.arraycopy(buffer.getBytes(), offset, newBuffer, bytesInBuffer, sizeToAppend);
-            this.buffer = newBuffer;
+            append(buffer.getBytes(offset, offset + length));
         }
-        this.bytesInBuffer = newBufferSize;
     }
 
     /**
@@ -166,9 +163,8 @@ public class ByteBuffer implements IApimanBuffer {
      */
     @Override
     public void append(byte b) {
-        byte [] bytes = new byte[1];
-        bytes[0] = b;
-        append(bytes);
+        ensureCapacity(bytesInBuffer + 1);
+        buffer[bytesInBuffer++] = b;
     }
 
     /**
@@ -213,14 +209,7 @@ public class ByteBuffer implements IApimanBuffer {
      */
     @Override
     public void append(byte[] bytes) {
-        int requiredBytes = bytesInBuffer + bytes.length;
-        if (requiredBytes > buffer.length) {
-            byte [] oldbuffer = buffer;
-            buffer = new byte[requiredBytes];
-            System.arraycopy(oldbuffer, 0, buffer, 0, bytesInBuffer);
-        }
-        System.arraycopy(bytes, 0, buffer, bytesInBuffer, bytes.length);
-        bytesInBuffer = requiredBytes;
+        append(bytes, 0, bytes.length);
     }
 
     /**
@@ -229,15 +218,23 @@ public class ByteBuffer implements IApimanBuffer {
     @Override
     public void append(byte[] bytes, int offset, int length) {
         int requiredBytes = bytesInBuffer + length;
-        if (requiredBytes > buffer.length) {
-            byte [] oldbuffer = buffer;
-            buffer = new byte[requiredBytes];
-            System.arraycopy(oldbuffer, 0, buffer, 0, bytesInBuffer);
-        }
+        ensureCapacity(requiredBytes);
         System.arraycopy(bytes, offset, buffer, bytesInBuffer, length);
         bytesInBuffer = requiredBytes;
     }
 
+    /**
+     * Grows the backing array (at least doubling it, so that a series of appends
+     * costs amortized constant time per byte) if it can't hold the given number
+     * of bytes.
+     */
+    private void ensureCapacity(int requiredBytes) {
+        if (requiredBytes > buffer.length) {
+            int newSize = (int) Math.min(Integer.MAX_VALUE - 8, Math.max(requiredBytes, buffer.length * 2L));
+            buffer = Arrays.copyOf(buffer, newSize);
+        }
+    }
+
     /**
      * @see io.apiman.gateway.engine.io.IApimanBuffer#getString(int, int)
      */
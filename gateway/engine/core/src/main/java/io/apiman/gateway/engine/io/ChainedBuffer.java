@@ -0,0 +1,356 @@
+/*
+ * Copyright 2017 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.apiman.gateway.engine.io;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An {@link IApimanBuffer} made up of a chain of segments.  Appending never
+ * copies what is already in the buffer: once the last segment is full a new
+ * one is added, each twice the size of the last (up to the pool's maximum
+ * array size).  This makes it suitable for accumulating large payloads chunk
+ * by chunk.  The segments come from a {@link ByteArrayPool}, and are returned
+ * to it by {@link #release()}.  Inserting copies only what follows the
+ * insertion point.
+ *
+ * @author eric.wittmann@redhat.com
+ */
+@SuppressWarnings("nls")
+public class ChainedBuffer implements IApimanBuffer {
+
+    private static final int INITIAL_SEGMENT_SIZE = 2048;
+
+    private final ByteArrayPool pool;
+    private final List<byte[]> segments = new ArrayList<>();
+    private int length = 0;
+    // The number of bytes used in the last segment
+    private int tailLength = 0;
+
+    /**
+     * Constructor.
+     */
+    public ChainedBuffer() {
+        this(ByteArrayPool.SHARED);
+    }
+
+    /**
+     * Constructor.
+     * @param pool the pool to take the segments from
+     */
+    public ChainedBuffer(ByteArrayPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Returns the (read-only) list of segments - note that the last one is
+     * usually only partly used.
+     * @see io.apiman.gateway.engine.io.IApimanBuffer#getNativeBuffer()
+     */
+    @Override
+    public Object getNativeBuffer() {
+        return Collections.unmodifiableList(segments);
+    }
+
+    /**
+     * @see io.apiman.gateway.engine.io.IApimanBuffer#length()
+     */
+    @Override
+    public int length() {
+        return length;
+    }
+
+    /**
+     * @see io.apiman.gateway.engine.io.IApimanBuffer#insert(int, io.apiman.gateway.engine.io.IApimanBuffer)
+     */
+    @Override
+    public void insert(int index, IApimanBuffer buffer) {
+        insert(index, buffer, 0, buffer.length());
+    }
+
+    /**
+     * @see io.apiman.gateway.engine.io.IApimanBuffer#insert(int, io.apiman.gateway.engine.io.IApimanBuffer, int, int)
+     */
+    @Override
+    public void insert(int index, IApimanBuffer buffer, int offset, int length) {
+        insert(index, buffer.getBytes(offset, offset + length));
+    }
+
+    /**
+     * @see io.apiman.gateway.engine.io.IApimanBuffer#append(io.apiman.gateway.engine.io.IApimanBuffer)
+     */
+    @Override
+    public void append(IApimanBuffer buffer) {
+        append(buffer, 0, buffer.length());
+    }
+
+    /**
+     * @see io.apiman.gateway.engine.io.IApimanBuffer#append(io.apiman.gateway.engine.io.IApimanBuffer, int, int)
+     */
+    @Override
+    public void append(IApimanBuffer buffer, int offset, int length) {
+        if (buffer instanceof ByteBuffer) {
+            append((byte[]) buffer.getNativeBuffer(), offset, length);
+        } else {
+            append(buffer.getBytes(offset, offset + length));
+        }
+    }
+
+    /**
+     * @see io.apiman.gateway.engine.io.IApimanBuffer#get(int)
+     */
+    @Override
+    public byte get(int index) {
+        checkIndex(index);
+        for (byte[] segment : segments) {
+            if (index < segment.length) {
+                return segment[index];
+            }
+            index -= segment.length;
+        }
+        throw new IndexOutOfBoundsException();
+    }
+
+    /**
+     * @see io.apiman.gateway.engine.io.IApimanBuffer#set(int, byte)
+     */
+    @Override
+    public void set(int index, byte b) {
+        checkIndex(index);
+        for (byte[] segment : segments) {
+            if (index < segment.length) {
+                segment[index] = b;
+                return;
+            }
+            index -= segment.length;
+        }
+    }
+
+    /**
+     * @see io.apiman.gateway.engine.io.IApimanBuffer#append(byte)
+     */
+    @Override
+    public void append(byte b) {
+        if (segments.isEmpty() || tailLength == tail().length) {
+            addSegment(1);
+        }
+        tail()[tailLength++] = b;
+        length++;
+    }
+
+    /**
+     * @see io.apiman.gateway.engine.io.IApimanBuffer#getBytes()
+     */
+    @Override
+    public byte[] getBytes() {
+        return getBytes(0, length);
+    }
+
+    /**
+     * @see io.apiman.gateway.engine.io.IApimanBuffer#getBytes(int, int)
+     */
+    @Override
+    public byte[] getBytes(int start, int end) {
+        if (start < 0 || end > length || start > end) {
+            throw new IndexOutOfBoundsException();
+        }
+        byte[] rval = new byte[end - start];
+        int position = 0;
+        int copied = 0;
+        for (byte[] segment : segments) {
+            int segmentEnd = position + segment.length;
+            if (segmentEnd > start && position < end) {
+                int from = Math.max(start, position) - position;
+                int to = Math.min(end, segmentEnd) - position;
+                System.arraycopy(segment, from, rval, copied, to - from);
+                copied += to - from;
+            }
+            position = segmentEnd;
+        }
+        return rval;
+    }
+
+    /**
+     * @see io.apiman.gateway.engine.io.IApimanBuffer#insert(int, byte[])
+     */
+    @Override
+    public void insert(int index, byte[] b) {
+        insert(index, b, 0, b.length);
+    }
+
+    /**
+     * @see io.apiman.gateway.engine.io.IApimanBuffer#insert(int, byte[], int, int)
+     */
+    @Override
+    public void insert(int index, byte[] b, int offset, int length) {
+        if (index < 0 || index > this.length) {
+            throw new IndexOutOfBoundsException(String.valueOf(index));
+        }
+        if (index == this.length) {
+            append(b, offset, length);
+            return;
+        }
+        // Only what follows the insertion point is copied.
+        byte[] rest = getBytes(index, this.length);
+        truncate(index);
+        append(b, offset, length);
+        append(rest);
+    }
+
+    /**
+     * @see io.apiman.gateway.engine.io.IApimanBuffer#append(byte[])
+     */
+    @Override
+    public void append(byte[] bytes) {
+        append(bytes, 0, bytes.length);
+    }
+
+    /**
+     * @see io.apiman.gateway.engine.io.IApimanBuffer#append(byte[], int, int)
+     */
+    @Override
+    public void append(byte[] bytes, int offset, int length) {
+        while (length > 0) {
+            if (segments.isEmpty() || tailLength == tail().length) {
+                addSegment(length);
+            }
+            byte[] tail = tail();
+            int toCopy = Math.min(length, tail.length - tailLength);
+            System.arraycopy(bytes, offset, tail, tailLength, toCopy);
+            tailLength += toCopy;
+            this.length += toCopy;
+            offset += toCopy;
+            length -= toCopy;
+        }
+    }
+
+    /**
+     * @see io.apiman.gateway.engine.io.IApimanBuffer#getString(int, int)
+     */
+    @Override
+    public String getString(int start, int end) {
+        return new String(getBytes(start, end));
+    }
+
+    /**
+     * @see io.apiman.gateway.engine.io.IApimanBuffer#getString(int, int, java.lang.String)
+     */
+    @Override
+    public String getString(int start, int end, String encoding) throws UnsupportedEncodingException {
+        return new String(getBytes(start, end), encoding);
+    }
+
+    /**
+     * @see io.apiman.gateway.engine.io.IApimanBuffer#insert(int, java.lang.String)
+     */
+    @Override
+    public void insert(int index, String string) {
+        insert(index, string.getBytes());
+    }
+
+    /**
+     * @see io.apiman.gateway.engine.io.IApimanBuffer#insert(int, java.lang.String, java.lang.String)
+     */
+    @Override
+    public void insert(int index, String string, String encoding) {
+        insert(index, string.getBytes(Charset.forName(encoding)));
+    }
+
+    /**
+     * @see io.apiman.gateway.engine.io.IApimanBuffer#append(java.lang.String)
+     */
+    @Override
+    public void append(String string) {
+        append(string.getBytes());
+    }
+
+    /**
+     * @see io.apiman.gateway.engine.io.IApimanBuffer#append(java.lang.String, java.lang.String)
+     */
+    @Override
+    public void append(String string, String encoding) throws UnsupportedEncodingException {
+        append(string.getBytes(encoding));
+    }
+
+    /**
+     * @see io.apiman.gateway.engine.io.IApimanBuffer#toString(java.lang.String)
+     */
+    @Override
+    public String toString(String encoding) {
+        return new String(getBytes(), Charset.forName(encoding));
+    }
+
+    /**
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return new String(getBytes());
+    }
+
+    /**
+     * Returns the segments to the pool and empties the buffer.  The buffer may be
+     * reused afterwards.
+     */
+    public void release() {
+        for (byte[] segment : segments) {
+            pool.release(segment);
+        }
+        segments.clear();
+        length = 0;
+        tailLength = 0;
+    }
+
+    /**
+     * Shortens the buffer to the given length, returning any segments that are no
+     * longer needed to the pool.
+     */
+    private void truncate(int newLength) {
+        int position = 0;
+        int keep = 0;
+        while (keep < segments.size() && position < newLength) {
+            position += segments.get(keep++).length;
+        }
+        while (segments.size() > keep) {
+            pool.release(segments.remove(segments.size() - 1));
+        }
+        tailLength = keep == 0 ? 0 : segments.get(keep - 1).length - (position - newLength);
+        length = newLength;
+    }
+
+    /**
+     * Adds a segment big enough for at least some of the given number of bytes.
+     */
+    private void addSegment(int required) {
+        int size = segments.isEmpty() ? INITIAL_SEGMENT_SIZE : Math.min(tail().length * 2, pool.getMaxSize());
+        segments.add(pool.acquire(Math.max(size, Math.min(required, pool.getMaxSize()))));
+        tailLength = 0;
+    }
+
+    private byte[] tail() {
+        return segments.get(segments.size() - 1);
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException(String.valueOf(index));
+        }
+    }
+
+}
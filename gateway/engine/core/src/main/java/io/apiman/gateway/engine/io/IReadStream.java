@@ -48,4 +48,19 @@ public interface IReadStream<H> extends IStream {
      * @return the head object
      */
     public H getHead();
+
+    /**
+     * Asks the stream to stop delivering body chunks (for example because the
+     * consumer can't keep up) until {@link #resume()} is called.  A chunk that is
+     * already in flight may still be delivered.  Streams that can't be paused
+     * ignore this.
+     */
+    default void pause() {
+    }
+
+    /**
+     * Resumes the delivery of body chunks after {@link #pause()}.
+     */
+    default void resume() {
+    }
 }
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2017 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.apiman.gateway.engine.io;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * A JSON {@link StreamingPayload}.  Values are addressed by JSON Pointer (RFC 6901),
+ * for example <code>/order/items/0/quantity</code>, and found with Jackson's streaming
+ * parser, skipping over everything that is not on the way to them.
+ *
+ * @author eric.wittmann@redhat.com
+ */
+public class JsonStreamingPayload extends StreamingPayload {
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+    private static final JsonFactory factory = mapper.getFactory();
+
+    /**
+     * Constructor.
+     * @param bytes the (UTF-8 encoded) JSON payload
+     */
+    public JsonStreamingPayload(byte[] bytes) {
+        super(bytes);
+    }
+
+    /**
+     * Returns the value at the given JSON Pointer: a String, Number, Boolean, List
+     * or Map, or null.
+     * @see io.apiman.gateway.engine.io.StreamingPayload#get(java.lang.String)
+     */
+    @Override
+    public Object get(String path) throws Exception {
+        try (JsonParser parser = factory.createParser(getBytes())) {
+            if (!seek(parser, parsePointer(path))) {
+                return null;
+            }
+            return mapper.readValue(parser, Object.class);
+        }
+    }
+
+    /**
+     * Replaces the value at the given JSON Pointer with the JSON serialization of
+     * the given value.
+     * @see io.apiman.gateway.engine.io.StreamingPayload#set(java.lang.String, java.lang.Object)
+     */
+    @Override
+    public boolean set(String path, Object value) throws Exception {
+        int start, end;
+        try (JsonParser parser = factory.createParser(getBytes())) {
+            if (!seek(parser, parsePointer(path))) {
+                return false;
+            }
+            start = (int) parser.getTokenLocation().getByteOffset();
+            if (parser.currentToken().isStructStart()) {
+                parser.skipChildren();
+            } else if (parser.currentToken() == JsonToken.VALUE_STRING) {
+                // Strings are only read up to the closing quote once asked for.
+                parser.getText();
+            }
+            end = (int) parser.getCurrentLocation().getByteOffset();
+        }
+        splice(start, end, mapper.writeValueAsBytes(value));
+        return true;
+    }
+
+    /**
+     * Advances the parser to the first token of the value with the given path.
+     * @return false if there is no such value
+     */
+    private static boolean seek(JsonParser parser, List<String> path) throws Exception {
+        JsonToken token = parser.nextToken();
+        for (String name : path) {
+            if (token == JsonToken.START_OBJECT) {
+                while (true) {
+                    token = parser.nextToken();
+                    if (token != JsonToken.FIELD_NAME) {
+                        return false;
+                    }
+                    token = parser.nextToken();
+                    if (name.equals(parser.getCurrentName())) {
+                        break;
+                    }
+                    parser.skipChildren();
+                }
+            } else if (token == JsonToken.START_ARRAY) {
+                int index = parseIndex(name);
+                if (index < 0) {
+                    return false;
+                }
+                for (int i = 0; ; i++) {
+                    token = parser.nextToken();
+                    if (token == JsonToken.END_ARRAY) {
+                        return false;
+                    }
+                    if (i == index) {
+                        break;
+                    }
+                    parser.skipChildren();
+                }
+            } else {
+                return false;
+            }
+        }
+        return token != null;
+    }
+
+    /**
+     * Splits a JSON Pointer into its (unescaped) reference tokens.
+     */
+    private static List<String> parsePointer(String pointer) {
+        List<String> tokens = new ArrayList<>();
+        if (pointer.isEmpty()) {
+            return tokens;
+        }
+        if (pointer.charAt(0) != '/') {
+            throw new IllegalArgumentException("Invalid JSON Pointer: " + pointer); //$NON-NLS-1$
+        }
+        for (String token : pointer.substring(1).split("/", -1)) { //$NON-NLS-1$
+            tokens.add(token.replace("~1", "/").replace("~0", "~")); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+        }
+        return tokens;
+    }
+
+    /**
+     * Parses an array index reference token, returning -1 if it isn't one.
+     */
+    private static int parseIndex(String token) {
+        if (token.isEmpty() || token.length() > 9 || (token.length() > 1 && token.charAt(0) == '0')) {
+            return -1;
+        }
+        for (int i = 0; i < token.length(); i++) {
+            if (token.charAt(i) < '0' || token.charAt(i) > '9') {
+                return -1;
+            }
+        }
+        return Integer.parseInt(token);
+    }
+
+}
@@ -20,14 +20,12 @@ import java.io.ByteArrayInputStream;
 import java.io.InputStream;
 import java.io.StringWriter;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.soap.SOAPElement;
 import javax.xml.soap.SOAPEnvelope;
 import javax.xml.soap.SOAPFactory;
+import javax.xml.soap.SOAPException;
 import javax.xml.soap.SOAPMessage;
 import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
 
@@ -39,6 +37,14 @@ import org.w3c.dom.Document;
  * @author eric.wittmann@redhat.com
  */
 public class SoapPayloadIO implements IPayloadIO<SOAPEnvelope> {
+
+    private static final ThreadLocal<SOAPFactory> soapFactories = ThreadLocal.withInitial(() -> {
+        try {
+            return SOAPFactory.newInstance();
+        } catch (SOAPException e) {
+            throw new RuntimeException(e);
+        }
+    });
     
     /**
      * Constructor.
@@ -52,12 +58,8 @@ public class SoapPayloadIO implements IPayloadIO<SOAPEnvelope> {
      * @throws Exception
      */
     public SOAPEnvelope parse(InputStream input) throws Exception {
-        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-        factory.setNamespaceAware(true);
-        factory.setValidating(false);
-        DocumentBuilder builder = factory.newDocumentBuilder();
-        Document doc = builder.parse(input);
-        SOAPElement soapElement = SOAPFactory.newInstance().createElement(doc.getDocumentElement());
+        Document doc = XmlPayloadIO.getDocumentBuilder().parse(input);
+        SOAPElement soapElement = soapFactories.get().createElement(doc.getDocumentElement());
         SOAPEnvelope envelope = (SOAPEnvelope) soapElement;
         return envelope;
     }
@@ -73,12 +75,8 @@ public class SoapPayloadIO implements IPayloadIO<SOAPEnvelope> {
      */
     @Override
     public SOAPEnvelope unmarshall(InputStream input) throws Exception {
-        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-        factory.setNamespaceAware(true);
-        factory.setValidating(false);
-        DocumentBuilder builder = factory.newDocumentBuilder();
-        Document doc = builder.parse(input);
-        SOAPElement soapElement = SOAPFactory.newInstance().createElement(doc.getDocumentElement());
+        Document doc = XmlPayloadIO.getDocumentBuilder().parse(input);
+        SOAPElement soapElement = soapFactories.get().createElement(doc.getDocumentElement());
         SOAPEnvelope envelope = (SOAPEnvelope) soapElement;
         return envelope;
     }
@@ -98,7 +96,7 @@ public class SoapPayloadIO implements IPayloadIO<SOAPEnvelope> {
      */
     @Override
     public byte[] marshall(SOAPEnvelope data) throws Exception {
-        Transformer transformer = TransformerFactory.newInstance().newTransformer();
+        Transformer transformer = XmlPayloadIO.getTransformer();
         StreamResult result = new StreamResult(new StringWriter());
         DOMSource source = new DOMSource(data);
         transformer.transform(source, result);
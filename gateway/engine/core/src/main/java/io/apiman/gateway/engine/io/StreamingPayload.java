@@ -0,0 +1,79 @@
+/*
+ * Copyright 2017 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.apiman.gateway.engine.io;
+
+/**
+ * A request payload that is left in its original (serialized) form rather than
+ * being parsed into a DOM or a Map.  Policies read and replace individual values
+ * by path; each access streams over the payload to find the value, and a
+ * replacement splices only the new value into the payload, so that everything
+ * a policy did not touch is passed on byte for byte.
+ *
+ * @see StreamingPayloadIO
+ * @author eric.wittmann@redhat.com
+ */
+public abstract class StreamingPayload {
+
+    private byte[] bytes;
+
+    /**
+     * Constructor.
+     * @param bytes the serialized payload
+     */
+    public StreamingPayload(byte[] bytes) {
+        this.bytes = bytes;
+    }
+
+    /**
+     * Returns the value at the given path, or null if there is no such value.
+     * @param path the path of the value
+     * @return the value or null
+     * @throws Exception when the payload cannot be parsed
+     */
+    public abstract Object get(String path) throws Exception;
+
+    /**
+     * Replaces the value at the given path.  Values are only replaced, never added,
+     * so nothing happens if the payload has no value at the given path.
+     * @param path the path of the value
+     * @param value the new value
+     * @return true if the value was replaced
+     * @throws Exception when the payload cannot be parsed
+     */
+    public abstract boolean set(String path, Object value) throws Exception;
+
+    /**
+     * @return the serialized payload, including any replaced values
+     */
+    public byte[] getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Replaces the given range of the serialized payload.
+     * @param start the index of the first byte to replace
+     * @param end the index after the last byte to replace
+     * @param replacement the bytes to replace the range with
+     */
+    protected void splice(int start, int end, byte[] replacement) {
+        byte[] spliced = new byte[bytes.length - (end - start) + replacement.length];
+        System.arraycopy(bytes, 0, spliced, 0, start);
+        System.arraycopy(replacement, 0, spliced, start, replacement.length);
+        System.arraycopy(bytes, end, spliced, start + replacement.length, bytes.length - end);
+        bytes = spliced;
+    }
+
+}
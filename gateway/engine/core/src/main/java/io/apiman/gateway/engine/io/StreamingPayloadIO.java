@@ -0,0 +1,69 @@
+/*
+ * Copyright 2017 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.apiman.gateway.engine.io;
+
+import java.io.InputStream;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Reads/writes {@link StreamingPayload}s.  This is used instead of the DOM and Map
+ * based payload IOs when an API's endpoint is configured with the
+ * {@value #ENDPOINT_PROPERTY} endpoint property, so that large payloads can be made
+ * available to policies without being parsed into an object model (and then
+ * serialized again).
+ *
+ * @author eric.wittmann@redhat.com
+ */
+public class StreamingPayloadIO implements IPayloadIO<StreamingPayload> {
+
+    public static final String ENDPOINT_PROPERTY = "payload.streaming"; //$NON-NLS-1$
+
+    private final boolean xml;
+
+    /**
+     * Constructor.
+     * @param xml true for XML (and SOAP) payloads, false for JSON payloads
+     */
+    public StreamingPayloadIO(boolean xml) {
+        this.xml = xml;
+    }
+
+    /**
+     * @see io.apiman.gateway.engine.io.IPayloadIO#unmarshall(java.io.InputStream)
+     */
+    @Override
+    public StreamingPayload unmarshall(InputStream input) throws Exception {
+        return unmarshall(IOUtils.toByteArray(input));
+    }
+
+    /**
+     * @see io.apiman.gateway.engine.io.IPayloadIO#unmarshall(byte[])
+     */
+    @Override
+    public StreamingPayload unmarshall(byte[] input) throws Exception {
+        return xml ? new XmlStreamingPayload(input) : new JsonStreamingPayload(input);
+    }
+
+    /**
+     * @see io.apiman.gateway.engine.io.IPayloadIO#marshall(java.lang.Object)
+     */
+    @Override
+    public byte[] marshall(StreamingPayload data) throws Exception {
+        return data.getBytes();
+    }
+
+}
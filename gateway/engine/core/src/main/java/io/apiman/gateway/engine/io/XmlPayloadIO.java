@@ -22,7 +22,9 @@ import java.io.StringWriter;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
 import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
@@ -37,16 +39,50 @@ import org.w3c.dom.Document;
  */
 public class XmlPayloadIO implements IPayloadIO<Document> {
 
+    // Creating the factories (and builders/transformers) is far more expensive than
+    // using them, so each thread keeps its own.
+    private static final ThreadLocal<DocumentBuilder> builders = ThreadLocal.withInitial(() -> {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        factory.setValidating(false);
+        try {
+            return factory.newDocumentBuilder();
+        } catch (ParserConfigurationException e) {
+            throw new RuntimeException(e);
+        }
+    });
+    private static final ThreadLocal<Transformer> transformers = ThreadLocal.withInitial(() -> {
+        try {
+            return TransformerFactory.newInstance().newTransformer();
+        } catch (TransformerConfigurationException e) {
+            throw new RuntimeException(e);
+        }
+    });
+
+    /**
+     * @return the current thread's (namespace aware) document builder, reset for use
+     */
+    static DocumentBuilder getDocumentBuilder() {
+        DocumentBuilder builder = builders.get();
+        builder.reset();
+        return builder;
+    }
+
+    /**
+     * @return the current thread's transformer, reset for use
+     */
+    static Transformer getTransformer() {
+        Transformer transformer = transformers.get();
+        transformer.reset();
+        return transformer;
+    }
+
     /**
      * @see io.apiman.gateway.engine.io.IPayloadIO#unmarshall(java.io.InputStream)
      */
     @Override
     public Document unmarshall(InputStream input) throws Exception {
-        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-        factory.setNamespaceAware(true);
-        factory.setValidating(false);
-        DocumentBuilder builder = factory.newDocumentBuilder();
-        Document doc = builder.parse(input);
+        Document doc = getDocumentBuilder().parse(input);
         return doc;
     }
 
@@ -65,7 +101,7 @@ public class XmlPayloadIO implements IPayloadIO<Document> {
      */
     @Override
     public byte[] marshall(Document data) throws Exception {
-        Transformer transformer = TransformerFactory.newInstance().newTransformer();
+        Transformer transformer = getTransformer();
         StreamResult result = new StreamResult(new StringWriter());
         DOMSource source = new DOMSource(data);
         transformer.transform(source, result);
@@ -0,0 +1,391 @@
+/*
+ * Copyright 2017 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.apiman.gateway.engine.io;
+
+import java.io.StringReader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * An XML (or SOAP) {@link StreamingPayload}.  Values are addressed by a simple
+ * subset of XPath: an absolute path of element names, each optionally followed by
+ * a (1 based) position, and optionally ending in an attribute - for example
+ * <code>/Envelope/Body/getQuote/item[2]/symbol</code> or
+ * <code>/Envelope/Header/Security/@mustUnderstand</code>.  Names are matched
+ * against the local name of elements and attributes (any prefix in the path is
+ * ignored) and <code>*</code> matches any element.  The value of an element is
+ * its text content.
+ *
+ * Values are found with a StAX parser.  StAX does not report exactly where in
+ * the payload an event starts or ends though, so to replace an element's content
+ * the element is then located with a (much simpler) scan over the markup of the
+ * already parsed payload.
+ *
+ * @author eric.wittmann@redhat.com
+ */
+public class XmlStreamingPayload extends StreamingPayload {
+
+    private static final Pattern ENCODING = Pattern.compile("^<\\?xml[^>]*encoding\\s*=\\s*[\"']([A-Za-z0-9._:-]+)[\"']"); //$NON-NLS-1$
+    private static final XMLInputFactory inputFactory = createInputFactory();
+
+    private final int bomLength;
+    private final Charset charset;
+    private String xml;
+
+    /**
+     * Constructor.
+     * @param bytes the XML payload
+     */
+    public XmlStreamingPayload(byte[] bytes) {
+        super(bytes);
+        if (bytes.length >= 3 && (bytes[0] & 0xFF) == 0xEF && (bytes[1] & 0xFF) == 0xBB && (bytes[2] & 0xFF) == 0xBF) {
+            bomLength = 3;
+            charset = StandardCharsets.UTF_8;
+        } else if (bytes.length >= 2 && (bytes[0] & 0xFF) == 0xFE && (bytes[1] & 0xFF) == 0xFF) {
+            bomLength = 2;
+            charset = StandardCharsets.UTF_16BE;
+        } else if (bytes.length >= 2 && (bytes[0] & 0xFF) == 0xFF && (bytes[1] & 0xFF) == 0xFE) {
+            bomLength = 2;
+            charset = StandardCharsets.UTF_16LE;
+        } else {
+            bomLength = 0;
+            String prolog = new String(bytes, 0, Math.min(bytes.length, 128), StandardCharsets.ISO_8859_1);
+            Matcher matcher = ENCODING.matcher(prolog);
+            charset = matcher.find() ? Charset.forName(matcher.group(1)) : StandardCharsets.UTF_8;
+        }
+    }
+
+    /**
+     * Returns the text content of the element (or the value of the attribute) at
+     * the given path.
+     * @see io.apiman.gateway.engine.io.StreamingPayload#get(java.lang.String)
+     */
+    @Override
+    public String get(String path) throws Exception {
+        Path xpath = new Path(path);
+        XMLStreamReader reader = inputFactory.createXMLStreamReader(new StringReader(getXml()));
+        try {
+            if (seek(reader, xpath) < 0) {
+                return null;
+            }
+            if (xpath.attribute != null) {
+                for (int i = 0; i < reader.getAttributeCount(); i++) {
+                    if (xpath.attribute.equals(reader.getAttributeLocalName(i))) {
+                        return reader.getAttributeValue(i);
+                    }
+                }
+                return null;
+            }
+            StringBuilder text = new StringBuilder();
+            for (int depth = 1; depth > 0; ) {
+                switch (reader.next()) {
+                case XMLStreamConstants.START_ELEMENT:
+                    depth++;
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    depth--;
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
+                    text.append(reader.getText());
+                    break;
+                default:
+                    break;
+                }
+            }
+            return text.toString();
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Replaces the content of the element at the given path with the given value
+     * (as text).  Attributes cannot be replaced.
+     * @see io.apiman.gateway.engine.io.StreamingPayload#set(java.lang.String, java.lang.Object)
+     */
+    @Override
+    public boolean set(String path, Object value) throws Exception {
+        Path xpath = new Path(path);
+        if (xpath.attribute != null) {
+            throw new IllegalArgumentException("Attributes cannot be replaced: " + path); //$NON-NLS-1$
+        }
+        String xml = getXml();
+        String qname;
+        int ordinal;
+        XMLStreamReader reader = inputFactory.createXMLStreamReader(new StringReader(xml));
+        try {
+            ordinal = seek(reader, xpath);
+            if (ordinal < 0) {
+                return false;
+            }
+            qname = reader.getPrefix() == null || reader.getPrefix().isEmpty() ? reader.getLocalName()
+                    : reader.getPrefix() + ':' + reader.getLocalName();
+            // Parse the rest of the element, so that the markup scan only ever sees well formed XML.
+            for (int depth = 1; depth > 0; ) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    depth++;
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    depth--;
+                }
+            }
+        } finally {
+            reader.close();
+        }
+
+        // tag start, content start, content end
+        int[] element = locate(xml, ordinal);
+        String text = escape(String.valueOf(value));
+        String replacement;
+        if (element[1] == element[2] && xml.charAt(element[1] - 2) == '/') {
+            // An empty element tag (<foo/>) has no content to replace, so replace the tag.
+            replacement = xml.substring(element[0], element[1] - 2).trim() + '>' + text + "</" + qname + '>'; //$NON-NLS-1$
+            element[1] = element[0];
+        } else {
+            replacement = text;
+        }
+        int byteStart = bomLength + xml.substring(0, element[1]).getBytes(charset).length;
+        int byteEnd = byteStart + xml.substring(element[1], element[2]).getBytes(charset).length;
+        splice(byteStart, byteEnd, replacement.getBytes(charset));
+        this.xml = xml.substring(0, element[1]) + replacement + xml.substring(element[2]);
+        return true;
+    }
+
+    /**
+     * @return the decoded payload
+     */
+    private String getXml() {
+        if (xml == null) {
+            byte[] bytes = getBytes();
+            xml = new String(bytes, bomLength, bytes.length - bomLength, charset);
+        }
+        return xml;
+    }
+
+    /**
+     * Advances the reader to the start of the element with the given path.
+     * @return the (1 based) position of the element in document order, or -1 if there is no such element
+     */
+    private static int seek(XMLStreamReader reader, Path path) throws XMLStreamException {
+        int ordinal = 0;
+        int depth = 0;
+        int matched = 0;
+        int seen = 0;
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                ordinal++;
+                depth++;
+                if (depth == matched + 1 && path.steps.get(matched).matches(reader.getLocalName())
+                        && ++seen == path.steps.get(matched).position) {
+                    matched++;
+                    seen = 0;
+                    if (matched == path.steps.size()) {
+                        return ordinal;
+                    }
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                if (depth == matched) {
+                    return -1;
+                }
+                depth--;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Scans the markup of the given (well formed) XML for the element with the given
+     * position in document order.
+     * @return the offsets at which the element's start tag begins, its content begins and its content ends
+     */
+    private static int[] locate(String xml, int ordinal) {
+        int[] element = null;
+        int count = 0;
+        int depth = 0;
+        int i = 0;
+        while (true) {
+            i = xml.indexOf('<', i);
+            if (xml.startsWith("<!--", i)) { //$NON-NLS-1$
+                i = xml.indexOf("-->", i + 4) + 3; //$NON-NLS-1$
+            } else if (xml.startsWith("<![CDATA[", i)) { //$NON-NLS-1$
+                i = xml.indexOf("]]>", i + 9) + 3; //$NON-NLS-1$
+            } else if (xml.startsWith("<?", i)) { //$NON-NLS-1$
+                i = xml.indexOf("?>", i + 2) + 2; //$NON-NLS-1$
+            } else if (xml.startsWith("<!", i)) { //$NON-NLS-1$
+                i = markupEnd(xml, i) + 1;
+            } else {
+                int end = markupEnd(xml, i);
+                boolean emptyElement = xml.charAt(end - 1) == '/';
+                if (xml.charAt(i + 1) == '/') {
+                    if (element != null && --depth == 0) {
+                        element[2] = i;
+                        return element;
+                    }
+                } else if (element != null) {
+                    depth += emptyElement ? 0 : 1;
+                } else if (++count == ordinal) {
+                    element = new int[] { i, end + 1, end + 1 };
+                    if (emptyElement) {
+                        return element;
+                    }
+                    depth = 1;
+                }
+                i = end + 1;
+            }
+        }
+    }
+
+    /**
+     * Returns the offset of the '&gt;' that ends the tag (or declaration) starting at
+     * the given offset, skipping over quoted values and internal DTD subsets.
+     */
+    private static int markupEnd(String xml, int start) {
+        char quote = 0;
+        boolean subset = false;
+        for (int i = start + 1; ; i++) {
+            char c = xml.charAt(i);
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                }
+            } else if (c == '"' || c == '\'') {
+                quote = c;
+            } else if (c == '[') {
+                subset = true;
+            } else if (c == ']') {
+                subset = false;
+            } else if (c == '>' && !subset) {
+                return i;
+            }
+        }
+    }
+
+    /**
+     * Escapes the given text for use as element content.
+     */
+    private static String escape(String text) {
+        StringBuilder escaped = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+            case '&':
+                escaped.append("&amp;"); //$NON-NLS-1$
+                break;
+            case '<':
+                escaped.append("&lt;"); //$NON-NLS-1$
+                break;
+            case '>':
+                escaped.append("&gt;"); //$NON-NLS-1$
+                break;
+            default:
+                escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+
+    /**
+     * Creates the (thread safe, once configured) factory used to create parsers.
+     */
+    private static XMLInputFactory createInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newFactory();
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return factory;
+    }
+
+    /**
+     * A parsed path.
+     */
+    private static class Path {
+
+        private final List<Step> steps = new ArrayList<>();
+        private String attribute;
+
+        /**
+         * Constructor.
+         * @param path the path
+         */
+        public Path(String path) {
+            if (!path.startsWith("/") || path.startsWith("//")) { //$NON-NLS-1$ //$NON-NLS-2$
+                throw new IllegalArgumentException("Unsupported path: " + path); //$NON-NLS-1$
+            }
+            String[] names = path.substring(1).split("/", -1); //$NON-NLS-1$
+            for (int i = 0; i < names.length; i++) {
+                String name = names[i];
+                if (name.startsWith("@") && i == names.length - 1 && i > 0) { //$NON-NLS-1$
+                    attribute = localName(name.substring(1));
+                    continue;
+                }
+                int position = 1;
+                int bracket = name.indexOf('[');
+                if (bracket > 0 && name.endsWith("]")) { //$NON-NLS-1$
+                    try {
+                        position = Integer.parseInt(name.substring(bracket + 1, name.length() - 1).trim());
+                    } catch (NumberFormatException e) {
+                        throw new IllegalArgumentException("Unsupported path: " + path); //$NON-NLS-1$
+                    }
+                    name = name.substring(0, bracket);
+                }
+                if (name.isEmpty() || position < 1 || name.indexOf('[') >= 0 || name.startsWith("@")) { //$NON-NLS-1$
+                    throw new IllegalArgumentException("Unsupported path: " + path); //$NON-NLS-1$
+                }
+                steps.add(new Step(localName(name), position));
+            }
+        }
+
+        private static String localName(String name) {
+            return name.substring(name.indexOf(':') + 1);
+        }
+    }
+
+    /**
+     * A single (element) step of a path.
+     */
+    private static class Step {
+
+        private final String name;
+        private final int position;
+
+        /**
+         * Constructor.
+         * @param name the local name, or *
+         * @param position the (1 based) position amongst the matching siblings
+         */
+        public Step(String name, int position) {
+            this.name = name;
+            this.position = position;
+        }
+
+        public boolean matches(String localName) {
+            return "*".equals(name) || name.equals(localName); //$NON-NLS-1$
+        }
+    }
+
+}
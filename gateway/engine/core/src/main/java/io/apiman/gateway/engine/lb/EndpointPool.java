@@ -0,0 +1,399 @@
+/*
+ * Copyright 2017 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.apiman.gateway.engine.lb;
+
+import io.apiman.common.util.ApimanPathUtils;
+
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A pool of equivalent back-end endpoints for a single API.  Each request is sent
+ * to one of the endpoints, picked using the configured {@link EndpointSelectionStrategy}
+ * from the endpoints that are currently available.
+ *
+ * An endpoint stops being available when:
+ * <ul>
+ *   <li>it fails a number of consecutive requests with connector errors (it is then
+ *       ejected for a while - passive outlier detection), or</li>
+ *   <li>it fails an active health check (a GET of the configured health check path,
+ *       sent periodically to every endpoint).</li>
+ * </ul>
+ * If no endpoint is available the pool picks from all of them, rather than
+ * failing every request.
+ *
+ * The pool is configured via the API's endpoint properties:
+ * <ul>
+ *   <li>loadbalancer.endpoints - the endpoints (comma separated) in addition to the API's own endpoint</li>
+ *   <li>loadbalancer.strategy - round-robin (default), least-requests or power-of-two-choices</li>
+ *   <li>loadbalancer.outlier.maxFailures - consecutive failures before ejection (default 5, 0 = never)</li>
+ *   <li>loadbalancer.outlier.ejectTime - how long an endpoint is ejected for, in millis (default 30000)</li>
+ *   <li>loadbalancer.healthcheck.path - the path to probe (default none, i.e. no active health checks)</li>
+ *   <li>loadbalancer.healthcheck.interval - the time between probes, in millis (default 10000)</li>
+ *   <li>loadbalancer.healthcheck.timeout - the probe connect/read timeout, in millis (default 2000)</li>
+ * </ul>
+ *
+ * @author eric.wittmann@redhat.com
+ */
+public class EndpointPool {
+
+    public static final String ENDPOINTS = "loadbalancer.endpoints"; //$NON-NLS-1$
+    public static final String STRATEGY = "loadbalancer.strategy"; //$NON-NLS-1$
+    public static final String OUTLIER_MAX_FAILURES = "loadbalancer.outlier.maxFailures"; //$NON-NLS-1$
+    public static final String OUTLIER_EJECT_TIME = "loadbalancer.outlier.ejectTime"; //$NON-NLS-1$
+    public static final String HEALTHCHECK_PATH = "loadbalancer.healthcheck.path"; //$NON-NLS-1$
+    public static final String HEALTHCHECK_INTERVAL = "loadbalancer.healthcheck.interval"; //$NON-NLS-1$
+    public static final String HEALTHCHECK_TIMEOUT = "loadbalancer.healthcheck.timeout"; //$NON-NLS-1$
+
+    private final String endpoint;
+    private final Map<String, String> endpointProperties;
+    private final Member[] members;
+    private final EndpointSelectionStrategy strategy;
+    private final int maxFailures;
+    private final long ejectTime;
+    private final String healthCheckPath;
+    private final int healthCheckTimeout;
+    private final AtomicInteger next = new AtomicInteger();
+    private final ScheduledExecutorService scheduler;
+    private ScheduledFuture<?> healthCheck;
+    private volatile boolean closed;
+
+    /**
+     * Constructor.
+     * @param endpoint the API's endpoint
+     * @param endpointProperties the API's endpoint properties
+     * @param scheduler runs the active health checks (only needed if they are configured)
+     */
+    public EndpointPool(String endpoint, Map<String, String> endpointProperties, ScheduledExecutorService scheduler) {
+        this.endpoint = endpoint;
+        this.scheduler = scheduler;
+        this.endpointProperties = new HashMap<>(endpointProperties);
+
+        Set<String> uris = new LinkedHashSet<>();
+        uris.add(endpoint);
+        String endpoints = endpointProperties.get(ENDPOINTS);
+        if (endpoints != null) {
+            for (String uri : endpoints.split(",")) { //$NON-NLS-1$
+                if (!uri.trim().isEmpty()) {
+                    uris.add(uri.trim());
+                }
+            }
+        }
+        members = new Member[uris.size()];
+        int idx = 0;
+        for (String uri : uris) {
+            members[idx++] = new Member(uri);
+        }
+
+        strategy = EndpointSelectionStrategy.fromConfig(endpointProperties.get(STRATEGY), EndpointSelectionStrategy.ROUND_ROBIN);
+        maxFailures = new Integer(getProperty(OUTLIER_MAX_FAILURES, "5")); //$NON-NLS-1$
+        ejectTime = new Long(getProperty(OUTLIER_EJECT_TIME, "30000")); //$NON-NLS-1$
+        healthCheckPath = endpointProperties.get(HEALTHCHECK_PATH);
+        healthCheckTimeout = new Integer(getProperty(HEALTHCHECK_TIMEOUT, "2000")); //$NON-NLS-1$
+        if (healthCheckPath != null) {
+            long interval = new Long(getProperty(HEALTHCHECK_INTERVAL, "10000")); //$NON-NLS-1$
+            healthCheck = scheduler.scheduleWithFixedDelay(this::checkHealth, 0, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private String getProperty(String name, String defaultValue) {
+        String value = endpointProperties.get(name);
+        return value == null || value.trim().isEmpty() ? defaultValue : value.trim();
+    }
+
+    /**
+     * Returns true if the given API is load balanced (has more than one endpoint).
+     * @param endpointProperties the API's endpoint properties
+     */
+    public static boolean isLoadBalanced(Map<String, String> endpointProperties) {
+        String endpoints = endpointProperties.get(ENDPOINTS);
+        return endpoints != null && !endpoints.trim().isEmpty();
+    }
+
+    /**
+     * Returns true if this pool was created for the given endpoint and properties.
+     * @param endpoint the API's endpoint
+     * @param endpointProperties the API's endpoint properties
+     */
+    public boolean matches(String endpoint, Map<String, String> endpointProperties) {
+        return this.endpoint.equals(endpoint) && this.endpointProperties.equals(endpointProperties);
+    }
+
+    /**
+     * Picks the endpoint for a request.  The returned lease must be released once
+     * the back-end API has responded (or failed to).
+     * @return the lease on the chosen endpoint
+     */
+    public Lease select() {
+        return select(Collections.emptySet());
+    }
+
+    /**
+     * Picks the endpoint for a request, other than the given ones (e.g. endpoints
+     * that have already turned the request away).  The returned lease must be
+     * released once the back-end API has responded (or failed to).
+     * @param excluded the endpoints not to pick
+     * @return the lease on the chosen endpoint, or null if every endpoint is excluded
+     */
+    public Lease select(Collection<String> excluded) {
+        long now = System.currentTimeMillis();
+        Member member = select(now, true, excluded);
+        if (member == null) {
+            // Nothing is available - try them all rather than fail outright.
+            member = select(now, false, excluded);
+            if (member == null) {
+                return null;
+            }
+        }
+        member.outstanding.incrementAndGet();
+        return new Lease(member);
+    }
+
+    private Member select(long now, boolean availableOnly, Collection<String> excluded) {
+        switch (strategy) {
+        case LEAST_REQUESTS:
+            return leastRequests(now, availableOnly, excluded);
+        case POWER_OF_TWO_CHOICES:
+            if (members.length > 1) {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                int first = random.nextInt(members.length);
+                int second = (first + 1 + random.nextInt(members.length - 1)) % members.length;
+                Member a = members[first];
+                Member b = members[second];
+                boolean aOk = a.isCandidate(now, availableOnly, excluded);
+                boolean bOk = b.isCandidate(now, availableOnly, excluded);
+                if (aOk && bOk) {
+                    return a.outstanding.get() <= b.outstanding.get() ? a : b;
+                } else if (aOk || bOk) {
+                    return aOk ? a : b;
+                }
+            }
+            return leastRequests(now, availableOnly, excluded);
+        default:
+            int start = next.getAndIncrement() & Integer.MAX_VALUE;
+            for (int i = 0; i < members.length; i++) {
+                Member member = members[(start + i) % members.length];
+                if (member.isCandidate(now, availableOnly, excluded)) {
+                    return member;
+                }
+            }
+            return null;
+        }
+    }
+
+    private Member leastRequests(long now, boolean availableOnly, Collection<String> excluded) {
+        // Start the scan at a rotating offset so that ties are spread out.
+        int start = next.getAndIncrement() & Integer.MAX_VALUE;
+        Member best = null;
+        for (int i = 0; i < members.length; i++) {
+            Member member = members[(start + i) % members.length];
+            if (member.isCandidate(now, availableOnly, excluded)
+                    && (best == null || member.outstanding.get() < best.outstanding.get())) {
+                best = member;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Probes every endpoint (as separate tasks, so that a slow endpoint doesn't hold
+     * up the others).  An endpoint whose previous probe is still running is skipped.
+     */
+    private void checkHealth() {
+        for (Member member : members) {
+            if (member.probing.compareAndSet(false, true)) {
+                scheduler.execute(() -> {
+                    try {
+                        member.healthy = probe(member.uri);
+                    } finally {
+                        member.probing.set(false);
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * Sends a health check request to the given endpoint.
+     * @param uri the endpoint
+     * @return true if it responded successfully
+     */
+    protected boolean probe(String uri) {
+        HttpURLConnection connection = null;
+        try {
+            connection = (HttpURLConnection) new URL(ApimanPathUtils.join(uri, healthCheckPath)).openConnection();
+            connection.setConnectTimeout(healthCheckTimeout);
+            connection.setReadTimeout(healthCheckTimeout);
+            connection.setRequestMethod("GET"); //$NON-NLS-1$
+            int code = connection.getResponseCode();
+            return code >= 200 && code < 400;
+        } catch (Exception e) {
+            return false;
+        } finally {
+            if (connection != null) {
+                connection.disconnect();
+            }
+        }
+    }
+
+    /**
+     * @return the endpoints in the pool
+     */
+    public List<String> getEndpoints() {
+        List<String> rval = new ArrayList<>(members.length);
+        for (Member member : members) {
+            rval.add(member.uri);
+        }
+        return Collections.unmodifiableList(rval);
+    }
+
+    /**
+     * @return the endpoints that are currently available
+     */
+    public List<String> getAvailableEndpoints() {
+        long now = System.currentTimeMillis();
+        List<String> rval = new ArrayList<>(members.length);
+        for (Member member : members) {
+            if (member.isAvailable(now)) {
+                rval.add(member.uri);
+            }
+        }
+        return rval;
+    }
+
+    /**
+     * Stops the active health checks (if any).
+     */
+    public void close() {
+        closed = true;
+        if (healthCheck != null) {
+            healthCheck.cancel(false);
+        }
+    }
+
+    /**
+     * @return true if the pool has been closed
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * An endpoint in the pool, along with its state.
+     */
+    private final class Member {
+
+        private final String uri;
+        private final AtomicInteger outstanding = new AtomicInteger();
+        private final AtomicInteger failures = new AtomicInteger();
+        private final AtomicBoolean probing = new AtomicBoolean();
+        private volatile long ejectedUntil;
+        private volatile boolean healthy = true;
+
+        private Member(String uri) {
+            this.uri = uri;
+        }
+
+        private boolean isAvailable(long now) {
+            return healthy && ejectedUntil <= now;
+        }
+
+        private boolean isCandidate(long now, boolean availableOnly, Collection<String> excluded) {
+            return (!availableOnly || isAvailable(now)) && !excluded.contains(uri);
+        }
+
+        private void succeeded() {
+            failures.set(0);
+        }
+
+        private void failed() {
+            if (maxFailures > 0 && failures.incrementAndGet() >= maxFailures) {
+                failures.set(0);
+                ejectedUntil = System.currentTimeMillis() + ejectTime;
+            }
+        }
+    }
+
+    /**
+     * A request's use of one of the endpoints.  Exactly one of {@link #succeeded()},
+     * {@link #failed()} or {@link #release()} takes effect; later calls are ignored.
+     */
+    public final class Lease {
+
+        private final Member member;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Lease(Member member) {
+            this.member = member;
+        }
+
+        /**
+         * @return the endpoint
+         */
+        public String getEndpoint() {
+            return member.uri;
+        }
+
+        /**
+         * Releases the endpoint after the back-end API responded.
+         */
+        public void succeeded() {
+            if (doRelease()) {
+                member.succeeded();
+            }
+        }
+
+        /**
+         * Releases the endpoint after a connector error, counting it towards ejection.
+         */
+        public void failed() {
+            if (doRelease()) {
+                member.failed();
+            }
+        }
+
+        /**
+         * Releases the endpoint without judging it (e.g. the request was aborted by
+         * the client).
+         */
+        public void release() {
+            doRelease();
+        }
+
+        private boolean doRelease() {
+            if (released.compareAndSet(false, true)) {
+                member.outstanding.decrementAndGet();
+                return true;
+            }
+            return false;
+        }
+    }
+
+}
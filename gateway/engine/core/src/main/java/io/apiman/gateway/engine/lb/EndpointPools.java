@@ -0,0 +1,118 @@
+/*
+ * Copyright 2017 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.apiman.gateway.engine.lb;
+
+import io.apiman.gateway.engine.beans.Api;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The endpoint pools of the load balanced APIs, as used by a connector factory.  A
+ * pool is replaced (and the old one closed) when its API is re-published with a
+ * different endpoint configuration, and removed (and closed) when its API is
+ * retired or re-published without load balancing.
+ *
+ * The active health checks of all of the pools run on a fixed number of threads
+ * (see {@link #DEFAULT_HEALTH_CHECK_THREADS}), which are stopped when the pools
+ * are closed.
+ *
+ * @author eric.wittmann@redhat.com
+ */
+public class EndpointPools {
+
+    public static final int DEFAULT_HEALTH_CHECK_THREADS = 4;
+
+    private final ConcurrentHashMap<String, EndpointPool> pools = new ConcurrentHashMap<>();
+    private final ScheduledThreadPoolExecutor healthChecks;
+
+    /**
+     * Constructor.
+     */
+    public EndpointPools() {
+        this(DEFAULT_HEALTH_CHECK_THREADS);
+    }
+
+    /**
+     * Constructor.
+     * @param healthCheckThreads the number of threads running the active health checks
+     */
+    public EndpointPools(int healthCheckThreads) {
+        AtomicInteger threadCount = new AtomicInteger();
+        // Threads are only started once there are health checks to run.
+        healthChecks = new ScheduledThreadPoolExecutor(healthCheckThreads, runnable -> {
+            Thread thread = new Thread(runnable, "apiman-endpoint-health-check-" + threadCount.incrementAndGet()); //$NON-NLS-1$
+            thread.setDaemon(true);
+            return thread;
+        });
+        healthChecks.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * Gets the endpoint pool for the given API.
+     * @param api the API
+     * @return the pool, or null if the API is not load balanced
+     */
+    public EndpointPool get(Api api) {
+        if (!EndpointPool.isLoadBalanced(api.getEndpointProperties())) {
+            if (!pools.isEmpty()) {
+                // It may have been load balanced before being re-published.
+                remove(api);
+            }
+            return null;
+        }
+        String key = key(api);
+        EndpointPool pool = pools.get(key);
+        if (pool != null && pool.matches(api.getEndpoint(), api.getEndpointProperties())) {
+            return pool;
+        }
+        return pools.compute(key, (k, existing) -> {
+            if (existing != null) {
+                if (existing.matches(api.getEndpoint(), api.getEndpointProperties())) {
+                    return existing;
+                }
+                existing.close();
+            }
+            return new EndpointPool(api.getEndpoint(), api.getEndpointProperties(), healthChecks);
+        });
+    }
+
+    /**
+     * Removes (and closes) the pool of the given API, if it has one.
+     * @param api the API
+     */
+    public void remove(Api api) {
+        EndpointPool pool = pools.remove(key(api));
+        if (pool != null) {
+            pool.close();
+        }
+    }
+
+    /**
+     * Closes all of the pools, and stops the health checks.
+     */
+    public void close() {
+        pools.values().forEach(EndpointPool::close);
+        pools.clear();
+        healthChecks.shutdownNow();
+    }
+
+    private static String key(Api api) {
+        return api.getOrganizationId() + '|' + api.getApiId() + '|' + api.getVersion();
+    }
+
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2017 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.apiman.gateway.engine.lb;
+
+import java.util.Locale;
+
+/**
+ * How an {@link EndpointPool} picks the back-end endpoint for a request.
+ *
+ * @author eric.wittmann@redhat.com
+ */
+public enum EndpointSelectionStrategy {
+
+    /**
+     * Each endpoint in turn.
+     */
+    ROUND_ROBIN,
+    /**
+     * The endpoint with the fewest requests in progress.
+     */
+    LEAST_REQUESTS,
+    /**
+     * The one with fewer requests in progress out of two endpoints picked at random.
+     */
+    POWER_OF_TWO_CHOICES;
+
+    /**
+     * Parses the configured strategy (e.g. "least-requests").
+     * @param value the configured value, may be null
+     * @param defaultStrategy the strategy to use if none is configured
+     * @return the strategy
+     */
+    public static EndpointSelectionStrategy fromConfig(String value, EndpointSelectionStrategy defaultStrategy) {
+        if (value == null || value.trim().isEmpty()) {
+            return defaultStrategy;
+        }
+        return valueOf(value.trim().toUpperCase(Locale.ENGLISH).replace('-', '_'));
+    }
+
+}
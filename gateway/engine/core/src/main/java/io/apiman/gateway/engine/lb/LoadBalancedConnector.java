@@ -0,0 +1,180 @@
+/*
+ * Copyright 2017 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.apiman.gateway.engine.lb;
+
+import io.apiman.gateway.engine.IApiConnection;
+import io.apiman.gateway.engine.IApiConnectionResponse;
+import io.apiman.gateway.engine.IApiConnector;
+import io.apiman.gateway.engine.async.IAsyncHandler;
+import io.apiman.gateway.engine.async.IAsyncResultHandler;
+import io.apiman.gateway.engine.beans.ApiRequest;
+import io.apiman.gateway.engine.beans.exceptions.ConnectorException;
+import io.apiman.gateway.engine.circuitbreaker.GuardRejectedException;
+import io.apiman.gateway.engine.io.IApimanBuffer;
+import io.apiman.gateway.engine.lb.EndpointPool.Lease;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A connector that sends each request to one of the endpoints of an {@link EndpointPool},
+ * reporting the outcome (the back-end API responded, or the connector failed) back to
+ * the pool.  A request that an endpoint's guard rejects (see {@link GuardRejectedException})
+ * is sent to the next endpoint instead, and only fails once every endpoint has rejected it.
+ *
+ * @author eric.wittmann@redhat.com
+ */
+public class LoadBalancedConnector implements IApiConnector {
+
+    /**
+     * Connects to a specific endpoint - implemented by the platform's connector factory.
+     */
+    @FunctionalInterface
+    public interface IEndpointConnector {
+
+        /**
+         * Connects to the given endpoint (rather than the API's own endpoint).
+         * @param endpoint the endpoint
+         * @param request the request
+         * @param handler the response handler
+         * @return the connection
+         * @throws ConnectorException if the connection fails
+         */
+        IApiConnection connect(String endpoint, ApiRequest request,
+                IAsyncResultHandler<IApiConnectionResponse> handler) throws ConnectorException;
+    }
+
+    private final EndpointPool pool;
+    private final IEndpointConnector connector;
+
+    /**
+     * Constructor.
+     * @param pool the endpoint pool
+     * @param connector connects to the chosen endpoint
+     */
+    public LoadBalancedConnector(EndpointPool pool, IEndpointConnector connector) {
+        this.pool = pool;
+        this.connector = connector;
+    }
+
+    /**
+     * @see io.apiman.gateway.engine.IApiConnector#connect(io.apiman.gateway.engine.beans.ApiRequest, io.apiman.gateway.engine.async.IAsyncResultHandler)
+     */
+    @Override
+    public IApiConnection connect(ApiRequest request, IAsyncResultHandler<IApiConnectionResponse> handler)
+            throws ConnectorException {
+        Lease lease = pool.select();
+        List<String> rejectedBy = null;
+        while (true) {
+            try {
+                return connect(lease, request, handler);
+            } catch (GuardRejectedException e) {
+                // The endpoint's guard turned the request away before it was sent -
+                // that's no reflection on the endpoint, so try another one.
+                lease.release();
+                if (rejectedBy == null) {
+                    rejectedBy = new ArrayList<>();
+                }
+                rejectedBy.add(lease.getEndpoint());
+                lease = pool.select(rejectedBy);
+                if (lease == null) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private IApiConnection connect(Lease lease, ApiRequest request, IAsyncResultHandler<IApiConnectionResponse> handler) {
+        try {
+            IApiConnection connection = connector.connect(lease.getEndpoint(), request, result -> {
+                if (result.isSuccess()) {
+                    lease.succeeded();
+                } else {
+                    lease.failed();
+                }
+                handler.handle(result);
+            });
+            return new LeasedConnection(connection, lease);
+        } catch (GuardRejectedException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            lease.failed();
+            throw e;
+        }
+    }
+
+    /**
+     * Reports connector errors that are thrown (rather than passed to the response
+     * handler) while the request is being sent.
+     */
+    private static final class LeasedConnection implements IApiConnection {
+
+        private final IApiConnection delegate;
+        private final Lease lease;
+
+        private LeasedConnection(IApiConnection delegate, Lease lease) {
+            this.delegate = delegate;
+            this.lease = lease;
+        }
+
+        @Override
+        public void write(IApimanBuffer chunk) {
+            try {
+                delegate.write(chunk);
+            } catch (RuntimeException e) {
+                lease.failed();
+                throw e;
+            }
+        }
+
+        @Override
+        public void end() {
+            try {
+                delegate.end();
+            } catch (RuntimeException e) {
+                lease.failed();
+                throw e;
+            }
+        }
+
+        @Override
+        public void abort(Throwable t) {
+            lease.release();
+            delegate.abort(t);
+        }
+
+        @Override
+        public boolean isFinished() {
+            return delegate.isFinished();
+        }
+
+        @Override
+        public boolean isConnected() {
+            return delegate.isConnected();
+        }
+
+        @Override
+        public void drainHandler(IAsyncHandler<Void> drainHandler) {
+            delegate.drainHandler(drainHandler);
+        }
+
+        @Override
+        public boolean isFull() {
+            return delegate.isFull();
+        }
+    }
+
+}
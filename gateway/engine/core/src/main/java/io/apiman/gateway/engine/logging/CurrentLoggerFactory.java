@@ -0,0 +1,43 @@
+/*
+ * Copyright 2017 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.apiman.gateway.engine.logging;
+
+import io.apiman.common.logging.DefaultDelegateFactory;
+import io.apiman.common.logging.IApimanLogger;
+import io.apiman.common.logging.IDelegateFactory;
+
+/**
+ * Global access to the engine's logger factory.  Useful only when we need a
+ * logger but cannot inject the factory for some reason (e.g. in components,
+ * which are created reflectively from their config).  Until an engine has been
+ * created this falls back to the default (system out) logger factory.
+ *
+ * @author eric.wittmann@redhat.com
+ */
+public class CurrentLoggerFactory {
+
+    public static volatile IDelegateFactory instance = new DefaultDelegateFactory();
+
+    /**
+     * Creates a logger for the given class using the current logger factory.
+     * @param klazz the class
+     * @return the logger
+     */
+    public static IApimanLogger getLogger(Class<?> klazz) {
+        return instance.createLogger(klazz);
+    }
+
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2017 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.apiman.gateway.engine.metrics;
+
+import java.util.List;
+
+/**
+ * The back-end of a {@link MetricsPipeline}: writes batches of request metrics
+ * to wherever they are stored.
+ *
+ * @author eric.wittmann@redhat.com
+ */
+public interface IMetricsSink {
+
+    /**
+     * Writes the given batch of metrics.  Always called from the pipeline's
+     * consumer thread, so implementations may block - and must, until they know
+     * whether the batch was written: the batch is counted as flushed if this
+     * returns normally, and as dropped if it throws.
+     * @param metrics the metrics
+     * @throws Exception if the metrics could not be written
+     */
+    public void flush(List<RequestMetric> metrics) throws Exception;
+
+}
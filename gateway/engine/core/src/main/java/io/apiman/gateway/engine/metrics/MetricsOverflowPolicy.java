@@ -0,0 +1,59 @@
+/*
+ * Copyright 2017 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.apiman.gateway.engine.metrics;
+
+import java.util.Locale;
+
+/**
+ * What a {@link MetricsPipeline} does with new metrics when it can't keep up.
+ *
+ * @author eric.wittmann@redhat.com
+ */
+public enum MetricsOverflowPolicy {
+
+    /**
+     * Drop the new metric when the buffer is full.
+     */
+    DROP_NEWEST,
+    /**
+     * Drop the oldest buffered metric to make room for the new one.
+     */
+    DROP_OLDEST,
+    /**
+     * Once the buffer is half full, only keep a sample of the new metrics (and
+     * drop the new metric when it is full).
+     */
+    SAMPLE,
+    /**
+     * Wait for room in the buffer - this stalls the caller, so should only be used
+     * where metrics are recorded off the request path.
+     */
+    BLOCK;
+
+    /**
+     * Parses the configured policy (e.g. "drop-oldest").
+     * @param value the configured value, may be null
+     * @param defaultPolicy the policy to use if none is configured
+     * @return the policy
+     */
+    public static MetricsOverflowPolicy fromConfig(String value, MetricsOverflowPolicy defaultPolicy) {
+        if (value == null || value.trim().isEmpty()) {
+            return defaultPolicy;
+        }
+        return valueOf(value.trim().toUpperCase(Locale.ENGLISH).replace('-', '_'));
+    }
+
+}
@@ -0,0 +1,239 @@
+/*
+ * Copyright 2017 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.apiman.gateway.engine.metrics;
+
+import io.apiman.common.logging.IApimanLogger;
+import io.apiman.gateway.engine.logging.CurrentLoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * An asynchronous pipeline between the gateway (which records request metrics)
+ * and an {@link IMetricsSink} (which stores them).  Recording a metric never
+ * blocks (unless configured to): metrics are put in a lock-free ring buffer, and
+ * a single consumer thread drains it in batches and hands each batch to the sink.
+ * When the sink can't keep up, new metrics are dropped according to the
+ * configured {@link MetricsOverflowPolicy} - a slow metrics back-end degrades
+ * analytics rather than stalling API traffic.
+ *
+ * Configuration options:
+ *
+ *     queue.size            - the size of the buffer (default 10000)
+ *     queue.overflow        - drop-newest (default), drop-oldest, sample or block
+ *     queue.sample-rate     - when sampling, keep 1 in N metrics (default 10)
+ *     batch.size            - the maximum number of metrics per batch (default 1000)
+ *     batch.flush-interval  - how long (in millis) to wait for a batch to fill up (default 50)
+ *
+ * @author eric.wittmann@redhat.com
+ */
+public class MetricsPipeline {
+
+    private static final int DEFAULT_QUEUE_SIZE = 10000;
+    private static final int DEFAULT_BATCH_SIZE = 1000;
+    private static final long DEFAULT_FLUSH_INTERVAL = 50;
+    private static final int DEFAULT_SAMPLE_RATE = 10;
+    private static final long IDLE_WAIT = TimeUnit.SECONDS.toNanos(1);
+    private static final long BLOCK_WAIT = TimeUnit.MICROSECONDS.toNanos(100);
+
+    private final IApimanLogger logger = CurrentLoggerFactory.getLogger(MetricsPipeline.class);
+    private final IMetricsSink sink;
+    private final MetricsRingBuffer<RequestMetric> buffer;
+    private final MetricsOverflowPolicy overflowPolicy;
+    private final int batchSize;
+    private final long flushInterval;
+    private final int sampleRate;
+
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong flushed = new AtomicLong();
+    private final AtomicLong sampled = new AtomicLong();
+
+    private final Thread consumer;
+    private volatile boolean waiting;
+    private volatile boolean stopped;
+
+    /**
+     * Constructor.
+     * @param config map of configuration options
+     * @param sink the sink to flush the metrics to
+     * @param threadName the name of the consumer thread
+     */
+    public MetricsPipeline(Map<String, String> config, IMetricsSink sink, String threadName) {
+        this.sink = sink;
+
+        int queueSize = DEFAULT_QUEUE_SIZE;
+        String queueSizeConfig = config.get("queue.size"); //$NON-NLS-1$
+        if (queueSizeConfig != null) {
+            queueSize = new Integer(queueSizeConfig);
+        }
+        buffer = new MetricsRingBuffer<>(queueSize);
+        overflowPolicy = MetricsOverflowPolicy.fromConfig(config.get("queue.overflow"), //$NON-NLS-1$
+                MetricsOverflowPolicy.DROP_NEWEST);
+
+        int sampleRate = DEFAULT_SAMPLE_RATE;
+        String sampleRateConfig = config.get("queue.sample-rate"); //$NON-NLS-1$
+        if (sampleRateConfig != null) {
+            sampleRate = Math.max(1, new Integer(sampleRateConfig));
+        }
+        this.sampleRate = sampleRate;
+
+        int batchSize = DEFAULT_BATCH_SIZE;
+        String batchSizeConfig = config.get("batch.size"); //$NON-NLS-1$
+        if (batchSizeConfig != null) {
+            batchSize = Math.max(1, new Integer(batchSizeConfig));
+        }
+        this.batchSize = batchSize;
+
+        long flushInterval = DEFAULT_FLUSH_INTERVAL;
+        String flushIntervalConfig = config.get("batch.flush-interval"); //$NON-NLS-1$
+        if (flushIntervalConfig != null) {
+            flushInterval = new Long(flushIntervalConfig);
+        }
+        this.flushInterval = TimeUnit.MILLISECONDS.toNanos(flushInterval);
+
+        consumer = new Thread(this::consume, threadName);
+        consumer.setDaemon(true);
+        consumer.start();
+    }
+
+    /**
+     * Records the given metric - it will be flushed to the sink asynchronously.
+     * @param metric the metric
+     */
+    public void record(RequestMetric metric) {
+        boolean added;
+        switch (overflowPolicy) {
+        case DROP_OLDEST:
+            while (!(added = buffer.offer(metric))) {
+                if (buffer.poll() != null) {
+                    dropped.incrementAndGet();
+                }
+            }
+            break;
+        case SAMPLE:
+            if (buffer.size() >= buffer.getCapacity() / 2 && sampled.incrementAndGet() % sampleRate != 0) {
+                added = false;
+            } else {
+                added = buffer.offer(metric);
+            }
+            break;
+        case BLOCK:
+            while (!(added = buffer.offer(metric)) && !stopped) {
+                LockSupport.parkNanos(BLOCK_WAIT);
+            }
+            break;
+        case DROP_NEWEST:
+        default:
+            added = buffer.offer(metric);
+            break;
+        }
+        if (!added) {
+            dropped.incrementAndGet();
+        } else if (waiting) {
+            LockSupport.unpark(consumer);
+        }
+    }
+
+    /**
+     * Drains the buffer, in batches, until stopped.
+     */
+    private void consume() {
+        List<RequestMetric> batch = new ArrayList<>(batchSize);
+        while (!stopped) {
+            RequestMetric metric = buffer.poll();
+            if (metric == null) {
+                await(IDLE_WAIT);
+                continue;
+            }
+            batch.add(metric);
+            long deadline = System.nanoTime() + flushInterval;
+            while (batch.size() < batchSize && !stopped) {
+                metric = buffer.poll();
+                if (metric != null) {
+                    batch.add(metric);
+                    continue;
+                }
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    break;
+                }
+                await(remaining);
+            }
+            flush(batch);
+            batch.clear();
+        }
+    }
+
+    /**
+     * Waits (at most the given number of nanos) for a metric to be recorded.
+     */
+    private void await(long nanos) {
+        waiting = true;
+        if (buffer.isEmpty() && !stopped) {
+            LockSupport.parkNanos(this, nanos);
+        }
+        waiting = false;
+    }
+
+    /**
+     * Flushes the given batch to the sink.  The batch is counted as flushed only
+     * if the sink returns normally; if it fails then the whole batch is counted
+     * as dropped.
+     */
+    private void flush(List<RequestMetric> batch) {
+        try {
+            sink.flush(batch);
+            flushed.addAndGet(batch.size());
+        } catch (Throwable t) {
+            dropped.addAndGet(batch.size());
+            logger.error(t, "Failed to flush {0} metric(s); they have been dropped.", batch.size()); //$NON-NLS-1$
+        }
+    }
+
+    /**
+     * @return the number of metrics dropped (because the buffer was full or they failed to flush)
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * @return the number of metrics successfully flushed to the sink
+     */
+    public long getFlushedCount() {
+        return flushed.get();
+    }
+
+    /**
+     * @return the number of metrics currently buffered
+     */
+    public int getBufferedCount() {
+        return buffer.size();
+    }
+
+    /**
+     * Stops the consumer thread.  Any metrics still buffered are discarded.
+     */
+    public void stop() {
+        stopped = true;
+        LockSupport.unpark(consumer);
+    }
+
+}
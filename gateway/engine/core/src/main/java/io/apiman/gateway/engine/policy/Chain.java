@@ -20,6 +20,7 @@ import io.apiman.gateway.engine.beans.PolicyFailure;
 import io.apiman.gateway.engine.io.AbstractStream;
 import io.apiman.gateway.engine.io.IAbortable;
 import io.apiman.gateway.engine.io.IApimanBuffer;
+import io.apiman.gateway.engine.io.IReadStream;
 import io.apiman.gateway.engine.io.IReadWriteStream;
 
 import java.util.Iterator;
@@ -57,6 +58,7 @@ public abstract class Chain<H> extends AbstractStream<H> implements IAbortable,
 
     private H apiObject;
     private boolean firstElem = true;
+    private IReadStream<?> sourceStream;
 
     /**
      * Constructor.
@@ -194,6 +196,38 @@ public abstract class Chain<H> extends AbstractStream<H> implements IAbortable,
         }
     }
 
+    /**
+     * Sets the stream the chain's body is read from, so that flow control
+     * ({@link #pause()} and {@link #resume()}) can be passed on to it.
+     * @param sourceStream the source stream
+     */
+    public void sourceStream(IReadStream<?> sourceStream) {
+        this.sourceStream = sourceStream;
+    }
+
+    /**
+     * Pauses the source of the chain.  The policies' data handlers process
+     * chunks as they are written to them, so they stop producing output
+     * once their input stops.
+     * @see io.apiman.gateway.engine.io.IReadStream#pause()
+     */
+    @Override
+    public void pause() {
+        if (sourceStream != null) {
+            sourceStream.pause();
+        }
+    }
+
+    /**
+     * @see io.apiman.gateway.engine.io.IReadStream#resume()
+     */
+    @Override
+    public void resume() {
+        if (sourceStream != null) {
+            sourceStream.resume();
+        }
+    }
+
     /**
      * @see io.apiman.gateway.engine.io.IReadStream#getHead()
      */
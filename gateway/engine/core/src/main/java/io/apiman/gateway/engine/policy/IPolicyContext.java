@@ -17,9 +17,13 @@ package io.apiman.gateway.engine.policy;
 
 import io.apiman.common.logging.IApimanLogger;
 import io.apiman.gateway.engine.IComponent;
+import io.apiman.gateway.engine.async.IAsyncHandler;
 import io.apiman.gateway.engine.beans.exceptions.ComponentNotFoundException;
 import io.apiman.gateway.engine.beans.exceptions.InterceptorAlreadyRegisteredException;
 
+import java.util.ArrayList;
+import java.util.List;
+
 
 /**
  * Context information provided to an executing policy.
@@ -79,4 +83,19 @@ public interface IPolicyContext {
      * @return A logger associated with the conversation.
      */
     IApimanLogger getLogger(Class<?> klazz);
+
+    /**
+     * Adds a handler to be called if the request ends in a policy failure or an error
+     * (including the client aborting it) rather than with the back-end API's response,
+     * so that a policy can clean up anything it started for the request.
+     * @param handler the handler
+     */
+    default void addRequestFailedHandler(IAsyncHandler<Void> handler) {
+        List<IAsyncHandler<Void>> handlers = getAttribute(PolicyContextKeys.REQUEST_FAILED_HANDLERS, null);
+        if (handlers == null) {
+            handlers = new ArrayList<>();
+            setAttribute(PolicyContextKeys.REQUEST_FAILED_HANDLERS, handlers);
+        }
+        handlers.add(handler);
+    }
 }
@@ -49,4 +49,14 @@ public interface IPolicyFactory {
      */
     public Object loadConfig(IPolicy policy, String policySpec, String configData);
 
+    /**
+     * Indicates that the given configuration data is no longer in use (e.g. because the
+     * API it belongs to has been retired or re-published), allowing the factory to
+     * release any cached copy of the loaded config object.
+     * @param policySpec the string identifier for the policy
+     * @param configData the config data
+     */
+    default void evictConfig(String policySpec, String configData) {
+    }
+
 }
@@ -26,5 +26,6 @@ public class PolicyContextKeys {
     public static final String REQUEST_METRIC = "apiman.request-metric";
     public static final String REQUEST_PAYLOAD = "apiman.request-payload";
     public static final String REQUEST_PAYLOAD_IO = "apiman.request-payload-io";
+    public static final String REQUEST_FAILED_HANDLERS = "apiman.request-failed-handlers";
 
 }
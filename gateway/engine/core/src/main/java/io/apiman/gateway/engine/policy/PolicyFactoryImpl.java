@@ -24,8 +24,10 @@ import io.apiman.gateway.engine.async.IAsyncResult;
 import io.apiman.gateway.engine.async.IAsyncResultHandler;
 import io.apiman.gateway.engine.beans.exceptions.PolicyNotFoundException;
 
-import java.util.HashMap;
+import io.apiman.gateway.engine.impl.ConcurrentLruCache;
+
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * An implementation of the {@link IPolicyFactory} interface.
@@ -34,15 +36,23 @@ import java.util.Map;
  */
 public class PolicyFactoryImpl implements IPolicyFactory {
 
+    private static final int DEFAULT_MAX_CONFIG_CACHE_SIZE = 10000;
+
     private IPluginRegistry pluginRegistry;
-    private Map<String, IPolicy> policyCache = new HashMap<>();
-    private Map<String, Object> policyConfigCache = new HashMap<>();
+    private Map<String, IPolicy> policyCache = new ConcurrentHashMap<>();
+    private ConcurrentLruCache<PolicyConfigKey, Object> policyConfigCache;
 
     /**
      * Constructor.
      * @param config
      */
     public PolicyFactoryImpl(Map<String, String> config) {
+        int maxConfigCacheSize = DEFAULT_MAX_CONFIG_CACHE_SIZE;
+        String mccs = config.get("maxConfigCacheSize"); //$NON-NLS-1$
+        if (mccs != null) {
+            maxConfigCacheSize = new Integer(mccs);
+        }
+        policyConfigCache = new ConcurrentLruCache<>(maxConfigCacheSize);
     }
 
     /**
@@ -58,25 +68,35 @@ public class PolicyFactoryImpl implements IPolicyFactory {
      */
     @Override
     public Object loadConfig(IPolicy policy, String policySpec, String configData) {
-        synchronized (policyConfigCache) {
-            String cacheKey = policySpec + "||" + configData; //$NON-NLS-1$
-            if (policyConfigCache.containsKey(cacheKey)) {
-                return policyConfigCache.get(cacheKey);
-            }
-            Object config;
-
-            ClassLoader oldCtxLoader = Thread.currentThread().getContextClassLoader();
-            try {
-                Thread.currentThread().setContextClassLoader(policy.getClass().getClassLoader());
-                config = policy.parseConfiguration(configData);
-            } finally {
-                Thread.currentThread().setContextClassLoader(oldCtxLoader);
-            }
-
-            policyConfigCache.put(cacheKey, config);
-
+        PolicyConfigKey cacheKey = new PolicyConfigKey(policySpec, configData);
+        Object config = policyConfigCache.get(cacheKey);
+        if (config != null) {
             return config;
         }
+
+        // Not synchronized - if two threads parse the same config at the same time, the
+        // first one to finish wins and the other's result is discarded.
+        ClassLoader oldCtxLoader = Thread.currentThread().getContextClassLoader();
+        try {
+            Thread.currentThread().setContextClassLoader(policy.getClass().getClassLoader());
+            config = policy.parseConfiguration(configData);
+        } finally {
+            Thread.currentThread().setContextClassLoader(oldCtxLoader);
+        }
+        if (config == null) {
+            return null;
+        }
+
+        Object existing = policyConfigCache.putIfAbsent(cacheKey, config);
+        return existing != null ? existing : config;
+    }
+
+    /**
+     * @see io.apiman.gateway.engine.policy.IPolicyFactory#evictConfig(java.lang.String, java.lang.String)
+     */
+    @Override
+    public void evictConfig(String policySpec, String configData) {
+        policyConfigCache.remove(new PolicyConfigKey(policySpec, configData));
     }
 
     /**
@@ -189,4 +209,53 @@ public class PolicyFactoryImpl implements IPolicyFactory {
         });
     }
 
+    /**
+     * Key used to cache loaded policy configs.  Holds on to the policy spec and config data
+     * (rather than a concatenation of them) so that no copy of the config is made, and uses
+     * the strings' cached hash codes so that building a key is cheap.
+     */
+    private static final class PolicyConfigKey {
+
+        private final String policySpec;
+        private final String configData;
+        private final int hash;
+
+        /**
+         * Constructor.
+         * @param policySpec the policy spec
+         * @param configData the config data
+         */
+        public PolicyConfigKey(String policySpec, String configData) {
+            this.policySpec = policySpec;
+            this.configData = configData;
+            this.hash = 31 * (policySpec == null ? 0 : policySpec.hashCode())
+                    + (configData == null ? 0 : configData.hashCode());
+        }
+
+        /**
+         * @see java.lang.Object#hashCode()
+         */
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        /**
+         * @see java.lang.Object#equals(java.lang.Object)
+         */
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof PolicyConfigKey)) {
+                return false;
+            }
+            PolicyConfigKey other = (PolicyConfigKey) obj;
+            return hash == other.hash
+                    && (policySpec == null ? other.policySpec == null : policySpec.equals(other.policySpec))
+                    && (configData == null ? other.configData == null : configData.equals(other.configData));
+        }
+    }
+
 }
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2017 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.apiman.gateway.engine.rates;
+
+import io.apiman.gateway.engine.components.IRateLimiterComponent;
+import io.apiman.gateway.engine.components.rate.RateLimitResponse;
+
+import java.io.Serializable;
+
+/**
+ * A compact, immutable encoding of a rate limiter bucket: the count for the
+ * current period along with the end of that period (epoch millis).  May be used by
+ * clustered {@link IRateLimiterComponent} implementations that update buckets
+ * atomically (e.g. via an entry processor or a compare-and-swap), since unlike
+ * {@link RateLimiterBucket} it does not depend on the time at which it is read and
+ * it has value semantics.
+ *
+ * @author eric.wittmann@redhat.com
+ */
+public final class RateBucketState implements Serializable {
+
+    private static final long serialVersionUID = -1726203716834628915L;
+
+    private final long boundary;
+    private final long count;
+
+    /**
+     * Constructor.
+     * @param boundary the end of the period the count belongs to
+     * @param count the count
+     */
+    public RateBucketState(long boundary, long count) {
+        this.boundary = boundary;
+        this.count = count;
+    }
+
+    /**
+     * Returns the count of the given bucket for the period ending at the given
+     * boundary (0 if there is no bucket or if the bucket's period has elapsed).
+     * @param state the bucket, may be null
+     * @param boundary the end of the current period
+     * @return the current count
+     */
+    public static long currentCount(RateBucketState state, long boundary) {
+        if (state == null || state.boundary < boundary) {
+            return 0;
+        }
+        return state.count;
+    }
+
+    /**
+     * Applies a request to the given bucket, returning the new bucket.  The count
+     * is only incremented if the limit has not already been exceeded.  Note that
+     * a bucket whose period ends after the given boundary (written by a node whose
+     * clock is ahead of ours) is treated as current.
+     * @param state the bucket, may be null
+     * @param boundary the end of the current period
+     * @param limit the limit
+     * @param increment the increment
+     * @return the new bucket
+     */
+    public static RateBucketState increment(RateBucketState state, long boundary, long limit, long increment) {
+        long count = currentCount(state, boundary);
+        long end = state == null ? boundary : Math.max(state.boundary, boundary);
+        if (count > limit) {
+            return state.boundary == end ? state : new RateBucketState(end, count);
+        }
+        return new RateBucketState(end, count + increment);
+    }
+
+    /**
+     * Creates the response to return for a request applied to a bucket.
+     * @param previousCount the count before the request was applied
+     * @param state the bucket after the request was applied
+     * @param limit the limit
+     * @param now the current time
+     * @return the rate limit response
+     */
+    public static RateLimitResponse toResponse(long previousCount, RateBucketState state, long limit, long now) {
+        RateLimitResponse response = new RateLimitResponse();
+        response.setAccepted(previousCount < limit);
+        response.setRemaining(limit - state.count);
+        response.setReset((int) ((state.boundary - now) / 1000L));
+        return response;
+    }
+
+    /**
+     * @return the end of the period the count belongs to
+     */
+    public long getBoundary() {
+        return boundary;
+    }
+
+    /**
+     * @return the count
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @see java.lang.Object#hashCode()
+     */
+    @Override
+    public int hashCode() {
+        return 31 * Long.hashCode(boundary) + Long.hashCode(count);
+    }
+
+    /**
+     * @see java.lang.Object#equals(java.lang.Object)
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof RateBucketState)) {
+            return false;
+        }
+        RateBucketState other = (RateBucketState) obj;
+        return boundary == other.boundary && count == other.count;
+    }
+
+}
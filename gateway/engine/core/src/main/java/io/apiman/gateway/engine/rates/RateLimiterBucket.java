@@ -18,7 +18,6 @@ package io.apiman.gateway.engine.rates;
 import io.apiman.gateway.engine.components.IRateLimiterComponent;
 
 import java.io.Serializable;
-import java.util.Calendar;
 
 /**
  * May be used by {@link IRateLimiterComponent} implementations.
@@ -59,7 +58,7 @@ public class RateLimiterBucket implements Serializable {
      */
     public long getResetMillis(RateBucketPeriod period) {
         long now = System.currentTimeMillis();
-        long periodBoundary = getPeriodBoundary(now, period);
+        long periodBoundary = RatePeriodBoundaries.getPeriodBoundary(now, period);
         return periodBoundary - now;
     }
 
@@ -69,59 +68,7 @@ public class RateLimiterBucket implements Serializable {
      * @param period
      */
     private long getLastPeriodBoundary(RateBucketPeriod period) {
-        return getPeriodBoundary(getLast(), period);
-    }
-
-    /**
-     * Gets the boundary timestamp for the given rate bucket period.  In other words,
-     * returns the timestamp associated with when the rate period will reset.
-     * @param timestamp
-     * @param period
-     */
-    private static long getPeriodBoundary(long timestamp, RateBucketPeriod period) {
-        Calendar lastCal = Calendar.getInstance();
-        lastCal.setTimeInMillis(timestamp);
-        switch (period) {
-        case Second:
-            lastCal.set(Calendar.MILLISECOND, 0);
-            lastCal.add(Calendar.SECOND, 1);
-            return lastCal.getTimeInMillis();
-        case Minute:
-            lastCal.set(Calendar.MILLISECOND, 0);
-            lastCal.set(Calendar.SECOND, 0);
-            lastCal.add(Calendar.MINUTE, 1);
-            return lastCal.getTimeInMillis();
-        case Hour:
-            lastCal.set(Calendar.MILLISECOND, 0);
-            lastCal.set(Calendar.SECOND, 0);
-            lastCal.set(Calendar.MINUTE, 0);
-            lastCal.add(Calendar.HOUR_OF_DAY, 1);
-            return lastCal.getTimeInMillis();
-        case Day:
-            lastCal.set(Calendar.MILLISECOND, 0);
-            lastCal.set(Calendar.SECOND, 0);
-            lastCal.set(Calendar.MINUTE, 0);
-            lastCal.set(Calendar.HOUR_OF_DAY, 0);
-            lastCal.add(Calendar.DAY_OF_YEAR, 1);
-            return lastCal.getTimeInMillis();
-        case Month:
-            lastCal.set(Calendar.MILLISECOND, 0);
-            lastCal.set(Calendar.SECOND, 0);
-            lastCal.set(Calendar.MINUTE, 0);
-            lastCal.set(Calendar.HOUR_OF_DAY, 0);
-            lastCal.set(Calendar.DAY_OF_MONTH, 1);
-            lastCal.add(Calendar.MONTH, 1);
-            return lastCal.getTimeInMillis();
-        case Year:
-            lastCal.set(Calendar.MILLISECOND, 0);
-            lastCal.set(Calendar.SECOND, 0);
-            lastCal.set(Calendar.MINUTE, 0);
-            lastCal.set(Calendar.HOUR_OF_DAY, 0);
-            lastCal.set(Calendar.DAY_OF_YEAR, 1);
-            lastCal.add(Calendar.YEAR, 1);
-            return lastCal.getTimeInMillis();
-        }
-        return Long.MAX_VALUE;
+        return RatePeriodBoundaries.getPeriodBoundary(getLast(), period);
     }
 
     /**
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2017 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.apiman.gateway.engine.rates;
+
+import java.util.Calendar;
+
+/**
+ * Computes the boundaries (in epoch millis) of {@link RateBucketPeriod}s.  The
+ * boundaries of the current period are cached per {@link RateBucketPeriod}, so
+ * the (comparatively expensive) {@link Calendar} arithmetic is only done once
+ * per period rather than on every rate limit check.
+ *
+ * @author eric.wittmann@redhat.com
+ */
+public final class RatePeriodBoundaries {
+
+    private static final Window[] windows = new Window[RateBucketPeriod.values().length];
+
+    /**
+     * Constructor.
+     */
+    private RatePeriodBoundaries() {
+    }
+
+    /**
+     * Gets the boundary timestamp for the given rate bucket period.  In other words,
+     * returns the timestamp associated with when the rate period containing the given
+     * timestamp will reset.
+     * @param timestamp the timestamp
+     * @param period the period
+     * @return the end (exclusive) of the period containing the timestamp
+     */
+    public static long getPeriodBoundary(long timestamp, RateBucketPeriod period) {
+        Window window = windows[period.ordinal()];
+        if (window != null && window.contains(timestamp)) {
+            return window.end;
+        }
+        window = computeWindow(timestamp, period);
+        // Only cache the window if it's the current one - lookups for old timestamps
+        // (e.g. the last request made to an idle bucket) should not evict it.
+        if (window.contains(System.currentTimeMillis())) {
+            windows[period.ordinal()] = window;
+        }
+        return window.end;
+    }
+
+    /**
+     * Computes the window (start and end) of the period containing the given timestamp.
+     * @param timestamp the timestamp
+     * @param period the period
+     */
+    private static Window computeWindow(long timestamp, RateBucketPeriod period) {
+        Calendar cal = Calendar.getInstance();
+        cal.setTimeInMillis(timestamp);
+        int field;
+        switch (period) {
+        case Second:
+            cal.set(Calendar.MILLISECOND, 0);
+            field = Calendar.SECOND;
+            break;
+        case Minute:
+            cal.set(Calendar.MILLISECOND, 0);
+            cal.set(Calendar.SECOND, 0);
+            field = Calendar.MINUTE;
+            break;
+        case Hour:
+            cal.set(Calendar.MILLISECOND, 0);
+            cal.set(Calendar.SECOND, 0);
+            cal.set(Calendar.MINUTE, 0);
+            field = Calendar.HOUR_OF_DAY;
+            break;
+        case Day:
+            cal.set(Calendar.MILLISECOND, 0);
+            cal.set(Calendar.SECOND, 0);
+            cal.set(Calendar.MINUTE, 0);
+            cal.set(Calendar.HOUR_OF_DAY, 0);
+            field = Calendar.DAY_OF_YEAR;
+            break;
+        case Month:
+            cal.set(Calendar.MILLISECOND, 0);
+            cal.set(Calendar.SECOND, 0);
+            cal.set(Calendar.MINUTE, 0);
+            cal.set(Calendar.HOUR_OF_DAY, 0);
+            cal.set(Calendar.DAY_OF_MONTH, 1);
+            field = Calendar.MONTH;
+            break;
+        case Year:
+            cal.set(Calendar.MILLISECOND, 0);
+            cal.set(Calendar.SECOND, 0);
+            cal.set(Calendar.MINUTE, 0);
+            cal.set(Calendar.HOUR_OF_DAY, 0);
+            cal.set(Calendar.DAY_OF_YEAR, 1);
+            field = Calendar.YEAR;
+            break;
+        default:
+            return new Window(Long.MIN_VALUE, Long.MAX_VALUE);
+        }
+        long start = cal.getTimeInMillis();
+        cal.add(field, 1);
+        return new Window(start, cal.getTimeInMillis());
+    }
+
+    /**
+     * An immutable [start, end) window of time.
+     */
+    private static final class Window {
+
+        private final long start;
+        private final long end;
+
+        /**
+         * Constructor.
+         * @param start the start of the window (inclusive)
+         * @param end the end of the window (exclusive)
+         */
+        private Window(long start, long end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        /**
+         * @param timestamp the timestamp
+         * @return true if the timestamp falls within this window
+         */
+        private boolean contains(long timestamp) {
+            return timestamp >= start && timestamp < end;
+        }
+    }
+
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright 2017 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.apiman.gateway.engine.circuitbreaker;
+
+import io.apiman.gateway.engine.beans.Api;
+import io.apiman.gateway.engine.circuitbreaker.BackendGuard.Permit;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for {@link BackendGuard}.
+ *
+ * @author eric.wittmann@redhat.com
+ */
+@SuppressWarnings("nls")
+public class BackendGuardTest {
+
+    @Test
+    public void testBreakerOpensAfterConsecutiveFailures() {
+        BackendGuard guard = createGuard("3", "60000", null);
+        guard.tryAcquire().failed();
+        guard.tryAcquire().failed();
+        // A success resets the count
+        guard.tryAcquire().succeeded();
+        guard.tryAcquire().failed();
+        guard.tryAcquire().failed();
+        Assert.assertEquals(CircuitBreakerState.CLOSED, guard.getState());
+        guard.tryAcquire().failed();
+        Assert.assertEquals(CircuitBreakerState.OPEN, guard.getState());
+        Assert.assertNull(guard.tryAcquire());
+        Assert.assertEquals(1, guard.getRejectedRequests());
+    }
+
+    @Test
+    public void testHalfOpenTrial() throws Exception {
+        BackendGuard guard = createGuard("1", "10", null);
+        guard.tryAcquire().failed();
+        Assert.assertNull(guard.tryAcquire());
+        Thread.sleep(20);
+        Assert.assertEquals(CircuitBreakerState.HALF_OPEN, guard.getState());
+
+        // Only one trial at a time
+        Permit trial = guard.tryAcquire();
+        Assert.assertNotNull(trial);
+        Assert.assertNull(guard.tryAcquire());
+        // A failed trial re-opens the breaker
+        trial.failed();
+        Assert.assertEquals(CircuitBreakerState.OPEN, guard.getState());
+
+        Thread.sleep(20);
+        trial = guard.tryAcquire();
+        // An abandoned trial lets another one through
+        trial.release();
+        trial = guard.tryAcquire();
+        Assert.assertNotNull(trial);
+        trial.succeeded();
+        trial.release();
+        Assert.assertEquals(CircuitBreakerState.CLOSED, guard.getState());
+        Assert.assertNotNull(guard.tryAcquire());
+    }
+
+    @Test
+    public void testBulkhead() {
+        BackendGuard guard = createGuard(null, null, "2");
+        Permit first = guard.tryAcquire();
+        Permit second = guard.tryAcquire();
+        Assert.assertNull(guard.tryAcquire());
+        Assert.assertEquals(2, guard.getActiveRequests());
+
+        // Responding isn't enough - the permit is held until the response is delivered
+        first.succeeded();
+        Assert.assertNull(guard.tryAcquire());
+        first.release();
+        first.release();
+        Assert.assertEquals(1, guard.getActiveRequests());
+        Assert.assertNotNull(guard.tryAcquire());
+
+        second.failed();
+        Assert.assertEquals(1, guard.getActiveRequests());
+        Assert.assertEquals(CircuitBreakerState.CLOSED, guard.getState());
+    }
+
+    @Test
+    public void testGuards() {
+        Map<String, String> props = new HashMap<>();
+        Assert.assertFalse(BackendGuard.isGuarded(props));
+        props.put(BackendGuard.MAX_CONCURRENT, "10");
+        Assert.assertTrue(BackendGuard.isGuarded(props));
+
+        Assert.assertEquals("http://example.com:80", BackendGuards.getBackend("http://Example.com/some/path"));
+        Assert.assertEquals("https://example.com:8443", BackendGuards.getBackend("https://example.com:8443/"));
+
+        BackendGuard guard = BackendGuards.acquire("http://guards.example.com/a", props);
+        Assert.assertSame(guard, BackendGuards.acquire("http://guards.example.com:80/b", props));
+        // Configured the same way (explicit defaults make no difference)
+        Map<String, String> same = new HashMap<>(props);
+        same.put(BackendGuard.FAILURES, "0");
+        Assert.assertSame(guard, BackendGuards.acquire("http://guards.example.com/c", same));
+
+        // Configured differently - each API keeps its own limits
+        Map<String, String> other = new HashMap<>(props);
+        other.put(BackendGuard.MAX_CONCURRENT, "20");
+        BackendGuard otherGuard = BackendGuards.acquire("http://guards.example.com/d", other);
+        Assert.assertNotSame(guard, otherGuard);
+        Assert.assertEquals(10, guard.getMaxConcurrent());
+        Assert.assertEquals(20, otherGuard.getMaxConcurrent());
+        Assert.assertSame(guard, BackendGuards.peek("http://guards.example.com/a", props));
+        Assert.assertEquals(guard.getBackend(), otherGuard.getBackend());
+        Assert.assertNotEquals(guard.getConfiguration(), otherGuard.getConfiguration());
+
+        // Dropped once every endpoint that acquired it has released it
+        BackendGuards.release(guard);
+        BackendGuards.release(guard);
+        Assert.assertTrue(BackendGuards.getAll().contains(guard));
+        BackendGuards.release(guard);
+        Assert.assertFalse(BackendGuards.getAll().contains(guard));
+        Assert.assertNotSame(guard, BackendGuards.peek("http://guards.example.com/a", props));
+        BackendGuards.release(otherGuard);
+        Assert.assertFalse(BackendGuards.getAll().contains(otherGuard));
+    }
+
+    @Test
+    public void testApiGuards() {
+        ApiGuards apiGuards = new ApiGuards();
+        Api api = new Api();
+        api.setOrganizationId("org");
+        api.setApiId("guarded");
+        api.setVersion("1.0");
+        api.setEndpoint("http://api-guards.example.com/a");
+        api.setEndpointProperties(new HashMap<>());
+        Assert.assertNull(apiGuards.get(api));
+
+        api.getEndpointProperties().put(BackendGuard.MAX_CONCURRENT, "10");
+        BackendGuard guard = apiGuards.get(api).apply(api.getEndpoint());
+        Assert.assertSame(guard, apiGuards.get(api).apply(api.getEndpoint()));
+        Assert.assertTrue(BackendGuards.getAll().contains(guard));
+
+        // Re-published with a different configuration
+        Api republished = new Api();
+        republished.setOrganizationId("org");
+        republished.setApiId("guarded");
+        republished.setVersion("1.0");
+        republished.setEndpoint(api.getEndpoint());
+        republished.setEndpointProperties(new HashMap<>());
+        republished.getEndpointProperties().put(BackendGuard.MAX_CONCURRENT, "20");
+        BackendGuard newGuard = apiGuards.get(republished).apply(republished.getEndpoint());
+        Assert.assertEquals(20, newGuard.getMaxConcurrent());
+        Assert.assertFalse(BackendGuards.getAll().contains(guard));
+
+        apiGuards.remove(republished);
+        Assert.assertFalse(BackendGuards.getAll().contains(newGuard));
+    }
+
+    private static BackendGuard createGuard(String failures, String openTime, String maxConcurrent) {
+        Map<String, String> props = new HashMap<>();
+        if (failures != null) {
+            props.put(BackendGuard.FAILURES, failures);
+        }
+        if (openTime != null) {
+            props.put(BackendGuard.OPEN_TIME, openTime);
+        }
+        if (maxConcurrent != null) {
+            props.put(BackendGuard.MAX_CONCURRENT, maxConcurrent);
+        }
+        return new BackendGuard("http://localhost:8080", props);
+    }
+
+}
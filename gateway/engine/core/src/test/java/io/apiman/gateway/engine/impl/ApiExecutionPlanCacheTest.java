@@ -0,0 +1,157 @@
+/*
+ * Copyright 2017 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.apiman.gateway.engine.impl;
+
+import io.apiman.gateway.engine.async.IAsyncResult;
+import io.apiman.gateway.engine.beans.Api;
+import io.apiman.gateway.engine.beans.ApiContract;
+import io.apiman.gateway.engine.beans.Policy;
+import io.apiman.gateway.engine.beans.exceptions.PolicyNotFoundException;
+import io.apiman.gateway.engine.policy.PolicyFactoryImpl;
+import io.apiman.gateway.engine.util.PassthroughDataPolicy;
+import io.apiman.gateway.engine.util.PassthroughPolicy;
+
+import java.util.Collections;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for {@link ApiExecutionPlanCache}.
+ *
+ * @author eric.wittmann@redhat.com
+ */
+@SuppressWarnings("nls")
+public class ApiExecutionPlanCacheTest {
+
+    private ApiExecutionPlanCache planCache;
+    private ApiExecutionPlan plan;
+    private Throwable error;
+
+    @Before
+    public void setup() {
+        planCache = new ApiExecutionPlanCache(new PolicyFactoryImpl(Collections.emptyMap()));
+        plan = null;
+        error = null;
+    }
+
+    @Test
+    public void testCompile() {
+        System.setProperty("apiman.test.plan.host", "backend.example.org");
+        Api api = createApi("http://${apiman.test.plan.host}:8080/path", "{ \"host\" : \"${apiman.test.plan.host}\" }");
+        api.getApiPolicies().add(createPolicy(PassthroughDataPolicy.QUALIFIED_NAME, "{}"));
+
+        planCache.getPlan(api, this::handle);
+
+        Assert.assertNull(error);
+        Assert.assertNotNull(plan);
+        Assert.assertEquals("http://backend.example.org:8080/path", plan.getApi().getEndpoint());
+        Assert.assertEquals(2, plan.getPolicies().size());
+        Assert.assertEquals("{ \"host\" : \"backend.example.org\" }", plan.getPolicies().get(0).getConfiguration());
+        Assert.assertTrue(plan.hasDataPolicy());
+
+        // The registry's copy of the api must not be modified.
+        Assert.assertEquals("http://${apiman.test.plan.host}:8080/path", api.getEndpoint());
+    }
+
+    @Test
+    public void testCachedPlan() {
+        Api api = createApi("http://localhost:8080/", "{}");
+
+        planCache.getPlan(api, this::handle);
+        ApiExecutionPlan first = plan;
+        planCache.getPlan(api, this::handle);
+        Assert.assertSame(first, plan);
+
+        // An equivalent api (e.g. read back from a remote registry) re-uses the plan
+        planCache.getPlan(createApi("http://localhost:8080/", "{}"), this::handle);
+        Assert.assertSame(first, plan);
+
+        // A re-published (modified) api does not
+        planCache.getPlan(createApi("http://localhost:8081/", "{}"), this::handle);
+        Assert.assertNotSame(first, plan);
+        Assert.assertEquals("http://localhost:8081/", plan.getApi().getEndpoint());
+    }
+
+    @Test
+    public void testInvalidate() {
+        Api api = createApi("http://localhost:8080/", "{}");
+
+        planCache.getPlan(api, this::handle);
+        ApiExecutionPlan first = plan;
+        planCache.invalidateApi("TestOrg", "TestApi", "1.0");
+        planCache.getPlan(api, this::handle);
+        Assert.assertNotSame(first, plan);
+    }
+
+    @Test
+    public void testContractPlansBounded() {
+        planCache = new ApiExecutionPlanCache(new PolicyFactoryImpl(Collections.emptyMap()), 1);
+        Api api = createApi("http://localhost:8080/", "{}");
+        ApiContract contract = new ApiContract(api, null, "Gold", Collections.emptyList());
+
+        planCache.getPlan("key-1", contract, this::handle);
+        ApiExecutionPlan first = plan;
+        planCache.getPlan("key-1", contract, this::handle);
+        Assert.assertSame(first, plan);
+
+        // Only room for one contract plan, so the first one is evicted.
+        planCache.getPlan("key-2", contract, this::handle);
+        planCache.getPlan("key-1", contract, this::handle);
+        Assert.assertNotSame(first, plan);
+    }
+
+    @Test
+    public void testPolicyNotFound() {
+        Api api = createApi("http://localhost:8080/", "{}");
+        api.getApiPolicies().add(createPolicy("class:org.example.NotFound", "{}"));
+
+        planCache.getPlan(api, this::handle);
+
+        Assert.assertNull(plan);
+        Assert.assertTrue(error instanceof PolicyNotFoundException);
+    }
+
+    private void handle(IAsyncResult<ApiExecutionPlan> result) {
+        if (result.isSuccess()) {
+            plan = result.getResult();
+        } else {
+            plan = null;
+            error = result.getError();
+        }
+    }
+
+    private static Api createApi(String endpoint, String policyConfig) {
+        Api api = new Api();
+        api.setPublicAPI(true);
+        api.setOrganizationId("TestOrg");
+        api.setApiId("TestApi");
+        api.setVersion("1.0");
+        api.setEndpoint(endpoint);
+        api.setEndpointType("rest");
+        api.getApiPolicies().add(createPolicy(PassthroughPolicy.QUALIFIED_NAME, policyConfig));
+        return api;
+    }
+
+    private static Policy createPolicy(String policyImpl, String config) {
+        Policy policy = new Policy();
+        policy.setPolicyImpl(policyImpl);
+        policy.setPolicyJsonConfig(config);
+        return policy;
+    }
+
+}
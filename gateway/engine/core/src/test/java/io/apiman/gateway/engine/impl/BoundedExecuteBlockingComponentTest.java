@@ -0,0 +1,128 @@
+/*
+ * Copyright 2017 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.apiman.gateway.engine.impl;
+
+import io.apiman.gateway.engine.async.IAsyncResult;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author eric.wittmann@redhat.com
+ */
+@SuppressWarnings("nls")
+public class BoundedExecuteBlockingComponentTest {
+
+    @Test
+    public void testSuccessfulExecution() throws Exception {
+        BoundedExecuteBlockingComponent component = new BoundedExecuteBlockingComponent();
+        String caller = Thread.currentThread().getName();
+        AtomicReference<String> worker = new AtomicReference<>();
+        IAsyncResult<String> result = executeAndWait(component, () -> {
+            worker.set(Thread.currentThread().getName());
+            return "Coëtivy";
+        });
+        Assert.assertTrue(result.isSuccess());
+        Assert.assertEquals("Coëtivy", result.getResult());
+        Assert.assertNotEquals(caller, worker.get());
+    }
+
+    @Test
+    public void testRejectedWhenQueueFull() throws Exception {
+        BoundedExecuteBlockingComponent component = new BoundedExecuteBlockingComponent(
+                config("maxThreads", "1", "maxQueueDepth", "1", "timeout", "10000"));
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        // Occupy the only worker, then the only queue slot.
+        component.<Void>executeBlocking(future -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                // done either way
+            }
+            future.completed(null);
+        }, result -> {});
+        Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+        CountDownLatch queuedDone = new CountDownLatch(1);
+        component.<Void>executeBlocking(future -> future.completed(null), result -> queuedDone.countDown());
+
+        AtomicReference<IAsyncResult<Void>> rejected = new AtomicReference<>();
+        component.<Void>executeBlocking(future -> future.completed(null), rejected::set);
+        // Rejection is reported right away, on the calling thread.
+        Assert.assertNotNull(rejected.get());
+        Assert.assertTrue(rejected.get().getError() instanceof RejectedExecutionException);
+
+        release.countDown();
+        Assert.assertTrue(queuedDone.await(5, TimeUnit.SECONDS));
+        IAsyncResult<String> result = executeAndWait(component, () -> "Aldabra");
+        Assert.assertEquals("Aldabra", result.getResult());
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        BoundedExecuteBlockingComponent component = new BoundedExecuteBlockingComponent(config("timeout", "100"));
+        CountDownLatch interrupted = new CountDownLatch(1);
+        IAsyncResult<String> result = executeAndWait(component, () -> {
+            try {
+                Thread.sleep(10000);
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+                throw e;
+            }
+            return "Cosmoledo";
+        });
+        Assert.assertTrue(result.isError());
+        Assert.assertTrue(result.getError() instanceof TimeoutException);
+        Assert.assertTrue("Expected the timed out task to be interrupted.", interrupted.await(5, TimeUnit.SECONDS));
+    }
+
+    private static <T> IAsyncResult<T> executeAndWait(BoundedExecuteBlockingComponent component,
+            Callable<T> code) throws Exception {
+        CountDownLatch latch = new CountDownLatch(1);
+        AtomicReference<IAsyncResult<T>> rval = new AtomicReference<>();
+        component.<T>executeBlocking(future -> {
+            try {
+                future.completed(code.call());
+            } catch (Exception e) {
+                future.fail(e);
+            }
+        }, result -> {
+            rval.set(result);
+            latch.countDown();
+        });
+        Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        return rval.get();
+    }
+
+    private static Map<String, String> config(String ... keysAndValues) {
+        Map<String, String> config = new HashMap<>();
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            config.put(keysAndValues[i], keysAndValues[i + 1]);
+        }
+        return config;
+    }
+
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2017 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.apiman.gateway.engine.impl;
+
+import io.apiman.gateway.engine.async.IAsyncResult;
+import io.apiman.gateway.engine.async.IAsyncResultHandler;
+import io.apiman.gateway.engine.components.jdbc.IJdbcClient;
+import io.apiman.gateway.engine.components.jdbc.IJdbcConnection;
+import io.apiman.gateway.engine.components.jdbc.IJdbcResultSet;
+import io.apiman.gateway.engine.components.jdbc.JdbcOptionsBean;
+
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test for the bounded JDBC component.
+ *
+ * @author eric.wittmann@redhat.com
+ */
+@SuppressWarnings("nls")
+public class BoundedJdbcComponentTest {
+
+    @Test
+    public void testQuery() throws Exception {
+        BoundedJdbcComponent component = new BoundedJdbcComponent();
+        IJdbcClient client = component.createStandalone(options("testQuery"));
+
+        // The connect handler is called back on one of the workers, never on the caller.
+        AtomicReference<String> handlerThread = new AtomicReference<>();
+        IJdbcConnection connection = await(handler -> client.connect(result -> {
+            handlerThread.set(Thread.currentThread().getName());
+            handler.handle(result);
+        }));
+        Assert.assertTrue(handlerThread.get().startsWith("apiman-jdbc-"));
+
+        assertSuccess(execute(connection, "CREATE TABLE users (userId VARCHAR(255) NOT NULL, "
+                + "age INTEGER, isAdmin BIT, joined TIMESTAMP, PRIMARY KEY (userId))"));
+        assertSuccess(execute(connection, "INSERT INTO users (userId, age, isAdmin, joined) VALUES (?, ?, ?, ?)",
+                "ewittman", 17, Boolean.TRUE, new java.sql.Timestamp(1000L)));
+        assertSuccess(execute(connection, "INSERT INTO users (userId, age, isAdmin) VALUES (?, ?, ?)",
+                "msavy", 50, Boolean.FALSE));
+
+        IAsyncResult<IJdbcResultSet> queried = awaitResult(handler -> connection.query(handler,
+                "SELECT userId, age, isAdmin, joined FROM users ORDER BY userId"));
+        Assert.assertTrue(queried.isSuccess());
+
+        // The rows are all read up front, so they can be read after closing the connection.
+        assertSuccess(close(connection));
+        Assert.assertTrue(connection.isClosed());
+        IJdbcResultSet rs = queried.getResult();
+        Assert.assertEquals(4, rs.getNumColumns());
+        Assert.assertTrue(rs.next());
+        Assert.assertEquals("ewittman", rs.getString(1));
+        Assert.assertEquals(new Integer(17), rs.getInteger(2));
+        Assert.assertEquals(Boolean.TRUE, rs.getBoolean(3));
+        Assert.assertEquals(1000L, rs.getDateTime(4).getMillis());
+        Assert.assertTrue(rs.hasNext());
+        Assert.assertTrue(rs.next());
+        Assert.assertEquals("msavy", rs.getString(1));
+        Assert.assertEquals(Boolean.FALSE, rs.getBoolean(3));
+        Assert.assertNull(rs.getDateTime(4));
+        Assert.assertFalse(rs.hasNext());
+        Assert.assertFalse(rs.next());
+
+        // Closed connections refuse further operations.
+        Assert.assertTrue(execute(connection, "SELECT 1").isError());
+    }
+
+    @Test
+    public void testDoesNotBlockCaller() throws Exception {
+        BoundedJdbcComponent component = new BoundedJdbcComponent();
+        IJdbcClient client = component.createStandalone(options("testDoesNotBlockCaller"));
+        IJdbcConnection connection = await(client::connect);
+        assertSuccess(execute(connection, "CREATE ALIAS SLEEP FOR \"java.lang.Thread.sleep\""));
+
+        CompletableFuture<IAsyncResult<Void>> slept = new CompletableFuture<>();
+        long start = System.currentTimeMillis();
+        connection.execute(slept::complete, "CALL SLEEP(1000)");
+        Assert.assertTrue(System.currentTimeMillis() - start < 500);
+        Assert.assertFalse(slept.isDone());
+        assertSuccess(slept.get(10, TimeUnit.SECONDS));
+        assertSuccess(close(connection));
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        BoundedJdbcComponent component = new BoundedJdbcComponent(Collections.singletonMap("timeout", "200"));
+        IJdbcClient client = component.createStandalone(options("testTimeout"));
+        IJdbcConnection connection = await(client::connect);
+        assertSuccess(execute(connection, "CREATE ALIAS SLEEP FOR \"java.lang.Thread.sleep\""));
+
+        long start = System.currentTimeMillis();
+        IAsyncResult<Void> result = execute(connection, "CALL SLEEP(5000)");
+        Assert.assertTrue(result.isError());
+        Assert.assertTrue(result.getError() instanceof TimeoutException);
+        Assert.assertTrue(System.currentTimeMillis() - start < 4000);
+
+        // The connection is abandoned once an operation has timed out.
+        Assert.assertTrue(execute(connection, "SELECT 1").isError());
+        connection.close();
+        Assert.assertTrue(connection.isClosed());
+
+        // The client itself is still usable.
+        IJdbcConnection other = await(client::connect);
+        assertSuccess(execute(other, "SELECT 1"));
+        assertSuccess(close(other));
+    }
+
+    private static JdbcOptionsBean options(String dbName) {
+        JdbcOptionsBean config = new JdbcOptionsBean();
+        config.setAutoCommit(true);
+        config.setJdbcUrl("jdbc:h2:mem:" + dbName + ";DB_CLOSE_DELAY=-1");
+        config.setUsername("sa");
+        config.setPassword("");
+        return config;
+    }
+
+    private static IAsyncResult<Void> execute(IJdbcConnection connection, String sql, Object ... params) throws Exception {
+        return awaitResult(handler -> connection.execute(handler, sql, params));
+    }
+
+    private static IAsyncResult<Void> close(IJdbcConnection connection) throws Exception {
+        return awaitResult(handler -> connection.close(handler));
+    }
+
+    /**
+     * Starts an async operation and waits for (and returns) its result.
+     */
+    private static <T> IAsyncResult<T> awaitResult(AsyncOperation<T> operation) throws Exception {
+        CompletableFuture<IAsyncResult<T>> future = new CompletableFuture<>();
+        operation.start(future::complete);
+        return future.get(10, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Starts an async operation and waits for it to succeed.
+     */
+    private static <T> T await(AsyncOperation<T> operation) throws Exception {
+        IAsyncResult<T> result = awaitResult(operation);
+        assertSuccess(result);
+        return result.getResult();
+    }
+
+    private static void assertSuccess(IAsyncResult<?> result) {
+        if (result.isError()) {
+            throw new AssertionError(result.getError());
+        }
+    }
+
+    private static interface AsyncOperation<T> {
+        void start(IAsyncResultHandler<T> handler);
+    }
+
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2017 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.apiman.gateway.engine.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for {@link ConcurrentLruCache}.
+ *
+ * @author eric.wittmann@redhat.com
+ */
+@SuppressWarnings("nls")
+public class ConcurrentLruCacheTest {
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() {
+        List<String> removed = new ArrayList<>();
+        ConcurrentLruCache<String, String> cache = new ConcurrentLruCache<>(3, 1, (key, value) -> 1,
+                (key, value) -> removed.add(key));
+        cache.put("a", "A");
+        cache.put("b", "B");
+        cache.put("c", "C");
+        // Touch "a", so "b" is now the least recently used.
+        Assert.assertEquals("A", cache.get("a"));
+        cache.put("d", "D");
+
+        Assert.assertNull(cache.get("b"));
+        Assert.assertEquals("A", cache.get("a"));
+        Assert.assertEquals("C", cache.get("c"));
+        Assert.assertEquals("D", cache.get("d"));
+        Assert.assertEquals(3, cache.size());
+        Assert.assertEquals(1, removed.size());
+        Assert.assertEquals("b", removed.get(0));
+    }
+
+    @Test
+    public void testWeighted() {
+        List<String> removed = new ArrayList<>();
+        ConcurrentLruCache<String, String> cache = new ConcurrentLruCache<>(10, 1,
+                (key, value) -> value.length(), (key, value) -> removed.add(key));
+        cache.put("a", "1234");
+        cache.put("b", "1234");
+        Assert.assertEquals(8, cache.weight());
+
+        // Too large to be stored at all.
+        Assert.assertFalse(cache.put("c", "12345678901"));
+        Assert.assertNull(cache.get("c"));
+
+        // Replacing a value releases the old one.
+        cache.put("a", "12");
+        Assert.assertEquals(6, cache.weight());
+        Assert.assertEquals("a", removed.get(0));
+
+        cache.put("c", "12345");
+        Assert.assertNull(cache.get("b"));
+        Assert.assertEquals(7, cache.weight());
+    }
+
+    @Test
+    public void testRemove() {
+        ConcurrentLruCache<String, String> cache = new ConcurrentLruCache<>(100);
+        cache.put("a1", "A");
+        cache.put("a2", "A");
+        cache.put("b1", "B");
+        Assert.assertEquals("A", cache.putIfAbsent("a1", "X"));
+        Assert.assertFalse(cache.remove("b1", "X"));
+        Assert.assertTrue(cache.remove("b1", "B"));
+        cache.removeIf((key, value) -> key.equals("a2"));
+        Assert.assertEquals(1, cache.size());
+        Assert.assertEquals("A", cache.remove("a1"));
+        Assert.assertEquals(0, cache.size());
+        Assert.assertEquals(0, cache.weight());
+    }
+
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2017 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.apiman.gateway.engine.impl;
+
+import io.apiman.gateway.engine.components.rate.RateLimitResponse;
+import io.apiman.gateway.engine.rates.RateBucketPeriod;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for {@link ConcurrentRateLimiterComponent}.
+ *
+ * @author eric.wittmann@redhat.com
+ */
+@SuppressWarnings("nls")
+public class ConcurrentRateLimiterComponentTest {
+
+    @Test
+    public void testAccept() {
+        ConcurrentRateLimiterComponent limiter = new ConcurrentRateLimiterComponent(Collections.singletonMap("expiry.period", "0"));
+        RateLimitResponse[] response = new RateLimitResponse[1];
+
+        for (int i = 0; i < 3; i++) {
+            limiter.accept("bucket", RateBucketPeriod.Hour, 3, 1, result -> response[0] = result.getResult());
+            Assert.assertTrue(response[0].isAccepted());
+            Assert.assertEquals(2 - i, response[0].getRemaining());
+            Assert.assertTrue(response[0].getReset() <= 3600);
+        }
+        limiter.accept("bucket", RateBucketPeriod.Hour, 3, 1, result -> response[0] = result.getResult());
+        Assert.assertFalse(response[0].isAccepted());
+
+        // Buckets are independent of each other
+        limiter.accept("other", RateBucketPeriod.Hour, 3, 1, result -> response[0] = result.getResult());
+        Assert.assertTrue(response[0].isAccepted());
+        Assert.assertEquals(2, response[0].getRemaining());
+    }
+
+    @Test
+    public void testConcurrentAccept() throws Exception {
+        final ConcurrentRateLimiterComponent limiter = new ConcurrentRateLimiterComponent(Collections.singletonMap("expiry.period", "0"));
+        final AtomicInteger accepted = new AtomicInteger();
+        final int threads = 8;
+        final int requests = 500;
+        final CountDownLatch latch = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            new Thread(() -> {
+                for (int i = 0; i < requests; i++) {
+                    limiter.accept("bucket", RateBucketPeriod.Day, 1000, 1, result -> {
+                        if (result.getResult().isAccepted()) {
+                            accepted.incrementAndGet();
+                        }
+                    });
+                }
+                latch.countDown();
+            }).start();
+        }
+        latch.await();
+        Assert.assertEquals(1000, accepted.get());
+    }
+
+    @Test
+    public void testExpireBuckets() throws Exception {
+        ConcurrentRateLimiterComponent limiter = new ConcurrentRateLimiterComponent(Collections.singletonMap("expiry.period", "0"));
+        RateLimitResponse[] response = new RateLimitResponse[1];
+
+        limiter.accept("second", RateBucketPeriod.Second, 1, 1, result -> response[0] = result.getResult());
+        limiter.accept("day", RateBucketPeriod.Day, 1, 1, result -> response[0] = result.getResult());
+        Assert.assertEquals(2, limiter.getBucketCount());
+
+        Thread.sleep(1001);
+        limiter.expireBuckets();
+        Assert.assertEquals(1, limiter.getBucketCount());
+
+        // A fresh bucket is created on the next request
+        limiter.accept("second", RateBucketPeriod.Second, 1, 1, result -> response[0] = result.getResult());
+        Assert.assertTrue(response[0].isAccepted());
+        Assert.assertEquals(2, limiter.getBucketCount());
+    }
+
+    @Test
+    public void testExpireIdleBuckets() throws Exception {
+        Map<String, String> config = new HashMap<>();
+        config.put("expiry.period", "0");
+        config.put("expiry.idle", "1");
+        ConcurrentRateLimiterComponent limiter = new ConcurrentRateLimiterComponent(config);
+        RateLimitResponse[] response = new RateLimitResponse[1];
+
+        limiter.accept("month", RateBucketPeriod.Month, 1, 1, result -> response[0] = result.getResult());
+        limiter.expireBuckets();
+        Assert.assertEquals(1, limiter.getBucketCount());
+
+        Thread.sleep(1100);
+        limiter.expireBuckets();
+        Assert.assertEquals(0, limiter.getBucketCount());
+    }
+
+    @Test
+    public void testClose() throws Exception {
+        ConcurrentRateLimiterComponent limiter = new ConcurrentRateLimiterComponent(Collections.singletonMap("expiry.period", "1"));
+        Assert.assertTrue(hasExpiryThread());
+        limiter.close();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (hasExpiryThread() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertFalse(hasExpiryThread());
+        // Closing again is harmless
+        limiter.close();
+    }
+
+    private static boolean hasExpiryThread() {
+        return Thread.getAllStackTraces().keySet().stream()
+                .anyMatch(thread -> "apiman-rate-limiter-expiry".equals(thread.getName()));
+    }
+
+}
@@ -24,6 +24,7 @@ import io.apiman.gateway.engine.async.IAsyncHandler;
 import io.apiman.gateway.engine.beans.ApiRequest;
 import io.apiman.gateway.engine.beans.ApiResponse;
 import io.apiman.gateway.engine.io.IApimanBuffer;
+import io.apiman.gateway.engine.io.IReadStream;
 import io.apiman.gateway.engine.io.IReadWriteStream;
 import io.apiman.gateway.engine.policy.IPolicyContext;
 import io.apiman.gateway.engine.policy.PolicyWithConfiguration;
@@ -137,5 +138,22 @@ public class DataPolicyChainTest {
         verify(policyOne).getResponseDataHandler(mockResponse, mockContext, configuration);
     }
 
+    @Test
+    public void shouldPassFlowControlFromEngineResultToSource() {
+        policies.add(pwcOne);
+
+        responseChain = new ResponseChain(policies, mockContext);
+        IReadStream<ApiResponse> source = mock(IReadStream.class);
+        responseChain.sourceStream(source);
+        responseChain.doApply(mockResponse);
+
+        EngineResultImpl engineResult = new EngineResultImpl(mockResponse);
+        engineResult.setBodyStream(responseChain);
+
+        engineResult.pause();
+        verify(source, times(1)).pause();
+        engineResult.resume();
+        verify(source, times(1)).resume();
+    }
 
 }
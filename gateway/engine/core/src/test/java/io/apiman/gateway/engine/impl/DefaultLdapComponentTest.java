@@ -0,0 +1,182 @@
+/*
+ * Copyright 2017 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.apiman.gateway.engine.impl;
+
+import io.apiman.gateway.engine.async.IAsyncResult;
+import io.apiman.gateway.engine.components.ldap.ILdapClientConnection;
+import io.apiman.gateway.engine.components.ldap.ILdapResult;
+import io.apiman.gateway.engine.components.ldap.ILdapSearchEntry;
+import io.apiman.gateway.engine.components.ldap.LdapConfigBean;
+import io.apiman.gateway.engine.components.ldap.LdapSearchScope;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.unboundid.ldap.listener.InMemoryDirectoryServer;
+import com.unboundid.ldap.listener.InMemoryDirectoryServerConfig;
+import com.unboundid.ldap.listener.InMemoryListenerConfig;
+
+/**
+ * Test for the default LDAP component's connection pooling.
+ *
+ * @author eric.wittmann@redhat.com
+ */
+@SuppressWarnings("nls")
+public class DefaultLdapComponentTest {
+
+    private InMemoryDirectoryServer server;
+    private DefaultLdapComponent component;
+    private final AtomicInteger connects = new AtomicInteger();
+
+    @Before
+    public void before() throws Exception {
+        InMemoryDirectoryServerConfig config = new InMemoryDirectoryServerConfig("dc=example,dc=com");
+        config.setListenerConfigs(InMemoryListenerConfig.createLDAPConfig("test", 0));
+        config.setAccessLogHandler(new Handler() {
+            @Override
+            public void publish(LogRecord record) {
+                if (record.getMessage().matches("(?s).*\\bCONNECT\\b.*")) {
+                    connects.incrementAndGet();
+                }
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+        server = new InMemoryDirectoryServer(config);
+        server.add("dn: dc=example,dc=com", "objectClass: top", "objectClass: domain", "dc: example");
+        server.add("dn: uid=ckent,dc=example,dc=com", "objectClass: top", "objectClass: inetOrgPerson",
+                "uid: ckent", "cn: Clark Kent", "sn: Kent", "userPassword: ckent123!");
+        server.add("dn: uid=bwayne,dc=example,dc=com", "objectClass: top", "objectClass: inetOrgPerson",
+                "uid: bwayne", "cn: Bruce Wayne", "sn: Wayne", "userPassword: bwayne123!");
+        server.startListening();
+
+        Map<String, String> componentConfig = new HashMap<>();
+        componentConfig.put(LDAPConnectionFactory.MAX_POOL_SIZE, "2");
+        component = new DefaultLdapComponent(componentConfig);
+    }
+
+    @After
+    public void after() {
+        component.connectionFactory.close();
+        server.shutDown(true);
+    }
+
+    @Test
+    public void testBind() {
+        for (int i = 0; i < 20; i++) {
+            Assert.assertTrue(bind("uid=ckent,dc=example,dc=com", "ckent123!").getResultCode().isSuccess());
+            Assert.assertTrue(bind("uid=bwayne,dc=example,dc=com", "bwayne123!").getResultCode().isSuccess());
+            Assert.assertFalse(bind("uid=ckent,dc=example,dc=com", "bwayne123!").getResultCode().isSuccess());
+        }
+        Assert.assertEquals(1, component.connectionFactory.getPoolCount());
+        Assert.assertEquals(1, connects.get());
+    }
+
+    @Test
+    public void testConnect() {
+        for (int i = 0; i < 10; i++) {
+            ILdapClientConnection serviceAccount = connect("uid=bwayne,dc=example,dc=com", "bwayne123!");
+            ILdapClientConnection user = connect("uid=ckent,dc=example,dc=com", "ckent123!");
+            Assert.assertEquals(1, search(serviceAccount, "(uid=ckent)").size());
+            Assert.assertEquals(1, search(user, "(uid=bwayne)").size());
+            serviceAccount.close();
+            user.close();
+            // A connection that was bound as someone else must be re-bound
+            Assert.assertNull(connect("uid=ckent,dc=example,dc=com", "wrong"));
+        }
+        Assert.assertEquals(2, connects.get());
+    }
+
+    @Test
+    public void testPoolBounded() {
+        component.connectionFactory.close();
+        Map<String, String> componentConfig = new HashMap<>();
+        componentConfig.put(LDAPConnectionFactory.MAX_POOL_SIZE, "2");
+        componentConfig.put(LDAPConnectionFactory.MAX_WAIT_TIME, "1");
+        component = new DefaultLdapComponent(componentConfig);
+
+        ILdapClientConnection first = connect("uid=bwayne,dc=example,dc=com", "bwayne123!");
+        ILdapClientConnection second = connect("uid=ckent,dc=example,dc=com", "ckent123!");
+        Assert.assertNotNull(first);
+        Assert.assertNotNull(second);
+
+        // Both connections are in use: wait for one rather than opening a third
+        long start = System.currentTimeMillis();
+        Assert.assertNull(connect("uid=ckent,dc=example,dc=com", "ckent123!"));
+        Assert.assertTrue(System.currentTimeMillis() - start >= 900);
+        Assert.assertEquals(2, connects.get());
+
+        first.close();
+        ILdapClientConnection third = connect("uid=ckent,dc=example,dc=com", "ckent123!");
+        Assert.assertNotNull(third);
+        Assert.assertEquals(2, connects.get());
+        second.close();
+        third.close();
+    }
+
+    private ILdapResult bind(String dn, String password) {
+        final ILdapResult[] rval = new ILdapResult[1];
+        component.bind(config(dn, password), result -> {
+            Assert.assertTrue(result.isSuccess());
+            rval[0] = result.getResult();
+        });
+        return rval[0];
+    }
+
+    private ILdapClientConnection connect(String dn, String password) {
+        final ILdapClientConnection[] rval = new ILdapClientConnection[1];
+        component.connect(config(dn, password), result -> {
+            rval[0] = result.isSuccess() ? result.getResult() : null;
+        });
+        return rval[0];
+    }
+
+    private static List<ILdapSearchEntry> search(ILdapClientConnection connection, String filter) {
+        @SuppressWarnings("unchecked")
+        final IAsyncResult<List<ILdapSearchEntry>>[] rval = new IAsyncResult[1];
+        connection.search("dc=example,dc=com", filter, LdapSearchScope.SUBTREE)
+                .setLdapErrorHandler(e -> Assert.fail(e.getMessage()))
+                .search(result -> rval[0] = result);
+        Assert.assertTrue(rval[0].isSuccess());
+        return rval[0].getResult();
+    }
+
+    private LdapConfigBean config(String dn, String password) {
+        LdapConfigBean config = new LdapConfigBean();
+        config.setHost("localhost");
+        config.setPort(server.getListenPort());
+        config.setScheme("ldap");
+        config.setBindDn(dn);
+        config.setBindPassword(password);
+        return config;
+    }
+
+}
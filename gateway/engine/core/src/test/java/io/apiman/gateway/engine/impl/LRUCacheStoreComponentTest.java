@@ -0,0 +1,181 @@
+/*
+ * Copyright 2017 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.apiman.gateway.engine.impl;
+
+import io.apiman.gateway.engine.io.ISignalReadStream;
+import io.apiman.gateway.engine.io.ISignalWriteStream;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for {@link LRUCacheStoreComponent}.
+ *
+ * @author eric.wittmann@redhat.com
+ */
+@SuppressWarnings("nls")
+public class LRUCacheStoreComponentTest {
+
+    private Object result;
+
+    @Test
+    public void testLeastRecentlyUsedEviction() throws Exception {
+        LRUCacheStoreComponent store = createStore("2500", false);
+        putBinary(store, "a", 800);
+        putBinary(store, "b", 800);
+        // Reading 'a' makes 'b' the least recently used entry
+        Assert.assertEquals(800, readBinary(store, "a").length());
+        putBinary(store, "c", 800);
+
+        Assert.assertNotNull(readBinary(store, "a"));
+        Assert.assertNull(readBinary(store, "b"));
+        Assert.assertNotNull(readBinary(store, "c"));
+        Assert.assertTrue(store.getCacheSize() <= 2500);
+    }
+
+    @Test
+    public void testHeadIsAccounted() throws Exception {
+        LRUCacheStoreComponent store = createStore("100000", false);
+        Map<String, String> head = new HashMap<>();
+        head.put("header", "value");
+        store.put("small", head, 60);
+        long small = store.getCacheSize();
+        for (int i = 0; i < 100; i++) {
+            head.put("header-" + i, "value-" + i);
+        }
+        store.put("large", head, 60);
+        Assert.assertTrue(store.getCacheSize() - small > 2000);
+    }
+
+    @Test
+    public void testOffHeap() throws Exception {
+        LRUCacheStoreComponent store = createStore("100000", true);
+        putBinary(store, "a", 1000);
+        Assert.assertEquals(createData(1000), readBinary(store, "a"));
+    }
+
+    @Test
+    public void testOffHeapStreamedInBlocks() throws Exception {
+        LRUCacheStoreComponent store = createStore("100000", true);
+        putBinary(store, "a", 40000);
+        List<Integer> chunks = new ArrayList<>();
+        StringBuilder builder = new StringBuilder();
+        store.getBinary("a", String.class, asyncResult -> {
+            ISignalReadStream<String> stream = asyncResult.getResult();
+            stream.bodyHandler(chunk -> {
+                chunks.add(chunk.length());
+                builder.append(chunk.toString());
+            });
+            stream.endHandler(v -> {});
+            stream.transmit();
+        });
+        Assert.assertEquals(createData(40000), builder.toString());
+        Assert.assertEquals(Arrays.asList(16384, 16384, 7232), chunks);
+        // The unused part of the last block isn't held on to
+        Assert.assertTrue(store.getCacheSize() < 41000);
+    }
+
+    @Test
+    public void testEntryLargerThanSegmentNotCached() throws Exception {
+        Map<String, String> config = new HashMap<>();
+        config.put("maxCacheSize", "8000");
+        config.put("concurrencyLevel", "4");
+        config.put("expiryPeriod", "0");
+        LRUCacheStoreComponent store = new LRUCacheStoreComponent(config);
+        store.setBufferFactory(new ByteBufferFactoryComponent());
+        putBinary(store, "small", 1000);
+        putBinary(store, "large", 3000);
+        Assert.assertNotNull(readBinary(store, "small"));
+        Assert.assertNull(readBinary(store, "large"));
+    }
+
+    @Test
+    public void testLargeEntryAbandonedWhileWriting() throws Exception {
+        Map<String, String> config = new HashMap<>();
+        config.put("maxCacheSize", "8000");
+        config.put("concurrencyLevel", "4");
+        config.put("offHeap", "true");
+        config.put("expiryPeriod", "0");
+        LRUCacheStoreComponent store = new LRUCacheStoreComponent(config);
+        store.setBufferFactory(new ByteBufferFactoryComponent());
+        ISignalWriteStream stream = store.putBinary("large", "head", 60);
+        stream.write(new ByteBufferFactoryComponent().createBuffer(createData(1500)));
+        Assert.assertFalse(stream.isFinished());
+        // Crosses the size of a segment (2000 bytes)
+        stream.write(new ByteBufferFactoryComponent().createBuffer(createData(1500)));
+        Assert.assertTrue(stream.isFinished());
+        stream.write(new ByteBufferFactoryComponent().createBuffer(createData(1500)));
+        stream.end();
+        Assert.assertNull(readBinary(store, "large"));
+        Assert.assertEquals(0, store.getCacheSize());
+    }
+
+    @Test
+    public void testExpiry() throws Exception {
+        LRUCacheStoreComponent store = createStore("100000", false);
+        store.put("a", "head", 0);
+        Thread.sleep(5);
+        store.expireEntries();
+        Assert.assertEquals(0, store.getCacheSize());
+        store.get("a", String.class, result -> this.result = result.getResult());
+        Assert.assertNull(result);
+    }
+
+    private static LRUCacheStoreComponent createStore(String maxCacheSize, boolean offHeap) {
+        Map<String, String> config = new HashMap<>();
+        config.put("maxCacheSize", maxCacheSize);
+        config.put("offHeap", String.valueOf(offHeap));
+        config.put("expiryPeriod", "0");
+        LRUCacheStoreComponent store = new LRUCacheStoreComponent(config);
+        store.setBufferFactory(new ByteBufferFactoryComponent());
+        return store;
+    }
+
+    private static void putBinary(LRUCacheStoreComponent store, String key, int size) throws Exception {
+        ISignalWriteStream stream = store.putBinary(key, "head", 60);
+        stream.write(new ByteBufferFactoryComponent().createBuffer(createData(size)));
+        stream.end();
+    }
+
+    private String readBinary(LRUCacheStoreComponent store, String key) {
+        result = null;
+        store.getBinary(key, String.class, (asyncResult) -> {
+            ISignalReadStream<String> stream = asyncResult.getResult();
+            if (stream != null) {
+                StringBuilder builder = new StringBuilder();
+                stream.bodyHandler(chunk -> builder.append(chunk.toString()));
+                stream.endHandler(v -> result = builder.toString());
+                stream.transmit();
+            }
+        });
+        return (String) result;
+    }
+
+    private static String createData(int size) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < size; i++) {
+            builder.append((char) ('a' + i % 26));
+        }
+        return builder.toString();
+    }
+
+}
@@ -25,6 +25,7 @@ import io.apiman.gateway.engine.util.PassthroughPolicy;
 
 import java.lang.reflect.Field;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Map;
 
 import org.junit.Assert;
@@ -76,6 +77,42 @@ public class PolicyLoadTest {
         });
     }
 
+    @Test
+    public void testConfigCache() {
+        Map<String, String> config = new HashMap<>();
+        config.put("maxConfigCacheSize", "2");
+        policyFactory = new PolicyFactoryImpl(config);
+        IPolicy policy = new PassthroughPolicy();
+
+        Object config1 = policyFactory.loadConfig(policy, PassthroughPolicy.QUALIFIED_NAME, "config-1");
+        Assert.assertSame(config1, policyFactory.loadConfig(policy, PassthroughPolicy.QUALIFIED_NAME, new String("config-1")));
+        Assert.assertEquals(1, getNumConfigs());
+
+        policyFactory.loadConfig(policy, PassthroughPolicy.QUALIFIED_NAME, "config-2");
+        // Using config-1 again makes config-2 the least recently used.
+        Assert.assertSame(config1, policyFactory.loadConfig(policy, PassthroughPolicy.QUALIFIED_NAME, "config-1"));
+        policyFactory.loadConfig(policy, PassthroughPolicy.QUALIFIED_NAME, "config-3");
+        Assert.assertEquals("Config cache should be bounded", 2, getNumConfigs());
+        Assert.assertSame(config1, policyFactory.loadConfig(policy, PassthroughPolicy.QUALIFIED_NAME, "config-1"));
+
+        policyFactory.evictConfig(PassthroughPolicy.QUALIFIED_NAME, "config-3");
+        Assert.assertEquals(1, getNumConfigs());
+    }
+
+    /**
+     * @return the number of policy configs in the factory
+     */
+    @SuppressWarnings("rawtypes")
+    private int getNumConfigs() {
+        try {
+            Field field = policyFactory.getClass().getDeclaredField("policyConfigCache");
+            field.setAccessible(true);
+            return ((ConcurrentLruCache) field.get(policyFactory)).size();
+        } catch (NoSuchFieldException | SecurityException | IllegalArgumentException | IllegalAccessException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     /**
      * @return the number of policies in the factory
      */
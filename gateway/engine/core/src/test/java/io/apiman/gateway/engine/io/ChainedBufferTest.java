@@ -0,0 +1,112 @@
+/*
+ * Copyright 2017 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.apiman.gateway.engine.io;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for {@link ChainedBuffer} and {@link ByteArrayPool}.
+ *
+ * @author eric.wittmann@redhat.com
+ */
+@SuppressWarnings("nls")
+public class ChainedBufferTest {
+
+    @Test
+    public void testAppend() {
+        byte[] data = new byte[300 * 1024];
+        new Random(42).nextBytes(data);
+        ChainedBuffer buffer = new ChainedBuffer(new ByteArrayPool(256, 64 * 1024, 16));
+        for (int offset = 0; offset < data.length; offset += 1000) {
+            int length = Math.min(1000, data.length - offset);
+            ByteBuffer chunk = new ByteBuffer(Arrays.copyOfRange(data, offset, offset + length), length);
+            buffer.append(chunk);
+        }
+        buffer.append((byte) 7);
+
+        Assert.assertEquals(data.length + 1, buffer.length());
+        byte[] bytes = buffer.getBytes();
+        Assert.assertArrayEquals(data, Arrays.copyOf(bytes, data.length));
+        Assert.assertEquals(7, bytes[data.length]);
+        Assert.assertEquals(data[200 * 1024], buffer.get(200 * 1024));
+        Assert.assertArrayEquals(Arrays.copyOfRange(data, 2000, 70000), buffer.getBytes(2000, 70000));
+    }
+
+    @Test
+    public void testRelease() {
+        ByteArrayPool pool = new ByteArrayPool(256, 64 * 1024, 16);
+        ChainedBuffer buffer = new ChainedBuffer(pool);
+        buffer.append("hello world");
+        Assert.assertEquals("hello world", buffer.toString());
+        buffer.release();
+        Assert.assertEquals(0, buffer.length());
+        Assert.assertEquals(1, pool.getIdleCount());
+
+        // The released segment is reused
+        buffer.append("again");
+        Assert.assertEquals(0, pool.getIdleCount());
+        Assert.assertEquals("again", buffer.toString());
+    }
+
+    @Test
+    public void testInsert() {
+        ByteArrayPool pool = new ByteArrayPool(256, 64 * 1024, 16);
+        ChainedBuffer buffer = new ChainedBuffer(pool);
+        buffer.append("world");
+        buffer.insert(0, "hello ");
+        buffer.insert(buffer.length(), "!");
+        buffer.insert(5, new ByteBuffer(","));
+        Assert.assertEquals("hello, world!", buffer.toString());
+
+        // Spanning several segments
+        byte[] data = new byte[10000];
+        new Random(42).nextBytes(data);
+        buffer.insert(7, data);
+        Assert.assertEquals(13 + data.length, buffer.length());
+        byte[] bytes = buffer.getBytes();
+        Assert.assertEquals("hello, ", new String(bytes, 0, 7));
+        Assert.assertArrayEquals(data, Arrays.copyOfRange(bytes, 7, 7 + data.length));
+        Assert.assertEquals("world!", new String(bytes, 7 + data.length, 6));
+        buffer.insert(3000, "x");
+        Assert.assertEquals((byte) 'x', buffer.get(3000));
+        Assert.assertEquals(data[3000 - 7], buffer.get(3001));
+        Assert.assertEquals("world!", buffer.getString(buffer.length() - 6, buffer.length()));
+
+        try {
+            buffer.insert(buffer.length() + 1, "x");
+            Assert.fail("Expected an IndexOutOfBoundsException");
+        } catch (IndexOutOfBoundsException e) {
+            // expected
+        }
+        buffer.release();
+    }
+
+    @Test
+    public void testByteBufferGrowth() {
+        ByteBuffer buffer = new ByteBuffer(16);
+        for (int i = 0; i < 1000; i++) {
+            buffer.append(new ByteBuffer(new byte[] { (byte) i }));
+        }
+        Assert.assertEquals(1000, buffer.length());
+        Assert.assertEquals((byte) 999, buffer.get(999));
+        Assert.assertTrue(((byte[]) buffer.getNativeBuffer()).length < 2048);
+    }
+
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2017 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.apiman.gateway.engine.io;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit Test for {@link JsonStreamingPayload} and {@link XmlStreamingPayload}.
+ *
+ * @author eric.wittmann@redhat.com
+ */
+@SuppressWarnings("nls")
+public class StreamingPayloadTest {
+
+    private static final String JSON = "{\n" +
+            "  \"hello\" : \"world\",\n" +
+            "  \"count\" : 42,\n" +
+            "  \"object\" : { \"a~b\" : [1, 2, 3], \"c/d\" : true },\n" +
+            "  \"items\" : [ { \"id\" : \"one\" }, { \"id\" : \"two\", \"price\" : 9.5 } ],\n" +
+            "  \"name\" : \"café\"\n" +
+            "}";
+
+    private static final String SOAP = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+            "<soap:Envelope xmlns:soap=\"http://schemas.xmlsoap.org/soap/envelope/\">\n" +
+            "  <soap:Header><auth mustUnderstand=\"1\">secret</auth></soap:Header>\n" +
+            "  <soap:Body>\n" +
+            "    <ns:getQuote xmlns:ns=\"urn:quotes\">\n" +
+            "      <ns:symbol>R&amp;D</ns:symbol>\n" +
+            "      <ns:note><!-- comment -->café <b>au</b> lait</ns:note>\n" +
+            "      <ns:symbol>XYZ</ns:symbol>\n" +
+            "      <ns:empty/>\n" +
+            "      <ns:empty2 a='1' />\n" +
+            "    </ns:getQuote>\n" +
+            "  </soap:Body>\n" +
+            "</soap:Envelope>";
+
+    @Test
+    public void testJson_Get() throws Exception {
+        JsonStreamingPayload payload = new JsonStreamingPayload(JSON.getBytes("UTF-8"));
+        Assert.assertEquals("world", payload.get("/hello"));
+        Assert.assertEquals(42, payload.get("/count"));
+        Assert.assertEquals(2, payload.get("/object/a~0b/1"));
+        Assert.assertEquals(Boolean.TRUE, payload.get("/object/c~1d"));
+        Assert.assertEquals(Arrays.asList(1, 2, 3), payload.get("/object/a~0b"));
+        Assert.assertEquals("two", payload.get("/items/1/id"));
+        Assert.assertEquals(9.5, payload.get("/items/1/price"));
+        Assert.assertEquals("café", payload.get("/name"));
+        Assert.assertTrue(payload.get("") instanceof Map);
+        Assert.assertNull(payload.get("/missing"));
+        Assert.assertNull(payload.get("/items/2"));
+        Assert.assertNull(payload.get("/items/x"));
+        Assert.assertNull(payload.get("/hello/x"));
+    }
+
+    @Test
+    public void testJson_Set() throws Exception {
+        JsonStreamingPayload payload = new JsonStreamingPayload(JSON.getBytes("UTF-8"));
+        Assert.assertTrue(payload.set("/hello", "there"));
+        Assert.assertTrue(payload.set("/count", 7));
+        Assert.assertTrue(payload.set("/items/0", Collections.singletonMap("id", "uno")));
+        Assert.assertTrue(payload.set("/object/a~0b", "none"));
+        Assert.assertFalse(payload.set("/missing", 1));
+
+        String expected = JSON.replace("\"world\"", "\"there\"").replace("42", "7")
+                .replace("{ \"id\" : \"one\" }", "{\"id\":\"uno\"}").replace("[1, 2, 3]", "\"none\"");
+        Assert.assertEquals(expected, new String(payload.getBytes(), "UTF-8"));
+        Assert.assertEquals("café", payload.get("/name"));
+    }
+
+    @Test
+    public void testXml_Get() throws Exception {
+        XmlStreamingPayload payload = new XmlStreamingPayload(SOAP.getBytes("UTF-8"));
+        Assert.assertEquals("secret", payload.get("/Envelope/Header/auth"));
+        Assert.assertEquals("1", payload.get("/soap:Envelope/soap:Header/auth/@mustUnderstand"));
+        Assert.assertEquals("R&D", payload.get("/Envelope/Body/getQuote/symbol"));
+        Assert.assertEquals("XYZ", payload.get("/Envelope/Body/getQuote/symbol[2]"));
+        Assert.assertEquals("XYZ", payload.get("/Envelope/*[2]/*/symbol[2]"));
+        Assert.assertEquals("café au lait", payload.get("/Envelope/Body/getQuote/note"));
+        Assert.assertEquals("", payload.get("/Envelope/Body/getQuote/empty"));
+        Assert.assertNull(payload.get("/Envelope/Body/getQuote/symbol[3]"));
+        Assert.assertNull(payload.get("/Envelope/Body/other"));
+        Assert.assertNull(payload.get("/Envelope/Header/auth/@other"));
+    }
+
+    @Test
+    public void testXml_Set() throws Exception {
+        XmlStreamingPayload payload = new XmlStreamingPayload(SOAP.getBytes("UTF-8"));
+        Assert.assertTrue(payload.set("/Envelope/Body/getQuote/symbol[2]", "A<B"));
+        Assert.assertTrue(payload.set("/Envelope/Body/getQuote/note", "thé"));
+        Assert.assertTrue(payload.set("/Envelope/Body/getQuote/empty", "full"));
+        Assert.assertTrue(payload.set("/Envelope/Body/getQuote/empty2", 2));
+        Assert.assertTrue(payload.set("/Envelope/Header", ""));
+        Assert.assertFalse(payload.set("/Envelope/Body/other", "x"));
+
+        String expected = SOAP.replace("<ns:symbol>XYZ</ns:symbol>", "<ns:symbol>A&lt;B</ns:symbol>")
+                .replace("<!-- comment -->café <b>au</b> lait", "thé")
+                .replace("<ns:empty/>", "<ns:empty>full</ns:empty>")
+                .replace("<ns:empty2 a='1' />", "<ns:empty2 a='1'>2</ns:empty2>")
+                .replace("<auth mustUnderstand=\"1\">secret</auth>", "");
+        Assert.assertEquals(expected, new String(payload.getBytes(), "UTF-8"));
+        Assert.assertEquals("A<B", payload.get("/Envelope/Body/getQuote/symbol[2]"));
+        Assert.assertEquals("R&D", payload.get("/Envelope/Body/getQuote/symbol"));
+    }
+
+    @Test
+    public void testXml_Encoding() throws Exception {
+        String xml = "<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?><a><b>café</b><c>x</c></a>";
+        XmlStreamingPayload payload = new XmlStreamingPayload(xml.getBytes("ISO-8859-1"));
+        Assert.assertEquals("café", payload.get("/a/b"));
+        Assert.assertTrue(payload.set("/a/c", "naïve"));
+        Assert.assertEquals(xml.replace(">x<", ">naïve<"), new String(payload.getBytes(), "ISO-8859-1"));
+    }
+
+    @Test
+    public void testPayloadIO() throws Exception {
+        StreamingPayloadIO io = new StreamingPayloadIO(false);
+        byte[] bytes = JSON.getBytes("UTF-8");
+        StreamingPayload payload = io.unmarshall(bytes);
+        Assert.assertTrue(payload instanceof JsonStreamingPayload);
+        // Untouched payloads are passed on as is.
+        Assert.assertSame(bytes, io.marshall(payload));
+
+        Assert.assertTrue(new StreamingPayloadIO(true).unmarshall(SOAP.getBytes("UTF-8")) instanceof XmlStreamingPayload);
+    }
+
+}
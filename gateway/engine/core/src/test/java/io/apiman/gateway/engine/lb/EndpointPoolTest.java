@@ -0,0 +1,209 @@
+/*
+ * Copyright 2017 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.apiman.gateway.engine.lb;
+
+import io.apiman.gateway.engine.beans.Api;
+import io.apiman.gateway.engine.lb.EndpointPool.Lease;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for {@link EndpointPool}.
+ *
+ * @author eric.wittmann@redhat.com
+ */
+@SuppressWarnings("nls")
+public class EndpointPoolTest {
+
+    @Test
+    public void testRoundRobin() {
+        EndpointPool pool = createPool("round-robin");
+        List<String> chosen = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            Lease lease = pool.select();
+            chosen.add(lease.getEndpoint());
+            lease.succeeded();
+        }
+        Assert.assertEquals(Arrays.asList("http://a", "http://b", "http://c", "http://a", "http://b", "http://c"), chosen);
+    }
+
+    @Test
+    public void testLeastRequests() {
+        EndpointPool pool = createPool("least-requests");
+        // Hold on to a lease on each of the three endpoints, plus a second one on two of them
+        Lease a = pool.select();
+        Lease b = pool.select();
+        Lease c = pool.select();
+        Assert.assertEquals(new HashSet<>(pool.getEndpoints()),
+                new HashSet<>(Arrays.asList(a.getEndpoint(), b.getEndpoint(), c.getEndpoint())));
+        b.succeeded();
+        // b is now the least busy
+        Assert.assertEquals(b.getEndpoint(), pool.select().getEndpoint());
+    }
+
+    @Test
+    public void testPowerOfTwoChoices() {
+        EndpointPool pool = createPool("power-of-two-choices");
+        Lease busy = pool.select();
+        for (int i = 0; i < 5; i++) {
+            pool.select();
+        }
+        for (int i = 0; i < 20; i++) {
+            Lease lease = pool.select();
+            Assert.assertTrue(pool.getEndpoints().contains(lease.getEndpoint()));
+            lease.release();
+        }
+        busy.release();
+    }
+
+    @Test
+    public void testOutlierEjection() {
+        Map<String, String> props = properties("round-robin");
+        props.put(EndpointPool.OUTLIER_MAX_FAILURES, "2");
+        EndpointPool pool = new EndpointPool("http://a", props, null);
+
+        for (int i = 0; i < 6; i++) {
+            Lease lease = pool.select();
+            if (lease.getEndpoint().equals("http://b")) {
+                lease.failed();
+            } else {
+                lease.succeeded();
+            }
+        }
+        Assert.assertEquals(Arrays.asList("http://a", "http://c"), pool.getAvailableEndpoints());
+        for (int i = 0; i < 6; i++) {
+            Assert.assertNotEquals("http://b", pool.select().getEndpoint());
+        }
+    }
+
+    @Test
+    public void testAllEjected() {
+        Map<String, String> props = properties("round-robin");
+        props.put(EndpointPool.OUTLIER_MAX_FAILURES, "1");
+        EndpointPool pool = new EndpointPool("http://a", props, null);
+        for (int i = 0; i < 3; i++) {
+            pool.select().failed();
+        }
+        Assert.assertTrue(pool.getAvailableEndpoints().isEmpty());
+        // Rather than failing every request, try them all
+        Assert.assertNotNull(pool.select().getEndpoint());
+    }
+
+    @Test
+    public void testPoolReplacedOnRepublish() {
+        EndpointPools pools = new EndpointPools();
+        Api api = new Api();
+        api.setOrganizationId("org");
+        api.setApiId("api");
+        api.setVersion("1.0");
+        api.setEndpoint("http://a");
+        Assert.assertNull(pools.get(api));
+
+        api.setEndpointProperties(properties("round-robin"));
+        EndpointPool pool = pools.get(api);
+        Assert.assertNotNull(pool);
+        Assert.assertSame(pool, pools.get(api));
+
+        Map<String, String> props = properties("round-robin");
+        props.put(EndpointPool.ENDPOINTS, "http://b");
+        api.setEndpointProperties(props);
+        EndpointPool newPool = pools.get(api);
+        Assert.assertNotSame(pool, newPool);
+        Assert.assertTrue(pool.isClosed());
+        Assert.assertEquals(Arrays.asList("http://a", "http://b"), newPool.getEndpoints());
+
+        // Re-published without load balancing
+        api.setEndpointProperties(new HashMap<>());
+        Assert.assertNull(pools.get(api));
+        Assert.assertTrue(newPool.isClosed());
+        pools.close();
+    }
+
+    @Test
+    public void testPoolRemovedOnRetire() {
+        EndpointPools pools = new EndpointPools();
+        Api api = new Api();
+        api.setOrganizationId("org");
+        api.setApiId("api");
+        api.setVersion("1.0");
+        api.setEndpoint("http://a");
+        api.setEndpointProperties(properties("round-robin"));
+        EndpointPool pool = pools.get(api);
+
+        pools.remove(api);
+        Assert.assertTrue(pool.isClosed());
+        EndpointPool newPool = pools.get(api);
+        Assert.assertNotSame(pool, newPool);
+
+        pools.close();
+        Assert.assertTrue(newPool.isClosed());
+    }
+
+    @Test
+    public void testHealthCheck() throws Exception {
+        Map<String, String> props = properties("round-robin");
+        props.put(EndpointPool.HEALTHCHECK_PATH, "/health");
+        props.put(EndpointPool.HEALTHCHECK_INTERVAL, "10");
+        final AtomicInteger probes = new AtomicInteger();
+        ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(2);
+        try {
+            EndpointPool pool = new EndpointPool("http://a", props, scheduler) {
+                @Override
+                protected boolean probe(String uri) {
+                    probes.incrementAndGet();
+                    return !uri.equals("http://b");
+                }
+            };
+            long deadline = System.currentTimeMillis() + 5000;
+            while (pool.getAvailableEndpoints().size() != 2 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            Assert.assertEquals(Arrays.asList("http://a", "http://c"), pool.getAvailableEndpoints());
+
+            // No more probes once the pool is closed
+            pool.close();
+            Thread.sleep(50);
+            int count = probes.get();
+            Thread.sleep(100);
+            Assert.assertEquals(count, probes.get());
+        } finally {
+            scheduler.shutdownNow();
+        }
+    }
+
+    private static EndpointPool createPool(String strategy) {
+        return new EndpointPool("http://a", properties(strategy), null);
+    }
+
+    private static Map<String, String> properties(String strategy) {
+        Map<String, String> props = new HashMap<>();
+        props.put(EndpointPool.ENDPOINTS, "http://b, http://c");
+        props.put(EndpointPool.STRATEGY, strategy);
+        return props;
+    }
+
+}
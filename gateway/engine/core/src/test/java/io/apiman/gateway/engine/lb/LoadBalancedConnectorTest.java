@@ -0,0 +1,101 @@
+/*
+ * Copyright 2017 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.apiman.gateway.engine.lb;
+
+import io.apiman.gateway.engine.IApiConnection;
+import io.apiman.gateway.engine.beans.ApiRequest;
+import io.apiman.gateway.engine.circuitbreaker.GuardRejectedException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+/**
+ * Tests for {@link LoadBalancedConnector}.
+ *
+ * @author eric.wittmann@redhat.com
+ */
+@SuppressWarnings("nls")
+public class LoadBalancedConnectorTest {
+
+    @Test
+    public void testGuardRejectionTriesNextEndpoint() throws Exception {
+        EndpointPool pool = createPool();
+        List<String> tried = new ArrayList<>();
+        LoadBalancedConnector connector = new LoadBalancedConnector(pool, (endpoint, request, handler) -> {
+            tried.add(endpoint);
+            if (endpoint.equals("http://a")) {
+                throw new GuardRejectedException("rejected");
+            }
+            return Mockito.mock(IApiConnection.class);
+        });
+
+        Assert.assertNotNull(connector.connect(new ApiRequest(), result -> {}));
+        Assert.assertEquals(Arrays.asList("http://a", "http://b"), tried);
+        // The rejection doesn't count against the endpoint
+        Assert.assertEquals(Arrays.asList("http://a", "http://b", "http://c"), pool.getAvailableEndpoints());
+    }
+
+    @Test
+    public void testAllEndpointsRejected() throws Exception {
+        EndpointPool pool = createPool();
+        List<String> tried = new ArrayList<>();
+        LoadBalancedConnector connector = new LoadBalancedConnector(pool, (endpoint, request, handler) -> {
+            tried.add(endpoint);
+            throw new GuardRejectedException("rejected");
+        });
+
+        try {
+            connector.connect(new ApiRequest(), result -> {});
+            Assert.fail("Expected the request to be rejected");
+        } catch (GuardRejectedException e) {
+            Assert.assertEquals(503, e.getStatusCode());
+        }
+        Assert.assertEquals(Arrays.asList("http://a", "http://b", "http://c"), tried);
+        Assert.assertEquals(3, pool.getAvailableEndpoints().size());
+    }
+
+    @Test
+    public void testConnectorErrorCountsAgainstEndpoint() throws Exception {
+        EndpointPool pool = createPool();
+        LoadBalancedConnector connector = new LoadBalancedConnector(pool, (endpoint, request, handler) -> {
+            throw new IllegalStateException("connection refused");
+        });
+
+        try {
+            connector.connect(new ApiRequest(), result -> {});
+            Assert.fail("Expected the connector error");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        Assert.assertEquals(Arrays.asList("http://b", "http://c"), pool.getAvailableEndpoints());
+    }
+
+    private static EndpointPool createPool() {
+        Map<String, String> props = new HashMap<>();
+        props.put(EndpointPool.ENDPOINTS, "http://b,http://c");
+        props.put(EndpointPool.STRATEGY, "round-robin");
+        props.put(EndpointPool.OUTLIER_MAX_FAILURES, "1");
+        return new EndpointPool("http://a", props, null);
+    }
+
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2017 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.apiman.gateway.engine.metrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for {@link MetricsPipeline}.
+ *
+ * @author eric.wittmann@redhat.com
+ */
+@SuppressWarnings("nls")
+public class MetricsPipelineTest {
+
+    @Test
+    public void testDropNewest() throws Exception {
+        BlockingSink sink = new BlockingSink();
+        MetricsPipeline pipeline = createPipeline("drop-newest", sink);
+        recordWhileBlocked(pipeline, 6);
+        Assert.assertEquals(1, pipeline.getDroppedCount());
+
+        sink.latch.countDown();
+        awaitFlushed(pipeline, 5);
+        Assert.assertEquals(ids(0, 1, 2, 3, 4), sink.ids());
+        pipeline.stop();
+    }
+
+    @Test
+    public void testDropOldest() throws Exception {
+        BlockingSink sink = new BlockingSink();
+        MetricsPipeline pipeline = createPipeline("drop-oldest", sink);
+        recordWhileBlocked(pipeline, 6);
+        Assert.assertEquals(1, pipeline.getDroppedCount());
+
+        sink.latch.countDown();
+        awaitFlushed(pipeline, 5);
+        // The first metric was already being flushed, the second was evicted
+        Assert.assertEquals(ids(0, 2, 3, 4, 5), sink.ids());
+        pipeline.stop();
+    }
+
+    @Test
+    public void testFailedFlush() throws Exception {
+        Map<String, String> config = new HashMap<>();
+        config.put("batch.size", "10");
+        MetricsPipeline pipeline = new MetricsPipeline(config, metrics -> {
+            throw new Exception("Metrics store unavailable");
+        }, "TestMetricsConsumer");
+        for (int i = 0; i < 3; i++) {
+            pipeline.record(metric(i));
+        }
+        for (int i = 0; i < 200 && pipeline.getDroppedCount() < 3; i++) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(3, pipeline.getDroppedCount());
+        Assert.assertEquals(0, pipeline.getFlushedCount());
+        pipeline.stop();
+    }
+
+    @Test
+    public void testConcurrentProducers() throws Exception {
+        BlockingSink sink = new BlockingSink();
+        sink.latch.countDown();
+        Map<String, String> config = new HashMap<>();
+        config.put("queue.size", "1024");
+        config.put("batch.size", "100");
+        MetricsPipeline pipeline = new MetricsPipeline(config, sink, "TestMetricsConsumer");
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            final int thread = t;
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < 1000; i++) {
+                    pipeline.record(metric(thread * 1000 + i));
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        awaitFlushed(pipeline, 4000 - pipeline.getDroppedCount());
+        Assert.assertEquals(4000, pipeline.getFlushedCount() + pipeline.getDroppedCount());
+        Assert.assertEquals(pipeline.getFlushedCount(), sink.ids().size());
+        Assert.assertEquals(sink.ids().size(), sink.ids().stream().distinct().count());
+        pipeline.stop();
+    }
+
+    private static MetricsPipeline createPipeline(String overflow, IMetricsSink sink) {
+        Map<String, String> config = new HashMap<>();
+        config.put("queue.size", "4");
+        config.put("queue.overflow", overflow);
+        config.put("batch.size", "1");
+        return new MetricsPipeline(config, sink, "TestMetricsConsumer");
+    }
+
+    /**
+     * Records the first metric (which the sink then blocks on), then the rest.
+     */
+    private static void recordWhileBlocked(MetricsPipeline pipeline, int count) throws InterruptedException {
+        pipeline.record(metric(0));
+        while (pipeline.getBufferedCount() > 0) {
+            Thread.sleep(5);
+        }
+        Thread.sleep(50);
+        for (int i = 1; i < count; i++) {
+            pipeline.record(metric(i));
+        }
+    }
+
+    private static void awaitFlushed(MetricsPipeline pipeline, long count) throws InterruptedException {
+        for (int i = 0; i < 200 && pipeline.getFlushedCount() < count; i++) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(count, pipeline.getFlushedCount());
+    }
+
+    private static RequestMetric metric(int id) {
+        RequestMetric metric = new RequestMetric();
+        metric.setResponseCode(id);
+        return metric;
+    }
+
+    private static List<Integer> ids(Integer ... ids) {
+        List<Integer> rval = new ArrayList<>();
+        Collections.addAll(rval, ids);
+        return rval;
+    }
+
+    private static class BlockingSink implements IMetricsSink {
+
+        private final CountDownLatch latch = new CountDownLatch(1);
+        private final List<Integer> ids = Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        public void flush(List<RequestMetric> metrics) throws Exception {
+            latch.await();
+            for (RequestMetric metric : metrics) {
+                ids.add(metric.getResponseCode());
+            }
+        }
+
+        public List<Integer> ids() {
+            return new ArrayList<>(ids);
+        }
+    }
+
+}
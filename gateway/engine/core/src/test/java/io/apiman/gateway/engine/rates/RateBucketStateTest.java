@@ -0,0 +1,56 @@
+/*
+ * Copyright 2017 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.apiman.gateway.engine.rates;
+
+import io.apiman.gateway.engine.components.rate.RateLimitResponse;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for {@link RateBucketState}.
+ *
+ * @author eric.wittmann@redhat.com
+ */
+public class RateBucketStateTest {
+
+    @Test
+    public void testIncrement() {
+        long now = System.currentTimeMillis();
+        long boundary = RatePeriodBoundaries.getPeriodBoundary(now, RateBucketPeriod.Hour);
+
+        RateBucketState state = RateBucketState.increment(null, boundary, 2, 1);
+        Assert.assertEquals(new RateBucketState(boundary, 1), state);
+        state = RateBucketState.increment(state, boundary, 2, 1);
+        Assert.assertEquals(2, state.getCount());
+
+        // At the limit: rejected, but (as with the other rate limiters) still counted
+        long previous = RateBucketState.currentCount(state, boundary);
+        state = RateBucketState.increment(state, boundary, 2, 1);
+        RateLimitResponse response = RateBucketState.toResponse(previous, state, 2, now);
+        Assert.assertFalse(response.isAccepted());
+        Assert.assertEquals(-1, response.getRemaining());
+
+        // Over the limit: rejected and left alone
+        Assert.assertSame(state, RateBucketState.increment(state, boundary, 2, 1));
+
+        // The next period starts from scratch
+        long next = RatePeriodBoundaries.getPeriodBoundary(boundary, RateBucketPeriod.Hour);
+        Assert.assertEquals(0, RateBucketState.currentCount(state, next));
+        Assert.assertEquals(new RateBucketState(next, 1), RateBucketState.increment(state, next, 2, 1));
+    }
+
+}
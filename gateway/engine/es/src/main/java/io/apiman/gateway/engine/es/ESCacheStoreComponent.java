@@ -95,10 +95,12 @@ public class ESCacheStoreComponent extends AbstractESComponent implements ICache
         return new ISignalWriteStream() {
             boolean finished = false;
             boolean aborted = false;
+            boolean released = false;
             @Override
             public void abort(Throwable t) {
+                release();
                 finished = true;
-                aborted = false;
+                aborted = true;
             }
             @Override
             public boolean isFinished() {
@@ -110,8 +112,9 @@ public class ESCacheStoreComponent extends AbstractESComponent implements ICache
             }
             @Override
             public void end() {
-                if (!aborted) {
+                if (!aborted && !released) {
                     entry.setData(Base64.encodeBase64String(data.getBytes()));
+                    release();
                     Index index = new Index.Builder(entry).refresh(false).index(getIndexName())
                             .type("cacheEntry").id(cacheKey).build(); //$NON-NLS-1$
                     try {
@@ -121,6 +124,12 @@ public class ESCacheStoreComponent extends AbstractESComponent implements ICache
                 }
                 finished = true;
             }
+            private void release() {
+                if (!released) {
+                    released = true;
+                    bufferFactory.release(data);
+                }
+            }
         };
     }
 
@@ -16,14 +16,15 @@
 
 package io.apiman.gateway.engine.es;
 
-import java.util.ArrayList;
-import java.util.Collection;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingDeque;
 
 import io.apiman.gateway.engine.IComponentRegistry;
 import io.apiman.gateway.engine.IMetrics;
+import io.apiman.gateway.engine.metrics.IMetricsSink;
+import io.apiman.gateway.engine.metrics.MetricsPipeline;
 import io.apiman.gateway.engine.metrics.RequestMetric;
 import io.searchbox.core.Bulk;
 import io.searchbox.core.Bulk.Builder;
@@ -31,18 +32,17 @@ import io.searchbox.core.BulkResult;
 import io.searchbox.core.Index;
 
 /**
- * An elasticsearch implementation of the {@link IMetrics} interface.
+ * An elasticsearch implementation of the {@link IMetrics} interface.  Metrics
+ * are buffered by a {@link MetricsPipeline} and indexed in bulk.
  *
  * @author eric.wittmann@redhat.com
  */
-public class ESMetrics extends AbstractESComponent implements IMetrics {
+public class ESMetrics extends AbstractESComponent implements IMetrics, IMetricsSink {
+
+    private static final String DEFAULT_FLUSH_INTERVAL = "0"; //$NON-NLS-1$
 
-    private static final int DEFAULT_QUEUE_SIZE = 10000;
-    private static final int DEFAULT_BATCH_SIZE = 1000;
-    
     protected IComponentRegistry componentRegistry;
-    private final BlockingQueue<RequestMetric> queue;
-    private final int batchSize;
+    private final MetricsPipeline pipeline;
 
     /**
      * Constructor.
@@ -51,21 +51,9 @@ public class ESMetrics extends AbstractESComponent implements IMetrics {
     public ESMetrics(Map<String, String> config) {
         super(config);
 
-        int queueSize = DEFAULT_QUEUE_SIZE;
-        String queueSizeConfig = config.get("queue.size"); //$NON-NLS-1$
-        if (queueSizeConfig != null) {
-            queueSize = new Integer(queueSizeConfig);
-        }
-        queue = new LinkedBlockingDeque<>(queueSize);
-        
-        int batchSize = DEFAULT_BATCH_SIZE;
-        String batchSizeConfig = config.get("batch.size"); //$NON-NLS-1$
-        if (batchSizeConfig != null) {
-            batchSize = new Integer(batchSizeConfig);
-        }
-        this.batchSize = batchSize;
-        
-        startConsumerThread();
+        Map<String, String> pipelineConfig = new HashMap<>(config);
+        pipelineConfig.putIfAbsent("batch.flush-interval", DEFAULT_FLUSH_INTERVAL); //$NON-NLS-1$
+        pipeline = new MetricsPipeline(pipelineConfig, this, "ESMetricsConsumer"); //$NON-NLS-1$
     }
 
     /**
@@ -81,57 +69,25 @@ public class ESMetrics extends AbstractESComponent implements IMetrics {
      */
     @Override
     public void record(RequestMetric metric) {
-        try {
-            queue.put(metric);
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
+        pipeline.record(metric);
     }
 
     /**
-     * Starts a thread which will serially pull information off the blocking
-     * queue and submit that information to hawkular metrics.
+     * @see io.apiman.gateway.engine.metrics.IMetricsSink#flush(java.util.List)
      */
-    private void startConsumerThread() {
-        Thread thread = new Thread(new Runnable() {
-            @Override
-            public void run() {
-                while (Boolean.TRUE) {
-                    processQueue();
-                }
-            }
-        }, "ESMetricsConsumer"); //$NON-NLS-1$
-        thread.setDaemon(true);
-        thread.start();        
-    }
+    @Override
+    public void flush(List<RequestMetric> metrics) throws Exception {
+        Builder builder = new Bulk.Builder();
+        for (RequestMetric metric : metrics) {
+            Index index = new Index.Builder(metric).refresh(false)
+                    .index(getIndexName())
+                    .type("request").build(); //$NON-NLS-1$
+            builder.addAction(index);
+        }
 
-    /**
-     * Process the next item in the queue.
-     */
-    protected void processQueue() {
-        try {
-            Collection<RequestMetric> batch = new ArrayList<>(this.batchSize);
-            RequestMetric rm = queue.take();
-            batch.add(rm);
-			queue.drainTo(batch, this.batchSize - 1);
-			
-			Builder builder = new Bulk.Builder();
-			for (RequestMetric metric : batch) {
-	            Index index = new Index.Builder(metric).refresh(false)
-	                    .index(getIndexName())
-	                    .type("request").build(); //$NON-NLS-1$
-				builder.addAction(index);
-			}
-            
-            BulkResult result = getClient().execute(builder.build());
-            if (!result.isSucceeded()) {
-                System.err.println("Failed to add metric(s) to ES: " + result.getErrorMessage()); //$NON-NLS-1$
-            }
-        } catch (Exception e) {
-            // TODO better logging of this unlikely error
-            System.err.println("Error adding metric to ES:"); //$NON-NLS-1$
-            e.printStackTrace();
-            return;
+        BulkResult result = getClient().execute(builder.build());
+        if (!result.isSucceeded()) {
+            throw new IOException("Failed to add metric(s) to ES: " + result.getErrorMessage()); //$NON-NLS-1$
         }
     }
 
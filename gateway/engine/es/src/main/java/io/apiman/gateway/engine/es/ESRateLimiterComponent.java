@@ -26,7 +26,9 @@ import io.searchbox.core.Get;
 import io.searchbox.core.Index;
 import io.searchbox.params.Parameters;
 
+import java.io.IOException;
 import java.util.Map;
+import java.util.function.Function;
 
 import org.apache.commons.codec.binary.Base64;
 
@@ -37,6 +39,9 @@ import org.apache.commons.codec.binary.Base64;
  */
 public class ESRateLimiterComponent extends AbstractESComponent implements IRateLimiterComponent {
 
+    protected static final int VERSION_CONFLICT = 409;
+    private static final int MAX_CONFLICT_RETRIES = 20;
+
     /**
      * Constructor.
      * @param config the configuration
@@ -51,9 +56,43 @@ public class ESRateLimiterComponent extends AbstractESComponent implements IRate
     @Override
     public void accept(final String bucketId, final RateBucketPeriod period, final long limit,
             final long increment, final IAsyncResultHandler<RateLimitResponse> handler) {
-        final String id = id(bucketId);
-
         try {
+            RateLimitResponse rlr = updateBucket(bucketId, period, bucket -> {
+                final RateLimitResponse response = new RateLimitResponse();
+                if (bucket.getCount() > limit) {
+                    response.setAccepted(false);
+                } else {
+                    response.setAccepted(bucket.getCount() < limit);
+                    bucket.setCount(bucket.getCount() + increment);
+                    bucket.setLast(System.currentTimeMillis());
+                }
+                int reset = (int) (bucket.getResetMillis(period) / 1000L);
+                response.setReset(reset);
+                response.setRemaining(limit - bucket.getCount());
+                return response;
+            });
+            handler.handle(AsyncResultImpl.create(rlr));
+        } catch (Throwable e) {
+            handler.handle(AsyncResultImpl.create(e, RateLimitResponse.class));
+        }
+    }
+
+    /**
+     * Reads the bucket from ES, applies the given update to it and then writes it
+     * back.  The write is versioned (or, for a new bucket, a create), so if some
+     * other request (possibly on another node) managed to update the bucket since
+     * we retrieved it, ES rejects the write with a version conflict.  In that case
+     * everything we've done is out of date, so we do it all over again.
+     * @param bucketId the bucket id
+     * @param period the rate period
+     * @param updater applies the update to the (reset if necessary) bucket
+     * @return the result of the updater
+     * @throws IOException if the bucket could not be read or written
+     */
+    protected <T> T updateBucket(String bucketId, RateBucketPeriod period,
+            Function<RateLimiterBucket, T> updater) throws IOException {
+        final String id = id(bucketId);
+        for (int attempt = 0; attempt < MAX_CONFLICT_RETRIES; attempt++) {
             Get get = new Get.Builder(getIndexName(), id).type("rateBucket").build(); //$NON-NLS-1$
             JestResult result = getClient().execute(get);
             RateLimiterBucket bucket;
@@ -68,72 +107,43 @@ public class ESRateLimiterComponent extends AbstractESComponent implements IRate
                 bucket = new RateLimiterBucket();
             }
             bucket.resetIfNecessary(period);
+            T rval = updater.apply(bucket);
 
-            final RateLimitResponse rlr = new RateLimitResponse();
-            if (bucket.getCount() > limit) {
-                rlr.setAccepted(false);
-            } else {
-                rlr.setAccepted(bucket.getCount() < limit);
-                bucket.setCount(bucket.getCount() + increment);
-                bucket.setLast(System.currentTimeMillis());
+            JestResult indexResult = getClient().execute(buildIndex(id, bucket, version));
+            if (indexResult.isSucceeded()) {
+                return rval;
+            }
+            if (indexResult.getResponseCode() != VERSION_CONFLICT) {
+                throw new IOException(indexResult.getErrorMessage());
             }
-            int reset = (int) (bucket.getResetMillis(period) / 1000L);
-            rlr.setReset(reset);
-            rlr.setRemaining(limit - bucket.getCount());
-            updateBucketAndReturn(id, bucket, rlr, version, bucketId, period, limit, increment, handler);
-        } catch (Throwable e) {
-            handler.handle(AsyncResultImpl.create(e, RateLimitResponse.class));
         }
+        throw new IOException("Too many version conflicts updating rate bucket: " + bucketId); //$NON-NLS-1$
     }
 
     /**
-     * Update the bucket in ES and then return the rate limit response to the
-     * original handler.  If the update fails because we have a stale version,
-     * then try the whole thing again (because we conflicted with another
-     * request).
-     * @param id
-     * @param bucket
-     * @param rlr
-     * @param version
-     * @param limit
-     * @param period
-     * @param bucketId
-     * @param increment
-     * @param handler
+     * Creates the (versioned) index action used to write a bucket back to ES.  A
+     * version of 0 means the bucket did not exist when it was read, so the bucket
+     * is created instead - which fails if another request has created it since.
+     * @param id the (ES) id of the bucket
+     * @param bucket the bucket
+     * @param version the version of the bucket when it was read
      */
-    protected void updateBucketAndReturn(final String id, final RateLimiterBucket bucket,
-            final RateLimitResponse rlr, final long version, final String bucketId,
-            final RateBucketPeriod period, final long limit, final long increment,
-            final IAsyncResultHandler<RateLimitResponse> handler) {
-
-    	Index.Builder builder = new Index.Builder(bucket).refresh(false).index(getIndexName());
-    	if (version>0) {
-    		builder.setParameter(Parameters.VERSION, String.valueOf(version));
-        }
-    	Index index = builder.setParameter(Parameters.OP_TYPE, "index") //$NON-NLS-1$
-    			             .type("rateBucket").id(id).build(); //$NON-NLS-1$          
-        try {
-            getClient().execute(index);
-            handler.handle(AsyncResultImpl.create(rlr));
-        } catch (Throwable e) {
-            // FIXME need to fix this now that we've switched to jest!
-//            if (ESUtils.rootCause(e) instanceof VersionConflictEngineException) {
-//                // If we got a version conflict, then it means some other request
-//                // managed to update the ES document since we retrieved it.  Therefore
-//                // everything we've done is out of date, so we should do it all
-//                // over again.
-//                accept(bucketId, period, limit, increment, handler);
-//            } else {
-                handler.handle(AsyncResultImpl.<RateLimitResponse>create(e));
-//            }
+    protected Index buildIndex(String id, RateLimiterBucket bucket, long version) {
+        Index.Builder builder = new Index.Builder(bucket).refresh(false).index(getIndexName());
+        if (version > 0) {
+            builder.setParameter(Parameters.VERSION, String.valueOf(version));
+            builder.setParameter(Parameters.OP_TYPE, "index"); //$NON-NLS-1$
+        } else {
+            builder.setParameter(Parameters.OP_TYPE, "create"); //$NON-NLS-1$
         }
+        return builder.type("rateBucket").id(id).build(); //$NON-NLS-1$
     }
 
     /**
      * Base64 encode the bucket ID to make an ES-compatible ID.
      * @param bucketId
      */
-    private String id(String bucketId) {
+    protected String id(String bucketId) {
         return Base64.encodeBase64String(bucketId.getBytes());
     }
 
@@ -0,0 +1,558 @@
+/*
+ * Copyright 2017 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.apiman.gateway.engine.es;
+
+import io.apiman.common.logging.IApimanLogger;
+import io.apiman.gateway.engine.async.AsyncResultImpl;
+import io.apiman.gateway.engine.async.IAsyncResultHandler;
+import io.apiman.gateway.engine.components.rate.RateLimitResponse;
+import io.apiman.gateway.engine.logging.CurrentLoggerFactory;
+import io.apiman.gateway.engine.rates.RateBucketPeriod;
+import io.apiman.gateway.engine.rates.RateLimiterBucket;
+import io.apiman.gateway.engine.rates.RatePeriodBoundaries;
+import io.searchbox.client.JestResult;
+import io.searchbox.core.Bulk;
+import io.searchbox.core.BulkResult;
+import io.searchbox.core.BulkResult.BulkResultItem;
+import io.searchbox.core.MultiGet;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+/**
+ * A clustered elasticsearch implementation of the rate limiter component that
+ * leases chunks of quota from ES to each node rather than going to ES on every
+ * request.  Requests are counted locally against the lease.  When a lease runs
+ * low it is topped up in the background, so requests don't wait for ES unless
+ * the lease has run dry.  Even then the request thread never calls ES: the
+ * request waits asynchronously (queued up on the lease's renewal, along with any
+ * other requests that find the lease dry meanwhile), and is answered from one of
+ * the renewal threads once quota has been leased.
+ *
+ * Quota leased by a node but not used (because the node has stopped seeing
+ * requests for the bucket) is handed back to ES asynchronously, in bulk, by a
+ * background thread.  The background threads are stopped when the component is
+ * closed (i.e. when the engine is shut down).
+ *
+ * The size of the lease is the accuracy/latency trade-off: each node may hold
+ * up to 'lease.fraction' (default 0.1) of a bucket's limit, so a larger fraction
+ * means fewer ES round trips but means a node may reject requests while unused
+ * quota is still leased to other nodes (until it is released).  A fraction of 0
+ * leases a single request at a time, which is much the same as
+ * {@link ESRateLimiterComponent}.
+ *
+ * @author eric.wittmann@redhat.com
+ */
+public class LeasingESRateLimiterComponent extends ESRateLimiterComponent {
+
+    private static final double DEFAULT_LEASE_FRACTION = 0.1;
+    private static final long DEFAULT_RECONCILE_PERIOD = 1000;
+    private static final int RENEWAL_THREADS = 2;
+    private static final int RENEWAL_QUEUE_SIZE = 1000;
+
+    private static final Gson gson = new Gson();
+
+    private final IApimanLogger logger = CurrentLoggerFactory.getLogger(LeasingESRateLimiterComponent.class);
+    private final double leaseFraction;
+    private final long reconcilePeriod;
+    private final ConcurrentHashMap<String, Lease> leases = new ConcurrentHashMap<>();
+    private final Map<String, Release> pendingReleases = new HashMap<>();
+    // At most one renewal per lease is queued, so the queue only fills up if very
+    // many buckets run dry at once (or ES is very slow).
+    private final ThreadPoolExecutor renewals = new ThreadPoolExecutor(RENEWAL_THREADS, RENEWAL_THREADS,
+            0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(RENEWAL_QUEUE_SIZE), runnable -> {
+                Thread thread = new Thread(runnable, "ESRateLimiterRenewal"); //$NON-NLS-1$
+                thread.setDaemon(true);
+                return thread;
+            });
+    // Periodically releases quota that is leased to this node but no longer being used
+    private final ScheduledExecutorService reconciler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "ESRateLimiterReconciler"); //$NON-NLS-1$
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Constructor.
+     * @param config the configuration
+     */
+    public LeasingESRateLimiterComponent(Map<String, String> config) {
+        super(config);
+        String fraction = config.get("lease.fraction"); //$NON-NLS-1$
+        leaseFraction = fraction == null ? DEFAULT_LEASE_FRACTION : new Double(fraction);
+        String period = config.get("lease.reconcile.period"); //$NON-NLS-1$
+        reconcilePeriod = period == null ? DEFAULT_RECONCILE_PERIOD : new Long(period);
+        reconciler.scheduleWithFixedDelay(this::reconcile, reconcilePeriod, reconcilePeriod, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the reconciler and the renewals, failing any requests still waiting for
+     * a renewal.
+     * @see io.apiman.gateway.engine.IComponent#close()
+     */
+    @Override
+    public void close() {
+        reconciler.shutdownNow();
+        renewals.shutdownNow();
+        IllegalStateException closed = new IllegalStateException("The rate limiter has been closed."); //$NON-NLS-1$
+        for (Lease lease : leases.values()) {
+            for (Waiter waiter : lease.abandonRenewal()) {
+                fail(waiter, closed);
+            }
+        }
+    }
+
+    /**
+     * @see io.apiman.gateway.engine.es.ESRateLimiterComponent#accept(java.lang.String, io.apiman.gateway.engine.rates.RateBucketPeriod, long, long, io.apiman.gateway.engine.async.IAsyncResultHandler)
+     */
+    @Override
+    public void accept(final String bucketId, final RateBucketPeriod period, final long limit,
+            final long increment, final IAsyncResultHandler<RateLimitResponse> handler) {
+        long now = System.currentTimeMillis();
+        long boundary = RatePeriodBoundaries.getPeriodBoundary(now, period);
+        long chunk = Math.max(increment, (long) (limit * leaseFraction));
+        Lease lease = leases.computeIfAbsent(bucketId, key -> new Lease());
+
+        Grant grant = lease.acquire(boundary, increment, now);
+        if (grant == null) {
+            // Lease used up (or from a previous period) - wait for the lease's renewal
+            // to answer the request, rather than going to ES on the request thread
+            if (lease.await(new Waiter(limit, increment, handler))) {
+                startRenewal(lease, bucketId, period, limit, chunk, false);
+            }
+            return;
+        }
+        if (grant.accepted && chunk > increment && grant.available.get() < chunk / 2 && lease.startRenewal()) {
+            startRenewal(lease, bucketId, period, limit, chunk, true);
+        }
+        respond(grant.accepted, grant, boundary, limit, now, handler);
+    }
+
+    /**
+     * Runs the lease's renewal on one of the renewal threads.  If the renewal can't be
+     * queued then the requests waiting for it are failed.
+     */
+    private void startRenewal(Lease lease, String bucketId, RateBucketPeriod period, long limit, long chunk,
+            boolean topUp) {
+        try {
+            renewals.execute(() -> renew(lease, bucketId, period, limit, chunk, topUp));
+        } catch (RejectedExecutionException e) {
+            for (Waiter waiter : lease.abandonRenewal()) {
+                fail(waiter, e);
+            }
+        }
+    }
+
+    /**
+     * Renews a lease (on one of the renewal threads) and answers the requests that
+     * found it dry.  Only one renewal per lease is in flight at a time: requests that
+     * find the lease dry meanwhile queue up on it, and are answered from the quota it
+     * leases (with a single further round trip to ES for all of them, if there isn't
+     * enough of it) rather than each going to ES.  A background top-up (of a lease
+     * that is running low) renews the lease even if no request is waiting.
+     */
+    private void renew(Lease lease, String bucketId, RateBucketPeriod period, long limit, long chunk,
+            boolean topUp) {
+        List<Waiter> waiters;
+        while ((waiters = lease.takeWaiters(topUp)) != null) {
+            long now = System.currentTimeMillis();
+            long boundary = RatePeriodBoundaries.getPeriodBoundary(now, period);
+            // An earlier renewal may have topped up the lease by now
+            List<Waiter> remaining = new ArrayList<>(waiters.size());
+            long demand = 0;
+            for (Waiter waiter : waiters) {
+                Grant grant = lease.acquire(boundary, waiter.increment, now);
+                if (grant != null) {
+                    respond(grant.accepted, grant, boundary, waiter.limit, now, waiter.handler);
+                } else {
+                    remaining.add(waiter);
+                    demand += waiter.increment;
+                }
+            }
+            if (remaining.isEmpty() && !topUp) {
+                continue;
+            }
+            topUp = false;
+
+            Grant grant;
+            try {
+                grant = renew(lease, bucketId, period, boundary, limit, Math.max(chunk, demand), now);
+            } catch (Throwable e) {
+                if (remaining.isEmpty()) {
+                    // Not fatal - the next request to find the lease dry will renew it
+                    logger.warn("Failed to renew rate limit lease for bucket " + bucketId + ": " + e); //$NON-NLS-1$ //$NON-NLS-2$
+                }
+                for (Waiter waiter : remaining) {
+                    fail(waiter, e);
+                }
+                continue;
+            }
+            for (Waiter waiter : remaining) {
+                Grant leased = lease.acquire(boundary, waiter.increment, now);
+                if (leased != null) {
+                    respond(leased.accepted, leased, boundary, waiter.limit, now, waiter.handler);
+                } else {
+                    // The bucket ran out before every waiting request got its quota
+                    respond(false, grant, boundary, waiter.limit, now, waiter.handler);
+                }
+            }
+        }
+    }
+
+    private void fail(Waiter waiter, Throwable error) {
+        try {
+            waiter.handler.handle(AsyncResultImpl.create(error, RateLimitResponse.class));
+        } catch (Throwable e) {
+            logger.error(e);
+        }
+    }
+
+    private void respond(boolean accepted, Grant grant, long boundary, long limit, long now,
+            IAsyncResultHandler<RateLimitResponse> handler) {
+        RateLimitResponse rlr = new RateLimitResponse();
+        rlr.setAccepted(accepted);
+        rlr.setReset((int) ((boundary - now) / 1000L));
+        rlr.setRemaining(Math.max(0, limit - grant.reserved + grant.available.get()));
+        try {
+            handler.handle(AsyncResultImpl.create(rlr));
+        } catch (Throwable e) {
+            // Don't let one request's handler stall the lease's renewal
+            logger.error(e);
+        }
+    }
+
+    /**
+     * Leases more quota from ES and installs it as the lease's current grant.  If the
+     * bucket has no quota left then a rejecting grant is returned, which is re-used
+     * until the next reconciliation so that rejected requests don't each hit ES either.
+     */
+    private Grant renew(Lease lease, String bucketId, RateBucketPeriod period, long boundary,
+            long limit, long chunk, long now) throws IOException {
+        Grant grant = updateBucket(bucketId, period, bucket -> {
+            long count = bucket.getCount();
+            if (count >= limit) {
+                return new Grant(period, boundary, false, count, 0, now + reconcilePeriod);
+            }
+            long amount = Math.min(chunk, limit - count);
+            bucket.setCount(count + amount);
+            bucket.setLast(now);
+            return new Grant(period, boundary, true, count + amount, amount, 0);
+        });
+        lease.install(grant, now);
+        return grant;
+    }
+
+    /**
+     * Hands back unused quota of idle leases to ES and discards leases for elapsed
+     * periods.  The releases are read (multi-get) and written back (bulk, versioned)
+     * in a single round trip each.  A release only leaves the queue once it has been
+     * written (or can no longer be applied); any release that conflicts with a
+     * concurrent update, or that could not be written at all, is retried on the next
+     * pass.
+     */
+    protected synchronized void reconcile() {
+        long now = System.currentTimeMillis();
+        for (Entry<String, Lease> entry : leases.entrySet()) {
+            Lease lease = entry.getValue();
+            synchronized (lease) {
+                if (lease.renewing) {
+                    continue;
+                }
+                Grant grant = lease.grant.get();
+                if (grant == null || now >= grant.boundary) {
+                    leases.remove(entry.getKey(), lease);
+                } else if (now - lease.lastUsed >= reconcilePeriod) {
+                    long unused = grant.available.getAndSet(0);
+                    if (unused > 0) {
+                        addRelease(id(entry.getKey()), grant.period, grant.boundary, unused);
+                    }
+                }
+            }
+        }
+        pendingReleases.values().removeIf(release -> now >= release.boundary);
+        if (pendingReleases.isEmpty()) {
+            return;
+        }
+
+        try {
+            Map<String, Release> releases = new HashMap<>(pendingReleases);
+            JestResult result = getClient().execute(new MultiGet.Builder.ById(getIndexName(), "rateBucket") //$NON-NLS-1$
+                    .addId(releases.keySet()).build());
+            if (!result.isSucceeded()) {
+                throw new IOException(result.getErrorMessage());
+            }
+
+            Bulk.Builder bulk = new Bulk.Builder();
+            Set<String> written = new HashSet<>();
+            for (JsonElement element : result.getJsonObject().getAsJsonArray("docs")) { //$NON-NLS-1$
+                JsonObject doc = element.getAsJsonObject();
+                Release release = releases.get(doc.get("_id").getAsString()); //$NON-NLS-1$
+                if (release == null) {
+                    continue;
+                }
+                if (!doc.has("_source")) { //$NON-NLS-1$
+                    // The bucket is gone, so there is nothing to hand the quota back to
+                    pendingReleases.remove(release.id);
+                    continue;
+                }
+                RateLimiterBucket bucket = gson.fromJson(doc.get("_source"), RateLimiterBucket.class); //$NON-NLS-1$
+                // Only hand back quota to the period it was leased from
+                if (RatePeriodBoundaries.getPeriodBoundary(bucket.getLast(), release.period) != release.boundary) {
+                    pendingReleases.remove(release.id);
+                    continue;
+                }
+                bucket.setCount(Math.max(0, bucket.getCount() - release.amount));
+                bulk.addAction(buildIndex(release.id, bucket, doc.get("_version").getAsLong())); //$NON-NLS-1$
+                written.add(release.id);
+            }
+            if (written.isEmpty()) {
+                return;
+            }
+
+            BulkResult bulkResult = getClient().execute(bulk.build());
+            if (!bulkResult.isSucceeded() && bulkResult.getFailedItems().isEmpty()) {
+                throw new IOException(bulkResult.getErrorMessage());
+            }
+            for (BulkResultItem item : bulkResult.getFailedItems()) {
+                written.remove(item.id);
+                if (item.status != VERSION_CONFLICT) {
+                    logger.warn("Failed to release rate limit quota to ES: " + item.error); //$NON-NLS-1$
+                    pendingReleases.remove(item.id);
+                }
+            }
+            pendingReleases.keySet().removeAll(written);
+        } catch (Exception e) {
+            logger.error("Error releasing rate limit quota to ES", e); //$NON-NLS-1$
+        }
+    }
+
+    /**
+     * Queues up (or adds to a queued) release of unused quota.
+     */
+    private void addRelease(String id, RateBucketPeriod period, long boundary, long amount) {
+        Release release = pendingReleases.get(id);
+        if (release != null && release.boundary == boundary) {
+            release.amount += amount;
+        } else {
+            pendingReleases.put(id, new Release(id, period, boundary, amount));
+        }
+    }
+
+    /**
+     * A node's lease of a single bucket.  Holds the quota granted for the bucket's
+     * current period.
+     */
+    private static final class Lease {
+
+        private final AtomicReference<Grant> grant = new AtomicReference<>();
+        // Guarded by the lease's lock
+        private boolean renewing;
+        private List<Waiter> waiters = new ArrayList<>();
+        private volatile long lastUsed;
+
+        /**
+         * Starts a (background) renewal, unless one is already in flight.
+         * @return true if the renewal should be started
+         */
+        private synchronized boolean startRenewal() {
+            if (renewing) {
+                return false;
+            }
+            renewing = true;
+            return true;
+        }
+
+        /**
+         * Queues up a request that found the lease dry, to be answered by the lease's
+         * renewal.
+         * @return true if there is no renewal in flight, so one should be started
+         */
+        private synchronized boolean await(Waiter waiter) {
+            waiters.add(waiter);
+            return startRenewal();
+        }
+
+        /**
+         * Takes the requests waiting for the lease's renewal.  The renewal is over
+         * (and null is returned) once there are none left, unless it is a top-up.
+         */
+        private synchronized List<Waiter> takeWaiters(boolean topUp) {
+            if (waiters.isEmpty() && !topUp) {
+                renewing = false;
+                return null;
+            }
+            List<Waiter> rval = waiters;
+            waiters = new ArrayList<>();
+            return rval;
+        }
+
+        /**
+         * Gives up on a renewal that couldn't be started.
+         * @return the requests that were waiting for it
+         */
+        private synchronized List<Waiter> abandonRenewal() {
+            renewing = false;
+            List<Waiter> rval = waiters;
+            waiters = new ArrayList<>();
+            return rval;
+        }
+
+        /**
+         * Takes the given amount of quota from the lease.  Returns the grant the quota
+         * was taken from, or null if the lease is used up or is for another period.
+         */
+        private Grant acquire(long boundary, long amount, long now) {
+            while (true) {
+                Grant current = grant.get();
+                if (current == null || current.boundary != boundary) {
+                    return null;
+                }
+                if (!current.accepted) {
+                    return now < current.retryAfter ? current : null;
+                }
+                long available = current.available.get();
+                if (available < amount) {
+                    if (grant.get() == current) {
+                        return null;
+                    }
+                    // A renewal replaced the grant meanwhile, so try that one
+                } else if (current.available.compareAndSet(available, available - amount)) {
+                    lastUsed = now;
+                    return current;
+                }
+            }
+        }
+
+        /**
+         * Makes a newly leased grant the current one.  Quota still held by the current
+         * grant for the same period is added to the new grant rather than lost, and a
+         * grant for an earlier period (from a slow renewal) never replaces a newer one.
+         */
+        private synchronized void install(Grant newGrant, long now) {
+            Grant current = grant.get();
+            if (current != null && current.boundary > newGrant.boundary) {
+                return;
+            }
+            if (current != null && current.boundary == newGrant.boundary && current.accepted) {
+                if (!newGrant.accepted && current.available.get() > 0) {
+                    return;
+                }
+                newGrant.available.addAndGet(current.available.getAndSet(0));
+            }
+            lastUsed = now;
+            grant.set(newGrant);
+        }
+    }
+
+    /**
+     * A request waiting for its lease to be renewed.
+     */
+    private static final class Waiter {
+
+        private final long limit;
+        private final long increment;
+        private final IAsyncResultHandler<RateLimitResponse> handler;
+
+        /**
+         * Constructor.
+         * @param limit the bucket's limit
+         * @param increment the quota the request needs
+         * @param handler the request's result handler
+         */
+        private Waiter(long limit, long increment, IAsyncResultHandler<RateLimitResponse> handler) {
+            this.limit = limit;
+            this.increment = increment;
+            this.handler = handler;
+        }
+    }
+
+    /**
+     * Quota granted by ES for a single period.
+     */
+    private static final class Grant {
+
+        private final RateBucketPeriod period;
+        private final long boundary;
+        private final boolean accepted;
+        private final long reserved;
+        private final AtomicLong available;
+        private final long retryAfter;
+
+        /**
+         * Constructor.
+         * @param period the rate period
+         * @param boundary the end of the period
+         * @param accepted false if the bucket had no quota left
+         * @param reserved the bucket's count in ES after the grant
+         * @param available the quota available for use by this node
+         * @param retryAfter when to go back to ES if no quota was granted
+         */
+        private Grant(RateBucketPeriod period, long boundary, boolean accepted, long reserved, long available,
+                long retryAfter) {
+            this.period = period;
+            this.boundary = boundary;
+            this.accepted = accepted;
+            this.reserved = reserved;
+            this.available = new AtomicLong(available);
+            this.retryAfter = retryAfter;
+        }
+    }
+
+    /**
+     * Unused quota to be handed back to ES.
+     */
+    private static final class Release {
+
+        private final String id;
+        private final RateBucketPeriod period;
+        private final long boundary;
+        private long amount;
+
+        /**
+         * Constructor.
+         * @param id the (ES) id of the bucket
+         * @param period the rate period
+         * @param boundary the end of the period the quota was leased for
+         * @param amount the amount of quota
+         */
+        private Release(String id, RateBucketPeriod period, long boundary, long amount) {
+            this.id = id;
+            this.period = period;
+            this.boundary = boundary;
+            this.amount = amount;
+        }
+    }
+
+}
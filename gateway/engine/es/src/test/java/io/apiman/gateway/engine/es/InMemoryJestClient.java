@@ -0,0 +1,208 @@
+/*
+ * Copyright 2017 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.apiman.gateway.engine.es;
+
+import io.searchbox.action.Action;
+import io.searchbox.action.BulkableAction;
+import io.searchbox.client.JestClient;
+import io.searchbox.client.JestResult;
+import io.searchbox.client.JestResultHandler;
+import io.searchbox.core.Bulk;
+import io.searchbox.core.Get;
+import io.searchbox.core.Index;
+import io.searchbox.core.MultiGet;
+import io.searchbox.params.Parameters;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * A (very) minimal in-memory stand-in for elasticsearch, supporting just the
+ * versioned get/index/multi-get/bulk calls made by the rate limiter components.
+ * Hooks allow tests to interleave "concurrent" updates and failures.
+ *
+ * @author eric.wittmann@redhat.com
+ */
+@SuppressWarnings("nls")
+public class InMemoryJestClient implements JestClient {
+
+    private static final Gson gson = new Gson();
+
+    private final Map<String, JsonObject> sources = new HashMap<>();
+    private final Map<String, Long> versions = new HashMap<>();
+
+    public volatile Consumer<Action<?>> beforeExecute = action -> {};
+    public int gets;
+    public int indexes;
+    public int multiGets;
+    public int bulks;
+
+    /**
+     * @see io.searchbox.client.JestClient#execute(io.searchbox.action.Action)
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T extends JestResult> T execute(Action<T> action) throws IOException {
+        beforeExecute.accept(action);
+        synchronized (this) {
+            if (action instanceof Get) {
+                gets++;
+                return (T) get((Get) action);
+            } else if (action instanceof Index) {
+                indexes++;
+                JsonObject item = index((Index) action);
+                return action.createNewElasticSearchResult(item.toString(), item.get("status").getAsInt(), null, gson);
+            } else if (action instanceof MultiGet) {
+                multiGets++;
+                return (T) multiGet((MultiGet) action);
+            } else if (action instanceof Bulk) {
+                bulks++;
+                return (T) bulk((Bulk) action);
+            }
+        }
+        throw new UnsupportedOperationException(action.getClass().getName());
+    }
+
+    private JestResult get(Get get) {
+        JsonObject doc = doc(get.getId());
+        return get.createNewElasticSearchResult(doc.toString(), doc.get("found").getAsBoolean() ? 200 : 404, null, gson);
+    }
+
+    private JsonObject doc(String id) {
+        JsonObject doc = new JsonObject();
+        doc.addProperty("_id", id);
+        JsonObject source = sources.get(id);
+        doc.addProperty("found", source != null);
+        if (source != null) {
+            doc.addProperty("_version", versions.get(id));
+            doc.add("_source", source);
+        }
+        return doc;
+    }
+
+    private JsonObject index(Index index) {
+        String id = index.getId();
+        Long version = versions.get(id);
+        Collection<Object> expected = index.getParameter(Parameters.VERSION);
+        Collection<Object> opType = index.getParameter(Parameters.OP_TYPE);
+        JsonObject item = new JsonObject();
+        item.addProperty("_index", index.getIndex());
+        item.addProperty("_type", index.getType());
+        item.addProperty("_id", id);
+        boolean create = opType.contains("create");
+        if ((create && version != null) || (!create && (version == null
+                || !expected.contains(String.valueOf(version))))) {
+            item.addProperty("status", 409);
+            item.addProperty("error", "VersionConflictEngineException[" + id + "]");
+            return item;
+        }
+        put(id, new JsonParser().parse(index.getData(gson)).getAsJsonObject());
+        item.addProperty("_version", versions.get(id));
+        item.addProperty("status", create ? 201 : 200);
+        return item;
+    }
+
+    private JestResult multiGet(MultiGet multiGet) {
+        JsonObject request = new JsonParser().parse(multiGet.getData(gson)).getAsJsonObject();
+        JsonArray docs = new JsonArray();
+        for (JsonElement id : request.getAsJsonArray("ids")) {
+            docs.add(doc(id.getAsString()));
+        }
+        JsonObject response = new JsonObject();
+        response.add("docs", docs);
+        return multiGet.createNewElasticSearchResult(response.toString(), 200, null, gson);
+    }
+
+    @SuppressWarnings("unchecked")
+    private JestResult bulk(Bulk bulk) throws IOException {
+        JsonArray items = new JsonArray();
+        boolean errors = false;
+        for (BulkableAction<?> action : (Collection<BulkableAction<?>>) field(bulk, "bulkableActions")) {
+            JsonObject item = index((Index) action);
+            errors |= item.has("error");
+            JsonObject wrapper = new JsonObject();
+            wrapper.add("index", item);
+            items.add(wrapper);
+        }
+        JsonObject response = new JsonObject();
+        response.addProperty("errors", errors);
+        response.add("items", items);
+        return bulk.createNewElasticSearchResult(response.toString(), 200, null, gson);
+    }
+
+    private static Object field(Object target, String name) throws IOException {
+        try {
+            Field field = Bulk.class.getDeclaredField(name);
+            field.setAccessible(true);
+            return field.get(target);
+        } catch (ReflectiveOperationException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Stores a document, bumping its version.
+     */
+    public synchronized void put(String id, JsonObject source) {
+        sources.put(id, source);
+        versions.merge(id, 1L, Long::sum);
+    }
+
+    /**
+     * @return the source of the given document, or null
+     */
+    public synchronized JsonObject source(String id) {
+        return sources.get(id);
+    }
+
+    /**
+     * @see io.searchbox.client.JestClient#executeAsync(io.searchbox.action.Action, io.searchbox.client.JestResultHandler)
+     */
+    @Override
+    public <T extends JestResult> void executeAsync(Action<T> action, JestResultHandler<? super T> handler) {
+        try {
+            handler.completed(execute(action));
+        } catch (Exception e) {
+            handler.failed(e);
+        }
+    }
+
+    /**
+     * @see io.searchbox.client.JestClient#shutdownClient()
+     */
+    @Override
+    public void shutdownClient() {
+    }
+
+    /**
+     * @see io.searchbox.client.JestClient#setServers(java.util.Set)
+     */
+    @Override
+    public void setServers(Set<String> servers) {
+    }
+
+}
@@ -0,0 +1,278 @@
+/*
+ * Copyright 2017 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.apiman.gateway.engine.es;
+
+import io.apiman.gateway.engine.async.IAsyncResult;
+import io.apiman.gateway.engine.components.rate.RateLimitResponse;
+import io.apiman.gateway.engine.rates.RateBucketPeriod;
+import io.searchbox.client.JestClient;
+import io.searchbox.core.Bulk;
+import io.searchbox.core.Get;
+import io.searchbox.core.Index;
+import io.searchbox.core.MultiGet;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * Tests of {@link LeasingESRateLimiterComponent} (and the version conflict
+ * handling of {@link ESRateLimiterComponent}) against an in-memory ES.
+ *
+ * @author eric.wittmann@redhat.com
+ */
+@SuppressWarnings("nls")
+public class LeasingESRateLimiterComponentTest {
+
+    private final InMemoryJestClient client = new InMemoryJestClient();
+
+    private LeasingESRateLimiterComponent leasing(String fraction, long reconcilePeriod) {
+        Map<String, String> config = new HashMap<>();
+        config.put("lease.fraction", fraction);
+        config.put("lease.reconcile.period", String.valueOf(reconcilePeriod));
+        return new LeasingESRateLimiterComponent(config) {
+            @Override
+            protected JestClient createClient() {
+                return client;
+            }
+        };
+    }
+
+    private static RateLimitResponse accept(ESRateLimiterComponent component, long limit) {
+        AtomicReference<IAsyncResult<RateLimitResponse>> result = new AtomicReference<>();
+        CountDownLatch latch = new CountDownLatch(1);
+        component.accept("bucket", RateBucketPeriod.Day, limit, 1, r -> {
+            result.set(r);
+            latch.countDown();
+        });
+        try {
+            Assert.assertTrue("Timed out", latch.await(10, TimeUnit.SECONDS));
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+        if (result.get().isError()) {
+            throw new RuntimeException(result.get().getError());
+        }
+        return result.get().getResult();
+    }
+
+    private long count(ESRateLimiterComponent component) {
+        JsonObject source = client.source(component.id("bucket"));
+        return source == null ? 0 : source.get("count").getAsLong();
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!condition.getAsBoolean()) {
+            Assert.assertTrue("Timed out", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void testLeasesQuota() throws Exception {
+        LeasingESRateLimiterComponent component = leasing("0.1", 60000);
+        for (int i = 0; i < 25; i++) {
+            Assert.assertTrue(accept(component, 100).isAccepted());
+            // Give the background top-up a chance to land before the lease runs dry
+            Thread.sleep(5);
+        }
+        // Leased in chunks of 10 rather than a round trip per request
+        await(() -> count(component) >= 30);
+        Assert.assertTrue(client.indexes <= 5);
+        Assert.assertTrue(count(component) <= 40);
+    }
+
+    @Test
+    public void testRejectsWithoutGoingToES() throws Exception {
+        LeasingESRateLimiterComponent component = leasing("0.5", 60000);
+        int accepted = 0;
+        for (int i = 0; i < 15; i++) {
+            if (accept(component, 10).isAccepted()) {
+                accepted++;
+            }
+            Thread.sleep(20);
+        }
+        Assert.assertEquals(10, accepted);
+        Assert.assertEquals(10, count(component));
+
+        int gets = client.gets;
+        for (int i = 0; i < 5; i++) {
+            Assert.assertFalse(accept(component, 10).isAccepted());
+        }
+        Assert.assertEquals(gets, client.gets);
+    }
+
+    @Test
+    public void testRequestsQueueOnRenewal() throws Exception {
+        LeasingESRateLimiterComponent component = leasing("0.1", 60000);
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch unblock = new CountDownLatch(1);
+        AtomicBoolean first = new AtomicBoolean(true);
+        client.beforeExecute = action -> {
+            if (action instanceof Get && first.compareAndSet(true, false)) {
+                blocked.countDown();
+                try {
+                    unblock.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        AtomicReference<RateLimitResponse> renewed = new AtomicReference<>();
+        Thread renewer = new Thread(() -> renewed.set(accept(component, 100)));
+        renewer.start();
+        Assert.assertTrue(blocked.await(10, TimeUnit.SECONDS));
+
+        // The lease is being renewed (slowly) - these requests wait for that renewal
+        // rather than each going to ES
+        List<IAsyncResult<RateLimitResponse>> results = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch answered = new CountDownLatch(5);
+        for (int i = 0; i < 5; i++) {
+            component.accept("bucket", RateBucketPeriod.Day, 100, 1, result -> {
+                results.add(result);
+                answered.countDown();
+            });
+        }
+        Thread.sleep(50);
+        Assert.assertTrue(results.isEmpty());
+        Assert.assertEquals(0, count(component));
+
+        unblock.countDown();
+        renewer.join(10000);
+        Assert.assertTrue(answered.await(10, TimeUnit.SECONDS));
+        Assert.assertTrue(renewed.get().isAccepted());
+        for (IAsyncResult<RateLimitResponse> result : results) {
+            Assert.assertTrue(result.isSuccess());
+            Assert.assertTrue(result.getResult().isAccepted());
+        }
+        // All six requests were answered from a single lease of 10
+        Assert.assertEquals(10, count(component));
+        Assert.assertEquals(1, client.indexes);
+    }
+
+    @Test
+    public void testDryLeaseDoesNotBlockCaller() throws Exception {
+        LeasingESRateLimiterComponent component = leasing("0.1", 60000);
+        Thread caller = Thread.currentThread();
+        AtomicBoolean calledOnCaller = new AtomicBoolean();
+        client.beforeExecute = action -> {
+            if (Thread.currentThread() == caller) {
+                calledOnCaller.set(true);
+            }
+        };
+        for (int i = 0; i < 25; i++) {
+            Assert.assertTrue(accept(component, 100).isAccepted());
+        }
+        Assert.assertFalse(calledOnCaller.get());
+        Assert.assertTrue(count(component) >= 25);
+    }
+
+    @Test
+    public void testReleasesUnusedQuota() throws Exception {
+        LeasingESRateLimiterComponent component = leasing("0.1", 100);
+        Assert.assertTrue(accept(component, 100).isAccepted());
+        Assert.assertEquals(10, count(component));
+        await(() -> count(component) == 1);
+    }
+
+    @Test
+    public void testCloseStopsReconciler() throws Exception {
+        LeasingESRateLimiterComponent component = leasing("0.1", 200);
+        Assert.assertTrue(accept(component, 100).isAccepted());
+        Assert.assertEquals(10, count(component));
+        component.close();
+        Thread.sleep(600);
+        // The unused quota was never handed back
+        Assert.assertEquals(10, count(component));
+        Assert.assertEquals(0, client.bulks);
+    }
+
+    @Test
+    public void testReleaseRetriedAfterFailure() throws Exception {
+        LeasingESRateLimiterComponent component = leasing("0.1", 100);
+        AtomicInteger failures = new AtomicInteger();
+        client.beforeExecute = action -> {
+            if (action instanceof MultiGet && failures.incrementAndGet() <= 3) {
+                throw new UncheckedIOException(new IOException("ES is down"));
+            }
+        };
+        Assert.assertTrue(accept(component, 100).isAccepted());
+        await(() -> failures.get() > 3);
+        // The release must have survived the failed passes
+        await(() -> count(component) == 1);
+    }
+
+    @Test
+    public void testReleaseRetriedAfterVersionConflict() throws Exception {
+        LeasingESRateLimiterComponent component = leasing("0.1", 100);
+        Assert.assertTrue(accept(component, 100).isAccepted());
+        String id = component.id("bucket");
+        AtomicBoolean first = new AtomicBoolean(true);
+        client.beforeExecute = action -> {
+            if (action instanceof Bulk && first.compareAndSet(true, false)) {
+                // Another node takes 5 between our read and our write
+                JsonObject source = new JsonParser().parse(client.source(id).toString()).getAsJsonObject();
+                source.addProperty("count", source.get("count").getAsLong() + 5);
+                client.put(id, source);
+            }
+        };
+        await(() -> !first.get());
+        await(() -> count(component) == 6);
+        Assert.assertTrue(client.bulks >= 2);
+    }
+
+    @Test
+    public void testUpdateRetriedAfterVersionConflict() throws Exception {
+        ESRateLimiterComponent component = new ESRateLimiterComponent(new HashMap<>()) {
+            @Override
+            protected JestClient createClient() {
+                return client;
+            }
+        };
+        Assert.assertTrue(accept(component, 100).isAccepted());
+        String id = component.id("bucket");
+        AtomicBoolean first = new AtomicBoolean(true);
+        client.beforeExecute = action -> {
+            if (action instanceof Index && first.compareAndSet(true, false)) {
+                JsonObject source = new JsonParser().parse(client.source(id).toString()).getAsJsonObject();
+                source.addProperty("count", 3);
+                client.put(id, source);
+            }
+        };
+        RateLimitResponse response = accept(component, 100);
+        Assert.assertTrue(response.isAccepted());
+        Assert.assertEquals(4, count(component));
+        Assert.assertEquals(96, response.getRemaining());
+    }
+
+}
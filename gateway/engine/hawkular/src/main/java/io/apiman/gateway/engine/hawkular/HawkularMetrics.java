@@ -22,28 +22,30 @@ import io.apiman.common.net.hawkular.beans.MetricLongBean;
 import io.apiman.common.net.hawkular.beans.MetricType;
 import io.apiman.gateway.engine.IComponentRegistry;
 import io.apiman.gateway.engine.IMetrics;
+import io.apiman.gateway.engine.metrics.IMetricsSink;
+import io.apiman.gateway.engine.metrics.MetricsPipeline;
 import io.apiman.gateway.engine.metrics.RequestMetric;
 
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingDeque;
+import java.util.Map.Entry;
 
 /**
  * An implementation of the apiman {@link IMetrics} interface that pushes metrics
  * data to a Hawkular Metrics server.  For more information about Hawkular Metrics,
  * see:  http://www.hawkular.org/docs/components/metrics/index.html
  * 
+ * Metrics are buffered by a {@link MetricsPipeline} and pushed in batches (one
+ * request per tenant per batch).
+ * 
  * @author eric.wittmann@gmail.com
  */
-public class HawkularMetrics implements IMetrics {
-    
-    private static final int DEFAULT_QUEUE_SIZE = 10000;
+public class HawkularMetrics implements IMetrics, IMetricsSink {
     
     private final HawkularMetricsClient client;
-    private final BlockingQueue<QueueItem> queue;
+    private final MetricsPipeline pipeline;
 
     /**
      * Constructor.
@@ -62,58 +64,49 @@ public class HawkularMetrics implements IMetrics {
         httpOptions.put("http.followRedirects", config.get("http.followRedirects"));
         client = new HawkularMetricsClient(endpoint, new HttpConnectorOptions(httpOptions));
 
-        int queueSize = DEFAULT_QUEUE_SIZE;
+        Map<String, String> pipelineConfig = new HashMap<>(config);
         String queueSizeConfig = config.get("hawkular.queueSize");
         if (queueSizeConfig != null) {
-            queueSize = new Integer(queueSizeConfig);
+            pipelineConfig.putIfAbsent("queue.size", queueSizeConfig);
         }
-        queue = new LinkedBlockingDeque<>(queueSize);
-        startConsumerThread();
+        pipeline = new MetricsPipeline(pipelineConfig, this, "HawkularMetricsConsumer");
     }
 
     /**
-     * Starts a thread which will serially pull information off the blocking
-     * queue and submit that information to hawkular metrics.
+     * @see io.apiman.gateway.engine.IMetrics#record(io.apiman.gateway.engine.metrics.RequestMetric)
      */
-    private void startConsumerThread() {
-        Thread thread = new Thread(new Runnable() {
-            @Override
-            public void run() {
-                while (Boolean.TRUE) {
-                    processQueue();
-                }
-            }
-        }, "HawkularMetricsConsumer"); //$NON-NLS-1$
-        thread.setDaemon(true);
-        thread.start();        
+    @Override
+    public void record(RequestMetric metric) {
+        pipeline.record(metric);
     }
 
     /**
-     * Process the next item in the queue.
+     * @see io.apiman.gateway.engine.metrics.IMetricsSink#flush(java.util.List)
      */
-    protected void processQueue() {
-        try {
-            QueueItem item = queue.take();
-            client.addMultipleCounterDataPoints(item.tenantId, item.data);
-        } catch (InterruptedException e) {
-            // TODO better logging of this unlikely error
-            e.printStackTrace();
-            return;
+    @Override
+    public void flush(List<RequestMetric> metrics) throws Exception {
+        Map<String, List<MetricLongBean>> dataByTenant = new HashMap<>();
+        for (RequestMetric metric : metrics) {
+            List<MetricLongBean> data = dataByTenant.get(metric.getApiOrgId());
+            if (data == null) {
+                data = new ArrayList<>();
+                dataByTenant.put(metric.getApiOrgId(), data);
+            }
+            addDataPoints(metric, data);
+        }
+        for (Entry<String, List<MetricLongBean>> entry : dataByTenant.entrySet()) {
+            client.addMultipleCounterDataPoints(entry.getKey(), entry.getValue());
         }
     }
 
     /**
-     * @see io.apiman.gateway.engine.IMetrics#record(io.apiman.gateway.engine.metrics.RequestMetric)
+     * Adds the data points for the given metric.
      */
-    @Override
-    public void record(RequestMetric metric) {
+    private void addDataPoints(RequestMetric metric, List<MetricLongBean> data) {
         // Record data points (potentially) for the following metrics:
         // 1) # of total requests (always)
         // 2) # of failures (only when a failure)
         // 3) # of errors (only when an error)
-        String tenantId = metric.getApiOrgId();
-        List<MetricLongBean> data = new ArrayList<>();
-
         // ******************************
         // API metrics
         // ******************************
@@ -187,13 +180,6 @@ public class HawkularMetrics implements IMetrics {
                 data.add(erroredRequests);
             }
         }
-
-        try {
-            queue.put(new QueueItem(tenantId, data));
-        } catch (InterruptedException e) {
-            // TODO better logging of this unlikely error
-            e.printStackTrace();
-        }
     }
 
     /**
@@ -202,18 +188,5 @@ public class HawkularMetrics implements IMetrics {
     @Override
     public void setComponentRegistry(IComponentRegistry registry) {
     }
-    
-    
-    private static class QueueItem {
-        public String tenantId;
-        public List<MetricLongBean> data;
 
-        /**
-         * Constructor.
-         */
-        public QueueItem(String tenantId, List<MetricLongBean> data) {
-            this.tenantId = tenantId;
-            this.data = data;
-        }
-    }
 }
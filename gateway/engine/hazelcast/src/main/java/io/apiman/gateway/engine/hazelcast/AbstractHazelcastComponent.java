@@ -18,8 +18,7 @@ package io.apiman.gateway.engine.hazelcast;
 import com.hazelcast.config.Config;
 import com.hazelcast.core.Hazelcast;
 import com.hazelcast.core.HazelcastInstance;
-
-import java.util.Map;
+import com.hazelcast.core.IMap;
 
 /**
  * Common base class for components backed by a Hazelcast Map.
@@ -53,7 +52,7 @@ abstract class AbstractHazelcastComponent {
      * @param <T> the value type
      * @return the shared state
      */
-    protected <T> Map<String, T> getSharedState() {
+    protected <T> IMap<String, T> getSharedState() {
         return hazelcastInstance.getMap(storeName);
     }
 
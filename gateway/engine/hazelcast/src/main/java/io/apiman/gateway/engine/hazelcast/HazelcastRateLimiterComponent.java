@@ -16,24 +16,32 @@
 package io.apiman.gateway.engine.hazelcast;
 
 import com.hazelcast.config.Config;
+import com.hazelcast.core.ExecutionCallback;
+import com.hazelcast.map.AbstractEntryProcessor;
 import io.apiman.gateway.engine.async.AsyncResultImpl;
 import io.apiman.gateway.engine.async.IAsyncResultHandler;
 import io.apiman.gateway.engine.components.IRateLimiterComponent;
 import io.apiman.gateway.engine.components.rate.RateLimitResponse;
 import io.apiman.gateway.engine.rates.RateBucketPeriod;
-import io.apiman.gateway.engine.rates.RateLimiterBucket;
+import io.apiman.gateway.engine.rates.RateBucketState;
+import io.apiman.gateway.engine.rates.RatePeriodBoundaries;
+
+import java.util.Map;
 
 /**
  * Rate limiter component backed by a Hazelcast Map. This allows rate limiting
  * to be done across nodes in a cluster of gateways.
  *
+ * Buckets are updated by an entry processor, which runs atomically on the
+ * member that owns the bucket, so each request costs a single (asynchronous)
+ * round trip and limits are never overshot because of concurrent updates made
+ * by other nodes.
+ *
  * @author Pete Cornish
  */
 public class HazelcastRateLimiterComponent extends AbstractHazelcastComponent implements IRateLimiterComponent {
     private static final String STORE_NAME = "rate-limiter"; //$NON-NLS-1$
 
-    private final Object mutex = new Object();
-
     /**
      * Constructor.
      */
@@ -56,28 +64,62 @@ public class HazelcastRateLimiterComponent extends AbstractHazelcastComponent im
     @Override
     public void accept(final String bucketId, final RateBucketPeriod period, final long limit,
                        final long increment, final IAsyncResultHandler<RateLimitResponse> handler) {
-        RateLimiterBucket bucket;
-        synchronized (mutex) {
-            bucket = (RateLimiterBucket) getSharedState().get(bucketId);
-            if (bucket == null) {
-                bucket = new RateLimiterBucket();
-                getSharedState().put(bucketId, bucket);
+        final long now = System.currentTimeMillis();
+        long boundary = RatePeriodBoundaries.getPeriodBoundary(now, period);
+        getSharedState().submitToKey(bucketId, new IncrementProcessor(boundary, limit, increment),
+                new ExecutionCallback<long[]>() {
+            @Override
+            public void onResponse(long[] response) {
+                RateBucketState state = new RateBucketState(response[1], response[2]);
+                handler.handle(AsyncResultImpl.create(RateBucketState.toResponse(response[0], state, limit, now)));
             }
-            bucket.resetIfNecessary(period);
 
-            RateLimitResponse response = new RateLimitResponse();
-            if (bucket.getCount() > limit) {
-                response.setAccepted(false);
-            } else {
-                response.setAccepted(bucket.getCount() < limit);
-                bucket.setCount(bucket.getCount() + increment);
-                bucket.setLast(System.currentTimeMillis());
+            @Override
+            public void onFailure(Throwable t) {
+                handler.handle(AsyncResultImpl.create(t, RateLimitResponse.class));
+            }
+        });
+    }
+
+    /**
+     * Applies a request to a bucket, on the member that owns the bucket.  Returns the
+     * count before the request was applied along with the updated bucket (boundary
+     * and count).  The processor is also applied to the backup copies; it is
+     * deterministic since the period boundary is computed by the caller.
+     */
+    private static final class IncrementProcessor extends AbstractEntryProcessor<String, Object> {
+
+        private static final long serialVersionUID = 4113590271616237539L;
+
+        private final long boundary;
+        private final long limit;
+        private final long increment;
+
+        /**
+         * Constructor.
+         * @param boundary the end of the current period
+         * @param limit the limit
+         * @param increment the increment
+         */
+        private IncrementProcessor(long boundary, long limit, long increment) {
+            this.boundary = boundary;
+            this.limit = limit;
+            this.increment = increment;
+        }
+
+        /**
+         * @see com.hazelcast.map.EntryProcessor#process(java.util.Map.Entry)
+         */
+        @Override
+        public Object process(Map.Entry<String, Object> entry) {
+            Object value = entry.getValue();
+            RateBucketState state = value instanceof RateBucketState ? (RateBucketState) value : null;
+            long previousCount = RateBucketState.currentCount(state, boundary);
+            RateBucketState newState = RateBucketState.increment(state, boundary, limit, increment);
+            if (newState != state) {
+                entry.setValue(newState);
             }
-            int reset = (int) (bucket.getResetMillis(period) / 1000L);
-            response.setReset(reset);
-            response.setRemaining(limit - bucket.getCount());
-            handler.handle(AsyncResultImpl.create(response));
-            getSharedState().put(bucketId, bucket);
+            return new long[] { previousCount, newState.getBoundary(), newState.getCount() };
         }
     }
 }
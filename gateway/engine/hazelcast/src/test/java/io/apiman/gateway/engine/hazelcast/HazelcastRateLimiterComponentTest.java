@@ -0,0 +1,124 @@
+/*
+ * Copyright 2017 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.apiman.gateway.engine.hazelcast;
+
+import io.apiman.gateway.engine.components.rate.RateLimitResponse;
+import io.apiman.gateway.engine.rates.RateBucketPeriod;
+import io.apiman.gateway.engine.rates.RateBucketState;
+import io.apiman.gateway.engine.rates.RateLimiterBucket;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.hazelcast.config.Config;
+import com.hazelcast.core.Hazelcast;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for {@link HazelcastRateLimiterComponent}.
+ *
+ * @author eric.wittmann@redhat.com
+ */
+@SuppressWarnings("nls")
+public class HazelcastRateLimiterComponentTest {
+
+    private HazelcastRateLimiterComponent component;
+
+    @Before
+    public void setUp() {
+        Config config = new Config();
+        config.getNetworkConfig().getJoin().getMulticastConfig().setEnabled(false);
+        component = new HazelcastRateLimiterComponent(config);
+    }
+
+    @After
+    public void tearDown() {
+        Hazelcast.shutdownAll();
+    }
+
+    @Test
+    public void testAccept() throws Exception {
+        RateLimitResponse response = accept("bucket", 2);
+        Assert.assertTrue(response.isAccepted());
+        Assert.assertEquals(1, response.getRemaining());
+        Assert.assertTrue(accept("bucket", 2).isAccepted());
+        Assert.assertFalse(accept("bucket", 2).isAccepted());
+        Assert.assertFalse(accept("bucket", 2).isAccepted());
+        Assert.assertTrue(accept("other-bucket", 2).isAccepted());
+    }
+
+    @Test
+    public void testMigratesOldBuckets() throws Exception {
+        RateLimiterBucket old = new RateLimiterBucket();
+        old.setCount(10);
+        component.getSharedState().put("bucket", old);
+
+        RateLimitResponse response = accept("bucket", 2);
+        Assert.assertTrue(response.isAccepted());
+        Assert.assertEquals(1, response.getRemaining());
+        Object bucket = component.getSharedState().get("bucket");
+        Assert.assertTrue(bucket instanceof RateBucketState);
+        Assert.assertEquals(1, ((RateBucketState) bucket).getCount());
+    }
+
+    @Test
+    public void testConcurrentRequestsDoNotOvershoot() throws Exception {
+        int threads = 8;
+        int requests = 50;
+        long limit = 100;
+        AtomicInteger accepted = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(threads * requests);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            for (int t = 0; t < threads; t++) {
+                executor.execute(() -> {
+                    for (int r = 0; r < requests; r++) {
+                        component.accept("bucket", RateBucketPeriod.Hour, limit, 1, result -> {
+                            if (result.isSuccess() && result.getResult().isAccepted()) {
+                                accepted.incrementAndGet();
+                            }
+                            done.countDown();
+                        });
+                    }
+                });
+            }
+            Assert.assertTrue(done.await(30, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+        Assert.assertEquals(limit, accepted.get());
+    }
+
+    private RateLimitResponse accept(String bucketId, long limit) throws Exception {
+        CompletableFuture<RateLimitResponse> future = new CompletableFuture<>();
+        component.accept(bucketId, RateBucketPeriod.Hour, limit, 1, result -> {
+            if (result.isSuccess()) {
+                future.complete(result.getResult());
+            } else {
+                future.completeExceptionally(result.getError());
+            }
+        });
+        return future.get(10, TimeUnit.SECONDS);
+    }
+
+}
@@ -25,7 +25,6 @@ import java.util.List;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import io.apiman.gateway.engine.async.AsyncResultImpl;
-import io.apiman.gateway.engine.async.IAsyncHandler;
 import io.apiman.gateway.engine.async.IAsyncResult;
 import io.apiman.gateway.engine.async.IAsyncResultHandler;
 import io.apiman.gateway.engine.components.IHttpClientComponent;
@@ -84,16 +83,19 @@ public class InfluxDb09Driver {
      * Simple write to "/write". Must be valid Influx line format.
      *
      * @param lineDocument document to write, as string
-     * @param failureHandler handler in case of failure
+     * @param handler handler of the outcome (an {@link InfluxException} on failure)
      */
-    public void write(String lineDocument,
-            final IAsyncHandler<InfluxException> failureHandler) {
+    public void write(String lineDocument, final IAsyncResultHandler<Void> handler) {
         // Make request to influx
         IHttpClientRequest request = httpClient.request(writeUrl.toString(), HttpMethod.POST,
                 result -> {
-                    if (result.isError() || result.getResult().getResponseCode() < 200
+                    if (result.isError()) {
+                        handler.handle(AsyncResultImpl.<Void> create(new InfluxException(result.getError())));
+                    } else if (result.getResult().getResponseCode() < 200
                             || result.getResult().getResponseCode() > 299) {
-                        failureHandler.handle(new InfluxException(result.getResult()));
+                        handler.handle(AsyncResultImpl.<Void> create(new InfluxException(result.getResult())));
+                    } else {
+                        handler.handle(AsyncResultImpl.create((Void) null));
                     }
                 });
         // For some reason Java's URLEncoding doesn't seem to be parseable by influx?
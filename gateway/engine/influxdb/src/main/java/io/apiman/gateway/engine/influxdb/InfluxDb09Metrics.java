@@ -23,6 +23,8 @@ import io.apiman.gateway.engine.beans.exceptions.ConfigurationParseException;
 import io.apiman.gateway.engine.components.IHttpClientComponent;
 import io.apiman.gateway.engine.components.http.IHttpClientResponse;
 import io.apiman.gateway.engine.i18n.Messages;
+import io.apiman.gateway.engine.metrics.IMetricsSink;
+import io.apiman.gateway.engine.metrics.MetricsPipeline;
 import io.apiman.gateway.engine.metrics.RequestMetric;
 
 import java.util.ArrayList;
@@ -32,14 +34,18 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
- * InfluxDB 0.9.x metrics implementation
+ * InfluxDB 0.9.x metrics implementation.  Metrics are buffered by a
+ * {@link MetricsPipeline} and written in batches (one line per metric).
  *
  * @author Marc Savy <msavy@redhat.com>
  */
 @SuppressWarnings("nls")
-public class InfluxDb09Metrics implements IMetrics, IRequiresInitialization {
+public class InfluxDb09Metrics implements IMetrics, IMetricsSink, IRequiresInitialization {
     private static final String USER = "username";
     private static final String PWORD = "password";
     private static final String INFLUX_ENDPOINT = "endpoint";
@@ -47,6 +53,7 @@ public class InfluxDb09Metrics implements IMetrics, IRequiresInitialization {
     private static final String RETENTION_POLICY = "retentionPolicy";
     private static final String SERIES_NAME = "measurement";
     private static final String TIMEPRECISION = "ms";
+    private static final long WRITE_TIMEOUT = 30;
 
 
     private static final Map<String, String> DEFAULT_TAGS = new LinkedHashMap<>();
@@ -63,6 +70,7 @@ public class InfluxDb09Metrics implements IMetrics, IRequiresInitialization {
     private InfluxDb09Driver driver;
     private String username;
     private String password;
+    private final MetricsPipeline pipeline;
 
     /**
      * Constructor.
@@ -75,6 +83,7 @@ public class InfluxDb09Metrics implements IMetrics, IRequiresInitialization {
         this.seriesName = getMandatoryString(config, SERIES_NAME);
         this.username = getOptionalString(config, USER, null);
         this.password = getOptionalString(config, PWORD, null);
+        this.pipeline = new MetricsPipeline(config, this, "InfluxDb09MetricsConsumer");
     }
 
     /**
@@ -105,17 +114,42 @@ public class InfluxDb09Metrics implements IMetrics, IRequiresInitialization {
      */
     @Override
     public void record(RequestMetric metric) {
-        driver.write(buildRequest(metric),
-                (InfluxException result) -> {
-                    if (result.isBadResponse()) {
-                        IHttpClientResponse response = result.getResponse();
-                        System.err.println(String.format("Influx stats error. Code: %s with message: '%s'",
-                                response.getResponseCode(),
-                                response.getResponseMessage()));
-                    } else {
-                        System.err.println(result.getMessage());
-                    }
-                });
+        pipeline.record(metric);
+    }
+
+    /**
+     * Writes the batch and waits (at most {@link #WRITE_TIMEOUT} seconds) for
+     * InfluxDB to accept it.
+     * @see io.apiman.gateway.engine.metrics.IMetricsSink#flush(java.util.List)
+     */
+    @Override
+    public void flush(List<RequestMetric> metrics) throws Exception {
+        StringBuilder lines = new StringBuilder(500 * metrics.size());
+        for (RequestMetric metric : metrics) {
+            if (lines.length() > 0) {
+                lines.append('\n');
+            }
+            lines.append(buildRequest(metric));
+        }
+        final CountDownLatch endSignal = new CountDownLatch(1);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        driver.write(lines.toString(), result -> {
+            if (result.isError()) {
+                failure.set(result.getError());
+            }
+            endSignal.countDown();
+        });
+        if (!endSignal.await(WRITE_TIMEOUT, TimeUnit.SECONDS)) {
+            throw new TimeoutException("Timed out writing metrics to InfluxDB after " + WRITE_TIMEOUT + "s");
+        }
+        Throwable error = failure.get();
+        if (error instanceof InfluxException && ((InfluxException) error).isBadResponse()) {
+            IHttpClientResponse response = ((InfluxException) error).getResponse();
+            throw new InfluxException(String.format("Influx stats error. Code: %s with message: '%s'",
+                    response.getResponseCode(), response.getResponseMessage()));
+        } else if (error != null) {
+            throw new InfluxException(error);
+        }
     }
 
     protected String buildRequest(RequestMetric metric) {
@@ -162,8 +196,9 @@ public class InfluxDb09Metrics implements IMetrics, IRequiresInitialization {
         sb.deleteCharAt(sb.length()-1);
         sb.append(' ');
 
-        // Timestamp in milliseconds. Newline would be needed after this point for batching.
-        sb.append(System.currentTimeMillis());
+        // Timestamp in milliseconds - when the request started, so that the points
+        // in a batch don't all share the same timestamp.
+        sb.append(metric.getRequestStart().getTime());
 
         return sb.toString();
     }
@@ -85,8 +85,10 @@ public class InfinispanCacheStoreComponent extends AbstractInfinispanComponent i
         return new ISignalWriteStream() {
             private boolean finished = false;
             private boolean aborted = false;
+            private boolean released = false;
             @Override
             public void abort(Throwable t) {
+                release();
                 aborted = true;
                 finished = false;
             }
@@ -100,7 +102,7 @@ public class InfinispanCacheStoreComponent extends AbstractInfinispanComponent i
             }
             @Override
             public void end() {
-                if (!aborted) {
+                if (!aborted && !released) {
                     synchronized (mutex) {
                         InfinispanCacheEntry entry = (InfinispanCacheEntry) getCache().get(cacheKey);
                         if (entry == null) {
@@ -111,6 +113,13 @@ public class InfinispanCacheStoreComponent extends AbstractInfinispanComponent i
                         entry.setData(dataBuffer.getBytes());
                         getCache().put(cacheKey, entry);
                     }
+                    release();
+                }
+            }
+            private void release() {
+                if (!released) {
+                    released = true;
+                    bufferFactory.release(dataBuffer);
                 }
             }
         };
@@ -20,15 +20,30 @@ import io.apiman.gateway.engine.async.IAsyncResultHandler;
 import io.apiman.gateway.engine.components.IRateLimiterComponent;
 import io.apiman.gateway.engine.components.rate.RateLimitResponse;
 import io.apiman.gateway.engine.rates.RateBucketPeriod;
-import io.apiman.gateway.engine.rates.RateLimiterBucket;
+import io.apiman.gateway.engine.rates.RateBucketState;
+import io.apiman.gateway.engine.rates.RatePeriodBoundaries;
 
+import java.io.Serializable;
 import java.util.Collections;
 import java.util.Map;
+import java.util.function.Function;
+
+import org.infinispan.commons.api.functional.EntryView.ReadWriteEntryView;
+import org.infinispan.commons.api.functional.FunctionalMap.ReadWriteMap;
+import org.infinispan.functional.impl.FunctionalMapImpl;
+import org.infinispan.functional.impl.ReadWriteMapImpl;
 
 /**
  * Rate limiter component backed by an Infinispan cache.  This allows rate limiting
  * to be done across nodes in a cluster of gateways.
  *
+ * Buckets are stored in a compact {@link RateBucketState} encoding and updated
+ * by a function evaluated (asynchronously) against the cache's read-write
+ * functional map.  The function runs atomically on the node that owns the
+ * bucket, so each request is a single round trip that can neither be retried
+ * indefinitely under contention nor overshoot the limit because of concurrent
+ * updates made by other nodes.
+ *
  * @author eric.wittmann@redhat.com
  */
 public class InfinispanRateLimiterComponent extends AbstractInfinispanComponent implements IRateLimiterComponent {
@@ -36,7 +51,7 @@ public class InfinispanRateLimiterComponent extends AbstractInfinispanComponent
     private static final String DEFAULT_CACHE_CONTAINER = "java:jboss/infinispan/apiman"; //$NON-NLS-1$
     private static final String DEFAULT_CACHE = "rate-limiter"; //$NON-NLS-1$
 
-    private Object mutex = new Object();
+    private volatile ReadWriteMap<Object, Object> buckets;
 
     /**
      * Constructor.
@@ -59,28 +74,73 @@ public class InfinispanRateLimiterComponent extends AbstractInfinispanComponent
     @Override
     public void accept(final String bucketId, final RateBucketPeriod period, final long limit,
             final long increment, final IAsyncResultHandler<RateLimitResponse> handler) {
-        RateLimiterBucket bucket;
-        synchronized (mutex) {
-            bucket = (RateLimiterBucket) getCache().get(bucketId);
-            if (bucket == null) {
-                bucket = new RateLimiterBucket();
-                getCache().put(bucketId, bucket);
-            }
-            bucket.resetIfNecessary(period);
+        final long now = System.currentTimeMillis();
+        long boundary = RatePeriodBoundaries.getPeriodBoundary(now, period);
+        try {
+            getBuckets().eval(bucketId, new IncrementFunction(boundary, limit, increment)).whenComplete((response, error) -> {
+                if (error != null) {
+                    handler.handle(AsyncResultImpl.create(error, RateLimitResponse.class));
+                } else {
+                    RateBucketState state = new RateBucketState(response[1], response[2]);
+                    handler.handle(AsyncResultImpl.create(RateBucketState.toResponse(response[0], state, limit, now)));
+                }
+            });
+        } catch (Throwable e) {
+            handler.handle(AsyncResultImpl.create(e, RateLimitResponse.class));
+        }
+    }
+
+    /**
+     * @return the read-write functional view of the cache
+     */
+    private ReadWriteMap<Object, Object> getBuckets() {
+        if (buckets == null) {
+            buckets = ReadWriteMapImpl.create(FunctionalMapImpl.create(getCache().getAdvancedCache()));
+        }
+        return buckets;
+    }
+
+    /**
+     * Applies a request to a bucket, on the node that owns the bucket.  Returns the
+     * count before the request was applied along with the updated bucket (boundary
+     * and count).  A bucket stored in the old ({@link io.apiman.gateway.engine.rates.RateLimiterBucket})
+     * format is replaced as part of the same atomic update, so concurrent requests
+     * migrating it cannot overwrite each other's counts.  The function is
+     * deterministic since the period boundary is computed by the caller.
+     */
+    private static final class IncrementFunction implements Function<ReadWriteEntryView<Object, Object>, long[]>, Serializable {
+
+        private static final long serialVersionUID = -2875036516282651872L;
+
+        private final long boundary;
+        private final long limit;
+        private final long increment;
+
+        /**
+         * Constructor.
+         * @param boundary the end of the current period
+         * @param limit the limit
+         * @param increment the increment
+         */
+        private IncrementFunction(long boundary, long limit, long increment) {
+            this.boundary = boundary;
+            this.limit = limit;
+            this.increment = increment;
+        }
 
-            RateLimitResponse response = new RateLimitResponse();
-            if (bucket.getCount() > limit) {
-                response.setAccepted(false);
-            } else {
-                response.setAccepted(bucket.getCount() < limit);
-                bucket.setCount(bucket.getCount() + increment);
-                bucket.setLast(System.currentTimeMillis());
+        /**
+         * @see java.util.function.Function#apply(java.lang.Object)
+         */
+        @Override
+        public long[] apply(ReadWriteEntryView<Object, Object> entry) {
+            Object value = entry.find().orElse(null);
+            RateBucketState state = value instanceof RateBucketState ? (RateBucketState) value : null;
+            long previousCount = RateBucketState.currentCount(state, boundary);
+            RateBucketState newState = RateBucketState.increment(state, boundary, limit, increment);
+            if (newState != state) {
+                entry.set(newState);
             }
-            int reset = (int) (bucket.getResetMillis(period) / 1000L);
-            response.setReset(reset);
-            response.setRemaining(limit - bucket.getCount());
-            handler.handle(AsyncResultImpl.<RateLimitResponse>create(response));
-            getCache().put(bucketId, bucket);
+            return new long[] { previousCount, newState.getBoundary(), newState.getCount() };
         }
     }
 }
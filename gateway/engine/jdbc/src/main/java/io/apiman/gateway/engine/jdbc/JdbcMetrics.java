@@ -18,38 +18,53 @@ package io.apiman.gateway.engine.jdbc;
 
 import io.apiman.gateway.engine.IComponentRegistry;
 import io.apiman.gateway.engine.IMetrics;
+import io.apiman.gateway.engine.metrics.IMetricsSink;
+import io.apiman.gateway.engine.metrics.MetricsPipeline;
 import io.apiman.gateway.engine.metrics.RequestMetric;
 
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
 import java.util.Calendar;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.TimeZone;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingDeque;
-
-import org.apache.commons.dbutils.QueryRunner;
 
 /**
- * A JDBC implementation of the gateway registry.  Only suitable for a 
- * synchronous environment - should not be used when running an async 
- * Gateway (e.g. vert.x).
+ * A JDBC implementation of the gateway metrics.  Metrics are buffered by a
+ * {@link MetricsPipeline} and written in batches, each batch being inserted
+ * in a single transaction.  See {@link MetricsPipeline} for the buffering,
+ * batching and overflow options.
  * 
  * Must be configured with the JNDI location of the datasource to use.
  * Example:
  * 
- *     apiman-gateway.registry=io.apiman.gateway.engine.jdbc.JdbcRegistry
- *     apiman-gateway.registry.datasource.jndi-location=java:jboss/datasources/apiman-gateway
+ *     apiman-gateway.metrics=io.apiman.gateway.engine.jdbc.JdbcMetrics
+ *     apiman-gateway.metrics.datasource.jndi-location=java:jboss/datasources/apiman-gateway
+ *     apiman-gateway.metrics.batch.size=500
  * 
  * @author ewittman
  */
-public class JdbcMetrics extends AbstractJdbcComponent implements IMetrics {
+public class JdbcMetrics extends AbstractJdbcComponent implements IMetrics, IMetricsSink {
+
+    private static final String DEFAULT_BATCH_SIZE = "100"; //$NON-NLS-1$
 
-    private static final int DEFAULT_QUEUE_SIZE = 10000;
+    @SuppressWarnings("nls")
+    private static final String INSERT_SQL = "INSERT INTO gw_requests ("
+            + "rstart, rend, duration, month, week, day, hour, minute, "
+            + "api_org_id, api_id, api_version, "
+            + "client_org_id, client_id, client_version, plan, "
+            + "user_id, resp_type, bytes_up, bytes_down) VALUES ("
+            + "?, ?, ?, ?, ?, ?, ?, ?,"
+            + "?, ?, ?,"
+            + "?, ?, ?, ?,"
+            + "?, ?, ?, ?)";
 
     protected IComponentRegistry componentRegistry;
-    protected final BlockingQueue<RequestMetric> queue;
-    
-    private boolean stopped;
-    private Thread thread;
+    private final MetricsPipeline pipeline;
+    // Only ever used by the pipeline's consumer thread
+    private final Calendar cal = Calendar.getInstance(TimeZone.getTimeZone("UTC")); //$NON-NLS-1$
 
     /**
      * Constructor.
@@ -58,100 +73,84 @@ public class JdbcMetrics extends AbstractJdbcComponent implements IMetrics {
     public JdbcMetrics(Map<String, String> config) {
         super(config);
 
-        int queueSize = DEFAULT_QUEUE_SIZE;
-        String queueSizeConfig = config.get("queue.size"); //$NON-NLS-1$
-        if (queueSizeConfig != null) {
-            queueSize = new Integer(queueSizeConfig);
-        }
-        queue = new LinkedBlockingDeque<>(queueSize);
-        startConsumerThread();
+        Map<String, String> pipelineConfig = new HashMap<>(config);
+        pipelineConfig.putIfAbsent("batch.size", DEFAULT_BATCH_SIZE); //$NON-NLS-1$
+        pipeline = new MetricsPipeline(pipelineConfig, this, "JdbcMetricsConsumer"); //$NON-NLS-1$
     }
 
     /**
-     * Starts a thread which will serially pull information off the blocking
-     * queue and submit that information to hawkular metrics.
+     * Inserts a row for each of the given metrics, in a single transaction.
+     * @see io.apiman.gateway.engine.metrics.IMetricsSink#flush(java.util.List)
      */
-    private void startConsumerThread() {
-        stopped = false;
-        thread = new Thread(new Runnable() {
-            @Override
-            public void run() {
-                while (!stopped) {
-                    processQueue();
+    @Override
+    public void flush(List<RequestMetric> metrics) throws SQLException {
+        try (Connection connection = ds.getConnection()) {
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            try (PreparedStatement statement = connection.prepareStatement(INSERT_SQL)) {
+                for (RequestMetric metric : metrics) {
+                    bind(statement, metric);
+                    statement.addBatch();
                 }
+                statement.executeBatch();
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(autoCommit);
             }
-        }, "JdbcMetricsConsumer"); //$NON-NLS-1$
-        thread.setDaemon(true);
-        thread.start();        
+        }
     }
 
     /**
-     * Process the next item in the queue.
+     * Binds the given metric to the insert statement's parameters.
      */
     @SuppressWarnings("nls")
-    protected void processQueue() {
-        try {
-            RequestMetric metric = queue.take();
-            QueryRunner run = new QueryRunner(ds);
-
-            Calendar cal = Calendar.getInstance();
-            cal.setTimeZone(TimeZone.getTimeZone("UTC"));
-            cal.setTime(metric.getRequestStart());
-            
-            long rstart = cal.getTimeInMillis();
-            long rend = metric.getRequestEnd().getTime();
-            long duration = metric.getRequestDuration();
-            cal.set(Calendar.MILLISECOND, 0);
-            cal.set(Calendar.SECOND, 0);
-            long minute = cal.getTimeInMillis();
-            cal.set(Calendar.MINUTE, 0);
-            long hour = cal.getTimeInMillis();
-            cal.set(Calendar.HOUR_OF_DAY, 0);
-            long day = cal.getTimeInMillis();
-            cal.set(Calendar.DAY_OF_WEEK, cal.getFirstDayOfWeek());
-            long week = cal.getTimeInMillis();
-            cal.set(Calendar.DAY_OF_MONTH, 1);
-            long month = cal.getTimeInMillis();
-            String api_org_id = metric.getApiOrgId();
-            String api_id = metric.getApiId();
-            String api_version = metric.getApiVersion();
-            String client_org_id = metric.getClientOrgId();
-            String client_id = metric.getClientId();
-            String client_version = metric.getClientVersion();
-            String plan = metric.getPlanId();
-            String user_id = metric.getUser();
-            String rtype = null;
-            if (metric.isFailure()) {
-                rtype = "failure";
-            } else if (metric.isError()) {
-                rtype = "error";
-            }
-            long bytes_up = metric.getBytesUploaded();
-            long bytes_down = metric.getBytesDownloaded();
-
-            // Now insert a row for the metric.
-            run.update("INSERT INTO gw_requests ("
-                    + "rstart, rend, duration, month, week, day, hour, minute, "
-                    + "api_org_id, api_id, api_version, "
-                    + "client_org_id, client_id, client_version, plan, "
-                    + "user_id, resp_type, bytes_up, bytes_down) VALUES ("
-                    + "?, ?, ?, ?, ?, ?, ?, ?,"
-                    + "?, ?, ?,"
-                    + "?, ?, ?, ?,"
-                    + "?, ?, ?, ?)",
-                    rstart, rend, duration, month, week, day, hour, minute,
-                    api_org_id, api_id, api_version,
-                    client_org_id, client_id, client_version, plan,
-                    user_id, rtype, bytes_up, bytes_down
-                    );
-        } catch (InterruptedException ie) {
-            // This means that the thread was stopped.
-        } catch (Exception e) {
-            // TODO better logging of this unlikely error
-            System.err.println("Error adding metric to database:"); //$NON-NLS-1$
-            e.printStackTrace();
-            return;
+    private void bind(PreparedStatement statement, RequestMetric metric) throws SQLException {
+        cal.setTime(metric.getRequestStart());
+        
+        long rstart = cal.getTimeInMillis();
+        long rend = metric.getRequestEnd().getTime();
+        long duration = metric.getRequestDuration();
+        cal.set(Calendar.MILLISECOND, 0);
+        cal.set(Calendar.SECOND, 0);
+        long minute = cal.getTimeInMillis();
+        cal.set(Calendar.MINUTE, 0);
+        long hour = cal.getTimeInMillis();
+        cal.set(Calendar.HOUR_OF_DAY, 0);
+        long day = cal.getTimeInMillis();
+        cal.set(Calendar.DAY_OF_WEEK, cal.getFirstDayOfWeek());
+        long week = cal.getTimeInMillis();
+        cal.set(Calendar.DAY_OF_MONTH, 1);
+        long month = cal.getTimeInMillis();
+        String rtype = null;
+        if (metric.isFailure()) {
+            rtype = "failure";
+        } else if (metric.isError()) {
+            rtype = "error";
         }
+
+        int i = 1;
+        statement.setLong(i++, rstart);
+        statement.setLong(i++, rend);
+        statement.setLong(i++, duration);
+        statement.setLong(i++, month);
+        statement.setLong(i++, week);
+        statement.setLong(i++, day);
+        statement.setLong(i++, hour);
+        statement.setLong(i++, minute);
+        statement.setString(i++, metric.getApiOrgId());
+        statement.setString(i++, metric.getApiId());
+        statement.setString(i++, metric.getApiVersion());
+        statement.setString(i++, metric.getClientOrgId());
+        statement.setString(i++, metric.getClientId());
+        statement.setString(i++, metric.getClientVersion());
+        statement.setString(i++, metric.getPlanId());
+        statement.setString(i++, metric.getUser());
+        statement.setString(i++, rtype);
+        statement.setLong(i++, metric.getBytesUploaded());
+        statement.setLong(i++, metric.getBytesDownloaded());
     }
 
     /**
@@ -159,11 +158,14 @@ public class JdbcMetrics extends AbstractJdbcComponent implements IMetrics {
      */
     @Override
     public void record(RequestMetric metric) {
-        try {
-            queue.put(metric);
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
+        pipeline.record(metric);
+    }
+
+    /**
+     * @return the number of metrics dropped because the buffer was full (or they failed to be written)
+     */
+    public long getDroppedCount() {
+        return pipeline.getDroppedCount();
     }
 
     /**
@@ -178,8 +180,7 @@ public class JdbcMetrics extends AbstractJdbcComponent implements IMetrics {
      * Called to stop the consumer thread (used for testing only).
      */
     protected void stop() {
-        stopped = true;
-        thread.interrupt();
+        pipeline.stop();
     }
 
 }
@@ -33,6 +33,7 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
 
 import javax.naming.InitialContext;
 
@@ -171,6 +172,70 @@ public class JdbcMetricsTest {
         metrics.stop();
     }
     
+    /**
+     * Test method for {@link io.apiman.gateway.engine.jdbc.JdbcMetrics#record(io.apiman.gateway.engine.metrics.RequestMetric)}.
+     */
+    @Test
+    public void testBatchedRecords() throws Exception {
+        Map<String, String> config = new HashMap<>();
+        config.put("datasource.jndi-location", DB_JNDI_LOC);
+        config.put("batch.size", "100");
+        JdbcMetrics metrics = new JdbcMetrics(config);
+        for (int i = 0; i < 250; i++) {
+            metrics.record(request(
+                    "2016-02-10T09:30:00Z", 300, "http://localhost:8080/test/1", "/test/1", 
+                    "GET", "TestOrg", "TestApi", "1.0", "Gold", 
+                    "TestOrg", "TestClient", "1.0", "12345", "user1",
+                    200, "OK", false, 0, null, false, null, 0, 1024));
+        }
+        
+        Thread.sleep(500);
+        assertRowCount(250, "SELECT * FROM gw_requests WHERE api_org_id = ?", "TestOrg");
+        Assert.assertEquals(0, metrics.getDroppedCount());
+        metrics.stop();
+    }
+
+    /**
+     * Test method for {@link io.apiman.gateway.engine.jdbc.JdbcMetrics#record(io.apiman.gateway.engine.metrics.RequestMetric)}.
+     */
+    @Test
+    public void testDropOnOverflow() throws Exception {
+        Map<String, String> config = new HashMap<>();
+        config.put("datasource.jndi-location", DB_JNDI_LOC);
+        config.put("queue.size", "2");
+        config.put("batch.size", "1");
+        final CountDownLatch latch = new CountDownLatch(1);
+        JdbcMetrics metrics = new JdbcMetrics(config) {
+            @Override
+            public void flush(List<RequestMetric> metrics) throws SQLException {
+                try {
+                    latch.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                super.flush(metrics);
+            }
+        };
+        RequestMetric metric = request(
+                "2016-02-10T09:30:00Z", 300, "http://localhost:8080/test/1", "/test/1", 
+                "GET", "TestOrg", "TestApi", "1.0", "Gold", 
+                "TestOrg", "TestClient", "1.0", "12345", "user1",
+                200, "OK", false, 0, null, false, null, 0, 1024);
+        // The consumer takes the first metric and then blocks writing it
+        metrics.record(metric);
+        Thread.sleep(100);
+        // The next two are queued, the fourth is dropped (without blocking)
+        metrics.record(metric);
+        metrics.record(metric);
+        metrics.record(metric);
+        Assert.assertEquals(1, metrics.getDroppedCount());
+
+        latch.countDown();
+        Thread.sleep(200);
+        assertRowCount(3, "SELECT * FROM gw_requests WHERE api_org_id = ?", "TestOrg");
+        metrics.stop();
+    }
+    
     /**
      * Asserts the row count of the given query.
      * @param count
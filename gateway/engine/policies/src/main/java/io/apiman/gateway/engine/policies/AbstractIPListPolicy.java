@@ -17,7 +17,7 @@ package io.apiman.gateway.engine.policies;
 
 import io.apiman.gateway.engine.beans.ApiRequest;
 import io.apiman.gateway.engine.policies.config.IPListConfig;
-
+import io.apiman.gateway.engine.policies.ip.IPMatcher;
 
 /**
  * Base class for the ip whitelist and blacklist policies.
@@ -27,8 +27,13 @@ import io.apiman.gateway.engine.policies.config.IPListConfig;
  */
 public abstract class AbstractIPListPolicy<C> extends AbstractMappedPolicy<C> {
 
+    private final CompiledConfigCache<C, IPMatcher> matchers = compiledConfigCache(
+            config -> config instanceof IPListConfig ? new IPMatcher(((IPListConfig) config).getIpList()) : null);
+
     /**
-     * Gets the remote address for comparison.
+     * Gets the remote address for comparison.  If the address is taken from an
+     * HTTP header holding a comma separated list of addresses (as X-Forwarded-For
+     * does) then the configured number of trusted proxies decides which one.
      * @param request the request
      * @param config the config
      */
@@ -37,12 +42,33 @@ public abstract class AbstractIPListPolicy<C> extends AbstractMappedPolicy<C> {
         if (httpHeader != null && httpHeader.trim().length() > 0) {
             String value = (String) request.getHeaders().get(httpHeader);
             if (value != null) {
-                return value;
+                return selectAddress(value, config.getTrustedProxies());
             }
         }
         return request.getRemoteAddr();
     }
 
+    /**
+     * Selects the client's address from a (comma separated) chain of addresses, each
+     * appended by a proxy: the one appended by the outermost of the given number of
+     * trusted proxies, or the first one if no proxies are trusted.
+     * @param chain the chain of addresses
+     * @param trustedProxies the number of trusted proxies
+     */
+    protected static String selectAddress(String chain, int trustedProxies) {
+        if (trustedProxies <= 0) {
+            int comma = chain.indexOf(',');
+            return (comma < 0 ? chain : chain.substring(0, comma)).trim();
+        }
+        int end = chain.length();
+        int start = chain.lastIndexOf(',') + 1;
+        for (int hop = 1; hop < trustedProxies && start > 0; hop++) {
+            end = start - 1;
+            start = chain.lastIndexOf(',', end - 1) + 1;
+        }
+        return chain.substring(start, end).trim();
+    }
+
     /**
      * Returns true if the remote address is a match for the configured
      * values in the IP List.
@@ -50,33 +76,16 @@ public abstract class AbstractIPListPolicy<C> extends AbstractMappedPolicy<C> {
      * @param remoteAddr the remote address
      */
     protected boolean isMatch(IPListConfig config, String remoteAddr) {
-        if (config.getIpList().contains(remoteAddr)) {
-            return true;
-        }
-        try {
-            String [] remoteAddrSplit = remoteAddr.split("\\."); //$NON-NLS-1$
-            for (String ip : config.getIpList()) {
-                String [] ipSplit = ip.split("\\."); //$NON-NLS-1$
-                if (remoteAddrSplit.length == ipSplit.length) {
-                    int numParts = ipSplit.length;
-                    boolean matches = true;
-                    for (int idx = 0; idx < numParts; idx++) {
-                        if (ipSplit[idx].equals("*") || ipSplit[idx].equals(remoteAddrSplit[idx])) { //$NON-NLS-1$
-                            // This component matches!
-                        } else {
-                            matches = false;
-                            break;
-                        }
-                    }
-                    if (matches) {
-                        return true;
-                    }
-                }
-            }
-        } catch (Throwable t) {
-            // eat it
-        }
-        return false;
+        return getMatcher(config).matches(remoteAddr);
+    }
+
+    /**
+     * @param config the config
+     * @return the compiled IP list of the given config
+     */
+    @SuppressWarnings("unchecked")
+    protected IPMatcher getMatcher(IPListConfig config) {
+        return matchers.get((C) config);
     }
 
 }
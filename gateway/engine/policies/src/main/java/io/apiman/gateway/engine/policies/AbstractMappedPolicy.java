@@ -24,6 +24,10 @@ import io.apiman.gateway.engine.policy.IPolicy;
 import io.apiman.gateway.engine.policy.IPolicyChain;
 import io.apiman.gateway.engine.policy.IPolicyContext;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
 /**
  * A base class for policy impls that use jackson to parse configuration info.
  *
@@ -37,6 +41,8 @@ public abstract class AbstractMappedPolicy<C> implements IPolicy {
         mapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
     }
 
+    private final List<CompiledConfigCache<C, ?>> compiledConfigCaches = new ArrayList<>();
+
     /**
      * Constructor.
      */
@@ -48,11 +54,34 @@ public abstract class AbstractMappedPolicy<C> implements IPolicy {
      */
     @Override
     public C parseConfiguration(String jsonConfiguration) throws ConfigurationParseException {
+        C config;
         try {
-            return mapper.reader(getConfigurationClass()).readValue(jsonConfiguration);
+            config = mapper.reader(getConfigurationClass()).readValue(jsonConfiguration);
         } catch (Exception e) {
             throw new ConfigurationParseException(e);
         }
+        try {
+            for (CompiledConfigCache<C, ?> cache : compiledConfigCaches) {
+                cache.get(config);
+            }
+        } catch (RuntimeException e) {
+            throw new ConfigurationParseException(e);
+        }
+        return config;
+    }
+
+    /**
+     * Creates a cache of something compiled from each parsed configuration.  Each
+     * configuration is compiled as soon as it is parsed, so that a configuration
+     * that doesn't compile fails to parse.  Call it from a field initializer or the
+     * constructor.
+     * @param compiler compiles a configuration (may return null)
+     * @return the cache
+     */
+    protected <T> CompiledConfigCache<C, T> compiledConfigCache(Function<? super C, ? extends T> compiler) {
+        CompiledConfigCache<C, T> cache = new CompiledConfigCache<>(compiler);
+        compiledConfigCaches.add(cache);
+        return cache;
     }
 
     /**
@@ -24,6 +24,7 @@ import io.apiman.gateway.engine.policies.config.AuthorizationRule;
 import io.apiman.gateway.engine.policies.config.MultipleMatchType;
 import io.apiman.gateway.engine.policies.config.UnmatchedRequestType;
 import io.apiman.gateway.engine.policies.i18n.Messages;
+import io.apiman.gateway.engine.policies.path.PathRuleMatcher;
 import io.apiman.gateway.engine.policy.IPolicyChain;
 import io.apiman.gateway.engine.policy.IPolicyContext;
 
@@ -48,6 +49,9 @@ public class AuthorizationPolicy extends AbstractMappedPolicy<AuthorizationConfi
 
     public static final String AUTHENTICATED_USER_ROLES = "io.apiman.policies.auth::authenticated-user-roles"; //$NON-NLS-1$
 
+    private final CompiledConfigCache<AuthorizationConfig, PathRuleMatcher<AuthorizationRule>> matchers = compiledConfigCache(
+            config -> new PathRuleMatcher<>(config.getRules(), AuthorizationRule::getVerb, AuthorizationRule::getPathPattern));
+
     /**
      * Constructor.
      */
@@ -116,21 +120,17 @@ public class AuthorizationPolicy extends AbstractMappedPolicy<AuthorizationConfi
             authorized = false;
         }
         boolean matchFound = false;
-        for (AuthorizationRule authorizationRule : config.getRules()) {
-            boolean verbMatches = "*".equals(authorizationRule.getVerb()) || verb.equalsIgnoreCase(authorizationRule.getVerb()); //$NON-NLS-1$
-            boolean ruleMatches = resource.matches(authorizationRule.getPathPattern());
-            if (verbMatches && ruleMatches) {
-                // the verb and resource matched the rule - so enforce the role here!
-                boolean userHasRole = userRoles.contains(authorizationRule.getRole());
-                matchFound = true;
+        for (AuthorizationRule authorizationRule : matchers.get(config).getMatches(verb, resource)) {
+            // the verb and resource matched the rule - so enforce the role here!
+            boolean userHasRole = userRoles.contains(authorizationRule.getRole());
+            matchFound = true;
 
-                // If the multiMatch setting is "at least one matching rule" then do a logical
-                // OR operation.  If it's set to "all matching rules" then do a logical AND.
-                if (config.getMultiMatch() == MultipleMatchType.any) {
-                    authorized = authorized || userHasRole;
-                } else {
-                    authorized = authorized && userHasRole;
-                }
+            // If the multiMatch setting is "at least one matching rule" then do a logical
+            // OR operation.  If it's set to "all matching rules" then do a logical AND.
+            if (config.getMultiMatch() == MultipleMatchType.any) {
+                authorized = authorized || userHasRole;
+            } else {
+                authorized = authorized && userHasRole;
             }
         }
 
@@ -15,6 +15,7 @@
  */
 package io.apiman.gateway.engine.policies;
 
+import io.apiman.gateway.engine.GatewayConfigProperties;
 import io.apiman.gateway.engine.async.AsyncResultImpl;
 import io.apiman.gateway.engine.async.IAsyncResult;
 import io.apiman.gateway.engine.async.IAsyncResultHandler;
@@ -22,7 +23,11 @@ import io.apiman.gateway.engine.beans.ApiRequest;
 import io.apiman.gateway.engine.beans.PolicyFailure;
 import io.apiman.gateway.engine.beans.PolicyFailureType;
 import io.apiman.gateway.engine.components.IPolicyFailureFactoryComponent;
+import io.apiman.gateway.engine.logging.CurrentLoggerFactory;
 import io.apiman.gateway.engine.metrics.RequestMetric;
+import io.apiman.gateway.engine.policies.auth.CachingIdentityValidator;
+import io.apiman.gateway.engine.policies.auth.CredentialCache;
+import io.apiman.gateway.engine.policies.auth.IIdentityValidator;
 import io.apiman.gateway.engine.policies.auth.JDBCIdentityValidator;
 import io.apiman.gateway.engine.policies.auth.LDAPIdentityValidator;
 import io.apiman.gateway.engine.policies.auth.StaticIdentityValidator;
@@ -32,8 +37,13 @@ import io.apiman.gateway.engine.policy.IPolicyChain;
 import io.apiman.gateway.engine.policy.IPolicyContext;
 import io.apiman.gateway.engine.policy.PolicyContextKeys;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
 import org.apache.commons.codec.binary.Base64;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+
 /**
  * An implementation of an apiman policy that supports multiple styles of authentication.
  * Specifically this policy is responsible for authenticating the inbound request prior
@@ -47,6 +57,10 @@ public class BasicAuthenticationPolicy extends AbstractMappedPolicy<BasicAuthent
     private static final StaticIdentityValidator staticIdentityValidator = new StaticIdentityValidator();
     private static final LDAPIdentityValidator ldapIdentityValidator = new LDAPIdentityValidator();
     private static final JDBCIdentityValidator jdbcIdentityValidator = new JDBCIdentityValidator();
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private final CompiledConfigCache<BasicAuthenticationConfig, IIdentityValidator<?>> cachingValidators = compiledConfigCache(
+            BasicAuthenticationPolicy::createCachingValidator);
 
     /**
      * Constructor.
@@ -161,14 +175,88 @@ public class BasicAuthenticationPolicy extends AbstractMappedPolicy<BasicAuthent
      */
     private void validateCredentials(String username, String password, ApiRequest request, IPolicyContext context,
             BasicAuthenticationConfig config, IAsyncResultHandler<Boolean> handler) {
+        IIdentityValidator<Object> validator = getIdentityValidator(config);
+        Object identitySource = getIdentitySource(config);
+        if (validator != null) {
+            validator.validate(username, password, request, context, identitySource, handler);
+        } else {
+            handler.handle(AsyncResultImpl.create(Boolean.FALSE));
+        }
+    }
+
+    /**
+     * Gets the validator for the identity source of the given config, wrapped in a
+     * caching validator if the config enables the credential cache.
+     * @param config the config
+     * @return the validator, or null if no identity source is configured
+     */
+    @SuppressWarnings("unchecked")
+    protected IIdentityValidator<Object> getIdentityValidator(BasicAuthenticationConfig config) {
+        IIdentityValidator<?> validator = cachingValidators.get(config);
+        if (validator == null) {
+            validator = getSourceValidator(config);
+        }
+        return (IIdentityValidator<Object>) validator;
+    }
+
+    /**
+     * @param config the config
+     * @return the validator for the identity source of the given config (or null)
+     */
+    private static IIdentityValidator<?> getSourceValidator(BasicAuthenticationConfig config) {
         if (config.getStaticIdentity() != null) {
-            staticIdentityValidator.validate(username, password, request, context, config.getStaticIdentity(), handler);
+            return staticIdentityValidator;
         } else if (config.getLdapIdentity() != null) {
-            ldapIdentityValidator.validate(username, password, request, context, config.getLdapIdentity(), handler);
+            return ldapIdentityValidator;
         } else if (config.getJdbcIdentity() != null) {
-            jdbcIdentityValidator.validate(username, password, request, context, config.getJdbcIdentity(), handler);
+            return jdbcIdentityValidator;
         } else {
-            handler.handle(AsyncResultImpl.create(Boolean.FALSE));
+            return null;
+        }
+    }
+
+    /**
+     * Creates a caching validator for the given config, salting its cache with a
+     * digest of the config's identity source.  Shared cache entries are keyed with
+     * the gateway's credential cache secret.
+     * @param config the config
+     * @return the caching validator, or null if the config doesn't enable the credential cache
+     */
+    @SuppressWarnings("unchecked")
+    private static IIdentityValidator<?> createCachingValidator(BasicAuthenticationConfig config) {
+        IIdentityValidator<Object> delegate = (IIdentityValidator<Object>) getSourceValidator(config);
+        if (config.getCredentialCache() == null || delegate == null) {
+            return null;
+        }
+        String secret = System.getProperty(GatewayConfigProperties.CREDENTIAL_CACHE_SECRET);
+        if (config.getCredentialCache().isShared() && secret == null) {
+            CurrentLoggerFactory.getLogger(BasicAuthenticationPolicy.class).warn(
+                    "No {0} configured; verified credentials will only be cached locally.", //$NON-NLS-1$
+                    GatewayConfigProperties.CREDENTIAL_CACHE_SECRET);
+        }
+        try {
+            Object identitySource = getIdentitySource(config);
+            byte[] sourceSalt = MessageDigest.getInstance("SHA-256").digest( //$NON-NLS-1$
+                    mapper.writeValueAsBytes(identitySource));
+            CredentialCache cache = new CredentialCache(config.getCredentialCache(), sourceSalt,
+                    secret == null ? null : secret.getBytes(StandardCharsets.UTF_8));
+            return new CachingIdentityValidator<>(delegate, cache);
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @param config the config
+     * @return the identity source configured (or null)
+     */
+    private static Object getIdentitySource(BasicAuthenticationConfig config) {
+        if (config.getStaticIdentity() != null) {
+            return config.getStaticIdentity();
+        } else if (config.getLdapIdentity() != null) {
+            return config.getLdapIdentity();
+        } else {
+            return config.getJdbcIdentity();
         }
     }
 
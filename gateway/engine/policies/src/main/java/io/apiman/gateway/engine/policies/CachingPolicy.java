@@ -18,13 +18,16 @@ package io.apiman.gateway.engine.policies;
 import static java.util.Optional.ofNullable;
 
 import java.io.IOException;
+import java.util.concurrent.Executor;
 
 import io.apiman.gateway.engine.async.IAsyncResult;
 import io.apiman.gateway.engine.async.IAsyncResultHandler;
 import io.apiman.gateway.engine.beans.ApiRequest;
 import io.apiman.gateway.engine.beans.ApiResponse;
 import io.apiman.gateway.engine.beans.exceptions.ComponentNotFoundException;
+import io.apiman.gateway.engine.beans.util.HeaderMap;
 import io.apiman.gateway.engine.components.ICacheStoreComponent;
+import io.apiman.gateway.engine.components.IRequestContextComponent;
 import io.apiman.gateway.engine.impl.CachedResponse;
 import io.apiman.gateway.engine.io.AbstractStream;
 import io.apiman.gateway.engine.io.IApimanBuffer;
@@ -32,6 +35,10 @@ import io.apiman.gateway.engine.io.IReadWriteStream;
 import io.apiman.gateway.engine.io.ISignalReadStream;
 import io.apiman.gateway.engine.io.ISignalWriteStream;
 import io.apiman.gateway.engine.policies.caching.CacheConnectorInterceptor;
+import io.apiman.gateway.engine.policies.caching.CacheHeaders;
+import io.apiman.gateway.engine.policies.caching.CacheMissCoalescer;
+import io.apiman.gateway.engine.policies.caching.CacheMissCoalescer.Flight;
+import io.apiman.gateway.engine.policies.caching.HeadOnlyReadStream;
 import io.apiman.gateway.engine.policies.config.CachingConfig;
 import io.apiman.gateway.engine.policy.IConnectorInterceptor;
 import io.apiman.gateway.engine.policy.IDataPolicy;
@@ -49,6 +56,13 @@ public class CachingPolicy extends AbstractMappedDataPolicy<CachingConfig> imple
     private static final String SHOULD_CACHE_ATTR = CachingPolicy.class.getName() + ".should-cache"; //$NON-NLS-1$
     private static final String CACHE_ID_ATTR = CachingPolicy.class.getName() + ".cache-id"; //$NON-NLS-1$
     private static final String CACHED_RESPONSE = CachingPolicy.class.getName() + ".cached-response"; //$NON-NLS-1$
+    private static final String FLIGHT_ATTR = CachingPolicy.class.getName() + ".flight"; //$NON-NLS-1$
+    private static final String REQUEST_HEADERS_ATTR = CachingPolicy.class.getName() + ".request-headers"; //$NON-NLS-1$
+    private static final String VARY_SUFFIX = "#vary"; //$NON-NLS-1$
+    private static final String FRESH_SUFFIX = "#fresh"; //$NON-NLS-1$
+    private static final String REFRESH_SUFFIX = "#refresh"; //$NON-NLS-1$
+
+    private final CacheMissCoalescer coalescer = new CacheMissCoalescer();
 
     /**
      * Constructor.
@@ -67,7 +81,8 @@ public class CachingPolicy extends AbstractMappedDataPolicy<CachingConfig> imple
     /**
      * If the request is cached an {@link IConnectorInterceptor} is set in order to prevent the back-end connection to be established.
      * Otherwise an empty {@link CachedResponse} will be added to the context, this will be used to cache the response once it has been
-     * received from the back-end API
+     * received from the back-end API.  If configured to, concurrent misses for the same resource are
+     * coalesced so that only one of them goes to the back-end API.
      *
      * @see io.apiman.gateway.engine.policies.AbstractMappedPolicy#doApply(io.apiman.gateway.engine.beans.ApiRequest, io.apiman.gateway.engine.policy.IPolicyContext, java.lang.Object, io.apiman.gateway.engine.policy.IPolicyChain)
      */
@@ -77,32 +92,148 @@ public class CachingPolicy extends AbstractMappedDataPolicy<CachingConfig> imple
         if (config.getTtl() > 0) {
             // Check to see if there is a cache entry for this request.  If so, we need to
             // short-circuit the connector factory by providing a connector interceptor
-            String cacheId = buildCacheID(request);
+            String cacheId = buildCacheID(request, config.isHonorCacheHeaders());
             context.setAttribute(CACHE_ID_ATTR, cacheId);
-            ICacheStoreComponent cache = context.getComponent(ICacheStoreComponent.class);
-            cache.getBinary(cacheId, ApiResponse.class,
-                    new IAsyncResultHandler<ISignalReadStream<ApiResponse>>() {
-                        @Override
-                        public void handle(IAsyncResult<ISignalReadStream<ApiResponse>> result) {
-                            if (result.isError()) {
-                                chain.throwError(result.getError());
-                            } else {
-                                ISignalReadStream<ApiResponse> cacheEntry = result.getResult();
-                                if (cacheEntry != null) {
-                                    context.setConnectorInterceptor(new CacheConnectorInterceptor(cacheEntry));
-                                    context.setAttribute(SHOULD_CACHE_ATTR, Boolean.FALSE);
-                                    context.setAttribute(CACHED_RESPONSE, cacheEntry.getHead());
-                                }
-                                chain.doApply(request);
-                            }
-                        }
-                    });
+            context.setAttribute(REQUEST_HEADERS_ATTR, request.getHeaders());
+            resolve(request, context, config, chain, cacheId, config.isCoalesceMisses());
         } else {
             context.setAttribute(SHOULD_CACHE_ATTR, Boolean.FALSE);
             chain.doApply(request);
         }
     }
 
+    /**
+     * Resolves the id of the cache entry for the request and then looks it up.  When
+     * honoring the caching headers, the entry id includes the values of the request
+     * headers the back-end API's response varies on (as recorded when it was cached).
+     */
+    private void resolve(final ApiRequest request, final IPolicyContext context, final CachingConfig config,
+            final IPolicyChain<ApiRequest> chain, final String cacheId, final boolean coalesce) {
+        if (!config.isHonorCacheHeaders()) {
+            lookup(request, context, config, chain, cacheId, cacheId, coalesce);
+            return;
+        }
+        ICacheStoreComponent cache = context.getComponent(ICacheStoreComponent.class);
+        cache.get(cacheId + VARY_SUFFIX, String.class, new IAsyncResultHandler<String>() {
+            @Override
+            public void handle(IAsyncResult<String> result) {
+                if (result.isError()) {
+                    chain.throwError(result.getError());
+                    return;
+                }
+                String entryId = buildEntryID(cacheId, result.getResult(), request.getHeaders());
+                lookup(request, context, config, chain, cacheId, entryId, coalesce);
+            }
+        });
+    }
+
+    /**
+     * Looks up the cache entry for the request.  If stale-while-revalidate is enabled,
+     * a stale entry is still served, except to the first request that sees it - that
+     * one goes to the back-end API to refresh the entry.
+     */
+    private void lookup(final ApiRequest request, final IPolicyContext context, final CachingConfig config,
+            final IPolicyChain<ApiRequest> chain, final String cacheId, final String entryId, final boolean coalesce) {
+        if (config.getStaleWhileRevalidate() <= 0) {
+            fetch(request, context, config, chain, cacheId, entryId, coalesce, true);
+            return;
+        }
+        ICacheStoreComponent cache = context.getComponent(ICacheStoreComponent.class);
+        cache.get(entryId + FRESH_SUFFIX, Boolean.class, new IAsyncResultHandler<Boolean>() {
+            @Override
+            public void handle(IAsyncResult<Boolean> result) {
+                if (result.isError()) {
+                    chain.throwError(result.getError());
+                    return;
+                }
+                fetch(request, context, config, chain, cacheId, entryId, coalesce, result.getResult() != null);
+            }
+        });
+    }
+
+    /**
+     * Fetches the cache entry for the request.  On a miss, if misses are to be
+     * coalesced, then only the first request goes to the back-end API - any identical
+     * request arriving before its response has been cached waits for it and then
+     * looks up the cache entry again (this time without coalescing).
+     */
+    private void fetch(final ApiRequest request, final IPolicyContext context, final CachingConfig config,
+            final IPolicyChain<ApiRequest> chain, final String cacheId, final String entryId, final boolean coalesce,
+            final boolean fresh) {
+        ICacheStoreComponent cache = context.getComponent(ICacheStoreComponent.class);
+        cache.getBinary(entryId, ApiResponse.class,
+                new IAsyncResultHandler<ISignalReadStream<ApiResponse>>() {
+                    @Override
+                    public void handle(IAsyncResult<ISignalReadStream<ApiResponse>> result) {
+                        if (result.isError()) {
+                            chain.throwError(result.getError());
+                            return;
+                        }
+                        ISignalReadStream<ApiResponse> cacheEntry = result.getResult();
+                        Flight refresh = null;
+                        if (cacheEntry != null && !fresh) {
+                            refresh = coalescer.tryLead(entryId + REFRESH_SUFFIX, config.getCoalesceTimeout());
+                        }
+                        if (refresh != null) {
+                            // The entry is stale and nobody is refreshing it yet - do so.
+                            lead(context, refresh);
+                        } else if (cacheEntry != null) {
+                            serve(request, context, config, cacheEntry);
+                        } else if (coalesce) {
+                            Flight flight = coalescer.join(entryId, config.getCoalesceTimeout(), getCurrentContext(context),
+                                    () -> resolve(request, context, config, chain, cacheId, false));
+                            if (flight == null) {
+                                // Another request is already fetching the resource - wait for it.
+                                return;
+                            }
+                            lead(context, flight);
+                        }
+                        chain.doApply(request);
+                    }
+                });
+    }
+
+    /**
+     * Returns an executor that resumes the request on its own execution context (if
+     * the platform has such a thing).
+     */
+    private static Executor getCurrentContext(IPolicyContext context) {
+        try {
+            return context.getComponent(IRequestContextComponent.class).getCurrentContext();
+        } catch (ComponentNotFoundException e) {
+            return CacheMissCoalescer.DEFAULT_EXECUTOR;
+        }
+    }
+
+    /**
+     * Makes the request the leader of the given flight.  The flight is released once
+     * the response has been cached (or once it turns out it won't be), or as soon as
+     * the request fails, so that the requests waiting on it needn't wait for it to
+     * time out.
+     */
+    private void lead(IPolicyContext context, Flight flight) {
+        context.setAttribute(FLIGHT_ATTR, flight);
+        context.addRequestFailedHandler(result -> flight.release());
+    }
+
+    /**
+     * Serves the request from the given cache entry.  When honoring the caching
+     * headers, a conditional request for an unmodified resource is answered with
+     * a 304 Not Modified.
+     */
+    private void serve(ApiRequest request, IPolicyContext context, CachingConfig config,
+            ISignalReadStream<ApiResponse> cacheEntry) {
+        ApiResponse head = cacheEntry.getHead();
+        if (config.isHonorCacheHeaders() && CacheHeaders.isNotModified(request.getType(), request.getHeaders(), head)) {
+            context.setConnectorInterceptor(new CacheConnectorInterceptor(
+                    new HeadOnlyReadStream(CacheHeaders.notModified(head))));
+        } else {
+            context.setConnectorInterceptor(new CacheConnectorInterceptor(cacheEntry));
+        }
+        context.setAttribute(SHOULD_CACHE_ATTR, Boolean.FALSE);
+        context.setAttribute(CACHED_RESPONSE, head);
+    }
+
     /**
      * @see AbstractMappedPolicy#doApply(ApiResponse, IPolicyContext, Object, IPolicyChain)
      */
@@ -136,11 +267,23 @@ public class CachingPolicy extends AbstractMappedDataPolicy<CachingConfig> imple
                     .map(statusCodes -> statusCodes.isEmpty() || statusCodes.contains(String.valueOf(response.getCode())))
                     .orElse(true));
 
-        if (shouldCache) {
+        final Flight flight = context.getAttribute(FLIGHT_ATTR, null);
+        final boolean honorHeaders = policyConfiguration.isHonorCacheHeaders();
+        final long ttl = honorHeaders ? CacheHeaders.getTtl(response, policyConfiguration.getTtl())
+                : policyConfiguration.getTtl();
+        final long staleWhileRevalidate = policyConfiguration.getStaleWhileRevalidate();
+        if (shouldCache && ttl > 0 && (!honorHeaders || CacheHeaders.isCacheable(response))) {
             try {
                 String cacheId = context.getAttribute(CACHE_ID_ATTR, null);
-                ICacheStoreComponent cache = context.getComponent(ICacheStoreComponent.class);
-                final ISignalWriteStream writeStream = cache.putBinary(cacheId, response, policyConfiguration.getTtl());
+                final ICacheStoreComponent cache = context.getComponent(ICacheStoreComponent.class);
+                String entryId = cacheId;
+                if (honorHeaders) {
+                    String vary = CacheHeaders.getVary(response);
+                    cache.put(cacheId + VARY_SUFFIX, vary, ttl + staleWhileRevalidate);
+                    entryId = buildEntryID(cacheId, vary, context.getAttribute(REQUEST_HEADERS_ATTR, null));
+                }
+                final String freshId = entryId + FRESH_SUFFIX;
+                final ISignalWriteStream writeStream = cache.putBinary(entryId, response, ttl + staleWhileRevalidate);
                 return new AbstractStream<ApiResponse>() {
                     @Override
                     public ApiResponse getHead() {
@@ -151,20 +294,52 @@ public class CachingPolicy extends AbstractMappedDataPolicy<CachingConfig> imple
                     }
                     @Override
                     public void write(IApimanBuffer chunk) {
-                        writeStream.write(chunk);
+                        try {
+                            writeStream.write(chunk);
+                        } catch (RuntimeException e) {
+                            if (flight != null) {
+                                flight.release();
+                            }
+                            throw e;
+                        }
                         super.write(chunk);
                     }
                     @Override
                     public void end() {
-                        writeStream.end();
+                        try {
+                            writeStream.end();
+                        } catch (RuntimeException e) {
+                            if (flight != null) {
+                                flight.release();
+                            }
+                            throw e;
+                        }
+                        if (staleWhileRevalidate > 0) {
+                            try {
+                                cache.put(freshId, Boolean.TRUE, ttl);
+                            } catch (IOException e) {
+                                context.getLogger(CachingPolicy.class).error(e,
+                                        "Failed to mark cache entry {0} as fresh.", freshId); //$NON-NLS-1$
+                            }
+                        }
                         super.end();
+                        if (flight != null) {
+                            flight.release();
+                        }
                     }
                 };
             } catch (ComponentNotFoundException | IOException e) {
-                // TODO log error
+                context.getLogger(CachingPolicy.class).error(e,
+                        "Failed to cache the response to {0}.", context.getAttribute(CACHE_ID_ATTR, null)); //$NON-NLS-1$
+                if (flight != null) {
+                    flight.release();
+                }
                 return null;
             }
         } else {
+            if (flight != null) {
+                flight.release();
+            }
             return null;
         }
     }
@@ -172,9 +347,10 @@ public class CachingPolicy extends AbstractMappedDataPolicy<CachingConfig> imple
     /**
      * Builds a cached request id composed by the API key followed by the HTTP
      * verb and the destination. In the case where there's no API key the ID
-     * will contain ApiOrgId + ApiId + ApiVersion
+     * will contain ApiOrgId + ApiId + ApiVersion.  When honoring the caching
+     * headers the query string is included as well.
      */
-    private static String buildCacheID(ApiRequest request) {
+    private static String buildCacheID(ApiRequest request, boolean includeQuery) {
         StringBuilder req = new StringBuilder();
         if (request.getContract() != null) {
             req.append(request.getApiKey());
@@ -184,7 +360,21 @@ public class CachingPolicy extends AbstractMappedDataPolicy<CachingConfig> imple
         }
         req.append(KEY_SEPARATOR).append(request.getType()).append(KEY_SEPARATOR)
                 .append(request.getDestination());
+        if (includeQuery && request.getQueryParams().size() > 0) {
+            req.append('?').append(request.getQueryParams().toQueryString());
+        }
         return req.toString();
     }
 
+    /**
+     * Builds the id of the cache entry for the given variant (if the response varies
+     * on any request headers).
+     */
+    private static String buildEntryID(String cacheId, String vary, HeaderMap requestHeaders) {
+        if (vary == null || vary.isEmpty() || requestHeaders == null) {
+            return cacheId;
+        }
+        return cacheId + KEY_SEPARATOR + CacheHeaders.getVariantKey(requestHeaders, vary);
+    }
+
 }
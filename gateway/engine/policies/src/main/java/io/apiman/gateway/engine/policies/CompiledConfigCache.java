@@ -0,0 +1,76 @@
+/*
+ * Copyright 2017 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.apiman.gateway.engine.policies;
+
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Function;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+/**
+ * Holds whatever a policy compiles from each of its (parsed) configurations, such
+ * as a matcher for the configured rules.  Policy configuration beans are shared
+ * with GWT code, so they cannot hold on to it themselves; instead the policy looks
+ * it up (by configuration instance) whenever it is applied.  Lookups don't lock,
+ * and a compiled value goes away along with its configuration.
+ *
+ * See {@link AbstractMappedPolicy#compiledConfigCache(Function)}, which also
+ * compiles each configuration as soon as it is parsed.
+ *
+ * @author eric.wittmann@redhat.com
+ * @param <C> the config type
+ * @param <T> the compiled type
+ */
+public class CompiledConfigCache<C, T> {
+
+    // Weak keys are compared by identity, so equal configs are still compiled separately.
+    private final Cache<C, Optional<T>> compiled = CacheBuilder.newBuilder().weakKeys().build();
+    private final Function<? super C, ? extends T> compiler;
+
+    /**
+     * Constructor.
+     * @param compiler compiles a configuration (may return null)
+     */
+    public CompiledConfigCache(Function<? super C, ? extends T> compiler) {
+        this.compiler = compiler;
+    }
+
+    /**
+     * Returns what was compiled from the given configuration, compiling it if
+     * necessary.  Configurations are not expected to change once they have been
+     * parsed.
+     * @param config the policy configuration
+     * @return the compiled value (or null)
+     */
+    public T get(C config) {
+        Optional<T> value = compiled.getIfPresent(config);
+        if (value == null) {
+            try {
+                value = compiled.get(config, () -> Optional.<T>ofNullable(compiler.apply(config)));
+            } catch (UncheckedExecutionException | ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw new RuntimeException(e.getCause());
+            }
+        }
+        return value.orElse(null);
+    }
+
+}
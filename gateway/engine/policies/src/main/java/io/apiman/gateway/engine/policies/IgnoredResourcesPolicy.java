@@ -23,6 +23,7 @@ import io.apiman.gateway.engine.components.IPolicyFailureFactoryComponent;
 import io.apiman.gateway.engine.policies.PolicyFailureCodes;
 import io.apiman.gateway.engine.policies.config.IgnoredResourcesConfig;
 import io.apiman.gateway.engine.policies.i18n.Messages;
+import io.apiman.gateway.engine.policies.path.PathRuleMatcher;
 import io.apiman.gateway.engine.policy.IPolicyChain;
 import io.apiman.gateway.engine.policy.IPolicyContext;
 
@@ -34,12 +35,15 @@ import io.apiman.gateway.engine.policy.IPolicyContext;
  */
 public class IgnoredResourcesPolicy extends AbstractMappedPolicy<IgnoredResourcesConfig> {
 
+    private final CompiledConfigCache<IgnoredResourcesConfig, PathRuleMatcher<IgnoredResource>> matchers = compiledConfigCache(
+            config -> new PathRuleMatcher<>(config.getRules(), IgnoredResource::getVerb, IgnoredResource::getPathPattern));
+
     /**
      * Constructor.
      */
     public IgnoredResourcesPolicy() {
     }
-    
+
     /**
      * @see io.apiman.gateway.engine.policy.AbstractPolicy#getConfigurationClass()
      */
@@ -86,16 +90,7 @@ public class IgnoredResourcesPolicy extends AbstractMappedPolicy<IgnoredResource
         if (destination == null || destination.trim().length() == 0) {
             destination = "/"; //$NON-NLS-1$
         }
-        for (IgnoredResource resource : config.getRules()) {
-            String resourceVerb = resource.getVerb();
-            boolean verbMatches = verb == null || IgnoredResource.VERB_MATCH_ALL.equals(resourceVerb)
-                    || verb.equalsIgnoreCase(resourceVerb); // $NON-NLS-1$
-            boolean destinationMatches = destination.matches(resource.getPathPattern());
-            if (verbMatches && destinationMatches) {
-                return true;
-            }
-        }
-        return false;
+        return matchers.get(config).matchesAny(verb, destination);
     }
 
 }
@@ -23,10 +23,10 @@ import io.apiman.gateway.engine.policies.config.IgnoredResourcesConfig;
 import io.apiman.gateway.engine.policies.config.TimeRestrictedAccess;
 import io.apiman.gateway.engine.policies.config.TimeRestrictedAccessConfig;
 import io.apiman.gateway.engine.policies.i18n.Messages;
+import io.apiman.gateway.engine.policies.path.PathRuleMatcher;
 import io.apiman.gateway.engine.policy.IPolicyChain;
 import io.apiman.gateway.engine.policy.IPolicyContext;
 
-import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 
@@ -38,6 +38,9 @@ import org.joda.time.LocalTime;
  * Policy that restrict access to resource by time when resource can be accessed.
  */
 public class TimeRestrictedAccessPolicy extends AbstractMappedPolicy<TimeRestrictedAccessConfig> {
+
+    private final CompiledConfigCache<TimeRestrictedAccessConfig, PathRuleMatcher<TimeRestrictedAccess>> matchers = compiledConfigCache(
+            config -> new PathRuleMatcher<>(config.getRules(), null, TimeRestrictedAccess::getPathPattern));
     
     /**
      * Constructor.
@@ -116,13 +119,7 @@ public class TimeRestrictedAccessPolicy extends AbstractMappedPolicy<TimeRestric
      */
     private List<TimeRestrictedAccess> getRulesMatchingPath(TimeRestrictedAccessConfig config,
             String destination) {
-        List<TimeRestrictedAccess> rulesForPath = new ArrayList<>();
-        for (TimeRestrictedAccess rule : config.getRules()) {
-            if (destination.matches(rule.getPathPattern())){
-                rulesForPath.add(rule);
-            }
-        }
-        return rulesForPath;
+        return matchers.get(config).getMatches(null, destination);
     }
 
     /**
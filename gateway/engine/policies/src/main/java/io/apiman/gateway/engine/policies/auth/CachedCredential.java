@@ -0,0 +1,92 @@
+/*
+ * Copyright 2017 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.apiman.gateway.engine.policies.auth;
+
+import java.util.Set;
+
+/**
+ * The outcome of verifying a user's credentials, as held by the
+ * {@link CredentialCache}.
+ *
+ * @author eric.wittmann@redhat.com
+ */
+public class CachedCredential {
+
+    private boolean valid;
+    private Set<String> roles;
+    private long expiresOn;
+
+    /**
+     * Constructor.
+     */
+    public CachedCredential() {
+    }
+
+    /**
+     * Constructor.
+     * @param valid whether the credentials are valid
+     * @param roles the roles extracted for the user (if any)
+     * @param expiresOn when (in epoch millis) the entry expires
+     */
+    public CachedCredential(boolean valid, Set<String> roles, long expiresOn) {
+        this.valid = valid;
+        this.roles = roles;
+        this.expiresOn = expiresOn;
+    }
+
+    /**
+     * @return the valid
+     */
+    public boolean isValid() {
+        return valid;
+    }
+
+    /**
+     * @param valid the valid to set
+     */
+    public void setValid(boolean valid) {
+        this.valid = valid;
+    }
+
+    /**
+     * @return the roles
+     */
+    public Set<String> getRoles() {
+        return roles;
+    }
+
+    /**
+     * @param roles the roles to set
+     */
+    public void setRoles(Set<String> roles) {
+        this.roles = roles;
+    }
+
+    /**
+     * @return the expiresOn
+     */
+    public long getExpiresOn() {
+        return expiresOn;
+    }
+
+    /**
+     * @param expiresOn the expiresOn to set
+     */
+    public void setExpiresOn(long expiresOn) {
+        this.expiresOn = expiresOn;
+    }
+
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2017 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.apiman.gateway.engine.policies.auth;
+
+import io.apiman.gateway.engine.async.AsyncResultImpl;
+import io.apiman.gateway.engine.async.IAsyncHandler;
+import io.apiman.gateway.engine.async.IAsyncResult;
+import io.apiman.gateway.engine.async.IAsyncResultHandler;
+import io.apiman.gateway.engine.beans.ApiRequest;
+import io.apiman.gateway.engine.policies.AuthorizationPolicy;
+import io.apiman.gateway.engine.policy.IPolicyContext;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * An identity validator that consults a {@link CredentialCache} before handing
+ * off to another validator, and caches the outcome (including the roles that
+ * validator extracted for the user).  Errors are never cached.
+ *
+ * @author eric.wittmann@redhat.com
+ * @param <C> the config type
+ */
+public class CachingIdentityValidator<C> implements IIdentityValidator<C> {
+
+    private final IIdentityValidator<C> delegate;
+    private final CredentialCache cache;
+
+    /**
+     * Constructor.
+     * @param delegate the validator that checks credentials which aren't cached
+     * @param cache the credential cache
+     */
+    public CachingIdentityValidator(IIdentityValidator<C> delegate, CredentialCache cache) {
+        this.delegate = delegate;
+        this.cache = cache;
+    }
+
+    /**
+     * @see io.apiman.gateway.engine.policies.auth.IIdentityValidator#validate(java.lang.String, java.lang.String, io.apiman.gateway.engine.beans.ApiRequest, io.apiman.gateway.engine.policy.IPolicyContext, java.lang.Object, io.apiman.gateway.engine.async.IAsyncResultHandler)
+     */
+    @Override
+    public void validate(final String username, final String password, final ApiRequest request,
+            final IPolicyContext context, final C config, final IAsyncResultHandler<Boolean> handler) {
+        cache.get(username, password, context, new IAsyncHandler<CachedCredential>() {
+            @Override
+            public void handle(CachedCredential cached) {
+                if (cached != null) {
+                    if (cached.isValid() && cached.getRoles() != null) {
+                        context.setAttribute(AuthorizationPolicy.AUTHENTICATED_USER_ROLES, new HashSet<>(cached.getRoles()));
+                    }
+                    handler.handle(AsyncResultImpl.create(cached.isValid()));
+                    return;
+                }
+                delegate.validate(username, password, request, context, config, new IAsyncResultHandler<Boolean>() {
+                    @Override
+                    public void handle(IAsyncResult<Boolean> result) {
+                        if (result.isSuccess() && result.getResult() != null) {
+                            boolean valid = result.getResult();
+                            Set<String> roles = valid
+                                    ? context.getAttribute(AuthorizationPolicy.AUTHENTICATED_USER_ROLES, (Set<String>) null)
+                                    : null;
+                            cache.put(username, password, valid, roles, context);
+                        }
+                        handler.handle(result);
+                    }
+                });
+            }
+        });
+    }
+
+}
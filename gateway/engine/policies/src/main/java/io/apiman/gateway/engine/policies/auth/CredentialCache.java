@@ -0,0 +1,234 @@
+/*
+ * Copyright 2017 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.apiman.gateway.engine.policies.auth;
+
+import io.apiman.gateway.engine.async.IAsyncHandler;
+import io.apiman.gateway.engine.async.IAsyncResult;
+import io.apiman.gateway.engine.async.IAsyncResultHandler;
+import io.apiman.gateway.engine.components.ICacheStoreComponent;
+import io.apiman.gateway.engine.policies.config.basicauth.CredentialCacheConfig;
+import io.apiman.gateway.engine.policy.IPolicyContext;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * A cache of verified credentials.  Entries are kept in a bounded, least recently
+ * used map on each gateway node and can optionally also be shared between nodes
+ * through the {@link ICacheStoreComponent}.
+ *
+ * Credentials are never cached as such: entries are keyed by an HMAC-SHA256 of
+ * the username and password, salted with a digest of the identity source's
+ * configuration (so that the same credentials checked against different identity
+ * sources never share an entry).  Locally cached entries are keyed with a random,
+ * per-JVM key.  Shared entries are keyed with a secret that every node is
+ * configured with but that is never stored in the cache store, so that reading
+ * the cache store doesn't allow passwords to be guessed offline; without a
+ * secret, entries aren't shared.
+ *
+ * @author eric.wittmann@redhat.com
+ */
+public class CredentialCache {
+
+    private static final String SHARED_KEY_PREFIX = "apiman-basic-auth:"; //$NON-NLS-1$
+    private static final char[] HEX = "0123456789abcdef".toCharArray(); //$NON-NLS-1$
+    private static final String HMAC = "HmacSHA256"; //$NON-NLS-1$
+    private static final byte[] localKey = new byte[32];
+    static {
+        new SecureRandom().nextBytes(localKey);
+    }
+
+    private final CredentialCacheConfig config;
+    private final byte[] sourceSalt;
+    private final ThreadLocal<Mac> localMacs;
+    private final ThreadLocal<Mac> sharedMacs;
+    private final Map<String, CachedCredential> entries;
+
+    /**
+     * Constructor.
+     * @param config the cache config
+     * @param sourceSalt the salt identifying the identity source
+     * @param sharedSecret the key of the shared entries (if null then entries aren't shared)
+     */
+    public CredentialCache(CredentialCacheConfig config, byte[] sourceSalt, byte[] sharedSecret) {
+        this.config = config;
+        this.sourceSalt = sourceSalt.clone();
+        this.localMacs = macs(localKey);
+        this.sharedMacs = sharedSecret == null || sharedSecret.length == 0 ? null : macs(sharedSecret);
+        final int maxSize = Math.max(config.getMaxSize(), 1);
+        this.entries = Collections.synchronizedMap(new LinkedHashMap<String, CachedCredential>(16, 0.75f, true) {
+            private static final long serialVersionUID = -2874315046395124981L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedCredential> eldest) {
+                return size() > maxSize;
+            }
+        });
+    }
+
+    /**
+     * Looks up the given credentials, first locally and then (if the cache is
+     * shared) in the cache store.  The handler is given null if they aren't cached.
+     * Failures to read from the cache store are treated as cache misses.
+     * @param username the username
+     * @param password the password
+     * @param context the policy context
+     * @param handler the handler
+     */
+    public void get(String username, String password, IPolicyContext context, final IAsyncHandler<CachedCredential> handler) {
+        final String localKey = key(true, username, password);
+        CachedCredential entry = entries.get(localKey);
+        if (entry != null) {
+            if (entry.getExpiresOn() > System.currentTimeMillis()) {
+                handler.handle(entry);
+                return;
+            }
+            entries.remove(localKey, entry);
+        }
+        ICacheStoreComponent store = getStore(context);
+        if (store == null) {
+            handler.handle(null);
+            return;
+        }
+        store.get(key(false, username, password), CachedCredential.class, new IAsyncResultHandler<CachedCredential>() {
+            @Override
+            public void handle(IAsyncResult<CachedCredential> result) {
+                CachedCredential shared = result.isSuccess() ? result.getResult() : null;
+                if (shared != null && shared.getExpiresOn() > System.currentTimeMillis()) {
+                    entries.put(localKey, shared);
+                    handler.handle(shared);
+                } else {
+                    handler.handle(null);
+                }
+            }
+        });
+    }
+
+    /**
+     * Caches the outcome of verifying the given credentials, for the configured
+     * time.  Failures to write to the cache store are ignored.
+     * @param username the username
+     * @param password the password
+     * @param valid whether the credentials are valid
+     * @param roles the roles extracted for the user (if any)
+     * @param context the policy context
+     */
+    public void put(String username, String password, boolean valid, Set<String> roles, IPolicyContext context) {
+        int ttl = valid ? config.getPositiveTtl() : config.getNegativeTtl();
+        if (ttl <= 0) {
+            return;
+        }
+        CachedCredential entry = new CachedCredential(valid, roles == null ? null : new HashSet<>(roles), System.currentTimeMillis() + ttl * 1000L);
+        entries.put(key(true, username, password), entry);
+        ICacheStoreComponent store = getStore(context);
+        if (store != null) {
+            try {
+                store.put(key(false, username, password), entry, ttl);
+            } catch (Exception e) {
+                // The entry is still cached locally.
+            }
+        }
+    }
+
+    /**
+     * @return the number of locally cached entries
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Gets the cache store to share entries through, or null if they aren't shared.
+     * @param context the policy context
+     */
+    private ICacheStoreComponent getStore(IPolicyContext context) {
+        if (!config.isShared() || sharedMacs == null) {
+            return null;
+        }
+        try {
+            return context.getComponent(ICacheStoreComponent.class);
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Hashes the given credentials into a cache key.
+     * @param local whether the key is for the local (rather than the shared) cache
+     * @param username the username
+     * @param password the password (may be null)
+     */
+    private String key(boolean local, String username, String password) {
+        Mac mac = (local ? localMacs : sharedMacs).get();
+        mac.update(sourceSalt);
+        update(mac, username);
+        update(mac, password);
+        byte[] hash = mac.doFinal();
+        StringBuilder key = new StringBuilder((local ? 0 : SHARED_KEY_PREFIX.length()) + hash.length * 2);
+        if (!local) {
+            key.append(SHARED_KEY_PREFIX);
+        }
+        for (byte b : hash) {
+            key.append(HEX[(b >> 4) & 0xF]).append(HEX[b & 0xF]);
+        }
+        return key.toString();
+    }
+
+    /**
+     * Adds a length-prefixed string to the MAC (so that, for example, "ab" + "c"
+     * and "a" + "bc" hash differently).
+     * @param mac the MAC
+     * @param value the value (may be null)
+     */
+    private static void update(Mac mac, String value) {
+        byte[] bytes = value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+        int length = bytes == null ? -1 : bytes.length;
+        mac.update((byte) (length >>> 24));
+        mac.update((byte) (length >>> 16));
+        mac.update((byte) (length >>> 8));
+        mac.update((byte) length);
+        if (bytes != null) {
+            mac.update(bytes);
+        }
+    }
+
+    /**
+     * Creates (per-thread) MACs with the given key.
+     * @param key the key
+     */
+    private static ThreadLocal<Mac> macs(byte[] key) {
+        final SecretKeySpec keySpec = new SecretKeySpec(key, HMAC);
+        return ThreadLocal.withInitial(() -> {
+            try {
+                Mac mac = Mac.getInstance(HMAC);
+                mac.init(keySpec);
+                return mac;
+            } catch (GeneralSecurityException e) {
+                throw new RuntimeException(e);
+            }
+        });
+    }
+
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright 2017 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.apiman.gateway.engine.policies.caching;
+
+import io.apiman.gateway.engine.beans.ApiResponse;
+import io.apiman.gateway.engine.beans.util.HeaderMap;
+
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Locale;
+import java.util.TreeSet;
+
+/**
+ * Helpers for honoring the HTTP caching headers (Cache-Control, Vary, ETag,
+ * Last-Modified and the conditional request headers) when caching back-end
+ * API responses.
+ *
+ * @author eric.wittmann@redhat.com
+ */
+@SuppressWarnings("nls")
+public final class CacheHeaders {
+
+    private static final String[] NOT_MODIFIED_HEADERS = { "ETag", "Last-Modified", "Cache-Control", "Expires",
+            "Vary", "Content-Location" };
+
+    /**
+     * Constructor.
+     */
+    private CacheHeaders() {
+    }
+
+    /**
+     * Returns false if the back-end API's response must not be stored in a shared
+     * cache: its Cache-Control forbids it (no-store, private, no-cache) or it varies
+     * on something other than request headers (Vary: *).
+     * @param response the back-end API's response
+     * @return true if the response may be cached
+     */
+    public static boolean isCacheable(ApiResponse response) {
+        if (response.getCode() == 304) {
+            return false;
+        }
+        for (String directive : directives(response.getHeaders().get("Cache-Control"))) {
+            if (directive.equals("no-store") || directive.equals("private") || directive.equals("no-cache")) {
+                return false;
+            }
+        }
+        String vary = response.getHeaders().get("Vary");
+        return vary == null || !vary.trim().equals("*");
+    }
+
+    /**
+     * Returns the time to live (in seconds) the back-end API's response asks for via
+     * its Cache-Control s-maxage (or max-age) directive, or the given default.
+     * @param response the back-end API's response
+     * @param defaultTtl the ttl to use if the response does not specify one
+     * @return the ttl, in seconds
+     */
+    public static long getTtl(ApiResponse response, long defaultTtl) {
+        long maxAge = -1;
+        for (String directive : directives(response.getHeaders().get("Cache-Control"))) {
+            try {
+                if (directive.startsWith("s-maxage=")) {
+                    return Long.parseLong(unquote(directive.substring(9)));
+                } else if (directive.startsWith("max-age=")) {
+                    maxAge = Long.parseLong(unquote(directive.substring(8)));
+                }
+            } catch (NumberFormatException e) {
+                // ignore invalid directives
+            }
+        }
+        return maxAge >= 0 ? maxAge : defaultTtl;
+    }
+
+    /**
+     * Returns the normalized (lower case, sorted) list of request headers the back-end
+     * API's response varies on, or an empty string if it does not vary.
+     * @param response the back-end API's response
+     * @return the normalized Vary header
+     */
+    public static String getVary(ApiResponse response) {
+        TreeSet<String> names = new TreeSet<>();
+        for (String vary : response.getHeaders().getAll("Vary")) {
+            for (String name : vary.split(",")) {
+                if (!name.trim().isEmpty()) {
+                    names.add(name.trim().toLowerCase(Locale.ENGLISH));
+                }
+            }
+        }
+        return String.join(",", names);
+    }
+
+    /**
+     * Builds the part of a cache key that identifies the variant of a response,
+     * i.e. the values of the request headers listed in the given (normalized)
+     * Vary header.
+     * @param requestHeaders the request headers
+     * @param vary the normalized Vary header
+     * @return the variant key
+     */
+    public static String getVariantKey(HeaderMap requestHeaders, String vary) {
+        StringBuilder key = new StringBuilder();
+        for (String name : vary.split(",")) {
+            if (name.isEmpty()) {
+                continue;
+            }
+            key.append(name).append('=');
+            for (String value : requestHeaders.getAll(name)) {
+                key.append(value).append(';');
+            }
+            key.append('|');
+        }
+        return key.toString();
+    }
+
+    /**
+     * Returns true if the request is a conditional request that can be answered
+     * with a 304 Not Modified based on the given cached response.  If-None-Match
+     * takes precedence over If-Modified-Since.
+     * @param method the request method
+     * @param requestHeaders the request headers
+     * @param cached the cached response
+     * @return true if the cached response has not been modified
+     */
+    public static boolean isNotModified(String method, HeaderMap requestHeaders, ApiResponse cached) {
+        if (!"GET".equals(method) && !"HEAD".equals(method)) {
+            return false;
+        }
+        String ifNoneMatch = requestHeaders.get("If-None-Match");
+        if (ifNoneMatch != null) {
+            String etag = cached.getHeaders().get("ETag");
+            if (etag == null) {
+                return false;
+            }
+            for (String candidate : ifNoneMatch.split(",")) {
+                candidate = candidate.trim();
+                if (candidate.equals("*") || weak(candidate).equals(weak(etag.trim()))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        String ifModifiedSince = requestHeaders.get("If-Modified-Since");
+        String lastModified = cached.getHeaders().get("Last-Modified");
+        if (ifModifiedSince == null || lastModified == null) {
+            return false;
+        }
+        try {
+            ZonedDateTime since = ZonedDateTime.parse(ifModifiedSince, DateTimeFormatter.RFC_1123_DATE_TIME);
+            ZonedDateTime modified = ZonedDateTime.parse(lastModified, DateTimeFormatter.RFC_1123_DATE_TIME);
+            return !modified.isAfter(since);
+        } catch (DateTimeParseException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Creates the 304 Not Modified response for the given cached response.
+     * @param cached the cached response
+     * @return the 304 response
+     */
+    public static ApiResponse notModified(ApiResponse cached) {
+        ApiResponse response = new ApiResponse();
+        response.setCode(304);
+        response.setMessage("Not Modified");
+        for (String name : NOT_MODIFIED_HEADERS) {
+            for (String value : cached.getHeaders().getAll(name)) {
+                response.getHeaders().add(name, value);
+            }
+        }
+        return response;
+    }
+
+    /**
+     * Splits a Cache-Control header into its (lower case) directives.
+     */
+    private static String[] directives(String cacheControl) {
+        if (cacheControl == null) {
+            return new String[0];
+        }
+        String[] directives = cacheControl.toLowerCase(Locale.ENGLISH).split(",");
+        for (int i = 0; i < directives.length; i++) {
+            directives[i] = directives[i].trim();
+        }
+        return directives;
+    }
+
+    private static String unquote(String value) {
+        return value.startsWith("\"") && value.endsWith("\"") && value.length() > 1
+                ? value.substring(1, value.length() - 1) : value;
+    }
+
+    private static String weak(String etag) {
+        return etag.startsWith("W/") ? etag.substring(2) : etag;
+    }
+
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright 2017 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.apiman.gateway.engine.policies.caching;
+
+import io.apiman.common.logging.IApimanLogger;
+import io.apiman.gateway.engine.logging.CurrentLoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Coalesces concurrent cache misses for the same cache key (single-flight).  The
+ * first request to miss becomes the leader of a "flight" and goes to the back-end
+ * API; any identical request that misses while the flight is in progress waits
+ * for the leader to release the flight (once the response has been cached, or
+ * once it turns out it won't be) and then tries the cache again.
+ *
+ * No threads are spent on waiting requests.  Each one is resumed on its own
+ * execution context (the executor it joined the flight with - e.g. its Vert.x
+ * context) rather than on the thread that releases the flight, so that neither
+ * the leader's thread nor the timeout thread runs other requests' work.  A leader
+ * that fails releases its flight straight away.  As a last resort (e.g. the
+ * leader's response is cut off while it is being cached) flights are also
+ * released after a timeout, so that waiting requests are never stranded.
+ *
+ * @author eric.wittmann@redhat.com
+ */
+public class CacheMissCoalescer {
+
+    private static final int RESUME_THREADS = 4;
+    private static final int RESUME_QUEUE_SIZE = 10000;
+
+    private final IApimanLogger logger = CurrentLoggerFactory.getLogger(CacheMissCoalescer.class);
+    private static final ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, runnable -> {
+        Thread thread = new Thread(runnable, "apiman-cache-miss-coalescer-timeout"); //$NON-NLS-1$
+        thread.setDaemon(true);
+        return thread;
+    });
+    static {
+        // Most flights are released well before they time out.
+        timer.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * Resumes waiting requests that have no execution context of their own to be
+     * resumed on (e.g. on thread-per-request platforms).  Resuming a request only
+     * starts another (asynchronous) cache lookup, so a few threads go a long way;
+     * should they fall behind, the releasing thread resumes the request itself.
+     */
+    public static final Executor DEFAULT_EXECUTOR;
+    static {
+        AtomicInteger threadCount = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(RESUME_THREADS, RESUME_THREADS, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(RESUME_QUEUE_SIZE), runnable -> {
+                    Thread thread = new Thread(runnable, "apiman-cache-miss-coalescer-" + threadCount.incrementAndGet()); //$NON-NLS-1$
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.allowCoreThreadTimeOut(true);
+        DEFAULT_EXECUTOR = executor;
+    }
+
+    private final ConcurrentHashMap<String, Flight> flights = new ConcurrentHashMap<>();
+
+    /**
+     * Constructor.
+     */
+    public CacheMissCoalescer() {
+    }
+
+    /**
+     * Joins the flight for the given cache key.  If there is no flight in progress
+     * then a new one is started and returned, and the caller is its leader: it must
+     * fetch the resource and then release the flight.  Otherwise the given waiter is
+     * run (by the given executor) once the flight in progress is released, and null
+     * is returned.
+     * @param cacheKey the cache key
+     * @param timeout the time (in millis) after which the flight is released regardless
+     * @param executor runs the waiter on the caller's execution context
+     * @param waiter resumes the caller if it is not the leader
+     * @return the flight if the caller leads it, otherwise null
+     */
+    public Flight join(String cacheKey, long timeout, Executor executor, Runnable waiter) {
+        while (true) {
+            Flight flight = tryLead(cacheKey, timeout);
+            if (flight != null) {
+                return flight;
+            }
+            Flight existing = flights.get(cacheKey);
+            if (existing != null && existing.addWaiter(new Waiter(executor, waiter))) {
+                return null;
+            }
+            // Released in the meantime (and possibly not quite removed yet).
+            if (existing != null) {
+                flights.remove(cacheKey, existing);
+            }
+        }
+    }
+
+    /**
+     * Starts a new flight for the given cache key, unless there is already one in
+     * progress.  Unlike {@link #join(String, long, Executor, Runnable)} the caller never waits.
+     * @param cacheKey the cache key
+     * @param timeout the time (in millis) after which the flight is released regardless
+     * @return the flight if the caller leads it, otherwise null
+     */
+    public Flight tryLead(String cacheKey, long timeout) {
+        Flight flight = new Flight(cacheKey);
+        if (flights.putIfAbsent(cacheKey, flight) != null) {
+            return null;
+        }
+        flight.timeout = timer.schedule(flight::release, timeout, TimeUnit.MILLISECONDS);
+        return flight;
+    }
+
+    /**
+     * @return the number of flights currently in progress
+     */
+    protected int getFlightCount() {
+        return flights.size();
+    }
+
+    /**
+     * A single flight: the leader's fetch of a resource, along with the requests
+     * waiting for it.
+     */
+    public final class Flight {
+
+        private final String cacheKey;
+        private List<Waiter> waiters = new ArrayList<>();
+        private volatile ScheduledFuture<?> timeout;
+
+        /**
+         * Constructor.
+         * @param cacheKey the cache key
+         */
+        private Flight(String cacheKey) {
+            this.cacheKey = cacheKey;
+        }
+
+        /**
+         * Adds a waiter, unless the flight has already been released.
+         */
+        private synchronized boolean addWaiter(Waiter waiter) {
+            if (waiters == null) {
+                return false;
+            }
+            waiters.add(waiter);
+            return true;
+        }
+
+        /**
+         * Releases the flight, resuming all of the requests waiting on it.  Only the
+         * first call has any effect.
+         */
+        public void release() {
+            List<Waiter> released;
+            synchronized (this) {
+                released = waiters;
+                waiters = null;
+            }
+            if (released == null) {
+                return;
+            }
+            flights.remove(cacheKey, this);
+            ScheduledFuture<?> timeout = this.timeout;
+            if (timeout != null) {
+                timeout.cancel(false);
+            }
+            for (Waiter waiter : released) {
+                try {
+                    waiter.executor.execute(() -> {
+                        try {
+                            waiter.resume.run();
+                        } catch (Throwable t) {
+                            logger.error(t);
+                        }
+                    });
+                } catch (Throwable t) {
+                    // Don't let one failed request strand the others.
+                    logger.error(t);
+                }
+            }
+        }
+    }
+
+    /**
+     * A request waiting for a flight, and the execution context to resume it on.
+     */
+    private static final class Waiter {
+
+        private final Executor executor;
+        private final Runnable resume;
+
+        private Waiter(Executor executor, Runnable resume) {
+            this.executor = executor;
+            this.resume = resume;
+        }
+    }
+
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2017 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.apiman.gateway.engine.policies.caching;
+
+import io.apiman.gateway.engine.async.IAsyncHandler;
+import io.apiman.gateway.engine.beans.ApiResponse;
+import io.apiman.gateway.engine.io.IApimanBuffer;
+import io.apiman.gateway.engine.io.ISignalReadStream;
+
+/**
+ * A read stream consisting of just a response head (no body) - for example a
+ * 304 Not Modified response answered directly from the cache.
+ *
+ * @author eric.wittmann@redhat.com
+ */
+public class HeadOnlyReadStream implements ISignalReadStream<ApiResponse> {
+
+    private final ApiResponse head;
+    private IAsyncHandler<Void> endHandler;
+    private boolean finished = false;
+
+    /**
+     * Constructor.
+     * @param head the response head
+     */
+    public HeadOnlyReadStream(ApiResponse head) {
+        this.head = head;
+    }
+
+    /**
+     * @see io.apiman.gateway.engine.io.IReadStream#getHead()
+     */
+    @Override
+    public ApiResponse getHead() {
+        return head;
+    }
+
+    /**
+     * @see io.apiman.gateway.engine.io.IReadStream#bodyHandler(io.apiman.gateway.engine.async.IAsyncHandler)
+     */
+    @Override
+    public void bodyHandler(IAsyncHandler<IApimanBuffer> bodyHandler) {
+        // There is no body.
+    }
+
+    /**
+     * @see io.apiman.gateway.engine.io.IReadStream#endHandler(io.apiman.gateway.engine.async.IAsyncHandler)
+     */
+    @Override
+    public void endHandler(IAsyncHandler<Void> endHandler) {
+        this.endHandler = endHandler;
+    }
+
+    /**
+     * @see io.apiman.gateway.engine.io.ISignalReadStream#transmit()
+     */
+    @Override
+    public void transmit() {
+        finished = true;
+        if (endHandler != null) {
+            endHandler.handle(null);
+        }
+    }
+
+    /**
+     * @see io.apiman.gateway.engine.io.IStream#isFinished()
+     */
+    @Override
+    public boolean isFinished() {
+        return finished;
+    }
+
+    /**
+     * @see io.apiman.gateway.engine.io.IAbortable#abort(java.lang.Throwable)
+     */
+    @Override
+    public void abort(Throwable t) {
+        finished = true;
+    }
+
+}
@@ -15,6 +15,7 @@
  */
 package io.apiman.gateway.engine.policies.config;
 
+import io.apiman.gateway.engine.policies.config.basicauth.CredentialCacheConfig;
 import io.apiman.gateway.engine.policies.config.basicauth.JDBCIdentitySource;
 import io.apiman.gateway.engine.policies.config.basicauth.LDAPIdentitySource;
 import io.apiman.gateway.engine.policies.config.basicauth.StaticIdentitySource;
@@ -36,6 +37,8 @@ public class BasicAuthenticationConfig {
     private LDAPIdentitySource ldapIdentity;
     private JDBCIdentitySource jdbcIdentity;
 
+    private CredentialCacheConfig credentialCache;
+
     /**
      * Constructor.
      */
@@ -140,4 +143,20 @@ public class BasicAuthenticationConfig {
         this.requireBasicAuth = requireBasicAuth;
     }
 
+    /**
+     * If set, verified credentials are cached rather than checked against the
+     * identity source on every request.
+     * @return the credentialCache
+     */
+    public CredentialCacheConfig getCredentialCache() {
+        return credentialCache;
+    }
+
+    /**
+     * @param credentialCache the credentialCache to set
+     */
+    public void setCredentialCache(CredentialCacheConfig credentialCache) {
+        this.credentialCache = credentialCache;
+    }
+
 }
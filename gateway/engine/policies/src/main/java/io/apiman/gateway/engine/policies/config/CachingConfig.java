@@ -27,6 +27,10 @@ public class CachingConfig {
 
     private long ttl; // in seconds
     private List<String> statusCodes = new ArrayList<>();
+    private boolean coalesceMisses;
+    private long coalesceTimeout = 10000; // in millis
+    private boolean honorCacheHeaders;
+    private long staleWhileRevalidate; // in seconds
 
     /**
      * Constructor.
@@ -61,4 +65,60 @@ public class CachingConfig {
     public void setStatusCodes(List<String> statusCodes) {
         this.statusCodes = statusCodes;
     }
+
+    /**
+     * @return true if concurrent cache misses for the same resource should be coalesced
+     */
+    public boolean isCoalesceMisses() {
+        return coalesceMisses;
+    }
+
+    /**
+     * @param coalesceMisses the coalesceMisses to set
+     */
+    public void setCoalesceMisses(boolean coalesceMisses) {
+        this.coalesceMisses = coalesceMisses;
+    }
+
+    /**
+     * @return the maximum time (in millis) a coalesced request waits for the response to be cached
+     */
+    public long getCoalesceTimeout() {
+        return coalesceTimeout;
+    }
+
+    /**
+     * @param coalesceTimeout the coalesceTimeout to set
+     */
+    public void setCoalesceTimeout(long coalesceTimeout) {
+        this.coalesceTimeout = coalesceTimeout;
+    }
+
+    /**
+     * @return true if the HTTP caching headers (Cache-Control, Vary, conditional requests) should be honored
+     */
+    public boolean isHonorCacheHeaders() {
+        return honorCacheHeaders;
+    }
+
+    /**
+     * @param honorCacheHeaders the honorCacheHeaders to set
+     */
+    public void setHonorCacheHeaders(boolean honorCacheHeaders) {
+        this.honorCacheHeaders = honorCacheHeaders;
+    }
+
+    /**
+     * @return for how long (in seconds) after the ttl a stale entry may be served while it is refreshed
+     */
+    public long getStaleWhileRevalidate() {
+        return staleWhileRevalidate;
+    }
+
+    /**
+     * @param staleWhileRevalidate the staleWhileRevalidate to set
+     */
+    public void setStaleWhileRevalidate(long staleWhileRevalidate) {
+        this.staleWhileRevalidate = staleWhileRevalidate;
+    }
 }
@@ -28,6 +28,7 @@ public class IPListConfig {
     private String httpHeader;
     private Set<String> ipList = new HashSet<>();
     private int responseCode;
+    private int trustedProxies;
 
     /**
      * Constructor.
@@ -77,4 +78,23 @@ public class IPListConfig {
         this.responseCode = responseCode;
     }
 
+    /**
+     * When the client's address is taken from an HTTP header that proxies append to
+     * (such as X-Forwarded-For), the number of proxies in front of the gateway that
+     * are trusted to do so.  The client's address is then the one added by the
+     * outermost trusted proxy.  If this is 0 (the default), the first (left-most)
+     * address in the header is used.
+     * @return the trustedProxies
+     */
+    public int getTrustedProxies() {
+        return trustedProxies;
+    }
+
+    /**
+     * @param trustedProxies the trustedProxies to set
+     */
+    public void setTrustedProxies(int trustedProxies) {
+        this.trustedProxies = trustedProxies;
+    }
+
 }
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2017 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.apiman.gateway.engine.policies.config.basicauth;
+
+import io.apiman.gateway.engine.policies.BasicAuthenticationPolicy;
+
+/**
+ * Configures the cache of verified credentials used by the
+ * {@link BasicAuthenticationPolicy}, so that the identity source (e.g. an LDAP
+ * server or a database) isn't consulted on every request.  Credentials are
+ * cached under a keyed hash (HMAC) of the username and password, along with the
+ * roles extracted for the user (if any).
+ *
+ * @author eric.wittmann@redhat.com
+ */
+public class CredentialCacheConfig {
+
+    private int positiveTtl = 300;
+    private int negativeTtl = 10;
+    private int maxSize = 1000;
+    private boolean shared;
+
+    /**
+     * Constructor.
+     */
+    public CredentialCacheConfig() {
+    }
+
+    /**
+     * The time (in seconds) that valid credentials are cached for.  If this is 0
+     * then valid credentials are not cached.
+     * @return the positiveTtl
+     */
+    public int getPositiveTtl() {
+        return positiveTtl;
+    }
+
+    /**
+     * @param positiveTtl the positiveTtl to set
+     */
+    public void setPositiveTtl(int positiveTtl) {
+        this.positiveTtl = positiveTtl;
+    }
+
+    /**
+     * The time (in seconds) that invalid credentials are cached for.  If this is
+     * 0 then invalid credentials are not cached.
+     * @return the negativeTtl
+     */
+    public int getNegativeTtl() {
+        return negativeTtl;
+    }
+
+    /**
+     * @param negativeTtl the negativeTtl to set
+     */
+    public void setNegativeTtl(int negativeTtl) {
+        this.negativeTtl = negativeTtl;
+    }
+
+    /**
+     * The maximum number of credentials cached (per gateway node); the least
+     * recently used are evicted first.
+     * @return the maxSize
+     */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @param maxSize the maxSize to set
+     */
+    public void setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Whether the cache is also shared between gateway nodes, through the
+     * gateway's cache store component.  Entries are only shared if the gateway
+     * is configured with a secret to key them with (the
+     * "apiman-gateway.policies.credential-cache.secret" property).
+     * @return the shared
+     */
+    public boolean isShared() {
+        return shared;
+    }
+
+    /**
+     * @param shared the shared to set
+     */
+    public void setShared(boolean shared) {
+        this.shared = shared;
+    }
+
+}
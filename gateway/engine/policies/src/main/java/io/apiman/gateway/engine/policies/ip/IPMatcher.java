@@ -0,0 +1,447 @@
+/*
+ * Copyright 2017 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.apiman.gateway.engine.policies.ip;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Matches IP addresses against the entries of an IP list policy.  Entries may be:
+ * <ul>
+ *   <li>single IPv4 or IPv6 addresses - <code>10.0.0.1</code>, <code>2001:db8::1</code></li>
+ *   <li>CIDR blocks - <code>10.0.0.0/8</code>, <code>2001:db8::/32</code></li>
+ *   <li>ranges - <code>10.0.0.1-10.0.0.50</code></li>
+ *   <li>IPv4 wildcards - <code>10.0.*.*</code></li>
+ * </ul>
+ *
+ * The entries are compiled into a path compressed binary radix trie over 128 bit
+ * addresses (IPv4 addresses are mapped into <code>::ffff:0:0/96</code>, so IPv4
+ * entries also match IPv4-mapped IPv6 addresses), so a lookup takes at most 128
+ * bit comparisons however many entries there are, and does not allocate.
+ *
+ * Anything that isn't one of the above is matched as a literal string, and IPv4
+ * wildcards that aren't just trailing components (<code>10.*.0.1</code>) are
+ * matched component by component, as they always have been.
+ *
+ * A matcher is immutable and thread safe.
+ *
+ * @author eric.wittmann@redhat.com
+ */
+public class IPMatcher {
+
+    private static final long IPV4_MAPPED = 0xFFFF00000000L;
+    private static final BigInteger MASK_64 = BigInteger.ONE.shiftLeft(64).subtract(BigInteger.ONE);
+    private static final ThreadLocal<long[]> scratch = ThreadLocal.withInitial(() -> new long[2]);
+
+    private Node root;
+    private final Set<String> literals = new HashSet<>();
+    private final List<String[]> wildcards = new ArrayList<>();
+
+    /**
+     * Constructor.
+     * @param entries the entries of the IP list
+     */
+    public IPMatcher(Collection<String> entries) {
+        if (entries == null) {
+            return;
+        }
+        long[] address = new long[2];
+        long[] end = new long[2];
+        for (String entry : entries) {
+            if (entry == null || entry.trim().isEmpty()) {
+                continue;
+            }
+            String trimmed = entry.trim();
+            int slash = trimmed.indexOf('/');
+            int dash = trimmed.indexOf('-');
+            if (slash > 0 && parseAddress(trimmed, 0, slash, address)) {
+                int length = parsePrefixLength(trimmed.substring(slash + 1), trimmed.indexOf(':') < 0);
+                if (length >= 0) {
+                    insert(address[0], address[1], length);
+                    continue;
+                }
+            } else if (dash > 0 && parseAddress(trimmed, 0, dash, address)
+                    && parseAddress(trimmed, dash + 1, trimmed.length(), end)
+                    && toBigInteger(address).compareTo(toBigInteger(end)) <= 0) {
+                insertRange(toBigInteger(address), toBigInteger(end));
+                continue;
+            } else if (trimmed.indexOf('*') >= 0 && trimmed.indexOf(':') < 0) {
+                addWildcard(trimmed);
+                continue;
+            } else if (parseAddress(trimmed, 0, trimmed.length(), address)) {
+                insert(address[0], address[1], 128);
+                continue;
+            }
+            literals.add(entry);
+        }
+    }
+
+    /**
+     * Returns true if the given address matches any of the entries.
+     * @param address the IPv4 or IPv6 address
+     * @return true if it matches
+     */
+    public boolean matches(String address) {
+        if (address == null) {
+            return false;
+        }
+        if (!literals.isEmpty() && literals.contains(address)) {
+            return true;
+        }
+        long[] parsed = scratch.get();
+        if (parseAddress(address, 0, address.length(), parsed) && contains(parsed[0], parsed[1])) {
+            return true;
+        }
+        return !wildcards.isEmpty() && matchesWildcard(address);
+    }
+
+    /**
+     * Walks the trie along the address, looking for any entry that contains it.
+     */
+    private boolean contains(long hi, long lo) {
+        Node node = root;
+        while (node != null && node.covers(hi, lo)) {
+            if (node.terminal) {
+                return true;
+            }
+            if (node.length == 128) {
+                return false;
+            }
+            node = bit(hi, lo, node.length) ? node.one : node.zero;
+        }
+        return false;
+    }
+
+    /**
+     * Adds a block of addresses (the given prefix of the given address) to the trie.
+     */
+    private void insert(long hi, long lo, int length) {
+        root = insert(root, hi, lo, length);
+    }
+
+    private static Node insert(Node node, long hi, long lo, int length) {
+        if (node == null) {
+            return new Node(hi, lo, length, true);
+        }
+        int common = Math.min(Math.min(node.length, length), commonPrefixLength(node.hi, node.lo, hi, lo));
+        if (common == node.length) {
+            if (node.terminal) {
+                // Already covered by a shorter (or the same) block.
+            } else if (length == node.length) {
+                node.terminal = true;
+                node.zero = node.one = null;
+            } else if (bit(hi, lo, node.length)) {
+                node.one = insert(node.one, hi, lo, length);
+            } else {
+                node.zero = insert(node.zero, hi, lo, length);
+            }
+            return node;
+        }
+        // The new block diverges from (or contains) this node, so split it.
+        Node split = new Node(hi, lo, common, length == common);
+        if (!split.terminal) {
+            Node leaf = new Node(hi, lo, length, true);
+            if (bit(hi, lo, common)) {
+                split.one = leaf;
+                split.zero = node;
+            } else {
+                split.zero = leaf;
+                split.one = node;
+            }
+        }
+        return split;
+    }
+
+    /**
+     * Adds a range of addresses to the trie, as the smallest set of blocks that
+     * make it up.
+     */
+    private void insertRange(BigInteger start, BigInteger end) {
+        while (start.compareTo(end) <= 0) {
+            int size = start.signum() == 0 ? 128 : start.getLowestSetBit();
+            while (size > 0 && start.add(BigInteger.ONE.shiftLeft(size)).subtract(BigInteger.ONE).compareTo(end) > 0) {
+                size--;
+            }
+            insert(start.shiftRight(64).longValue(), start.longValue(), 128 - size);
+            start = start.add(BigInteger.ONE.shiftLeft(size));
+        }
+    }
+
+    /**
+     * Adds an IPv4 wildcard entry: as a block if only its trailing components are
+     * wildcards, otherwise as a pattern.
+     */
+    private void addWildcard(String entry) {
+        String[] components = entry.split("\\."); //$NON-NLS-1$
+        if (components.length == 4) {
+            long address = 0;
+            int fixed = 0;
+            while (fixed < 4 && components[fixed].matches("[0-9]{1,3}") && Integer.parseInt(components[fixed]) <= 255) { //$NON-NLS-1$
+                address |= Long.parseLong(components[fixed]) << (24 - 8 * fixed);
+                fixed++;
+            }
+            boolean trailing = true;
+            for (int i = fixed; i < 4; i++) {
+                trailing &= "*".equals(components[i]); //$NON-NLS-1$
+            }
+            if (trailing) {
+                insert(0, IPV4_MAPPED | address, 96 + 8 * fixed);
+                return;
+            }
+        }
+        wildcards.add(components);
+    }
+
+    private boolean matchesWildcard(String address) {
+        String[] components = address.split("\\."); //$NON-NLS-1$
+        for (String[] wildcard : wildcards) {
+            if (wildcard.length != components.length) {
+                continue;
+            }
+            boolean matches = true;
+            for (int i = 0; i < wildcard.length && matches; i++) {
+                matches = wildcard[i].equals("*") || wildcard[i].equals(components[i]); //$NON-NLS-1$
+            }
+            if (matches) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Parses an IPv4 or IPv6 address (optionally in brackets, and optionally with
+     * a zone index, which is ignored) into 128 bits.  IPv4 addresses are mapped into
+     * <code>::ffff:0:0/96</code>.
+     * @param text the text containing the address
+     * @param start the index at which the address starts
+     * @param end the index at which the address ends
+     * @param address receives the high and low 64 bits of the address
+     * @return false if the text is not an IP address
+     */
+    public static boolean parseAddress(CharSequence text, int start, int end, long[] address) {
+        while (start < end && text.charAt(start) == ' ') {
+            start++;
+        }
+        while (end > start && text.charAt(end - 1) == ' ') {
+            end--;
+        }
+        if (end - start >= 2 && text.charAt(start) == '[' && text.charAt(end - 1) == ']') {
+            start++;
+            end--;
+        }
+        boolean ipv6 = false;
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (c == '%') {
+                end = i;
+                break;
+            }
+            ipv6 |= c == ':';
+        }
+        if (!ipv6) {
+            long ipv4 = parseIPv4(text, start, end);
+            if (ipv4 < 0) {
+                return false;
+            }
+            address[0] = 0;
+            address[1] = IPV4_MAPPED | ipv4;
+            return true;
+        }
+        int groups = parseIPv6(text, start, end, null, 0);
+        if (groups < 0) {
+            return false;
+        }
+        address[0] = address[1] = 0;
+        parseIPv6(text, start, end, address, 8 - groups);
+        return true;
+    }
+
+    /**
+     * Parses a dotted quad IPv4 address.
+     * @return the address, or -1 if the text is not an IPv4 address
+     */
+    private static long parseIPv4(CharSequence text, int start, int end) {
+        long address = 0;
+        int components = 0;
+        int i = start;
+        while (components < 4) {
+            int value = 0;
+            int digits = 0;
+            while (i < end && text.charAt(i) >= '0' && text.charAt(i) <= '9' && digits < 4) {
+                value = value * 10 + text.charAt(i) - '0';
+                digits++;
+                i++;
+            }
+            if (digits == 0 || digits > 3 || value > 255) {
+                return -1;
+            }
+            address = (address << 8) | value;
+            components++;
+            if (components < 4) {
+                if (i >= end || text.charAt(i) != '.') {
+                    return -1;
+                }
+                i++;
+            }
+        }
+        return i == end ? address : -1;
+    }
+
+    /**
+     * Walks the groups of an IPv6 address.  When no address is given the groups are
+     * just validated and counted; otherwise they are shifted into the address, along
+     * with the given number of zero groups for the "::", if any.
+     * @return the number of groups, or -1 if the text is not an IPv6 address
+     */
+    private static int parseIPv6(CharSequence text, int start, int end, long[] address, int zeros) {
+        int groups = 0;
+        boolean compressed = false;
+        int i = start;
+        if (end - start >= 2 && text.charAt(i) == ':' && text.charAt(i + 1) == ':') {
+            compressed = true;
+            append(address, 0, zeros);
+            i += 2;
+        }
+        while (i < end) {
+            int groupStart = i;
+            int value = 0;
+            while (i < end && text.charAt(i) != ':') {
+                int digit = Character.digit(text.charAt(i), 16);
+                if (text.charAt(i) == '.') {
+                    // An IPv4 address in the last 32 bits
+                    long ipv4 = parseIPv4(text, groupStart, end);
+                    if (ipv4 < 0 || groups > 6) {
+                        return -1;
+                    }
+                    append(address, ipv4 >>> 16, 1);
+                    append(address, ipv4 & 0xFFFF, 1);
+                    groups += 2;
+                    return compressed ? (groups <= 6 ? groups : -1) : (groups == 8 ? groups : -1);
+                }
+                if (digit < 0 || i - groupStart >= 4) {
+                    return -1;
+                }
+                value = (value << 4) | digit;
+                i++;
+            }
+            if (i == groupStart) {
+                return -1;
+            }
+            append(address, value, 1);
+            groups++;
+            if (i < end) {
+                i++;
+                if (i < end && text.charAt(i) == ':') {
+                    if (compressed) {
+                        return -1;
+                    }
+                    compressed = true;
+                    append(address, 0, zeros);
+                    i++;
+                } else if (i == end) {
+                    return -1;
+                }
+            }
+        }
+        return compressed ? (groups <= 7 ? groups : -1) : (groups == 8 ? groups : -1);
+    }
+
+    /**
+     * Shifts the given number of copies of the given 16 bit group into the address.
+     */
+    private static void append(long[] address, long group, int count) {
+        if (address == null) {
+            return;
+        }
+        for (int i = 0; i < count; i++) {
+            address[0] = (address[0] << 16) | (address[1] >>> 48);
+            address[1] = (address[1] << 16) | group;
+        }
+    }
+
+    private static int parsePrefixLength(String text, boolean ipv4) {
+        try {
+            int length = Integer.parseInt(text.trim());
+            int max = ipv4 ? 32 : 128;
+            if (length < 0 || length > max) {
+                return -1;
+            }
+            return ipv4 ? length + 96 : length;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static BigInteger toBigInteger(long[] address) {
+        return BigInteger.valueOf(address[0]).and(MASK_64).shiftLeft(64).or(BigInteger.valueOf(address[1]).and(MASK_64));
+    }
+
+    private static boolean bit(long hi, long lo, int index) {
+        return index < 64 ? ((hi >>> (63 - index)) & 1) != 0 : ((lo >>> (127 - index)) & 1) != 0;
+    }
+
+    /**
+     * Returns the mask for the high (or low) 64 bits of a prefix of the given length.
+     */
+    private static long mask(int length, boolean high) {
+        int bits = high ? Math.min(length, 64) : Math.max(length - 64, 0);
+        return bits == 0 ? 0 : -1L << (64 - bits);
+    }
+
+    private static int commonPrefixLength(long hi1, long lo1, long hi2, long lo2) {
+        if (hi1 != hi2) {
+            return Long.numberOfLeadingZeros(hi1 ^ hi2);
+        }
+        return 64 + Long.numberOfLeadingZeros(lo1 ^ lo2);
+    }
+
+    /**
+     * A node of the trie: a prefix, which is either an entry itself (terminal) or
+     * the longest prefix shared by the entries below it.
+     */
+    private static class Node {
+        private final long hi;
+        private final long lo;
+        private final long maskHi;
+        private final long maskLo;
+        private final int length;
+        private boolean terminal;
+        private Node zero;
+        private Node one;
+
+        private Node(long hi, long lo, int length, boolean terminal) {
+            this.maskHi = mask(length, true);
+            this.maskLo = mask(length, false);
+            this.hi = hi & maskHi;
+            this.lo = lo & maskLo;
+            this.length = length;
+            this.terminal = terminal;
+        }
+
+        /**
+         * Returns true if the given address starts with this node's prefix.
+         */
+        private boolean covers(long hi, long lo) {
+            return (hi & maskHi) == this.hi && (lo & maskLo) == this.lo;
+        }
+    }
+
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright 2017 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.apiman.gateway.engine.policies.path;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+
+/**
+ * Matches requests (verb + path) against a policy's list of rules, each of which
+ * has a verb (or '*' for any verb) and a path regular expression that must match
+ * the whole path.  A rule without a verb never matches a request with a verb.  The rules are compiled once, up front:
+ * <ul>
+ *   <li>every path pattern is compiled into a {@link Pattern} just once</li>
+ *   <li>patterns without any regex syntax at all are matched as plain strings</li>
+ *   <li>all of the patterns are indexed by their literal prefix (e.g. <code>/invoices/</code>
+ *       for <code>/invoices/.+</code>) in a single trie, so that one pass over the request
+ *       path finds the (usually few) rules that can possibly match it - only those
+ *       rules' patterns are then evaluated</li>
+ * </ul>
+ *
+ * A matcher is immutable and thread safe.
+ *
+ * @author eric.wittmann@redhat.com
+ */
+public class PathRuleMatcher<R> {
+
+    private static final String ANY_VERB = "*"; //$NON-NLS-1$
+    private static final String META_CHARS = "\\.[]{}()*+?^$|"; //$NON-NLS-1$
+    private static final String QUANTIFIERS = "*+?{"; //$NON-NLS-1$
+    private static final int[] NONE = new int[0];
+
+    private final List<R> rules;
+    private final String[] verbs;
+    private final Pattern[] patterns;
+    private final Node root = new Node();
+
+    /**
+     * Constructor.
+     * @param rules the rules, in order
+     * @param verb returns a rule's verb (or '*', or null for a rule that never matches a verb),
+     *        or null if the rules do not restrict the verb
+     * @param pathPattern returns a rule's path pattern
+     */
+    public PathRuleMatcher(List<R> rules, Function<R, String> verb, Function<R, String> pathPattern) {
+        this.rules = rules == null ? Collections.emptyList() : new ArrayList<>(rules);
+        this.verbs = new String[this.rules.size()];
+        this.patterns = new Pattern[this.rules.size()];
+        for (int i = 0; i < verbs.length; i++) {
+            R rule = this.rules.get(i);
+            verbs[i] = verb == null ? ANY_VERB : verb.apply(rule);
+            String regex = pathPattern.apply(rule);
+            if (regex == null) {
+                continue;
+            }
+            StringBuilder prefix = new StringBuilder();
+            boolean literal = literalPrefix(regex, prefix);
+            Node node = root;
+            for (int c = 0; c < prefix.length(); c++) {
+                node = node.children.computeIfAbsent(prefix.charAt(c), k -> new Node());
+            }
+            if (literal) {
+                node.exact = append(node.exact, i);
+            } else {
+                patterns[i] = Pattern.compile(regex);
+                node.prefixed = append(node.prefixed, i);
+            }
+        }
+    }
+
+    /**
+     * Returns the rules matching the given request, in the order the rules were
+     * given in.
+     * @param verb the request's verb, or null to match rules regardless of their verb
+     * @param path the request's path
+     * @return the matching rules
+     */
+    public List<R> getMatches(String verb, String path) {
+        boolean[] matched = new boolean[rules.size()];
+        int count = match(verb, path, matched, false);
+        if (count == 0) {
+            return Collections.emptyList();
+        }
+        List<R> matches = new ArrayList<>(count);
+        for (int i = 0; i < matched.length; i++) {
+            if (matched[i]) {
+                matches.add(rules.get(i));
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Returns true if any rule matches the given request.
+     * @param verb the request's verb, or null to match rules regardless of their verb
+     * @param path the request's path
+     * @return true if there is a matching rule
+     */
+    public boolean matchesAny(String verb, String path) {
+        return match(verb, path, null, true) > 0;
+    }
+
+    /**
+     * Walks the trie along the path, checking the rules of each node on the way.
+     * @return the number of matching rules found
+     */
+    private int match(String verb, String path, boolean[] matched, boolean firstOnly) {
+        int count = 0;
+        Node node = root;
+        for (int c = 0; node != null; c++) {
+            for (int rule : node.prefixed) {
+                if (verbMatches(rule, verb) && patterns[rule].matcher(path).matches()) {
+                    if (firstOnly) {
+                        return 1;
+                    }
+                    matched[rule] = true;
+                    count++;
+                }
+            }
+            if (c == path.length()) {
+                for (int rule : node.exact) {
+                    if (verbMatches(rule, verb)) {
+                        if (firstOnly) {
+                            return 1;
+                        }
+                        matched[rule] = true;
+                        count++;
+                    }
+                }
+                break;
+            }
+            node = node.children.get(path.charAt(c));
+        }
+        return count;
+    }
+
+    private boolean verbMatches(int rule, String verb) {
+        String ruleVerb = verbs[rule];
+        return verb == null || ANY_VERB.equals(ruleVerb) || (ruleVerb != null && ruleVerb.equalsIgnoreCase(verb));
+    }
+
+    /**
+     * Extracts the literal text any path matching the given regular expression must
+     * start with.  This is conservative: it stops at the first bit of regex syntax,
+     * and any alternation at all means there is no literal prefix.
+     * @param regex the regular expression
+     * @param prefix receives the literal prefix
+     * @return true if the whole expression is literal text
+     */
+    static boolean literalPrefix(String regex, StringBuilder prefix) {
+        for (int i = 0; i < regex.length(); i++) {
+            if (regex.charAt(i) == '\\') {
+                i++;
+            } else if (regex.charAt(i) == '|') {
+                return false;
+            }
+        }
+        int i = 0;
+        while (i < regex.length()) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                if (i + 1 >= regex.length() || Character.isLetterOrDigit(regex.charAt(i + 1))) {
+                    return false;
+                }
+                c = regex.charAt(i + 1);
+                i += 2;
+            } else if (META_CHARS.indexOf(c) >= 0) {
+                return false;
+            } else {
+                i++;
+            }
+            // A quantified character is optional (or repeated), so the prefix ends before it.
+            if (i < regex.length() && QUANTIFIERS.indexOf(regex.charAt(i)) >= 0) {
+                return false;
+            }
+            prefix.append(c);
+        }
+        return true;
+    }
+
+    private static int[] append(int[] array, int value) {
+        int[] appended = Arrays.copyOf(array, array.length + 1);
+        appended[array.length] = value;
+        return appended;
+    }
+
+    /**
+     * A node of the literal prefix trie.
+     */
+    private static class Node {
+        private final Map<Character, Node> children = new HashMap<>();
+        // rules whose literal prefix ends here and whose pattern must still be evaluated
+        private int[] prefixed = NONE;
+        // rules whose (entirely literal) pattern ends here
+        private int[] exact = NONE;
+    }
+
+}
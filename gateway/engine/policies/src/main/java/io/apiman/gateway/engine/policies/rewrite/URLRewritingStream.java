@@ -151,6 +151,8 @@ public class URLRewritingStream extends AbstractStream<ApiResponse> {
             buffer = null;
         } else {
             buffer = bufferFactory.createBuffer(originalBuffer.getBytes(bytesConsumed, maxPos + 1));
+            // Everything has been copied out of it (it was never written downstream).
+            bufferFactory.release(originalBuffer);
             if (atEnd) {
                 super.write(buffer);
             }
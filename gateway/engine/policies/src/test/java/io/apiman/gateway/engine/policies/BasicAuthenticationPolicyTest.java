@@ -108,4 +108,37 @@ public class BasicAuthenticationPolicyTest extends ApimanPolicyTest {
         String header = echo.getHeaders().get("X-Authenticated-Identity");
         Assert.assertNull(header);
     }
+
+    @Test
+    @Configuration("{\r\n" +
+            "    \"realm\" : \"TestRealm\",\r\n" +
+            "    \"forwardIdentityHttpHeader\" : \"X-Authenticated-Identity\",\r\n" +
+            "    \"credentialCache\" : { \"positiveTtl\" : 60, \"shared\" : true },\r\n" +
+            "    \"staticIdentity\" : {\r\n" +
+            "      \"identities\" : [\r\n" +
+            "        { \"username\" : \"ckent\", \"password\" : \"ckent123!\" }\r\n" +
+            "      ]\r\n" +
+            "    }\r\n" +
+            "}")
+    public void testCredentialCache() throws Throwable {
+        PolicyTestRequest request = PolicyTestRequest.build(PolicyTestRequestType.GET, "/some/resource");
+
+        for (int i = 0; i < 2; i++) {
+            // Failure
+            try {
+                request.basicAuth("ckent", "invalid_password");
+                send(request);
+                Assert.fail("Expected a failure response!");
+            } catch (PolicyFailureError failure) {
+                Assert.assertEquals(10003, failure.getFailure().getFailureCode());
+            }
+
+            // Success
+            request.basicAuth("ckent", "ckent123!");
+            PolicyTestResponse response = send(request);
+            Assert.assertEquals(200, response.code());
+            EchoResponse echo = response.entity(EchoResponse.class);
+            Assert.assertEquals("ckent", echo.getHeaders().get("X-Authenticated-Identity"));
+        }
+    }
 }
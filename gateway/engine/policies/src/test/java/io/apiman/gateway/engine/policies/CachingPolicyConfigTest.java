@@ -51,6 +51,33 @@ public class CachingPolicyConfigTest {
         parsed = policy.parseConfiguration(config);
         parsedConfig = (CachingConfig) parsed;
         Assert.assertEquals(12345L, parsedConfig.getTtl());
+        Assert.assertFalse(parsedConfig.isCoalesceMisses());
+
+        // Coalescing misses
+        config = "{\n" +
+                "  \"ttl\" : 60,\n" +
+                "  \"coalesceMisses\" : true,\n" +
+                "  \"coalesceTimeout\" : 2500\n" +
+                "}";
+
+        parsed = policy.parseConfiguration(config);
+        parsedConfig = (CachingConfig) parsed;
+        Assert.assertTrue(parsedConfig.isCoalesceMisses());
+        Assert.assertEquals(2500L, parsedConfig.getCoalesceTimeout());
+        Assert.assertFalse(parsedConfig.isHonorCacheHeaders());
+        Assert.assertEquals(0L, parsedConfig.getStaleWhileRevalidate());
+
+        // Honoring the caching headers
+        config = "{\n" +
+                "  \"ttl\" : 60,\n" +
+                "  \"honorCacheHeaders\" : true,\n" +
+                "  \"staleWhileRevalidate\" : 30\n" +
+                "}";
+
+        parsed = policy.parseConfiguration(config);
+        parsedConfig = (CachingConfig) parsed;
+        Assert.assertTrue(parsedConfig.isHonorCacheHeaders());
+        Assert.assertEquals(30L, parsedConfig.getStaleWhileRevalidate());
     }
 
 }
@@ -86,4 +86,39 @@ public class CachingPolicyTest extends ApimanPolicyTest {
         Assert.assertEquals(counterValue4, counterValue5);
         Assert.assertEquals("application/json", response.header("Content-Type"));
     }
+
+    @Test
+    @Configuration("{" +
+            "  \"ttl\" : 60," +
+            "  \"coalesceMisses\" : true" +
+            "}")
+    public void testCachingWithCoalescedMisses() throws Throwable {
+        PolicyTestRequest request = PolicyTestRequest.build(PolicyTestRequestType.GET, "/some/coalesced-resource");
+
+        PolicyTestResponse response = send(request);
+        Long counterValue = response.entity(EchoResponse.class).getCounter();
+        Assert.assertNotNull(counterValue);
+
+        // The flight was released once the response was cached, so this is a plain cache hit
+        response = send(request);
+        Assert.assertEquals(counterValue, response.entity(EchoResponse.class).getCounter());
+        Assert.assertEquals("application/json", response.header("Content-Type"));
+    }
+    @Test
+    @Configuration("{" +
+            "  \"ttl\" : 60," +
+            "  \"honorCacheHeaders\" : true" +
+            "}")
+    public void testCachingHonoringQueryString() throws Throwable {
+        PolicyTestRequest request = PolicyTestRequest.build(PolicyTestRequestType.GET, "/some/queried-resource")
+                .query("page", "1");
+        Long counterValue = send(request).entity(EchoResponse.class).getCounter();
+        Assert.assertEquals(counterValue, send(request).entity(EchoResponse.class).getCounter());
+
+        // A different query string is a different resource
+        request = PolicyTestRequest.build(PolicyTestRequestType.GET, "/some/queried-resource")
+                .query("page", "2");
+        Assert.assertNotEquals(counterValue, send(request).entity(EchoResponse.class).getCounter());
+    }
+
 }
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2017 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.apiman.gateway.engine.policies;
+
+import io.apiman.gateway.engine.beans.exceptions.ConfigurationParseException;
+import io.apiman.gateway.engine.policies.config.IPListConfig;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit test.
+ *
+ * @author eric.wittmann@redhat.com
+ */
+@SuppressWarnings("nls")
+public class CompiledConfigCacheTest {
+
+    @Test
+    public void testCompileOnce() {
+        AtomicInteger compiles = new AtomicInteger();
+        CompiledConfigCache<IPListConfig, String> cache = new CompiledConfigCache<>(config -> {
+            compiles.incrementAndGet();
+            return String.valueOf(config.getIpList());
+        });
+        IPListConfig config = new IPListConfig();
+        config.getIpList().add("1.2.3.4");
+
+        String compiled = cache.get(config);
+        Assert.assertEquals("[1.2.3.4]", compiled);
+        Assert.assertSame(compiled, cache.get(config));
+        Assert.assertEquals(1, compiles.get());
+
+        // Configs are told apart by identity, not equality
+        IPListConfig other = new IPListConfig();
+        other.getIpList().add("1.2.3.4");
+        cache.get(other);
+        Assert.assertEquals(2, compiles.get());
+    }
+
+    @Test
+    public void testNull() {
+        AtomicInteger compiles = new AtomicInteger();
+        CompiledConfigCache<IPListConfig, String> cache = new CompiledConfigCache<>(config -> {
+            compiles.incrementAndGet();
+            return null;
+        });
+        IPListConfig config = new IPListConfig();
+        Assert.assertNull(cache.get(config));
+        Assert.assertNull(cache.get(config));
+        Assert.assertEquals(1, compiles.get());
+    }
+
+    @Test
+    public void testCompiledOnParse() {
+        AtomicInteger compiles = new AtomicInteger();
+        AbstractMappedPolicy<IPListConfig> policy = new AbstractMappedPolicy<IPListConfig>() {
+            @SuppressWarnings("unused")
+            private final CompiledConfigCache<IPListConfig, Object> cache = compiledConfigCache(config -> {
+                if (config.getIpList().contains("bad")) {
+                    throw new IllegalArgumentException("bad");
+                }
+                return compiles.incrementAndGet();
+            });
+            @Override
+            protected Class<IPListConfig> getConfigurationClass() {
+                return IPListConfig.class;
+            }
+        };
+
+        policy.parseConfiguration("{ \"ipList\" : [ \"1.2.3.4\" ] }");
+        Assert.assertEquals(1, compiles.get());
+        try {
+            policy.parseConfiguration("{ \"ipList\" : [ \"bad\" ] }");
+            Assert.fail("Expected the config to fail to compile.");
+        } catch (ConfigurationParseException e) {
+            Assert.assertTrue(e.getCause() instanceof IllegalArgumentException);
+        }
+    }
+
+}
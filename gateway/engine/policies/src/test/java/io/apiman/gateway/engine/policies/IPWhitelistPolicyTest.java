@@ -166,4 +166,62 @@ public class IPWhitelistPolicyTest {
         Mockito.verify(chain).doFailure(failure);
     }
 
+    /**
+     * Test method for {@link io.apiman.gateway.engine.policies.IPWhitelistPolicy#apply(ApiRequest, IPolicyContext, Object, IPolicyChain)}.
+     */
+    @Test
+    public void testApplyWithCidrAndProxies() {
+        IPWhitelistPolicy policy = new IPWhitelistPolicy();
+        String json = "{" +
+                "  \"ipList\" : [" +
+                "    \"10.0.0.0/8\", \"2001:db8::/32\"" +
+                "  ]," +
+                "  \"httpHeader\" : \"X-Forwarded-For\"," +
+                "  \"trustedProxies\" : 2" +
+                "}";
+        Object config = policy.parseConfiguration(json);
+        ApiRequest request = new ApiRequest();
+        request.setType("GET");
+        request.setApiKey("12345");
+        request.setDestination("/");
+        IPolicyContext context = Mockito.mock(IPolicyContext.class);
+        final PolicyFailure failure = new PolicyFailure();
+        Mockito.when(context.getComponent(IPolicyFailureFactoryComponent.class)).thenReturn(new IPolicyFailureFactoryComponent() {
+            @Override
+            public PolicyFailure createFailure(PolicyFailureType type, int failureCode, String message) {
+                return failure;
+            }
+        });
+
+        // Success
+        request.getHeaders().put("X-Forwarded-For", "9.8.7.6, 10.1.2.3, 192.168.0.1");
+        IPolicyChain<ApiRequest> chain = Mockito.mock(IPolicyChain.class);
+        policy.apply(request, context, config, chain);
+        Mockito.verify(chain).doApply(request);
+
+        request.getHeaders().put("X-Forwarded-For", "2001:db8::17,192.168.0.1");
+        chain = Mockito.mock(IPolicyChain.class);
+        policy.apply(request, context, config, chain);
+        Mockito.verify(chain).doApply(request);
+
+        // Failure (the spoofed left-most address is not trusted)
+        request.getHeaders().put("X-Forwarded-For", "10.1.2.3, 9.8.7.6, 192.168.0.1");
+        chain = Mockito.mock(IPolicyChain.class);
+        policy.apply(request, context, config, chain);
+        Mockito.verify(chain).doFailure(failure);
+    }
+
+    /**
+     * Test method for {@link io.apiman.gateway.engine.policies.AbstractIPListPolicy#selectAddress(String, int)}.
+     */
+    @Test
+    public void testSelectAddress() {
+        Assert.assertEquals("1.1.1.1", AbstractIPListPolicy.selectAddress(" 1.1.1.1 ", 0));
+        Assert.assertEquals("1.1.1.1", AbstractIPListPolicy.selectAddress("1.1.1.1, 2.2.2.2, 3.3.3.3", 0));
+        Assert.assertEquals("3.3.3.3", AbstractIPListPolicy.selectAddress("1.1.1.1, 2.2.2.2, 3.3.3.3", 1));
+        Assert.assertEquals("2.2.2.2", AbstractIPListPolicy.selectAddress("1.1.1.1, 2.2.2.2, 3.3.3.3", 2));
+        Assert.assertEquals("1.1.1.1", AbstractIPListPolicy.selectAddress("1.1.1.1, 2.2.2.2, 3.3.3.3", 3));
+        Assert.assertEquals("1.1.1.1", AbstractIPListPolicy.selectAddress("1.1.1.1, 2.2.2.2, 3.3.3.3", 10));
+    }
+
 }
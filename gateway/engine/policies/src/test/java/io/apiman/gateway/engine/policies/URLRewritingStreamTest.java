@@ -19,6 +19,7 @@ import io.apiman.gateway.engine.async.IAsyncHandler;
 import io.apiman.gateway.engine.beans.ApiResponse;
 import io.apiman.gateway.engine.components.IBufferFactoryComponent;
 import io.apiman.gateway.engine.impl.ByteBufferFactoryComponent;
+import io.apiman.gateway.engine.impl.PooledBufferFactoryComponent;
 import io.apiman.gateway.engine.io.IApimanBuffer;
 import io.apiman.gateway.engine.policies.rewrite.URLRewritingStream;
 
@@ -152,7 +153,13 @@ public class URLRewritingStreamTest {
      * @param expectedResult
      */
     private void doTest(String fromRegexp, String toReplacement, String[] chunks, String expectedResult) {
-        IBufferFactoryComponent bufferFactory = new ByteBufferFactoryComponent();
+        doTest(new ByteBufferFactoryComponent(), fromRegexp, toReplacement, chunks, expectedResult);
+        // Buffers released too early would be reused (and overwritten) by the pool
+        doTest(new PooledBufferFactoryComponent(), fromRegexp, toReplacement, chunks, expectedResult);
+    }
+
+    private void doTest(IBufferFactoryComponent bufferFactory, String fromRegexp, String toReplacement,
+            String[] chunks, String expectedResult) {
         URLRewritingStream stream = new URLRewritingStream(bufferFactory, (ApiResponse) null, fromRegexp, toReplacement);
         RecordingHandler handler = new RecordingHandler(bufferFactory.createBuffer());
         stream.bodyHandler(handler);
@@ -0,0 +1,184 @@
+/*
+ * Copyright 2017 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.apiman.gateway.engine.policies.auth;
+
+import io.apiman.gateway.engine.IComponentRegistry;
+import io.apiman.gateway.engine.async.AsyncResultImpl;
+import io.apiman.gateway.engine.async.IAsyncResultHandler;
+import io.apiman.gateway.engine.beans.ApiRequest;
+import io.apiman.gateway.engine.components.ICacheStoreComponent;
+import io.apiman.gateway.engine.impl.InMemoryCacheStoreComponent;
+import io.apiman.gateway.engine.policies.AuthorizationPolicy;
+import io.apiman.gateway.engine.policies.config.basicauth.CredentialCacheConfig;
+import io.apiman.gateway.engine.policy.IPolicyContext;
+import io.apiman.gateway.engine.policy.PolicyContextImpl;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+/**
+ * Unit test for {@link CachingIdentityValidator} and {@link CredentialCache}.
+ *
+ * @author eric.wittmann@redhat.com
+ */
+@SuppressWarnings("nls")
+public class CachingIdentityValidatorTest {
+
+    private static final byte[] SALT = { 1, 2, 3 };
+    private static final byte[] SECRET = "cluster-secret".getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    public void testCachesOutcomeAndRoles() {
+        CountingValidator delegate = new CountingValidator();
+        CredentialCache cache = new CredentialCache(new CredentialCacheConfig(), SALT, null);
+        CachingIdentityValidator<Object> validator = new CachingIdentityValidator<>(delegate, cache);
+
+        Assert.assertTrue(validate(validator, "ckent", "secret", context(null)));
+        IPolicyContext context = context(null);
+        Assert.assertTrue(validate(validator, "ckent", "secret", context));
+        Assert.assertEquals(Collections.singleton("ckent-role"),
+                context.getAttribute(AuthorizationPolicy.AUTHENTICATED_USER_ROLES, (Set<String>) null));
+        Assert.assertFalse(validate(validator, "ckent", "wrong", context(null)));
+        Assert.assertFalse(validate(validator, "ckent", "wrong", context(null)));
+        Assert.assertFalse(validate(validator, "ckent", null, context(null)));
+        Assert.assertFalse(validate(validator, "ckent", "", context(null)));
+        Assert.assertEquals(4, delegate.calls.get());
+        Assert.assertEquals(4, cache.size());
+
+        // Errors are not cached
+        Assert.assertNull(validate(validator, "error", "secret", context(null)));
+        Assert.assertNull(validate(validator, "error", "secret", context(null)));
+        Assert.assertEquals(6, delegate.calls.get());
+    }
+
+    @Test
+    public void testTtlAndMaxSize() {
+        CredentialCacheConfig config = new CredentialCacheConfig();
+        config.setNegativeTtl(0);
+        config.setMaxSize(2);
+        CountingValidator delegate = new CountingValidator();
+        CredentialCache cache = new CredentialCache(config, SALT, null);
+        CachingIdentityValidator<Object> validator = new CachingIdentityValidator<>(delegate, cache);
+
+        validate(validator, "ckent", "wrong", context(null));
+        validate(validator, "ckent", "wrong", context(null));
+        Assert.assertEquals(2, delegate.calls.get());
+        Assert.assertEquals(0, cache.size());
+
+        validate(validator, "user1", "secret", context(null));
+        validate(validator, "user2", "secret", context(null));
+        validate(validator, "user1", "secret", context(null));
+        validate(validator, "user3", "secret", context(null));
+        Assert.assertEquals(5, delegate.calls.get());
+        Assert.assertEquals(2, cache.size());
+        // user2 was the least recently used
+        validate(validator, "user1", "secret", context(null));
+        Assert.assertEquals(5, delegate.calls.get());
+        validate(validator, "user2", "secret", context(null));
+        Assert.assertEquals(6, delegate.calls.get());
+    }
+
+    @Test
+    public void testShared() {
+        CredentialCacheConfig config = new CredentialCacheConfig();
+        config.setShared(true);
+        ICacheStoreComponent store = new InMemoryCacheStoreComponent();
+        CountingValidator delegate = new CountingValidator();
+        CachingIdentityValidator<Object> node1 = new CachingIdentityValidator<>(delegate, new CredentialCache(config, SALT, SECRET));
+        CachingIdentityValidator<Object> node2 = new CachingIdentityValidator<>(delegate, new CredentialCache(config, SALT, SECRET));
+        CachingIdentityValidator<Object> otherSource = new CachingIdentityValidator<>(delegate,
+                new CredentialCache(config, new byte[] { 4, 5, 6 }, SECRET));
+
+        Assert.assertTrue(validate(node1, "ckent", "secret", context(store)));
+        IPolicyContext context = context(store);
+        Assert.assertTrue(validate(node2, "ckent", "secret", context));
+        Assert.assertEquals(Collections.singleton("ckent-role"),
+                context.getAttribute(AuthorizationPolicy.AUTHENTICATED_USER_ROLES, (Set<String>) null));
+        Assert.assertEquals(1, delegate.calls.get());
+
+        Assert.assertTrue(validate(otherSource, "ckent", "secret", context(store)));
+        Assert.assertEquals(2, delegate.calls.get());
+    }
+
+    @Test
+    public void testSharedSecret() {
+        CredentialCacheConfig config = new CredentialCacheConfig();
+        config.setShared(true);
+        ICacheStoreComponent store = new InMemoryCacheStoreComponent();
+        CountingValidator delegate = new CountingValidator();
+        CachingIdentityValidator<Object> node1 = new CachingIdentityValidator<>(delegate, new CredentialCache(config, SALT, SECRET));
+        CachingIdentityValidator<Object> otherSecret = new CachingIdentityValidator<>(delegate,
+                new CredentialCache(config, SALT, "other-secret".getBytes(StandardCharsets.UTF_8)));
+        CachingIdentityValidator<Object> noSecret = new CachingIdentityValidator<>(delegate, new CredentialCache(config, SALT, null));
+
+        Assert.assertTrue(validate(node1, "ckent", "secret", context(store)));
+        Assert.assertTrue(validate(otherSecret, "ckent", "secret", context(store)));
+        Assert.assertEquals(2, delegate.calls.get());
+
+        // Without a secret nothing is shared
+        Assert.assertTrue(validate(noSecret, "ckent", "secret", context(store)));
+        Assert.assertEquals(3, delegate.calls.get());
+        CachingIdentityValidator<Object> noSecret2 = new CachingIdentityValidator<>(delegate, new CredentialCache(config, SALT, null));
+        Assert.assertTrue(validate(noSecret2, "ckent", "secret", context(store)));
+        Assert.assertEquals(4, delegate.calls.get());
+    }
+
+    private static Boolean validate(IIdentityValidator<Object> validator, String username, String password,
+            IPolicyContext context) {
+        final Boolean[] rval = new Boolean[1];
+        validator.validate(username, password, new ApiRequest(), context, null, result -> {
+            rval[0] = result.isSuccess() ? result.getResult() : null;
+        });
+        return rval[0];
+    }
+
+    private static IPolicyContext context(ICacheStoreComponent store) {
+        IComponentRegistry registry = Mockito.mock(IComponentRegistry.class);
+        Mockito.when(registry.getComponent(ICacheStoreComponent.class)).thenReturn(store);
+        return new PolicyContextImpl(registry, null);
+    }
+
+    /**
+     * Accepts the password "secret" (for any user but "error") and counts its calls.
+     */
+    private static class CountingValidator implements IIdentityValidator<Object> {
+
+        private final AtomicInteger calls = new AtomicInteger();
+
+        @Override
+        public void validate(String username, String password, ApiRequest request, IPolicyContext context,
+                Object config, IAsyncResultHandler<Boolean> handler) {
+            calls.incrementAndGet();
+            if ("error".equals(username)) {
+                handler.handle(AsyncResultImpl.create(new Exception("error"), Boolean.class));
+            } else if ("secret".equals(password)) {
+                context.setAttribute(AuthorizationPolicy.AUTHENTICATED_USER_ROLES,
+                        new HashSet<>(Collections.singleton(username + "-role")));
+                handler.handle(AsyncResultImpl.create(Boolean.TRUE));
+            } else {
+                handler.handle(AsyncResultImpl.create(Boolean.FALSE));
+            }
+        }
+    }
+
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2017 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.apiman.gateway.engine.policies.caching;
+
+import io.apiman.gateway.engine.beans.ApiResponse;
+import io.apiman.gateway.engine.beans.util.HeaderMap;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for {@link CacheHeaders}.
+ *
+ * @author eric.wittmann@redhat.com
+ */
+@SuppressWarnings("nls")
+public class CacheHeadersTest {
+
+    @Test
+    public void testCacheControl() {
+        Assert.assertTrue(CacheHeaders.isCacheable(response("Cache-Control", "public, max-age=10")));
+        Assert.assertFalse(CacheHeaders.isCacheable(response("Cache-Control", "no-store")));
+        Assert.assertFalse(CacheHeaders.isCacheable(response("Cache-Control", "Private")));
+        Assert.assertFalse(CacheHeaders.isCacheable(response("Vary", "*")));
+
+        Assert.assertEquals(10, CacheHeaders.getTtl(response("Cache-Control", "public, max-age=10"), 60));
+        Assert.assertEquals(5, CacheHeaders.getTtl(response("Cache-Control", "max-age=10, s-maxage=5"), 60));
+        Assert.assertEquals(60, CacheHeaders.getTtl(response("Cache-Control", "public"), 60));
+    }
+
+    @Test
+    public void testVary() {
+        ApiResponse response = response("Vary", "Accept-Encoding, Accept");
+        Assert.assertEquals("accept,accept-encoding", CacheHeaders.getVary(response));
+        Assert.assertEquals("", CacheHeaders.getVary(response("Content-Type", "text/plain")));
+
+        HeaderMap gzip = new HeaderMap();
+        gzip.put("Accept", "text/plain");
+        gzip.put("Accept-Encoding", "gzip");
+        HeaderMap identity = new HeaderMap();
+        identity.put("Accept", "text/plain");
+        String vary = CacheHeaders.getVary(response);
+        Assert.assertNotEquals(CacheHeaders.getVariantKey(gzip, vary), CacheHeaders.getVariantKey(identity, vary));
+    }
+
+    @Test
+    public void testNotModified() {
+        ApiResponse cached = response("ETag", "\"v1\"");
+        cached.getHeaders().put("Last-Modified", "Tue, 15 Nov 1994 12:45:26 GMT");
+
+        HeaderMap request = new HeaderMap();
+        request.put("If-None-Match", "W/\"v1\"");
+        Assert.assertTrue(CacheHeaders.isNotModified("GET", request, cached));
+        Assert.assertFalse(CacheHeaders.isNotModified("POST", request, cached));
+        request.put("If-None-Match", "\"v2\"");
+        Assert.assertFalse(CacheHeaders.isNotModified("GET", request, cached));
+
+        request = new HeaderMap();
+        request.put("If-Modified-Since", "Wed, 16 Nov 1994 08:00:00 GMT");
+        Assert.assertTrue(CacheHeaders.isNotModified("GET", request, cached));
+        request.put("If-Modified-Since", "Mon, 14 Nov 1994 08:00:00 GMT");
+        Assert.assertFalse(CacheHeaders.isNotModified("GET", request, cached));
+
+        ApiResponse notModified = CacheHeaders.notModified(cached);
+        Assert.assertEquals(304, notModified.getCode());
+        Assert.assertEquals("\"v1\"", notModified.getHeaders().get("ETag"));
+    }
+
+    private static ApiResponse response(String header, String value) {
+        ApiResponse response = new ApiResponse();
+        response.setCode(200);
+        response.getHeaders().put(header, value);
+        return response;
+    }
+
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2017 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.apiman.gateway.engine.policies.caching;
+
+import io.apiman.gateway.engine.policies.caching.CacheMissCoalescer.Flight;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit test.
+ *
+ * @author eric.wittmann@redhat.com
+ */
+@SuppressWarnings("nls")
+public class CacheMissCoalescerTest {
+
+    private static final Executor INLINE = Runnable::run;
+
+    @Test
+    public void testCoalesce() throws Exception {
+        CacheMissCoalescer coalescer = new CacheMissCoalescer();
+        CountDownLatch latch = new CountDownLatch(3);
+
+        Flight flight = coalescer.join("key", 10000, INLINE, () -> Assert.fail("The leader must not wait"));
+        Assert.assertNotNull(flight);
+        for (int i = 0; i < 3; i++) {
+            Assert.assertNull(coalescer.join("key", 10000, INLINE, latch::countDown));
+        }
+        // Other keys are unaffected
+        Assert.assertNotNull(coalescer.join("other", 10000, INLINE, () -> {}));
+
+        Assert.assertEquals(3, latch.getCount());
+        flight.release();
+        Assert.assertEquals(0, latch.getCount());
+
+        // A new miss after the release leads a new flight
+        Assert.assertNotNull(coalescer.join("key", 10000, INLINE, () -> {}));
+    }
+
+    @Test
+    public void testResumedOnOwnContext() throws Exception {
+        CacheMissCoalescer coalescer = new CacheMissCoalescer();
+        ExecutorService contextA = Executors.newSingleThreadExecutor();
+        ExecutorService contextB = Executors.newSingleThreadExecutor();
+        try {
+            Thread threadA = contextA.submit(Thread::currentThread).get();
+            Thread threadB = contextB.submit(Thread::currentThread).get();
+            Map<String, Thread> resumedOn = new ConcurrentHashMap<>();
+            CountDownLatch latch = new CountDownLatch(2);
+
+            Flight flight = coalescer.join("key", 10000, INLINE, () -> {});
+            Assert.assertNull(coalescer.join("key", 10000, contextA, () -> {
+                resumedOn.put("a", Thread.currentThread());
+                latch.countDown();
+            }));
+            Assert.assertNull(coalescer.join("key", 10000, contextB, () -> {
+                resumedOn.put("b", Thread.currentThread());
+                latch.countDown();
+            }));
+            flight.release();
+            Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+            // Not on the releasing thread
+            Assert.assertSame(threadA, resumedOn.get("a"));
+            Assert.assertSame(threadB, resumedOn.get("b"));
+        } finally {
+            contextA.shutdownNow();
+            contextB.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testFailedWaiter() throws Exception {
+        CacheMissCoalescer coalescer = new CacheMissCoalescer();
+        CountDownLatch latch = new CountDownLatch(1);
+
+        Flight flight = coalescer.join("key", 10000, INLINE, () -> {});
+        Assert.assertNull(coalescer.join("key", 10000, INLINE, () -> { throw new RuntimeException("failed"); }));
+        Assert.assertNull(coalescer.join("key", 10000, INLINE, latch::countDown));
+        flight.release();
+        Assert.assertEquals(0, latch.getCount());
+        Assert.assertEquals(0, coalescer.getFlightCount());
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        CacheMissCoalescer coalescer = new CacheMissCoalescer();
+        CountDownLatch latch = new CountDownLatch(1);
+
+        Assert.assertNotNull(coalescer.join("key", 50, INLINE, () -> {}));
+        Assert.assertNull(coalescer.join("key", 50, CacheMissCoalescer.DEFAULT_EXECUTOR, latch::countDown));
+        // The leader never releases the flight
+        Assert.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(0, coalescer.getFlightCount());
+    }
+
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2017 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.apiman.gateway.engine.policies.ip;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link IPMatcher}.
+ *
+ * @author eric.wittmann@redhat.com
+ */
+@SuppressWarnings("nls")
+public class IPMatcherTest {
+
+    @Test
+    public void testParseAddress() {
+        assertAddress("1.2.3.4", 0, 0xFFFF01020304L);
+        assertAddress(" 10.0.0.255 ", 0, 0xFFFF0A0000FFL);
+        assertAddress("::ffff:1.2.3.4", 0, 0xFFFF01020304L);
+        assertAddress("::1", 0, 1);
+        assertAddress("::", 0, 0);
+        assertAddress("2001:db8::", 0x20010DB800000000L, 0);
+        assertAddress("[2001:DB8:0:0:1:0:0:1]", 0x20010DB800000000L, 0x0001000000000001L);
+        assertAddress("fe80::1%eth0", 0xFE80000000000000L, 1);
+        assertAddress("1:2:3:4:5:6:7:8", 0x0001000200030004L, 0x0005000600070008L);
+        assertAddress("1:2:3:4:5:6:1.2.3.4", 0x0001000200030004L, 0x0005000601020304L);
+
+        for (String invalid : new String[] { "", "1.2.3", "1.2.3.4.5", "256.1.1.1", "1.2.3.a", "1..2.3", "localhost",
+                ":1", "1:", "1:::2", "1::2::3", "1:2:3:4:5:6:7:8:9", "1:2:3:4:5:6:7", "12345::", "::1.2.3", "1:2:3:4:5:6:7:1.2.3.4" }) {
+            Assert.assertFalse(invalid, IPMatcher.parseAddress(invalid, 0, invalid.length(), new long[2]));
+        }
+    }
+
+    @Test
+    public void testMatches() {
+        IPMatcher matcher = new IPMatcher(Arrays.asList("1.2.3.4", "10.0.0.0/8", "192.168.1.10-192.168.1.20",
+                "172.16.*.*", "2001:db8::/32", "::1", "10.*.0.1", "*.*.9.9", "unknown"));
+        for (String address : new String[] { "1.2.3.4", "::ffff:1.2.3.4", "10.0.0.0", "10.255.255.255", "192.168.1.10",
+                "192.168.1.15", "192.168.1.20", "172.16.0.1", "172.16.255.255", "2001:db8::1", "2001:db8:ffff::",
+                "::1", "[::1]", "10.3.0.1", "8.8.9.9", "unknown" }) {
+            Assert.assertTrue(address, matcher.matches(address));
+        }
+        for (String address : new String[] { "1.2.3.5", "11.0.0.0", "9.255.255.255", "192.168.1.9", "192.168.1.21",
+                "172.17.0.1", "2001:db9::1", "::2", "::", "10.0.0.1x", "11.3.0.2", "known", null }) {
+            Assert.assertFalse(address, matcher.matches(address));
+        }
+    }
+
+    @Test
+    public void testWildcardsAndOverlaps() {
+        Assert.assertTrue(new IPMatcher(Arrays.asList("*.*.*.*")).matches("8.8.8.8"));
+        Assert.assertFalse(new IPMatcher(Arrays.asList("*.*.*.*")).matches("2001:db8::1"));
+        Assert.assertTrue(new IPMatcher(Arrays.asList("::/0")).matches("2001:db8::1"));
+        Assert.assertTrue(new IPMatcher(Arrays.asList("10.1.2.3", "10.0.0.0/8", "10.1.0.0/16")).matches("10.9.9.9"));
+        Assert.assertTrue(new IPMatcher(Arrays.asList("10.1.0.0/16", "10.0.0.0/8")).matches("10.9.9.9"));
+        Assert.assertFalse(new IPMatcher(Arrays.asList()).matches("10.9.9.9"));
+        Assert.assertFalse(new IPMatcher(null).matches("10.9.9.9"));
+        Assert.assertFalse(new IPMatcher(Arrays.asList("10.0.0.9-10.0.0.1")).matches("10.0.0.5"));
+    }
+
+    /**
+     * Compares against a brute force search over a large number of random blocks.
+     */
+    @Test
+    public void testRandomBlocks() {
+        Random random = new Random(42);
+        int[] addresses = new int[5000];
+        int[] lengths = new int[addresses.length];
+        Set<String> entries = new HashSet<>();
+        for (int i = 0; i < addresses.length; i++) {
+            lengths[i] = 8 + random.nextInt(25);
+            addresses[i] = random.nextInt() & (int) (-1L << (32 - lengths[i]));
+            entries.add(toString(addresses[i]) + "/" + lengths[i]);
+        }
+        IPMatcher matcher = new IPMatcher(entries);
+        for (int n = 0; n < 20000; n++) {
+            int address = n % 2 == 0 ? random.nextInt() : addresses[random.nextInt(addresses.length)] + random.nextInt(256);
+            boolean expected = false;
+            for (int i = 0; i < addresses.length && !expected; i++) {
+                expected = (address & (int) (-1L << (32 - lengths[i]))) == addresses[i];
+            }
+            Assert.assertEquals(toString(address), expected, matcher.matches(toString(address)));
+        }
+    }
+
+    private static void assertAddress(String text, long hi, long lo) {
+        long[] address = new long[2];
+        Assert.assertTrue(text, IPMatcher.parseAddress(text, 0, text.length(), address));
+        Assert.assertEquals(text, hi, address[0]);
+        Assert.assertEquals(text, lo, address[1]);
+    }
+
+    private static String toString(int address) {
+        return (address >>> 24) + "." + ((address >>> 16) & 0xFF) + "." + ((address >>> 8) & 0xFF) + "." + (address & 0xFF);
+    }
+
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2017 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.apiman.gateway.engine.policies.path;
+
+import io.apiman.gateway.engine.policies.config.AuthorizationRule;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link PathRuleMatcher}.
+ *
+ * @author eric.wittmann@redhat.com
+ */
+@SuppressWarnings("nls")
+public class PathRuleMatcherTest {
+
+    @Test
+    public void testLiteralPrefix() {
+        assertPrefix("/invoices/.+", "/invoices/", false);
+        assertPrefix("/invoices", "/invoices", true);
+        assertPrefix("/invoices/?", "/invoices", false);
+        assertPrefix("/a\\.b\\/c*", "/a.b/", false);
+        assertPrefix("/items\\d+", "/items", false);
+        assertPrefix("/a|/b", "", false);
+        assertPrefix("/a\\|b.*", "/a|b", false);
+        assertPrefix("(?i)/a", "", false);
+        assertPrefix(".*", "", false);
+        assertPrefix("", "", true);
+    }
+
+    @Test
+    public void testMatches() {
+        List<AuthorizationRule> rules = Arrays.asList(
+                rule("*", "/invoices/.+", "r0"),
+                rule("GET", "/invoices/.+/items/.+", "r1"),
+                rule("POST", "/invoices", "r2"),
+                rule("*", ".*", "r3"),
+                rule("get", "/inv.*", "r4"),
+                rule("*", "/invoices|/items", "r5"),
+                rule("*", "/items/[0-9]+", "r6"));
+        PathRuleMatcher<AuthorizationRule> matcher = new PathRuleMatcher<>(rules, AuthorizationRule::getVerb,
+                AuthorizationRule::getPathPattern);
+
+        Assert.assertEquals(Arrays.asList("r0", "r1", "r3", "r4"), roles(matcher.getMatches("GET", "/invoices/1/items/2")));
+        Assert.assertEquals(Arrays.asList("r0", "r3"), roles(matcher.getMatches("PUT", "/invoices/1/items/2")));
+        Assert.assertEquals(Arrays.asList("r2", "r3", "r5"), roles(matcher.getMatches("POST", "/invoices")));
+        Assert.assertEquals(Arrays.asList("r3", "r4", "r5"), roles(matcher.getMatches("GET", "/invoices")));
+        Assert.assertEquals(Arrays.asList("r3", "r6"), roles(matcher.getMatches("GET", "/items/12")));
+        Assert.assertEquals(Arrays.asList("r3"), roles(matcher.getMatches("GET", "/items/x")));
+        // No verb matches every verb
+        Assert.assertEquals(Arrays.asList("r2", "r3", "r4", "r5"), roles(matcher.getMatches(null, "/invoices")));
+        Assert.assertTrue(matcher.matchesAny("DELETE", "/anything"));
+    }
+
+    @Test
+    public void testSameAsRegex() {
+        String[] patterns = { "/a/.*", "/a/b", "/a/b/?", "/a/[bc]/d", "/a.*/e", "/(a|b)/f", "/a/b+", "/ab*", "/a/\\w+",
+                "/a\\.b", "/a.b" };
+        String[] paths = { "/a/b", "/a/b/", "/a/c/d", "/a/b/d", "/ab", "/abbb", "/a", "/a/bb", "/axx/e", "/b/f", "/a.b",
+                "/aXb", "/", "" };
+        List<AuthorizationRule> rules = new ArrayList<>();
+        for (String pattern : patterns) {
+            rules.add(rule("*", pattern, pattern));
+        }
+        PathRuleMatcher<AuthorizationRule> matcher = new PathRuleMatcher<>(rules, AuthorizationRule::getVerb,
+                AuthorizationRule::getPathPattern);
+        for (String path : paths) {
+            List<String> expected = Arrays.stream(patterns).filter(path::matches).collect(Collectors.toList());
+            Assert.assertEquals(path, expected, roles(matcher.getMatches("GET", path)));
+            Assert.assertEquals(path, !expected.isEmpty(), matcher.matchesAny("GET", path));
+        }
+    }
+
+    @Test
+    public void testNullVerb() {
+        List<AuthorizationRule> rules = Arrays.asList(
+                rule(null, "/invoices", "r0"),
+                rule("*", "/invoices", "r1"));
+        PathRuleMatcher<AuthorizationRule> matcher = new PathRuleMatcher<>(rules, AuthorizationRule::getVerb,
+                AuthorizationRule::getPathPattern);
+
+        // A rule without a verb never matches a request's verb
+        Assert.assertEquals(Arrays.asList("r1"), roles(matcher.getMatches("GET", "/invoices")));
+        Assert.assertFalse(new PathRuleMatcher<>(rules.subList(0, 1), AuthorizationRule::getVerb,
+                AuthorizationRule::getPathPattern).matchesAny("GET", "/invoices"));
+        // ... but no verb still matches every rule
+        Assert.assertEquals(Arrays.asList("r0", "r1"), roles(matcher.getMatches(null, "/invoices")));
+        // Matchers that do not restrict the verb at all match every verb
+        Assert.assertTrue(new PathRuleMatcher<>(rules.subList(0, 1), null, AuthorizationRule::getPathPattern)
+                .matchesAny("GET", "/invoices"));
+    }
+
+    @Test
+    public void testNoRules() {
+        PathRuleMatcher<AuthorizationRule> matcher = new PathRuleMatcher<>(null, AuthorizationRule::getVerb,
+                AuthorizationRule::getPathPattern);
+        Assert.assertTrue(matcher.getMatches("GET", "/").isEmpty());
+        Assert.assertFalse(matcher.matchesAny("GET", "/"));
+    }
+
+    private static void assertPrefix(String regex, String expectedPrefix, boolean expectedLiteral) {
+        StringBuilder prefix = new StringBuilder();
+        Assert.assertEquals(regex, expectedLiteral, PathRuleMatcher.literalPrefix(regex, prefix));
+        Assert.assertEquals(regex, expectedPrefix, prefix.toString());
+    }
+
+    private static AuthorizationRule rule(String verb, String pathPattern, String role) {
+        AuthorizationRule rule = new AuthorizationRule();
+        rule.setVerb(verb);
+        rule.setPathPattern(pathPattern);
+        rule.setRole(role);
+        return rule;
+    }
+
+    private static List<String> roles(List<AuthorizationRule> rules) {
+        return rules.stream().map(AuthorizationRule::getRole).collect(Collectors.toList());
+    }
+
+}
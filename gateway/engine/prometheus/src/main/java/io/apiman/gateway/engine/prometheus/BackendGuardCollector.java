@@ -0,0 +1,65 @@
+/*
+ * Copyright 2017 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.apiman.gateway.engine.prometheus;
+
+import io.apiman.gateway.engine.circuitbreaker.BackendGuard;
+import io.apiman.gateway.engine.circuitbreaker.BackendGuards;
+import io.prometheus.client.Collector;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Exposes the state of the gateway's back-end guards (circuit breakers and
+ * bulkheads), read when the metrics are scraped.  A back-end that APIs guard with
+ * different configurations has a guard (and so a series) per configuration.
+ *
+ * @author eric.wittmann@redhat.com
+ */
+@SuppressWarnings("nls")
+public class BackendGuardCollector extends Collector {
+
+    private static final List<String> LABEL_NAMES = Arrays.asList("backend", "configuration");
+
+    /**
+     * @see io.prometheus.client.Collector#collect()
+     */
+    @Override
+    public List<MetricFamilySamples> collect() {
+        List<MetricFamilySamples.Sample> state = new ArrayList<>();
+        List<MetricFamilySamples.Sample> active = new ArrayList<>();
+        List<MetricFamilySamples.Sample> rejected = new ArrayList<>();
+        for (BackendGuard guard : BackendGuards.getAll()) {
+            List<String> labelValues = Arrays.asList(guard.getBackend(), guard.getConfiguration());
+            state.add(new MetricFamilySamples.Sample("apiman_circuit_breaker_state", LABEL_NAMES, labelValues,
+                    guard.getState().ordinal()));
+            active.add(new MetricFamilySamples.Sample("apiman_backend_active_requests", LABEL_NAMES, labelValues,
+                    guard.getActiveRequests()));
+            rejected.add(new MetricFamilySamples.Sample("apiman_backend_rejected_requests_total", LABEL_NAMES, labelValues,
+                    guard.getRejectedRequests()));
+        }
+        List<MetricFamilySamples> rval = new ArrayList<>(3);
+        rval.add(new MetricFamilySamples("apiman_circuit_breaker_state", Type.GAUGE,
+                "Circuit breaker state (0 = closed, 1 = open, 2 = half-open).", state));
+        rval.add(new MetricFamilySamples("apiman_backend_active_requests", Type.GAUGE,
+                "Requests in progress to the back-end.", active));
+        rval.add(new MetricFamilySamples("apiman_backend_rejected_requests_total", Type.COUNTER,
+                "Requests rejected by the circuit breaker or bulkhead.", rejected));
+        return rval;
+    }
+
+}
@@ -103,6 +103,9 @@ public class PrometheusScrapeMetrics implements IMetrics {
                     CLIENT)
             .register(collectorRegistry);
 
+    // Back-end circuit breakers and bulkheads
+    final BackendGuardCollector backendGuards = new BackendGuardCollector().register(collectorRegistry);
+
     public PrometheusScrapeMetrics(Map<String, String> componentConfig,
             Handler<AsyncResult<HttpServer>> listenHandler) {
         this.vertx = Vertx.vertx();
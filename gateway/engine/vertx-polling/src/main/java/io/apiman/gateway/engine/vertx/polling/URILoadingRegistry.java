@@ -47,7 +47,6 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
-import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.lang3.StringUtils;
 
@@ -57,8 +56,15 @@ import org.apache.commons.lang3.StringUtils;
  *   <li>configUri: apiman policy config to load from JSON via file
  *   ({@link FileResourceFetcher}) or HTTP/S ({@link HttpResourceFetcher}).
  *   See the corresponding fetcher for additional options.</li>
+ *   <li>pollInterval: how often (in millis) to check the config for changes and
+ *   reload it; 0 (the default) to load it just once.</li>
  * </ul>
  *
+ * The loaded config is an immutable snapshot, which is replaced as a whole when the
+ * config changes - so lookups never see a partially loaded config.  APIs and clients
+ * whose definitions haven't changed are carried over to the new snapshot as-is.  If
+ * the changed config can't be loaded, the previous snapshot stays in place.
+ *
  * @author Marc Savy {@literal <marc@rhymewithgravy.com>}
  * @see FileResourceFetcher
  * @see HttpResourceFetcher
@@ -66,10 +72,11 @@ import org.apache.commons.lang3.StringUtils;
 @SuppressWarnings("nls")
 public class URILoadingRegistry extends InMemoryRegistry implements AsyncInitialize {
     // Protected by DCL, use #getUriLoader
-    private static volatile OneShotURILoader instance;
+    private static volatile URILoader instance;
     private URI uri;
     private Vertx vertx;
     private Map<String, String> options;
+    private volatile Map<String, Object> snapshot = Collections.emptyMap();
 
     public URILoadingRegistry(Vertx vertx, IEngineConfig vxConfig, Map<String, String> options) {
         super();
@@ -88,57 +95,48 @@ public class URILoadingRegistry extends InMemoryRegistry implements AsyncInitial
         getURILoader(vertx, uri, options).subscribe(this, resultHandler);
     }
 
-    private static OneShotURILoader getURILoader(Vertx vertx, URI uri, Map<String, String> options) {
+    private static URILoader getURILoader(Vertx vertx, URI uri, Map<String, String> options) {
         if (instance == null) {
             synchronized(URILoadingRegistry.class) {
                 if (instance == null) {
-                    instance = new OneShotURILoader(vertx, uri, options);
+                    instance = new URILoader(vertx, uri, options);
                 }
             }
         }
         return instance;
     }
 
-    // For testing only. Reloads rather than full restart.
+    /**
+     * Reloads the config now (whether or not it appears to have changed).
+     * @param doneHandler called once the config has been reloaded (or failed to)
+     */
     public static void reloadData(IAsyncHandler<Void> doneHandler) {
         synchronized(URILoadingRegistry.class) {
             if (instance == null) {
                 doneHandler.handle((Void) null);
                 return;
             }
-            Map<URILoadingRegistry, IAsyncResultHandler<Void>> regs = instance.handlers;
-            Vertx vertx = instance.vertx;
-            URI uri = instance.uri;
-            Map<String, String> config = instance.config;
-            AtomicInteger ctr = new AtomicInteger(regs.size());
-            OneShotURILoader newLoader = new OneShotURILoader(vertx, uri, config);
-
-            regs.entrySet().stream().forEach(pair -> {
-                // Clear the registrys' internal maps to prepare for reload.
-                // NB: If we add production hot reloading, we'll need to work around this (e.g. clone?).
-                pair.getKey().getMap().clear();
-                // Re-subscribe the registry.
-                newLoader.subscribe(pair.getKey(), result -> {
-                    checkAndFlip(ctr.decrementAndGet(), newLoader, doneHandler);
-                });
-            });
-            checkAndFlip(ctr.get(), newLoader, doneHandler);
-        }
-    }
-
-    private static void checkAndFlip(int ctr, OneShotURILoader instance, IAsyncHandler<Void> doneHandler) {
-        if (ctr == 0) {
-            doneHandler.handle((Void) null);
-            URILoadingRegistry.instance = instance;
+            instance.reload(false, doneHandler);
         }
     }
 
     public static void reset() {
         synchronized(URILoadingRegistry.class) {
+            if (instance != null) {
+                instance.stopPolling();
+            }
             instance = null;
         }
     }
 
+    /**
+     * @see io.apiman.gateway.engine.impl.InMemoryRegistry#getMap()
+     */
+    @Override
+    public Map<String, Object> getMap() {
+        return snapshot;
+    }
+
     @Override
     public void publishApi(Api api, IAsyncResultHandler<Void> handler) {
         throw new UnsupportedOperationException();
@@ -159,15 +157,27 @@ public class URILoadingRegistry extends InMemoryRegistry implements AsyncInitial
         throw new UnsupportedOperationException();
     }
 
-    protected void publishApiInternal(Api api, IAsyncResultHandler<Void> handler) {
-        super.publishApi(api, handler);
-    }
+    /**
+     * An immutable snapshot of the loaded config.
+     */
+    private static final class Snapshot {
+
+        private static final Snapshot EMPTY = new Snapshot(Collections.emptyMap(), Collections.emptyMap(), Collections.emptyMap());
 
-    protected void registerClientInternal(Client client, IAsyncResultHandler<Void> handler) {
-        super.registerClient(client, handler);
+        // The registry's entries
+        private final Map<String, Object> entries;
+        // The APIs and clients, indexed by their JSON definitions
+        private final Map<String, Api> apis;
+        private final Map<String, Client> clients;
+
+        private Snapshot(Map<String, Object> entries, Map<String, Api> apis, Map<String, Client> clients) {
+            this.entries = entries;
+            this.apis = apis;
+            this.clients = clients;
+        }
     }
 
-    private static final class OneShotURILoader {
+    private static final class URILoader {
 
         Vertx vertx;
         URI uri;
@@ -175,28 +185,27 @@ public class URILoadingRegistry extends InMemoryRegistry implements AsyncInitial
         Map<URILoadingRegistry, IAsyncResultHandler<Void>> handlers = new LinkedHashMap<>();
         private Deque<URILoadingRegistry> awaiting = new ArrayDeque<>();
         private List<URILoadingRegistry> allRegistries = new ArrayList<>();
-        private Buffer rawData;
+        private final ResourceFetcher fetcher;
+        private volatile Snapshot snapshot = Snapshot.EMPTY;
         private boolean dataProcessed = false;
-        private List<Client> clients = Collections.emptyList();
-        private List<Api> apis = Collections.emptyList();
-        private Logger log = LoggerFactory.getLogger(OneShotURILoader.class);
-        private IAsyncHandler<Void> reloadHandler;
+        private Logger log = LoggerFactory.getLogger(URILoader.class);
         private boolean failed;
+        private long pollInterval;
+        private long pollTimerId = -1;
+        private boolean reloading;
 
-        public OneShotURILoader(Vertx vertx, URI uri, Map<String, String> config) {
+        public URILoader(Vertx vertx, URI uri, Map<String, String> config) {
             this.config = config;
             this.vertx = vertx;
             this.uri = uri;
+            this.pollInterval = config.containsKey("pollInterval") ? new Long(config.get("pollInterval")) : 0;
+            this.fetcher = getResourceFetcher();
             fetchResource();
         }
 
         private void fetchResource() {
-            getResourceFetcher()
-                .exceptionHandler(this::failAll)
-                .fetch(data -> {
-                    rawData = data;
-                    processData();
-                });
+            fetcher.exceptionHandler(this::failAll)
+                .fetch(this::processData);
         }
 
         private ResourceFetcher getResourceFetcher() {
@@ -213,35 +222,142 @@ public class URILoadingRegistry extends InMemoryRegistry implements AsyncInitial
             }
         }
 
-        private void processData() {
-            if (rawData.length() == 0) {
-                log.warn("File loaded into registry was empty. No entities created.");
-                dataProcessed = true;
-                allRegistries.stream().forEach(this::checkSuccess);
+        private void processData(Buffer rawData) {
+            try {
+                snapshot = createSnapshot(rawData, handleAnyFailure());
+            } catch (DecodeException | IllegalArgumentException e) {
+                failAll(e);
                 return;
             }
-            try {
-                JsonObject json = new JsonObject(rawData.toString("UTF-8").trim());
-                log.trace("Processing JSON: {0}", json);
-                clients = requireJsonArray("clients", json, Client.class);
-                apis = requireJsonArray("apis", json, Api.class);
+            synchronized (URILoadingRegistry.class) {
                 dataProcessed = true;
                 checkQueue();
-            } catch (DecodeException e) {
-                failAll(e);
+            }
+            if (pollInterval > 0) {
+                pollTimerId = vertx.setPeriodic(pollInterval, id -> reload(true, null));
             }
         }
 
-        @SuppressWarnings("unchecked")
-        private <T, K> List<T> requireJsonArray(String keyName, JsonObject json, Class<K> klazz) {
+        /**
+         * Fetches the config again and, if it has changed, replaces the registries'
+         * snapshot.
+         * @param ifModified true to skip the reload if the config appears unchanged
+         * @param doneHandler called once done (may be null)
+         */
+        private void reload(boolean ifModified, IAsyncHandler<Void> doneHandler) {
+            if (reloading && ifModified) {
+                return; // The previous poll is still in progress.
+            }
+            reloading = true;
+            fetcher.exceptionHandler(error -> {
+                log.error("Failed to reload config from {0}: {1}", uri, error.getMessage());
+                reloaded(doneHandler);
+            });
+            if (ifModified) {
+                fetcher.fetchIfModified(data -> swap(data, doneHandler), notModified -> reloaded(doneHandler));
+            } else {
+                fetcher.fetch(data -> swap(data, doneHandler));
+            }
+        }
+
+        private void swap(Buffer rawData, IAsyncHandler<Void> doneHandler) {
+            try {
+                boolean[] invalid = new boolean[1];
+                Snapshot newSnapshot = createSnapshot(rawData, result -> {
+                    if (result.isError()) {
+                        log.error("Invalid config at {0}: {1}", uri, result.getError().getMessage());
+                        invalid[0] = true;
+                    }
+                });
+                if (!invalid[0] && newSnapshot != snapshot) {
+                    snapshot = newSnapshot;
+                    synchronized (URILoadingRegistry.class) {
+                        allRegistries.forEach(reg -> reg.snapshot = newSnapshot.entries);
+                    }
+                }
+            } catch (DecodeException | IllegalArgumentException e) {
+                log.error("Invalid config at {0}: {1}", uri, e.getMessage());
+            }
+            reloaded(doneHandler);
+        }
+
+        private void reloaded(IAsyncHandler<Void> doneHandler) {
+            reloading = false;
+            if (doneHandler != null) {
+                doneHandler.handle((Void) null);
+            }
+        }
+
+        private void stopPolling() {
+            if (pollTimerId != -1) {
+                vertx.cancelTimer(pollTimerId);
+            }
+        }
+
+        /**
+         * Creates a snapshot of the given config, reusing the APIs and clients of the
+         * current snapshot that haven't changed.  Returns the current snapshot if
+         * nothing has changed.
+         */
+        private Snapshot createSnapshot(Buffer rawData, IAsyncResultHandler<Void> errorHandler) {
+            if (rawData.length() == 0) {
+                log.warn("File loaded into registry was empty. No entities created.");
+                return Snapshot.EMPTY;
+            }
+            JsonObject json = new JsonObject(rawData.toString("UTF-8").trim());
+            log.trace("Processing JSON: {0}", json);
+            Snapshot current = snapshot;
+            Map<String, Api> apis = diff(requireJsonArray("apis", json), current.apis, Api.class);
+            Map<String, Client> clients = diff(requireJsonArray("clients", json), current.clients, Client.class);
+            if (apis == current.apis && clients == current.clients) {
+                log.debug("Config at {0} is unchanged.", uri);
+                return current;
+            }
+
+            InMemoryRegistry staging = new InMemoryRegistry();
+            for (Api api : apis.values()) {
+                staging.publishApi(api, errorHandler);
+                log.debug("Publishing: {0} ", api);
+            }
+            for (Client client : clients.values()) {
+                staging.registerClient(client, errorHandler);
+                log.debug("Registering: {0} ", client);
+            }
+            return new Snapshot(Collections.unmodifiableMap(staging.getMap()), apis, clients);
+        }
+
+        /**
+         * Decodes the given JSON definitions, reusing the current objects for those
+         * that are unchanged.  Returns the current map if nothing has changed.
+         */
+        private <T> Map<String, T> diff(JsonArray definitions, Map<String, T> current, Class<T> klazz) {
+            Map<String, T> rval = new LinkedHashMap<>();
+            int changed = 0;
+            for (int idx = 0; idx < definitions.size(); idx++) {
+                String definition = definitions.getJsonObject(idx).encode();
+                T existing = current.get(definition);
+                if (existing == null) {
+                    existing = Json.decodeValue(definition, klazz);
+                    changed++;
+                }
+                rval.put(definition, existing);
+            }
+            int removed = current.size() - (rval.size() - changed);
+            if (changed == 0 && removed == 0) {
+                return current;
+            }
+            log.info("{0} {1}(s) added or changed and {2} removed.", changed, klazz.getSimpleName(), removed);
+            return Collections.unmodifiableMap(rval);
+        }
+
+        private JsonArray requireJsonArray(String keyName, JsonObject json) {
             // Contains key.
             Arguments.require(json.containsKey(keyName),
                     String.format("Must provide array of %s objects for key '%s'", StringUtils.capitalize(keyName), keyName));
             // Is of type array.
             Arguments.require(json.getValue(keyName) instanceof JsonArray,
                     String.format("'%s' must be a Json array", keyName));
-            // Transform into List<T>.
-            return Json.decodeValue(json.getJsonArray(keyName).encode(), List.class, klazz);
+            return json.getJsonArray(keyName);
         }
 
         public void subscribe(URILoadingRegistry registry, IAsyncResultHandler<Void> handler) {
@@ -251,7 +367,11 @@ public class URILoadingRegistry extends InMemoryRegistry implements AsyncInitial
                 handlers.put(registry, handler);
                 allRegistries.add(registry);
                 awaiting.add(registry);
-                vertx.runOnContext(action -> checkQueue());
+                vertx.runOnContext(action -> {
+                    synchronized (URILoadingRegistry.class) {
+                        checkQueue();
+                    }
+                });
             }
         }
 
@@ -265,18 +385,9 @@ public class URILoadingRegistry extends InMemoryRegistry implements AsyncInitial
             URILoadingRegistry reg = null;
             while ((reg = awaiting.poll()) != null) {
                 log.debug("Loading data into registry {0}:", reg);
-                for (Api api : apis) {
-                    reg.publishApiInternal(api, handleAnyFailure());
-                    log.debug("Publishing: {0} ", api);
-                }
-                for (Client client : clients) {
-                    reg.registerClientInternal(client, handleAnyFailure());
-                    log.debug("Registering: {0} ", client);
-                }
+                reg.snapshot = snapshot.entries;
                 checkSuccess(reg);
             }
-            if (reloadHandler != null)
-                reloadHandler.handle((Void) null);
         }
 
         private IAsyncResultHandler<Void> handleAnyFailure() {
@@ -24,7 +24,8 @@ import java.net.URI;
 import java.util.Map;
 
 /**
- * Fetch a file from the local filesystem.
+ * Fetch a file from the local filesystem.  The file is considered to have changed
+ * if its size or modification time has changed.
  *
  * @author Marc Savy {@literal <marc@rhymewithgravy.com>}
  */
@@ -33,6 +34,8 @@ public class FileResourceFetcher implements ResourceFetcher {
     private Vertx vertx;
     private URI uri;
     private Handler<Throwable> exceptionHandler;
+    private long lastModifiedTime = -1;
+    private long size = -1;
 
     public FileResourceFetcher(Vertx vertx, URI uri, Map<String, String> config) {
         this.vertx = vertx;
@@ -41,6 +44,31 @@ public class FileResourceFetcher implements ResourceFetcher {
 
     @Override
     public void fetch(Handler<Buffer> resultHandler) {
+        vertx.fileSystem().props(uri.getPath(), props -> {
+            if (props.succeeded()) {
+                lastModifiedTime = props.result().lastModifiedTime();
+                size = props.result().size();
+            }
+            read(resultHandler);
+        });
+    }
+
+    @Override
+    public void fetchIfModified(Handler<Buffer> resultHandler, Handler<Void> notModifiedHandler) {
+        vertx.fileSystem().props(uri.getPath(), props -> {
+            if (props.failed()) {
+                exceptionHandler.handle(props.cause());
+            } else if (props.result().lastModifiedTime() == lastModifiedTime && props.result().size() == size) {
+                notModifiedHandler.handle((Void) null);
+            } else {
+                lastModifiedTime = props.result().lastModifiedTime();
+                size = props.result().size();
+                read(resultHandler);
+            }
+        });
+    }
+
+    private void read(Handler<Buffer> resultHandler) {
         vertx.fileSystem().readFile(uri.getPath(), result -> {
             if (result.succeeded()) {
                 resultHandler.handle(result.result());
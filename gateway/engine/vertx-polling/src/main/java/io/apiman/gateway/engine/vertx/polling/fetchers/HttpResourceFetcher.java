@@ -22,6 +22,7 @@ import io.apiman.gateway.engine.vertx.polling.fetchers.auth.Authenticator;
 import io.vertx.core.Handler;
 import io.vertx.core.Vertx;
 import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpClient;
 import io.vertx.core.http.HttpClientOptions;
 import io.vertx.core.http.HttpClientRequest;
 import io.vertx.core.impl.Arguments;
@@ -33,10 +34,15 @@ import org.apache.commons.lang3.EnumUtils;
 
 /**
  * Fetch HTTP and HTTPS resources, with Auth options including BASIC and various OAuth2
- * permutations.
+ * permutations.  Conditional requests (using the ETag and Last-Modified of the previous
+ * complete response) are used to find out whether the resource has changed.  A fetch
+ * that gets no response (or no data) within the request timeout fails, so that a hung
+ * server can't stall polling.
  *
  * <ul>
  *   <li>auth: auth type, one of {@link AuthType}. Otherwise <tt>None</tt> by default.<li>
+ *   <li>requestTimeout: time (in millis) to wait for the response, or 0 to wait forever.
+ *   30000 by default.<li>
  * </ul>
  *
  * Refer to {@link AuthType} for available options, such as BASIC, OAuth2, Keycloak, etc.
@@ -47,13 +53,18 @@ import org.apache.commons.lang3.EnumUtils;
 @SuppressWarnings("nls")
 public class HttpResourceFetcher implements ResourceFetcher {
 
+    private static final long DEFAULT_REQUEST_TIMEOUT = 30000;
+
     private URI uri;
     private boolean isHttps;
     private Vertx vertx;
-    private Buffer rawData = Buffer.buffer();
     private Handler<Throwable> exceptionHandler;
     private Map<String, String> config;
     private Authenticator authenticator;
+    private HttpClient client;
+    private String etag;
+    private String lastModified;
+    private long requestTimeout;
 
     public HttpResourceFetcher(Vertx vertx, URI uri, Map<String, String> config, boolean isHttps) {
         this.vertx = vertx;
@@ -65,10 +76,21 @@ public class HttpResourceFetcher implements ResourceFetcher {
         Arguments.require(EnumUtils.isValidEnum(AuthType.class, authString), "auth must be one of: " + AuthType.all());
         authenticator = AuthType.valueOf(authString).getAuthenticator();
         authenticator.validateConfig(config);
+        requestTimeout = config.containsKey("requestTimeout") ? Long.parseLong(config.get("requestTimeout")) : DEFAULT_REQUEST_TIMEOUT;
+        Arguments.require(requestTimeout >= 0, "requestTimeout must not be negative");
     }
 
     @Override
     public void fetch(Handler<Buffer> resultHandler) {
+        fetch(resultHandler, null);
+    }
+
+    @Override
+    public void fetchIfModified(Handler<Buffer> resultHandler, Handler<Void> notModifiedHandler) {
+        fetch(resultHandler, notModifiedHandler);
+    }
+
+    private void fetch(Handler<Buffer> resultHandler, Handler<Void> notModifiedHandler) {
         int port = uri.getPort();
         if (port == -1) {
             if (isHttps) {
@@ -78,27 +100,69 @@ public class HttpResourceFetcher implements ResourceFetcher {
             }
         }
 
-        HttpClientRequest httpClientRequest = vertx.createHttpClient(new HttpClientOptions().setSsl(isHttps))
+        if (client == null) {
+            client = vertx.createHttpClient(new HttpClientOptions().setSsl(isHttps));
+        }
+        // Only the first outcome counts (e.g. a failed authentication is followed by the timeout).
+        boolean[] done = new boolean[1];
+        Handler<Throwable> errorHandler = error -> {
+            if (!done[0]) {
+                done[0] = true;
+                exceptionHandler.handle(error);
+            }
+        };
+        Buffer rawData = Buffer.buffer();
+        HttpClientRequest httpClientRequest = client
             .get(port, uri.getHost(), uri.getPath(), clientResponse -> {
-                if (clientResponse.statusCode() / 100 == 2) {
+                if (done[0]) {
+                    return;
+                }
+                if (clientResponse.statusCode() == 304 && notModifiedHandler != null) {
+                    done[0] = true;
+                    notModifiedHandler.handle((Void) null);
+                } else if (clientResponse.statusCode() / 100 == 2) {
+                    String responseEtag = clientResponse.getHeader("ETag");
+                    String responseLastModified = clientResponse.getHeader("Last-Modified");
                     clientResponse.handler(data -> {
                         rawData.appendBuffer(data);
                     })
-                    .endHandler(end -> resultHandler.handle(rawData))
-                    .exceptionHandler(exceptionHandler);
+                    .endHandler(end -> {
+                        if (!done[0]) {
+                            done[0] = true;
+                            // Only now that the body has been read in full is it safe to skip it next time.
+                            etag = responseEtag;
+                            lastModified = responseLastModified;
+                            resultHandler.handle(rawData);
+                        }
+                    })
+                    .exceptionHandler(errorHandler);
                 } else {
-                    exceptionHandler.handle(new BadResponseCodeError("Unexpected response code when trying to retrieve config: " //$NON-NLS-1$
+                    errorHandler.handle(new BadResponseCodeError("Unexpected response code when trying to retrieve config: " //$NON-NLS-1$
                             + clientResponse.statusCode()));
                 }
             })
-            .exceptionHandler(exceptionHandler);
+            .exceptionHandler(errorHandler);
+
+        if (requestTimeout > 0) {
+            // Also covers the time spent authenticating (e.g. fetching a token).
+            httpClientRequest.setTimeout(requestTimeout);
+        }
+        if (notModifiedHandler != null && etag != null) {
+            httpClientRequest.putHeader("If-None-Match", etag);
+        }
+        if (notModifiedHandler != null && lastModified != null) {
+            httpClientRequest.putHeader("If-Modified-Since", lastModified);
+        }
 
         authenticator.authenticate(vertx, config, httpClientRequest.headers(), authResult -> {
+            if (done[0]) {
+                return;
+            }
             if (authResult.succeeded()) {
                 // The client request is executed when HttpClientRequest#end is invoked.
                 httpClientRequest.end();
             } else {
-                exceptionHandler.handle(authResult.cause());
+                errorHandler.handle(authResult.cause());
             }
         });
     }
@@ -39,6 +39,17 @@ public interface ResourceFetcher {
      */
     void fetch(Handler<Buffer> resultHandler);
 
+    /**
+     * Fetch a resource only if it has changed since it was last fetched (by this
+     * fetcher).  Fetchers that can't tell always fetch the resource.
+     *
+     * @param resultHandler the result handler, called if the resource has changed
+     * @param notModifiedHandler called if the resource has not changed
+     */
+    default void fetchIfModified(Handler<Buffer> resultHandler, Handler<Void> notModifiedHandler) {
+        fetch(resultHandler);
+    }
+
     /**
      * Set an exception handler, invoked in an error occurs.
      *
@@ -0,0 +1,259 @@
+/*
+ * Copyright 2017 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.apiman.gateway.engine.vertx.polling;
+
+import io.apiman.gateway.engine.async.IAsyncResult;
+import io.apiman.gateway.engine.beans.Api;
+import io.apiman.gateway.engine.beans.ApiContract;
+import io.apiman.gateway.engine.beans.Client;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit test.
+ *
+ * @author eric.wittmann@redhat.com
+ */
+@SuppressWarnings("nls")
+public class URILoadingRegistryTest {
+
+    private Vertx vertx;
+    private File configFile;
+    private URILoadingRegistry registry;
+
+    @Before
+    public void setUp() throws Exception {
+        vertx = Vertx.vertx();
+        configFile = File.createTempFile("apiman-registry", ".json");
+        configFile.deleteOnExit();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        URILoadingRegistry.reset();
+        vertx.close();
+        configFile.delete();
+    }
+
+    @Test
+    public void testUnchanged() throws Exception {
+        JsonObject config = config(apis(api("api-1", "http://a")), clients(client("client-1", "key-1", "api-1")));
+        load(config);
+        Map<String, Object> before = registry.getMap();
+
+        reload(config);
+        Assert.assertSame(before, registry.getMap());
+    }
+
+    @Test
+    public void testAddRemoveAndChange() throws Exception {
+        load(config(apis(api("api-1", "http://a"), api("api-2", "http://b")),
+                clients(client("client-1", "key-1", "api-1"), client("client-2", "key-2", "api-2"))));
+        Api api1 = getApi("api-1");
+        Client client1 = getClient("key-1");
+
+        // Change api-2, remove client-2 and add api-3 and client-3
+        reload(config(apis(api("api-1", "http://a"), api("api-2", "http://c"), api("api-3", "http://d")),
+                clients(client("client-1", "key-1", "api-1"), client("client-3", "key-3", "api-3"))));
+
+        Assert.assertSame(api1, getApi("api-1"));
+        Assert.assertSame(client1, getClient("key-1"));
+        Assert.assertEquals("http://c", getApi("api-2").getEndpoint());
+        Assert.assertEquals("http://d", getApi("api-3").getEndpoint());
+        Assert.assertNull(getClient("key-2"));
+        Assert.assertEquals("client-3", getClient("key-3").getClientId());
+
+        // Remove api-2, change client-1
+        reload(config(apis(api("api-1", "http://a"), api("api-3", "http://d")),
+                clients(client("client-1", "key-1", "api-3"), client("client-3", "key-3", "api-3"))));
+
+        Assert.assertSame(api1, getApi("api-1"));
+        Assert.assertNull(getApi("api-2"));
+        Assert.assertNotSame(client1, getClient("key-1"));
+        Assert.assertEquals("api-3", getClient("key-1").getContracts().iterator().next().getApiId());
+    }
+
+    @Test
+    public void testMalformedReload() throws Exception {
+        load(config(apis(api("api-1", "http://a")), clients(client("client-1", "key-1", "api-1"))));
+        Map<String, Object> before = registry.getMap();
+
+        // Not JSON
+        reload("{ \"apis\": [");
+        Assert.assertSame(before, registry.getMap());
+
+        // Missing the clients
+        reload(new JsonObject().put("apis", apis(api("api-2", "http://b"))));
+        Assert.assertSame(before, registry.getMap());
+
+        // A contract with an API that doesn't exist
+        reload(config(apis(api("api-1", "http://b")), clients(client("client-1", "key-1", "api-2"))));
+        Assert.assertSame(before, registry.getMap());
+        Assert.assertEquals("http://a", getApi("api-1").getEndpoint());
+
+        // A valid config is still picked up afterwards
+        reload(config(apis(api("api-1", "http://b")), clients(client("client-1", "key-1", "api-1"))));
+        Assert.assertEquals("http://b", getApi("api-1").getEndpoint());
+    }
+
+    @Test
+    public void testInFlightRequests() throws Exception {
+        JsonObject configA = config(apis(api("api-1", "http://a")), clients(client("client-1", "key-1", "api-1")));
+        JsonObject configB = config(apis(api("api-1", "http://b")), clients(client("client-1", "key-1", "api-1")));
+        load(configA);
+
+        // A request that has already resolved its contract keeps it across a swap.
+        ApiContract inFlight = getContract("api-1", "key-1");
+        reload(configB);
+        Assert.assertEquals("http://a", inFlight.getApi().getEndpoint());
+        Assert.assertEquals("http://b", getContract("api-1", "key-1").getApi().getEndpoint());
+
+        // Requests made during the swaps always see one config or the other in full.
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicReference<String> failure = new AtomicReference<>();
+        AtomicInteger lookups = new AtomicInteger();
+        Thread requests = new Thread(() -> {
+            while (!done.get()) {
+                registry.getContract("org", "api-1", "1.0", "key-1", result -> {
+                    if (result.isError()) {
+                        failure.compareAndSet(null, result.getError().toString());
+                    } else {
+                        String endpoint = result.getResult().getApi().getEndpoint();
+                        if (!"http://a".equals(endpoint) && !"http://b".equals(endpoint)) {
+                            failure.compareAndSet(null, "Unexpected endpoint: " + endpoint);
+                        }
+                    }
+                });
+                lookups.incrementAndGet();
+            }
+        });
+        requests.start();
+        try {
+            for (int i = 0; i < 20; i++) {
+                reload(i % 2 == 0 ? configA : configB);
+            }
+        } finally {
+            done.set(true);
+            requests.join();
+        }
+        Assert.assertNull(failure.get());
+        Assert.assertTrue(lookups.get() > 0);
+    }
+
+    private void load(JsonObject config) throws Exception {
+        write(config.encode());
+        registry = new URILoadingRegistry(vertx, null, Collections.singletonMap("configUri", configFile.toURI().toString()));
+        CountDownLatch latch = new CountDownLatch(1);
+        AtomicReference<IAsyncResult<Void>> result = new AtomicReference<>();
+        registry.initialize(r -> {
+            result.set(r);
+            latch.countDown();
+        });
+        Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+        Assert.assertTrue(result.get().isSuccess());
+    }
+
+    private void reload(JsonObject config) throws Exception {
+        reload(config.encode());
+    }
+
+    private void reload(String config) throws Exception {
+        write(config);
+        CountDownLatch latch = new CountDownLatch(1);
+        URILoadingRegistry.reloadData(done -> latch.countDown());
+        Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+    }
+
+    private void write(String config) throws Exception {
+        Files.write(configFile.toPath(), config.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private Api getApi(String apiId) {
+        AtomicReference<Api> rval = new AtomicReference<>();
+        registry.getApi("org", apiId, "1.0", result -> rval.set(result.getResult()));
+        return rval.get();
+    }
+
+    private Client getClient(String apiKey) {
+        AtomicReference<Client> rval = new AtomicReference<>();
+        registry.getClient(apiKey, result -> rval.set(result.getResult()));
+        return rval.get();
+    }
+
+    private ApiContract getContract(String apiId, String apiKey) {
+        AtomicReference<ApiContract> rval = new AtomicReference<>();
+        registry.getContract("org", apiId, "1.0", apiKey, result -> rval.set(result.getResult()));
+        return rval.get();
+    }
+
+    private static JsonObject config(JsonArray apis, JsonArray clients) {
+        return new JsonObject().put("apis", apis).put("clients", clients);
+    }
+
+    private static JsonArray apis(JsonObject... apis) {
+        JsonArray rval = new JsonArray();
+        for (JsonObject api : apis) {
+            rval.add(api);
+        }
+        return rval;
+    }
+
+    private static JsonArray clients(JsonObject... clients) {
+        return apis(clients);
+    }
+
+    private static JsonObject api(String apiId, String endpoint) {
+        return new JsonObject()
+                .put("organizationId", "org")
+                .put("apiId", apiId)
+                .put("version", "1.0")
+                .put("endpoint", endpoint)
+                .put("endpointType", "rest")
+                .put("publicAPI", false);
+    }
+
+    private static JsonObject client(String clientId, String apiKey, String apiId) {
+        JsonObject contract = new JsonObject()
+                .put("apiOrgId", "org")
+                .put("apiId", apiId)
+                .put("apiVersion", "1.0")
+                .put("plan", "Gold");
+        return new JsonObject()
+                .put("organizationId", "org")
+                .put("clientId", clientId)
+                .put("version", "1.0")
+                .put("apiKey", apiKey)
+                .put("contracts", new JsonArray().add(contract));
+    }
+
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2017 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.apiman.gateway.engine.vertx.polling.fetchers;
+
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpServer;
+import io.vertx.core.http.HttpServerRequest;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for {@link HttpResourceFetcher}.
+ *
+ * @author eric.wittmann@redhat.com
+ */
+@SuppressWarnings("nls")
+public class HttpResourceFetcherTest {
+
+    private static final int PORT = 7299;
+    private static final URI CONFIG_URI = URI.create("http://localhost:" + PORT + "/config.json");
+
+    private Vertx vertx;
+    private HttpServer server;
+    private List<String> receivedEtags = Collections.synchronizedList(new ArrayList<>());
+
+    @Before
+    public void setUp() {
+        vertx = Vertx.vertx();
+    }
+
+    @After
+    public void tearDown() {
+        vertx.close();
+    }
+
+    /**
+     * A server that never responds fails the fetch once the request times out.
+     */
+    @Test
+    public void testRequestTimeout() throws Exception {
+        listen(request -> {});
+        HttpResourceFetcher fetcher = new HttpResourceFetcher(vertx, CONFIG_URI,
+                Collections.singletonMap("requestTimeout", "200"), false);
+
+        CompletableFuture<Throwable> failed = new CompletableFuture<>();
+        fetcher.exceptionHandler(failed::complete)
+            .fetchIfModified(data -> failed.completeExceptionally(new AssertionError("fetched")),
+                    notModified -> failed.completeExceptionally(new AssertionError("not modified")));
+        Assert.assertTrue(failed.get(10, TimeUnit.SECONDS) instanceof TimeoutException);
+    }
+
+    /**
+     * The validators of a response are only used for the next request once its body
+     * has been read in full.
+     */
+    @Test
+    public void testValidatorsSavedAfterBody() throws Exception {
+        int[] count = new int[1];
+        listen(request -> {
+            receivedEtags.add(String.valueOf(request.getHeader("If-None-Match")));
+            if (count[0]++ == 0) {
+                // Cut off halfway through the body.
+                request.response().setChunked(true).putHeader("ETag", "\"v1\"").write("{\"apis\":");
+                vertx.setTimer(100, id -> request.connection().close());
+            } else if ("\"v1\"".equals(request.getHeader("If-None-Match"))) {
+                request.response().setStatusCode(304).end();
+            } else {
+                request.response().putHeader("ETag", "\"v1\"").end("{}");
+            }
+        });
+        HttpResourceFetcher fetcher = new HttpResourceFetcher(vertx, CONFIG_URI, Collections.emptyMap(), false);
+
+        Assert.assertEquals("error", fetch(fetcher));
+        Assert.assertEquals("{}", fetch(fetcher));
+        Assert.assertEquals("not modified", fetch(fetcher));
+        Assert.assertEquals(3, receivedEtags.size());
+        Assert.assertEquals("null", receivedEtags.get(0));
+        Assert.assertEquals("null", receivedEtags.get(1));
+        Assert.assertEquals("\"v1\"", receivedEtags.get(2));
+    }
+
+    private void listen(Handler<HttpServerRequest> handler) throws Exception {
+        CompletableFuture<Void> listening = new CompletableFuture<>();
+        server = vertx.createHttpServer()
+                .requestHandler(handler)
+                .listen(PORT, result -> listening.complete(null));
+        listening.get(10, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Fetches the resource if modified, returning its content, "not modified" or "error".
+     */
+    private static String fetch(HttpResourceFetcher fetcher) throws Exception {
+        CompletableFuture<String> outcome = new CompletableFuture<>();
+        fetcher.exceptionHandler(error -> outcome.complete("error"))
+            .fetchIfModified(data -> outcome.complete(data.toString()), notModified -> outcome.complete("not modified"));
+        return outcome.get(10, TimeUnit.SECONDS);
+    }
+
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2017 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.apiman.gateway.engine.vertx.shareddata;
+
+import io.apiman.common.datastructures.map.LRUMap;
+
+import java.util.Map.Entry;
+
+/**
+ * A bounded, local copy of some of the entries of a cluster-wide map.  Entries are
+ * removed when they are invalidated (because the cluster-wide entry changed), when
+ * the cache is full, or when they expire - the latter just in case an invalidation
+ * was missed.
+ *
+ * Every invalidation bumps the cache's generation; a value read from the cluster-wide
+ * map is only cached if no invalidation happened while it was being read, so that a
+ * stale value can't be cached after the invalidation that should have removed it.
+ *
+ * @author eric.wittmann@redhat.com
+ */
+class NearCache {
+
+    private final long ttl;
+    private final LRUMap<String, CachedValue> entries;
+    private long generation;
+
+    /**
+     * Constructor.
+     * @param maxSize the maximum number of entries
+     * @param ttl the time (in millis) after which entries expire
+     */
+    NearCache(int maxSize, long ttl) {
+        this.ttl = ttl;
+        this.entries = new LRUMap<String, CachedValue>(maxSize) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected void handleRemovedElem(Entry<String, CachedValue> eldest) {
+            }
+        };
+    }
+
+    /**
+     * @param key the key
+     * @return the cached value, or null if there is none (or it has expired)
+     */
+    synchronized Object get(String key) {
+        CachedValue cached = entries.get(key);
+        if (cached == null) {
+            return null;
+        }
+        if (cached.expires <= System.currentTimeMillis()) {
+            entries.remove(key);
+            return null;
+        }
+        return cached.value;
+    }
+
+    /**
+     * @return the generation to pass to {@link #put(String, Object, long)} after reading
+     * a value from the cluster-wide map
+     */
+    synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Caches a value read from the cluster-wide map, unless there has been an
+     * invalidation since it was read.
+     * @param key the key
+     * @param value the value (null values aren't cached)
+     * @param generation the generation when the value was read
+     */
+    synchronized void put(String key, Object value, long generation) {
+        if (value != null && generation == this.generation) {
+            entries.put(key, new CachedValue(value, System.currentTimeMillis() + ttl));
+        }
+    }
+
+    /**
+     * Removes the given key from the cache.
+     * @param key the key
+     */
+    synchronized void invalidate(String key) {
+        generation++;
+        entries.remove(key);
+    }
+
+    private static final class CachedValue {
+
+        private final Object value;
+        private final long expires;
+
+        private CachedValue(Object value, long expires) {
+            this.value = value;
+            this.expires = expires;
+        }
+    }
+
+}
@@ -42,14 +42,31 @@ import java.util.Map;
 import java.util.Optional;
 
 /**
+ * A registry backed by a Vert.x cluster-wide map.
+ *
+ * Optionally, APIs and clients read from the cluster-wide map are kept in a local
+ * near-cache, so that most lookups don't need a remote round-trip.  Every change
+ * to the registry publishes an invalidation message (on the event bus) that
+ * removes the changed entries from every node's near-cache.
+ *
+ * Config:
+ * <ul>
+ *   <li>nearCache - true to enable the near-cache (default false)</li>
+ *   <li>nearCache.maxSize - the maximum number of cached entries (default 10000)</li>
+ *   <li>nearCache.ttl - the time after which cached entries expire regardless, in millis (default 60000)</li>
+ * </ul>
+ *
 * @author Marc Savy {@literal <marc@rhymewithgravy.com>}
 */
 @SuppressWarnings("nls")
 public class SharedGlobalDataRegistry implements IRegistry {
+    private static final String INVALIDATION_ADDRESS = "SharedGlobalDataRegistry-Invalidate";
+
     Vertx vertx;
     IEngineConfig vxConfig;
     Map<String, String> options;
     AsyncMap<String, Object> objectMap;
+    NearCache nearCache;
 
     public SharedGlobalDataRegistry(Vertx vertx, IEngineConfig vxConfig, Map<String, String> options) {
         this.vertx = vertx;
@@ -67,16 +84,29 @@ public class SharedGlobalDataRegistry implements IRegistry {
                 throw new IllegalStateException(async.cause());
             }
         });
+
+        if (Boolean.parseBoolean(options.get("nearCache"))) {
+            int maxSize = options.containsKey("nearCache.maxSize") ? new Integer(options.get("nearCache.maxSize")) : 10000;
+            long ttl = options.containsKey("nearCache.ttl") ? new Long(options.get("nearCache.ttl")) : 60000;
+            nearCache = new NearCache(maxSize, ttl);
+            vertx.eventBus().<String>consumer(INVALIDATION_ADDRESS, message -> nearCache.invalidate(message.body()));
+        }
     }
 
     @Override
     public void publishApi(Api api, IAsyncResultHandler<Void> handler) {
-        objectMap.put(getApiIndex(api), api, handleResultVoid(handler));
+        String apiIndex = getApiIndex(api);
+        objectMap.put(apiIndex, api, result -> {
+            invalidate(apiIndex);
+            handleResultVoid(handler).handle(result);
+        });
     }
 
     @Override
     public void retireApi(Api api, IAsyncResultHandler<Void> handler) {
-        objectMap.remove(getApiIndex(api), handleSuccessfulResult(handler, deletedApi -> {
+        String apiIndex = getApiIndex(api);
+        objectMap.remove(apiIndex, handleSuccessfulResult(handler, deletedApi -> {
+            invalidate(apiIndex);
             if (deletedApi == null) {
                 Exception ex = new ApiNotFoundException(Messages.i18n.format("InMemoryRegistry.ApiNotFound"));
                 handler.handle(AsyncResultImpl.create(ex));
@@ -150,13 +180,17 @@ public class SharedGlobalDataRegistry implements IRegistry {
                     }).compose(oldClientRaw -> {
                         Client oldClient = (Client) oldClientRaw;
                         if (oldClientRaw != null && !oldClient.getApiKey().equals(client.getApiKey())) {
+                            invalidate(oldClient.getApiKey());
                             objectMap.remove(oldClient.getApiKey(), endFuture.completer());
                         } else {
                             endFuture.complete();
                         }
                     }, endFuture)
                     // When finished, call this handler and then resultHandler
-                    .setHandler(handleResult(resultHandler));
+                    .setHandler(result -> {
+                        invalidate(client.getApiKey(), clientIndex);
+                        this.<Void, Object>handleResult(resultHandler).handle(result);
+                    });
                 }
             } else {
                 resultHandler.handle(AsyncResultImpl.create(compositeResult.cause()));
@@ -179,25 +213,28 @@ public class SharedGlobalDataRegistry implements IRegistry {
                 objectMap.remove(clientIndex, future1.completer());
                 objectMap.remove(oldClient.getApiKey(), future2.completer());
 
-                CompositeFuture.all(future1, future2).setHandler(handleCompositeResult(resultHandler));
+                CompositeFuture.all(future1, future2).setHandler(result -> {
+                    invalidate(clientIndex, oldClient.getApiKey());
+                    this.<Void>handleCompositeResult(resultHandler).handle(result);
+                });
             }
         }));
     }
 
     @Override
     public void getApi(String organizationId, String apiId, String apiVersion, IAsyncResultHandler<Api> handler) {
-        objectMap.get(getApiIndex(organizationId, apiId, apiVersion), handleResult(handler));
+        getObject(getApiIndex(organizationId, apiId, apiVersion), handleResult(handler));
     }
 
     @Override
     public void getClient(String apiKey, IAsyncResultHandler<Client> handler) {
-        objectMap.get(apiKey, handleResult(handler));
+        getObject(apiKey, handleResult(handler));
     }
 
     @Override
     public void getClient(String organizationId, String clientId, String clientVersion, IAsyncResultHandler<Client> handler) {
         String idx = getClientIndex(organizationId, clientId, clientVersion);
-        objectMap.get(idx, handleResult(handler));
+        getObject(idx, handleResult(handler));
     }
 
     @SuppressWarnings({ "rawtypes", "unchecked" })
@@ -208,8 +245,8 @@ public class SharedGlobalDataRegistry implements IRegistry {
         Future apiFuture = Future.future();
         Future clientFuture = Future.future();
 
-        objectMap.get(apiIndex, apiFuture.completer());
-        objectMap.get(apiKey, clientFuture.completer());
+        getObject(apiIndex, apiFuture.completer());
+        getObject(apiKey, clientFuture.completer());
 
         CompositeFuture.all(apiFuture, clientFuture).setHandler(compositeResult -> {
             if (compositeResult.succeeded()) {
@@ -269,6 +306,41 @@ public class SharedGlobalDataRegistry implements IRegistry {
         throw new UnsupportedOperationException("Vert.x AsyncMap does not yet support iteration"); // TODO 1.5.x supports iteration.
     }
 
+    /**
+     * Gets an object from the near-cache (if enabled), or else from the cluster-wide map.
+     */
+    private void getObject(String key, Handler<AsyncResult<Object>> handler) {
+        if (nearCache == null) {
+            objectMap.get(key, handler);
+            return;
+        }
+        Object cached = nearCache.get(key);
+        if (cached != null) {
+            handler.handle(Future.succeededFuture(cached));
+            return;
+        }
+        long generation = nearCache.getGeneration();
+        objectMap.get(key, result -> {
+            if (result.succeeded()) {
+                nearCache.put(key, result.result(), generation);
+            }
+            handler.handle(result);
+        });
+    }
+
+    /**
+     * Removes the given keys from the near-cache of every node (if enabled).
+     */
+    private void invalidate(String... keys) {
+        if (nearCache == null) {
+            return;
+        }
+        for (String key : keys) {
+            nearCache.invalidate(key);
+            vertx.eventBus().publish(INVALIDATION_ADDRESS, key);
+        }
+    }
+
     private String getApiIndex(Api api) {
         return getApiIndex(api.getOrganizationId(), api.getApiId(), api.getVersion());
     }
@@ -0,0 +1,200 @@
+/*
+ * Copyright 2017 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.apiman.gateway.engine.vertx.shareddata;
+
+import io.apiman.gateway.engine.async.IAsyncResult;
+import io.apiman.gateway.engine.beans.Api;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.EventBus;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.shareddata.AsyncMap;
+import io.vertx.core.shareddata.SharedData;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Matchers;
+import org.mockito.Mockito;
+
+/**
+ * Unit test of the near-cache, with two registries (nodes) sharing a simulated
+ * cluster-wide map and event bus.
+ *
+ * @author eric.wittmann@redhat.com
+ */
+@SuppressWarnings({ "nls", "unchecked", "rawtypes" })
+public class SharedGlobalDataRegistryTest {
+
+    private Map<String, Object> cluster;
+    private List<Handler<Message<String>>> consumers;
+    private AsyncMap<String, Object> objectMap;
+    private int remoteGets;
+    // Reads from the cluster-wide map that have been deferred (null to read immediately)
+    private List<Runnable> deferredGets;
+
+    @Before
+    public void setUp() {
+        cluster = new HashMap<>();
+        consumers = new ArrayList<>();
+        remoteGets = 0;
+        deferredGets = null;
+
+        objectMap = Mockito.mock(AsyncMap.class);
+        Mockito.doAnswer(invocation -> {
+            remoteGets++;
+            // The value is read now, but (if deferred) only returned later.
+            Object value = cluster.get(invocation.getArguments()[0]);
+            Handler<AsyncResult<Object>> handler = (Handler<AsyncResult<Object>>) invocation.getArguments()[1];
+            Runnable complete = () -> handler.handle(Future.succeededFuture(value));
+            if (deferredGets == null) {
+                complete.run();
+            } else {
+                deferredGets.add(complete);
+            }
+            return null;
+        }).when(objectMap).get(Matchers.anyString(), Matchers.any(Handler.class));
+        Mockito.doAnswer(invocation -> {
+            cluster.put((String) invocation.getArguments()[0], invocation.getArguments()[1]);
+            ((Handler<AsyncResult<Void>>) invocation.getArguments()[2]).handle(Future.succeededFuture());
+            return null;
+        }).when(objectMap).put(Matchers.anyString(), Matchers.any(), Matchers.any(Handler.class));
+        Mockito.doAnswer(invocation -> {
+            Object removed = cluster.remove(invocation.getArguments()[0]);
+            ((Handler<AsyncResult<Object>>) invocation.getArguments()[1]).handle(Future.succeededFuture(removed));
+            return null;
+        }).when(objectMap).remove(Matchers.anyString(), Matchers.any(Handler.class));
+    }
+
+    @Test
+    public void testInvalidationAcrossRegistries() {
+        SharedGlobalDataRegistry node1 = createNode();
+        SharedGlobalDataRegistry node2 = createNode();
+
+        publish(node1, api("http://a"));
+        Assert.assertEquals("http://a", getApi(node2).getEndpoint());
+        int gets = remoteGets;
+        Assert.assertEquals("http://a", getApi(node2).getEndpoint());
+        Assert.assertEquals("Expected a near-cache hit", gets, remoteGets);
+
+        // Re-publishing on one node invalidates the other's copy.
+        publish(node1, api("http://b"));
+        Assert.assertEquals("http://b", getApi(node2).getEndpoint());
+        Assert.assertEquals(gets + 1, remoteGets);
+
+        // And so does retiring it.
+        AtomicReference<IAsyncResult<Void>> retired = new AtomicReference<>();
+        node1.retireApi(api("http://b"), retired::set);
+        Assert.assertTrue(retired.get().isSuccess());
+        Assert.assertNull(getApi(node2));
+    }
+
+    @Test
+    public void testStaleReadNotCached() {
+        SharedGlobalDataRegistry node1 = createNode();
+        SharedGlobalDataRegistry node2 = createNode();
+        publish(node1, api("http://a"));
+
+        // node2 reads the API, but the read only completes after node1 has replaced it.
+        deferredGets = new ArrayList<>();
+        AtomicReference<Api> stale = new AtomicReference<>();
+        node2.getApi("org", "api", "1.0", result -> stale.set(result.getResult()));
+        publish(node1, api("http://b"));
+        deferredGets.forEach(Runnable::run);
+        deferredGets = null;
+        Assert.assertEquals("http://a", stale.get().getEndpoint());
+
+        // The stale value must not have been cached.
+        Assert.assertEquals("http://b", getApi(node2).getEndpoint());
+    }
+
+    @Test
+    public void testNearCacheDisabled() {
+        SharedGlobalDataRegistry node = createNode(false);
+        publish(node, api("http://a"));
+        int gets = remoteGets;
+        getApi(node);
+        getApi(node);
+        Assert.assertEquals(gets + 2, remoteGets);
+    }
+
+    private SharedGlobalDataRegistry createNode() {
+        return createNode(true);
+    }
+
+    /**
+     * Creates a registry on a (mock) clustered Vert.x node that shares the
+     * cluster-wide map and event bus with the other nodes.
+     */
+    private SharedGlobalDataRegistry createNode(boolean nearCache) {
+        Vertx vertx = Mockito.mock(Vertx.class);
+        SharedData sharedData = Mockito.mock(SharedData.class);
+        EventBus eventBus = Mockito.mock(EventBus.class);
+        Mockito.when(vertx.isClustered()).thenReturn(true);
+        Mockito.when(vertx.sharedData()).thenReturn(sharedData);
+        Mockito.when(vertx.eventBus()).thenReturn(eventBus);
+        Mockito.doAnswer(invocation -> {
+            ((Handler<AsyncResult<AsyncMap>>) invocation.getArguments()[1]).handle(Future.succeededFuture(objectMap));
+            return null;
+        }).when(sharedData).getClusterWideMap(Matchers.anyString(), Matchers.any(Handler.class));
+        Mockito.doAnswer(invocation -> {
+            consumers.add((Handler<Message<String>>) invocation.getArguments()[1]);
+            return null;
+        }).when(eventBus).consumer(Matchers.anyString(), Matchers.any(Handler.class));
+        Mockito.doAnswer(invocation -> {
+            Object key = invocation.getArguments()[1];
+            Message<String> message = Mockito.mock(Message.class);
+            Mockito.when(message.body()).thenReturn((String) key);
+            consumers.forEach(consumer -> consumer.handle(message));
+            return eventBus;
+        }).when(eventBus).publish(Matchers.anyString(), Matchers.any());
+
+        Map<String, String> options = new HashMap<>();
+        options.put("nearCache", String.valueOf(nearCache));
+        return new SharedGlobalDataRegistry(vertx, null, options);
+    }
+
+    private static void publish(SharedGlobalDataRegistry node, Api api) {
+        AtomicReference<IAsyncResult<Void>> result = new AtomicReference<>();
+        node.publishApi(api, result::set);
+        Assert.assertTrue(result.get().isSuccess());
+    }
+
+    private static Api getApi(SharedGlobalDataRegistry node) {
+        AtomicReference<IAsyncResult<Api>> result = new AtomicReference<>();
+        node.getApi("org", "api", "1.0", result::set);
+        Assert.assertTrue(result.get().isSuccess());
+        return result.get().getResult();
+    }
+
+    private static Api api(String endpoint) {
+        Api api = new Api();
+        api.setOrganizationId("org");
+        api.setApiId("api");
+        api.setVersion("1.0");
+        api.setEndpoint(endpoint);
+        return api;
+    }
+
+}
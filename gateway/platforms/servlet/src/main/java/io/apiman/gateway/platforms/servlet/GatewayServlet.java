@@ -40,12 +40,27 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.Enumeration;
 import java.util.Map.Entry;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.CountDownLatch;
-
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ReadListener;
 import javax.servlet.ServletException;
+import javax.servlet.ServletInputStream;
 import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -57,18 +72,89 @@ import javax.servlet.http.HttpServletResponse;
  * {@link ApiResponse} into an HTTP Servlet Response that is suitable for returning
  * to the caller.
  *
+ * When the servlet is deployed with async support (Servlet 3.1) requests are
+ * handled asynchronously: the container thread is released as soon as the request
+ * has been handed to the engine, and the request and response bodies are streamed
+ * using non-blocking I/O.  This can be turned off with the "asyncMode" init
+ * parameter.  The "asyncTimeout" init parameter (in millis, default 60000, 0 = none)
+ * bounds how long an async request may take.
+ *
+ * Since the connectors block while waiting for the back-end API, async requests are
+ * sent to the back-end API on a dedicated, bounded pool of threads rather than on
+ * the container's threads: "asyncThreads" (default 200) threads, with up to
+ * "asyncQueueSize" (default 1000) requests waiting for one.  Requests beyond that
+ * are failed rather than queued.
+ *
  * @author eric.wittmann@redhat.com
  */
 public abstract class GatewayServlet extends HttpServlet {
 
     private static final long serialVersionUID = 958726685958622333L;
 
+    private static final long DEFAULT_ASYNC_TIMEOUT = 60000;
+    private static final int DEFAULT_ASYNC_THREADS = 200;
+    private static final int DEFAULT_ASYNC_QUEUE_SIZE = 1000;
+
+    private boolean asyncMode = true;
+    private long asyncTimeout = DEFAULT_ASYNC_TIMEOUT;
+    private transient ExecutorService asyncExecutor;
+
     /**
      * Constructor.
      */
     public GatewayServlet() {
     }
 
+    /**
+     * @see javax.servlet.GenericServlet#init()
+     */
+    @Override
+    public void init() throws ServletException {
+        super.init();
+        String mode = getInitParameter("asyncMode"); //$NON-NLS-1$
+        if (mode != null) {
+            asyncMode = Boolean.parseBoolean(mode);
+        }
+        String timeout = getInitParameter("asyncTimeout"); //$NON-NLS-1$
+        if (timeout != null) {
+            asyncTimeout = new Long(timeout);
+        }
+        if (asyncMode) {
+            String threads = getInitParameter("asyncThreads"); //$NON-NLS-1$
+            String queueSize = getInitParameter("asyncQueueSize"); //$NON-NLS-1$
+            asyncExecutor = createAsyncExecutor(threads == null ? DEFAULT_ASYNC_THREADS : new Integer(threads),
+                    queueSize == null ? DEFAULT_ASYNC_QUEUE_SIZE : new Integer(queueSize));
+        }
+    }
+
+    /**
+     * @see javax.servlet.GenericServlet#destroy()
+     */
+    @Override
+    public void destroy() {
+        if (asyncExecutor != null) {
+            asyncExecutor.shutdownNow();
+        }
+        super.destroy();
+    }
+
+    /**
+     * Creates the pool of threads on which async requests are sent to the back-end API.
+     * @param threads the number of threads
+     * @param queueSize the maximum number of requests waiting for a thread
+     */
+    private static ExecutorService createAsyncExecutor(int threads, int queueSize) {
+        AtomicInteger count = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, queueSize)), runnable -> {
+                    Thread thread = new Thread(runnable, "apiman-gateway-async-" + count.incrementAndGet()); //$NON-NLS-1$
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
     /**
      * @see javax.servlet.http.HttpServlet#service(javax.servlet.http.HttpServletRequest, javax.servlet.http.HttpServletResponse)
      */
@@ -76,7 +162,16 @@ public abstract class GatewayServlet extends HttpServlet {
     protected void service(HttpServletRequest req, HttpServletResponse resp)
             throws ServletException, IOException {
         String method = req.getMethod();
-        doAction(req, resp, method);
+        if (asyncMode && req.isAsyncSupported()) {
+            doAsyncAction(req, resp, method);
+        } else {
+            GatewayThreadContext.setSynchronous(true);
+            try {
+                doAction(req, resp, method);
+            } finally {
+                GatewayThreadContext.setSynchronous(false);
+            }
+        }
     }
 
     /**
@@ -179,6 +274,74 @@ public abstract class GatewayServlet extends HttpServlet {
         try { latch.await(); } catch (InterruptedException e) { }
     }
 
+    /**
+     * Handler for all types of http actions/verbs when running asynchronously.  The
+     * request is handed to the engine and the container thread released; the request
+     * body is read as it becomes available (pausing while the connection to the
+     * back-end API is full) and the response body is written as the output stream
+     * becomes ready.
+     * @param req
+     * @param resp
+     * @param action
+     */
+    protected void doAsyncAction(final HttpServletRequest req, final HttpServletResponse resp, String action) {
+        // Read the request - not into the thread-local request, as this thread will
+        // go on to serve other requests while this one is in progress.
+        ApiRequest srequest;
+        try {
+            srequest = readRequest(req, new ApiRequest());
+            srequest.setType(action);
+        } catch (Exception e) {
+            writeError(null, resp, e);
+            return;
+        }
+
+        final AsyncContext asyncContext = req.startAsync(req, resp);
+        asyncContext.setTimeout(asyncTimeout);
+        final ApiRequest finalRequest = srequest;
+        final AsyncExchange exchange = new AsyncExchange(asyncContext, asyncExecutor);
+
+        // Now execute the request via the apiman engine
+        IApiRequestExecutor executor = getEngine().executor(srequest, new IAsyncResultHandler<IEngineResult>() {
+            @Override
+            public void handle(IAsyncResult<IEngineResult> asyncResult) {
+                if (asyncResult.isSuccess()) {
+                    IEngineResult engineResult = asyncResult.getResult();
+                    if (engineResult.isResponse()) {
+                        try {
+                            writeResponse(resp, engineResult.getApiResponse());
+                            exchange.stream(engineResult, resp.getOutputStream());
+                        } catch (IOException e) {
+                            // this would mean we couldn't get the output stream from the response, so we
+                            // need to abort the engine result (which will let the back-end connection
+                            // close down).
+                            engineResult.abort(e);
+                            exchange.complete();
+                            throw new RuntimeException(e);
+                        }
+                    } else {
+                        writeFailure(finalRequest, resp, engineResult.getPolicyFailure());
+                        exchange.complete();
+                    }
+                } else {
+                    writeError(finalRequest, resp, asyncResult.getError());
+                    exchange.complete();
+                }
+            }
+        });
+        executor.streamHandler(new IAsyncHandler<ISignalWriteStream>() {
+            @Override
+            public void handle(ISignalWriteStream connectorStream) {
+                try {
+                    exchange.read(req.getInputStream(), connectorStream);
+                } catch (Throwable e) {
+                    connectorStream.abort(e);
+                }
+            }
+        });
+        executor.execute();
+    }
+
     /**
      * Gets the engine - subclasses must implement this.
      * @return gets the engine
@@ -205,6 +368,18 @@ public abstract class GatewayServlet extends HttpServlet {
      * @throws IOException
      */
     protected ApiRequest readRequest(HttpServletRequest request) throws Exception {
+        return readRequest(request, GatewayThreadContext.getApiRequest());
+    }
+
+    /**
+     * Reads a {@link ApiRequest} from information found in the inbound
+     * portion of the http request, into the given (empty) request.
+     * @param request the http request
+     * @param srequest the api request to populate
+     * @return a valid {@link ApiRequest}
+     * @throws Exception
+     */
+    protected ApiRequest readRequest(HttpServletRequest request, ApiRequest srequest) throws Exception {
         ApiRequestPathInfo pathInfo = getEngine().getApiRequestPathParser().parseEndpoint(request.getPathInfo(), wrapMultiMap(request));//parseApiRequestPath(request);
         if (pathInfo.orgId == null) {
             throw new Exception(Messages.i18n.format("GatewayServlet.InvalidApiEndpoint")); //$NON-NLS-1$
@@ -213,7 +388,6 @@ public abstract class GatewayServlet extends HttpServlet {
 
         String apiKey = getApiKey(request, queryParams);
 
-        ApiRequest srequest = GatewayThreadContext.getApiRequest();
         srequest.setApiKey(apiKey);
         srequest.setApiOrgId(pathInfo.orgId);
         srequest.setApiId(pathInfo.apiId);
@@ -425,4 +599,239 @@ public abstract class GatewayServlet extends HttpServlet {
         return rval;
     }
 
+    /**
+     * The state of a single asynchronous request: feeds the (non-blocking) servlet input
+     * stream to the connection to the back-end API, and the engine's response to the
+     * (non-blocking) servlet output stream.  Response chunks that arrive while the output
+     * stream isn't ready are queued until it is, and the engine result is paused meanwhile.
+     *
+     * Ending the request body hands the request to the back-end API and, for blocking
+     * connectors, goes on to transmit the whole response on the same thread - pausing
+     * whenever the client falls behind.  The container won't deliver onWritePossible (and
+     * so the resume) while one of its listener callbacks is still running, and slow back-end
+     * APIs mustn't tie up the container's own threads either, so that is done on a thread
+     * of the given (bounded) executor rather than in onAllDataRead.
+     */
+    static final class AsyncExchange implements ReadListener, WriteListener, AsyncListener {
+
+        private final AsyncContext asyncContext;
+        private final Executor executor;
+        private ServletInputStream inputStream;
+        private volatile ISignalWriteStream connectorStream;
+        private final ByteBuffer readBuffer = new ByteBuffer(2048);
+
+        private ServletOutputStream outputStream;
+        private volatile IEngineResult engineResult;
+        private final Deque<byte[]> pending = new ArrayDeque<>();
+        private boolean ended;
+        private boolean completed;
+
+        /**
+         * Constructor.
+         * @param asyncContext
+         * @param executor runs the (blocking) calls to the back-end API
+         */
+        AsyncExchange(AsyncContext asyncContext, Executor executor) {
+            this.asyncContext = asyncContext;
+            this.executor = executor;
+            asyncContext.addListener(this);
+        }
+
+        /**
+         * Starts reading the request body into the connection to the back-end API.
+         * @param inputStream
+         * @param connectorStream
+         */
+        synchronized void read(ServletInputStream inputStream, ISignalWriteStream connectorStream) {
+            this.inputStream = inputStream;
+            this.connectorStream = connectorStream;
+            inputStream.setReadListener(this);
+        }
+
+        /**
+         * @see javax.servlet.ReadListener#onDataAvailable()
+         */
+        @Override
+        public synchronized void onDataAvailable() throws IOException {
+            while (inputStream.isReady() && !inputStream.isFinished()) {
+                if (connectorStream.isFull()) {
+                    // Resume once the back-end API has caught up.
+                    connectorStream.drainHandler(new IAsyncHandler<Void>() {
+                        @Override
+                        public void handle(Void result) {
+                            try {
+                                onDataAvailable();
+                            } catch (IOException e) {
+                                onError(e);
+                            }
+                        }
+                    });
+                    return;
+                }
+                int numBytes = readBuffer.readFrom(inputStream);
+                if (numBytes > 0) {
+                    connectorStream.write(readBuffer);
+                }
+            }
+        }
+
+        /**
+         * @see javax.servlet.ReadListener#onAllDataRead()
+         */
+        @Override
+        public synchronized void onAllDataRead() throws IOException {
+            try {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            connectorStream.end();
+                        } catch (Throwable e) {
+                            abort(e);
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // Too many requests are waiting for the back-end API already
+                HttpServletResponse response = (HttpServletResponse) asyncContext.getResponse();
+                if (!response.isCommitted()) {
+                    response.setStatus(503);
+                }
+                abort(e);
+            }
+        }
+
+        /**
+         * Starts writing the response body.
+         * @param engineResult
+         * @param outputStream
+         */
+        synchronized void stream(IEngineResult engineResult, ServletOutputStream outputStream) {
+            this.engineResult = engineResult;
+            this.outputStream = outputStream;
+            outputStream.setWriteListener(this);
+            engineResult.bodyHandler(new IAsyncHandler<IApimanBuffer>() {
+                @Override
+                public void handle(IApimanBuffer chunk) {
+                    write(chunk);
+                }
+            });
+            engineResult.endHandler(new IAsyncHandler<Void>() {
+                @Override
+                public void handle(Void result) {
+                    end();
+                }
+            });
+        }
+
+        private synchronized void write(IApimanBuffer chunk) {
+            try {
+                if (pending.isEmpty() && outputStream.isReady()) {
+                    if (chunk instanceof ByteBuffer) {
+                        outputStream.write((byte []) chunk.getNativeBuffer(), 0, chunk.length());
+                    } else {
+                        outputStream.write(chunk.getBytes());
+                    }
+                } else {
+                    pending.add(chunk.getBytes());
+                    // Stop the back-end response until the client has caught up.
+                    engineResult.pause();
+                }
+            } catch (IOException e) {
+                // This will get caught by the API connector, which will abort the
+                // connection to the back-end API.
+                throw new RuntimeException(e);
+            }
+        }
+
+        private synchronized void end() {
+            ended = true;
+            if (pending.isEmpty() && outputStream.isReady()) {
+                complete();
+            }
+        }
+
+        /**
+         * @see javax.servlet.WriteListener#onWritePossible()
+         */
+        @Override
+        public synchronized void onWritePossible() throws IOException {
+            while (!pending.isEmpty() && outputStream.isReady()) {
+                outputStream.write(pending.poll());
+            }
+            if (pending.isEmpty() && outputStream.isReady()) {
+                if (ended) {
+                    complete();
+                } else if (engineResult != null) {
+                    engineResult.resume();
+                }
+            }
+        }
+
+        /**
+         * @see javax.servlet.ReadListener#onError(java.lang.Throwable)
+         * @see javax.servlet.WriteListener#onError(java.lang.Throwable)
+         */
+        @Override
+        public void onError(Throwable error) {
+            abort(error);
+        }
+
+        /**
+         * @see javax.servlet.AsyncListener#onTimeout(javax.servlet.AsyncEvent)
+         */
+        @Override
+        public void onTimeout(AsyncEvent event) throws IOException {
+            HttpServletResponse response = (HttpServletResponse) asyncContext.getResponse();
+            if (!response.isCommitted()) {
+                response.setStatus(504);
+            }
+            abort(event.getThrowable());
+        }
+
+        /**
+         * @see javax.servlet.AsyncListener#onError(javax.servlet.AsyncEvent)
+         */
+        @Override
+        public void onError(AsyncEvent event) throws IOException {
+            abort(event.getThrowable());
+        }
+
+        /**
+         * @see javax.servlet.AsyncListener#onComplete(javax.servlet.AsyncEvent)
+         */
+        @Override
+        public void onComplete(AsyncEvent event) throws IOException {
+        }
+
+        /**
+         * @see javax.servlet.AsyncListener#onStartAsync(javax.servlet.AsyncEvent)
+         */
+        @Override
+        public void onStartAsync(AsyncEvent event) throws IOException {
+        }
+
+        /**
+         * Aborts whichever side of the exchange is in progress and completes it.
+         */
+        private void abort(Throwable error) {
+            if (engineResult != null) {
+                engineResult.abort(error);
+            } else if (connectorStream != null) {
+                connectorStream.abort(error);
+            }
+            complete();
+        }
+
+        /**
+         * Completes the async request (only the first call has any effect).
+         */
+        synchronized void complete() {
+            if (!completed) {
+                completed = true;
+                asyncContext.complete();
+            }
+        }
+    }
+
 }
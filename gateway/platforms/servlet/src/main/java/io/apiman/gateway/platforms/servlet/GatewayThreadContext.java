@@ -23,17 +23,43 @@ import io.apiman.gateway.engine.beans.PolicyFailure;
 /**
  * Thread context for the WAR implementation of the gateway.
  *
+ * The request, response and policy failure objects are re-used (one per thread)
+ * only while the thread is serving a synchronous request, which holds the thread
+ * until the exchange is done.  Anywhere else - e.g. on the threads of an async
+ * request, which go on to serve other exchanges while this one is in progress -
+ * a new object is returned each time.
+ *
  * @author eric.wittmann@redhat.com
  */
 public class GatewayThreadContext {
+    private static final ThreadLocal<Boolean> synchronous = new ThreadLocal<>();
     private static final ThreadLocal<ApiRequest> apiRequest = new ThreadLocal<>();
     private static final ThreadLocal<ApiResponse> apiResponse = new ThreadLocal<>();
     private static final ThreadLocal<PolicyFailure> policyFailure = new ThreadLocal<>();
 
+    /**
+     * Marks the current thread as serving a synchronous request (or not).
+     * @param value true while the thread serves a synchronous request
+     */
+    public static final void setSynchronous(boolean value) {
+        if (value) {
+            synchronous.set(Boolean.TRUE);
+        } else {
+            synchronous.remove();
+        }
+    }
+
+    private static boolean isSynchronous() {
+        return synchronous.get() != null;
+    }
+
     /**
      * @return the thread-local api request
      */
     public static final ApiRequest getApiRequest() {
+        if (!isSynchronous()) {
+            return new ApiRequest();
+        }
         ApiRequest request = apiRequest.get();
         if (request == null) {
             request = new ApiRequest();
@@ -54,6 +80,9 @@ public class GatewayThreadContext {
      * @return the thread-local api response
      */
     public static final ApiResponse getApiResponse() {
+        if (!isSynchronous()) {
+            return new ApiResponse();
+        }
         ApiResponse response = apiResponse.get();
         if (response == null) {
             response = new ApiResponse();
@@ -70,6 +99,9 @@ public class GatewayThreadContext {
      * @return the thread-local policy failure
      */
     public static final PolicyFailure getPolicyFailure() {
+        if (!isSynchronous()) {
+            return new PolicyFailure();
+        }
         PolicyFailure failure = policyFailure.get();
         if (failure == null) {
             failure = new PolicyFailure();
@@ -22,8 +22,8 @@ import io.apiman.gateway.engine.components.IPolicyFailureFactoryComponent;
 
 /**
  * Simple policy failure factory component implementation.  Uses the thread local
- * policy failure instance.  Only useful in the synchronous WAR implementation of the
- * apiman gateway.
+ * policy failure instance while serving a synchronous request, and a new one
+ * otherwise (see {@link GatewayThreadContext}).
  *
  * @author eric.wittmann@redhat.com
  */
@@ -21,6 +21,7 @@ import io.apiman.gateway.engine.beans.util.HeaderMap;
 import io.apiman.gateway.engine.components.http.HttpMethod;
 import io.apiman.gateway.engine.components.http.IHttpClientRequest;
 import io.apiman.gateway.engine.components.http.IHttpClientResponse;
+import io.apiman.gateway.engine.io.ByteBuffer;
 import io.apiman.gateway.engine.io.IApimanBuffer;
 
 import java.io.IOException;
@@ -94,7 +95,12 @@ public class HttpClientRequestImpl implements IHttpClientRequest {
 
 	@Override
 	public void write(IApimanBuffer buffer) {
-		write((byte[]) buffer.getNativeBuffer());
+		// The backing array of a ByteBuffer may be longer than the buffer itself
+		if (buffer instanceof ByteBuffer && ((byte[]) buffer.getNativeBuffer()).length == buffer.length()) {
+			write((byte[]) buffer.getNativeBuffer());
+		} else {
+			write(buffer.getBytes());
+		}
 	}
 
     /**
@@ -87,8 +87,15 @@ public class HttpApiConnection implements IApiConnection, IApiConnectionResponse
         SUPPRESSED_RESPONSE_HEADERS.add("Connection"); //$NON-NLS-1$
     }
 
+    /**
+     * How long (in millis) the response body may stay paused when the endpoint
+     * doesn't configure a read timeout.
+     */
+    private static final long DEFAULT_PAUSE_TIMEOUT = 60000;
+
     private ApiRequest request;
     private Api api;
+    private String apiEndpoint;
     private RequiredAuthType requiredAuthType;
     private SSLSessionStrategy sslStrategy;
     private IAsyncResultHandler<IApiConnectionResponse> responseHandler;
@@ -105,6 +112,8 @@ public class HttpApiConnection implements IApiConnection, IApiConnectionResponse
 
     private boolean hasDataPolicy;
     private boolean isError = false;
+    private boolean paused = false;
+    private long pauseTimeout = DEFAULT_PAUSE_TIMEOUT;
 
     /**
      * Constructor.
@@ -121,9 +130,29 @@ public class HttpApiConnection implements IApiConnection, IApiConnectionResponse
     public HttpApiConnection(OkHttpClient client, ApiRequest request, Api api,
             RequiredAuthType requiredAuthType, SSLSessionStrategy sslStrategy,
             boolean hasDataPolicy, IAsyncResultHandler<IApiConnectionResponse> handler) throws ConnectorException {
+        this(client, request, api, api.getEndpoint(), requiredAuthType, sslStrategy, hasDataPolicy, handler);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param client the http client to use
+     * @param request the request
+     * @param api the API
+     * @param apiEndpoint the endpoint to connect to (e.g. one of a load balanced API's endpoints)
+     * @param requiredAuthType the authorization type
+     * @param sslStrategy the SSL strategy
+     * @param hasDataPolicy if policy chain contains data policies
+     * @param handler the result handler
+     * @throws ConnectorException when unable to connect
+     */
+    public HttpApiConnection(OkHttpClient client, ApiRequest request, Api api, String apiEndpoint,
+            RequiredAuthType requiredAuthType, SSLSessionStrategy sslStrategy,
+            boolean hasDataPolicy, IAsyncResultHandler<IApiConnectionResponse> handler) throws ConnectorException {
         this.client = client;
         this.request = request;
         this.api = api;
+        this.apiEndpoint = apiEndpoint;
         this.requiredAuthType = requiredAuthType;
         this.sslStrategy = sslStrategy;
         this.hasDataPolicy = hasDataPolicy;
@@ -148,7 +177,7 @@ public class HttpApiConnection implements IApiConnection, IApiConnectionResponse
             final Set<String> suppressedHeaders = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
             suppressedHeaders.addAll(SUPPRESSED_REQUEST_HEADERS);
 
-            String endpoint = ApimanPathUtils.join(api.getEndpoint(), request.getDestination());
+            String endpoint = ApimanPathUtils.join(apiEndpoint, request.getDestination());
 
             if (request.getQueryParams() != null && !request.getQueryParams().isEmpty()) {
                 String delim = "?"; //$NON-NLS-1$
@@ -253,6 +282,9 @@ public class HttpApiConnection implements IApiConnection, IApiConnectionResponse
             if (endpointProperties.containsKey("timeouts.read")) { //$NON-NLS-1$
                 int connectTimeoutMs = new Integer(endpointProperties.get("timeouts.read")); //$NON-NLS-1$
                 connection.setReadTimeout(connectTimeoutMs);
+                if (connectTimeoutMs > 0) {
+                    pauseTimeout = connectTimeoutMs;
+                }
             }
         } catch (Throwable t) {
         }
@@ -325,6 +357,7 @@ public class HttpApiConnection implements IApiConnection, IApiConnectionResponse
                     connected = false;
                     connection.disconnect();
                 } catch (Exception e) {}
+                resume();
             }
         } catch (IOException e) {
             // TODO log this error but don't rethrow it
@@ -402,6 +435,7 @@ public class HttpApiConnection implements IApiConnection, IApiConnectionResponse
             int numBytes = buffer.readFrom(is);
             while (numBytes != -1) {
                 bodyHandler.handle(buffer);
+                awaitResume();
                 numBytes = buffer.readFrom(is);
             }
             IOUtils.closeQuietly(is);
@@ -419,6 +453,45 @@ public class HttpApiConnection implements IApiConnection, IApiConnectionResponse
         }
     }
 
+    /**
+     * The connection is blocking, so pausing it simply blocks the thread transmitting
+     * the response body (between chunks) until it is resumed or aborted.  The wait is
+     * bounded by the endpoint's read timeout (or {@link #DEFAULT_PAUSE_TIMEOUT}): a
+     * client that stops reading for longer than that fails the request, exactly as a
+     * back-end API that stops writing would.
+     * @see io.apiman.gateway.engine.io.IReadStream#pause()
+     */
+    @Override
+    public synchronized void pause() {
+        paused = true;
+    }
+
+    /**
+     * @see io.apiman.gateway.engine.io.IReadStream#resume()
+     */
+    @Override
+    public synchronized void resume() {
+        paused = false;
+        notifyAll();
+    }
+
+    /**
+     * Waits while the connection is paused (and still connected), for at most the
+     * pause timeout.
+     * @throws SocketTimeoutException if the connection is still paused when the timeout expires
+     */
+    private synchronized void awaitResume() throws InterruptedException, SocketTimeoutException {
+        long deadline = System.currentTimeMillis() + pauseTimeout;
+        while (paused && connected) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                throw new SocketTimeoutException("Client did not resume reading the response within " //$NON-NLS-1$
+                        + pauseTimeout + "ms"); //$NON-NLS-1$
+            }
+            wait(remaining);
+        }
+    }
+
     private void handleConnectionError(Exception error) {
         ConnectorException ce = null;
         if (error instanceof UnknownHostException || error instanceof ConnectException || error instanceof NoRouteToHostException) {
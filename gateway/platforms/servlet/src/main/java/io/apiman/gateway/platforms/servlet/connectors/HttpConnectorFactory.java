@@ -18,14 +18,16 @@ package io.apiman.gateway.platforms.servlet.connectors;
 import io.apiman.common.config.options.HttpConnectorOptions;
 import io.apiman.common.config.options.TLSOptions;
 import io.apiman.gateway.engine.IConnectorFactory;
-import io.apiman.gateway.engine.IApiConnection;
-import io.apiman.gateway.engine.IApiConnectionResponse;
 import io.apiman.gateway.engine.IApiConnector;
-import io.apiman.gateway.engine.async.IAsyncResultHandler;
 import io.apiman.gateway.engine.auth.RequiredAuthType;
 import io.apiman.gateway.engine.beans.Api;
 import io.apiman.gateway.engine.beans.ApiRequest;
-import io.apiman.gateway.engine.beans.exceptions.ConnectorException;
+import io.apiman.gateway.engine.circuitbreaker.ApiGuards;
+import io.apiman.gateway.engine.circuitbreaker.GuardedConnector;
+import io.apiman.gateway.engine.lb.EndpointPool;
+import io.apiman.gateway.engine.lb.EndpointPools;
+import io.apiman.gateway.engine.lb.LoadBalancedConnector;
+import io.apiman.gateway.engine.lb.LoadBalancedConnector.IEndpointConnector;
 import io.apiman.gateway.platforms.servlet.connectors.ssl.SSLSessionStrategy;
 import io.apiman.gateway.platforms.servlet.connectors.ssl.SSLSessionStrategyFactory;
 
@@ -65,6 +67,8 @@ public class HttpConnectorFactory implements IConnectorFactory {
     private SSLSessionStrategy mutualAuthSslStrategy;
     private TLSOptions tlsOptions;
     private HttpConnectorOptions connectorOptions;
+    private final EndpointPools endpointPools = new EndpointPools();
+    private final ApiGuards apiGuards = new ApiGuards();
 
     /**
      * Constructor.
@@ -105,19 +109,32 @@ public class HttpConnectorFactory implements IConnectorFactory {
     @Override
     public IApiConnector createConnector(ApiRequest request, final Api api,
             final RequiredAuthType requiredAuthType, boolean hasDataPolicy) {
-        return new IApiConnector() {
-            /**
-             * @see io.apiman.gateway.engine.IApiConnector#connect(io.apiman.gateway.engine.beans.ApiRequest, io.apiman.gateway.engine.async.IAsyncResultHandler)
-             */
-            @Override
-            public IApiConnection connect(ApiRequest request,
-                    IAsyncResultHandler<IApiConnectionResponse> handler) throws ConnectorException {
+        IEndpointConnector connector = GuardedConnector.guard(api.getEndpointProperties(), apiGuards.get(api),
+                (endpoint, req, handler) -> new HttpApiConnection(okClient, req, api, endpoint,
+                        requiredAuthType, getSslStrategy(requiredAuthType), hasDataPolicy, handler));
+        EndpointPool pool = endpointPools.get(api);
+        if (pool != null) {
+            return new LoadBalancedConnector(pool, connector);
+        }
+        return (req, handler) -> connector.connect(api.getEndpoint(), req, handler);
+    }
 
-                HttpApiConnection connection = new HttpApiConnection(okClient, request, api,
-                        requiredAuthType, getSslStrategy(requiredAuthType), hasDataPolicy, handler);
-                return connection;
-            }
-        };
+    /**
+     * @see io.apiman.gateway.engine.IConnectorFactory#apiRetired(io.apiman.gateway.engine.beans.Api)
+     */
+    @Override
+    public void apiRetired(Api api) {
+        endpointPools.remove(api);
+        apiGuards.remove(api);
+    }
+
+    /**
+     * @see io.apiman.gateway.engine.IConnectorFactory#close()
+     */
+    @Override
+    public void close() {
+        endpointPools.close();
+        apiGuards.close();
     }
 
     /**
@@ -0,0 +1,540 @@
+/*
+ * Copyright 2017 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.apiman.gateway.platforms.servlet;
+
+import io.apiman.gateway.engine.IEngineResult;
+import io.apiman.gateway.engine.async.IAsyncHandler;
+import io.apiman.gateway.engine.beans.ApiResponse;
+import io.apiman.gateway.engine.beans.PolicyFailure;
+import io.apiman.gateway.engine.io.ByteBuffer;
+import io.apiman.gateway.engine.io.IApimanBuffer;
+import io.apiman.gateway.engine.io.ISignalWriteStream;
+import io.apiman.gateway.platforms.servlet.GatewayServlet.AsyncExchange;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncListener;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.WriteListener;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the non-blocking request/response streaming of the gateway servlet's async
+ * mode, against a fake container that (like a real one) never runs two listener
+ * callbacks of the same request at once.
+ */
+@SuppressWarnings("nls")
+public class GatewayServletAsyncTest {
+
+    /**
+     * Request and response bodies are streamed through when the client keeps up.
+     */
+    @Test
+    public void testFastClient() throws Exception {
+        Exchange exchange = new Exchange(body(10000), 20, 1000, Integer.MAX_VALUE);
+        exchange.run();
+
+        Assert.assertArrayEquals(body(10000), exchange.connector.received.toByteArray());
+        Assert.assertArrayEquals(exchange.backend.expected(), exchange.output.written.toByteArray());
+        Assert.assertEquals(0, exchange.backend.pauses.get());
+    }
+
+    /**
+     * A client that reads slower than the back-end API writes pauses the back-end
+     * response until it has caught up - without tying up the container's callback
+     * thread, which would stop the resume from ever being delivered.
+     */
+    @Test
+    public void testSlowClient() throws Exception {
+        Exchange exchange = new Exchange(body(10000), 50, 1000, 2500);
+        exchange.run();
+
+        Assert.assertArrayEquals(body(10000), exchange.connector.received.toByteArray());
+        Assert.assertArrayEquals(exchange.backend.expected(), exchange.output.written.toByteArray());
+        Assert.assertTrue(exchange.backend.pauses.get() > 0);
+    }
+
+    /**
+     * A request without a body still gets its response.
+     */
+    @Test
+    public void testEmptyRequestBody() throws Exception {
+        Exchange exchange = new Exchange(new byte[0], 10, 500, 1000);
+        exchange.run();
+
+        Assert.assertEquals(0, exchange.connector.received.size());
+        Assert.assertArrayEquals(exchange.backend.expected(), exchange.output.written.toByteArray());
+    }
+
+    /**
+     * A failure while handing the request to the back-end API aborts the exchange.
+     */
+    @Test
+    public void testConnectorFailure() throws Exception {
+        Exchange exchange = new Exchange(body(100), 10, 500, 1000);
+        exchange.connector.failOnEnd = true;
+        exchange.run();
+
+        Assert.assertTrue(exchange.connector.aborted);
+        Assert.assertEquals(0, exchange.output.written.size());
+    }
+
+    private static byte[] body(int size) {
+        byte[] body = new byte[size];
+        for (int i = 0; i < size; i++) {
+            body[i] = (byte) i;
+        }
+        return body;
+    }
+
+    /**
+     * Wires an {@link AsyncExchange} up to the fakes and runs it to completion.
+     */
+    private static final class Exchange {
+
+        private final FakeContainer container = new FakeContainer();
+        private final FakeInputStream input;
+        private final FakeOutputStream output;
+        private final FakeBackend backend;
+        private final FakeConnectorStream connector;
+        private final AsyncExchange exchange;
+
+        Exchange(byte[] requestBody, int responseChunks, int chunkSize, int clientWindow) {
+            input = new FakeInputStream(container, requestBody);
+            output = new FakeOutputStream(container, clientWindow);
+            backend = new FakeBackend(responseChunks, chunkSize);
+            exchange = new AsyncExchange(container, runnable -> new Thread(runnable).start());
+            connector = new FakeConnectorStream(exchange, backend, output);
+        }
+
+        void run() throws Exception {
+            exchange.read(input, connector);
+            Assert.assertTrue("The exchange did not complete.", container.completed.await(10, TimeUnit.SECONDS));
+            output.stopClient();
+        }
+    }
+
+    /**
+     * The container: runs listener callbacks one at a time (per request) on its own
+     * threads, and tasks passed to {@link #start(Runnable)} on a thread of their own.
+     */
+    private static final class FakeContainer implements AsyncContext {
+
+        private final ReentrantLock callbackLock = new ReentrantLock();
+        private final CountDownLatch completed = new CountDownLatch(1);
+
+        void callback(final Callback callback) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    callbackLock.lock();
+                    try {
+                        callback.run();
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    } finally {
+                        callbackLock.unlock();
+                    }
+                }
+            }).start();
+        }
+
+        @Override
+        public void start(Runnable run) {
+            new Thread(run).start();
+        }
+
+        @Override
+        public void complete() {
+            completed.countDown();
+        }
+
+        @Override
+        public void addListener(AsyncListener listener) {
+        }
+
+        @Override
+        public void addListener(AsyncListener listener, ServletRequest servletRequest,
+                ServletResponse servletResponse) {
+        }
+
+        @Override
+        public ServletRequest getRequest() {
+            return null;
+        }
+
+        @Override
+        public ServletResponse getResponse() {
+            return null;
+        }
+
+        @Override
+        public boolean hasOriginalRequestAndResponse() {
+            return true;
+        }
+
+        @Override
+        public void dispatch() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void dispatch(String path) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void dispatch(ServletContext context, String path) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public <T extends AsyncListener> T createListener(Class<T> clazz) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void setTimeout(long timeout) {
+        }
+
+        @Override
+        public long getTimeout() {
+            return 0;
+        }
+    }
+
+    private static interface Callback {
+        void run() throws IOException;
+    }
+
+    /**
+     * A request body that is all available up front.
+     */
+    private static final class FakeInputStream extends ServletInputStream {
+
+        private final FakeContainer container;
+        private final byte[] body;
+        private int position;
+
+        FakeInputStream(FakeContainer container, byte[] body) {
+            this.container = container;
+            this.body = body;
+        }
+
+        @Override
+        public void setReadListener(final ReadListener readListener) {
+            container.callback(new Callback() {
+                @Override
+                public void run() throws IOException {
+                    if (!isFinished()) {
+                        readListener.onDataAvailable();
+                    }
+                    if (isFinished()) {
+                        container.callback(new Callback() {
+                            @Override
+                            public void run() throws IOException {
+                                readListener.onAllDataRead();
+                            }
+                        });
+                    }
+                }
+            });
+        }
+
+        @Override
+        public boolean isFinished() {
+            return position >= body.length;
+        }
+
+        @Override
+        public boolean isReady() {
+            return true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return isFinished() ? -1 : body[position++] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (isFinished()) {
+                return -1;
+            }
+            int n = Math.min(len, body.length - position);
+            System.arraycopy(body, position, b, off, n);
+            position += n;
+            return n;
+        }
+    }
+
+    /**
+     * A client that only takes "window" bytes at a time: once that many have been
+     * written the output stream stops being ready until the client has read them,
+     * after which onWritePossible is delivered.
+     */
+    private static final class FakeOutputStream extends ServletOutputStream {
+
+        private final FakeContainer container;
+        private final int window;
+        private final ByteArrayOutputStream written = new ByteArrayOutputStream();
+        private WriteListener writeListener;
+        private int unread;
+        private boolean ready = true;
+        private boolean notifyWhenReady;
+        private volatile boolean clientStopped;
+
+        FakeOutputStream(FakeContainer container, int window) {
+            this.container = container;
+            this.window = window;
+        }
+
+        @Override
+        public synchronized void setWriteListener(WriteListener writeListener) {
+            this.writeListener = writeListener;
+            final WriteListener listener = writeListener;
+            container.callback(new Callback() {
+                @Override
+                public void run() throws IOException {
+                    listener.onWritePossible();
+                }
+            });
+            if (window != Integer.MAX_VALUE) {
+                startClient();
+            }
+        }
+
+        @Override
+        public synchronized boolean isReady() {
+            if (!ready) {
+                notifyWhenReady = true;
+            }
+            return ready;
+        }
+
+        @Override
+        public synchronized void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) throws IOException {
+            Assert.assertTrue("Wrote to an output stream that isn't ready.", ready);
+            written.write(b, off, len);
+            unread += len;
+            if (unread >= window) {
+                ready = false;
+            }
+        }
+
+        private void startClient() {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    while (!clientStopped) {
+                        try { Thread.sleep(5); } catch (InterruptedException e) { }
+                        catchUp();
+                    }
+                }
+            }).start();
+        }
+
+        private void catchUp() {
+            final WriteListener listener;
+            synchronized (this) {
+                unread = 0;
+                ready = true;
+                if (!notifyWhenReady) {
+                    return;
+                }
+                notifyWhenReady = false;
+                listener = writeListener;
+            }
+            container.callback(new Callback() {
+                @Override
+                public void run() throws IOException {
+                    listener.onWritePossible();
+                }
+            });
+        }
+
+        void stopClient() {
+            clientStopped = true;
+        }
+    }
+
+    /**
+     * The connection to a (blocking) back-end API: ending the request transmits the
+     * whole response on the calling thread.
+     */
+    private static final class FakeConnectorStream implements ISignalWriteStream {
+
+        private final AsyncExchange exchange;
+        private final FakeBackend backend;
+        private final ServletOutputStream output;
+        private final ByteArrayOutputStream received = new ByteArrayOutputStream();
+        private boolean failOnEnd;
+        private volatile boolean aborted;
+
+        FakeConnectorStream(AsyncExchange exchange, FakeBackend backend, ServletOutputStream output) {
+            this.exchange = exchange;
+            this.backend = backend;
+            this.output = output;
+        }
+
+        @Override
+        public void write(IApimanBuffer chunk) {
+            received.write(chunk.getBytes(), 0, chunk.length());
+        }
+
+        @Override
+        public void end() {
+            if (failOnEnd) {
+                throw new RuntimeException("Back-end API unavailable.");
+            }
+            exchange.stream(backend, output);
+            backend.transmit();
+        }
+
+        @Override
+        public boolean isFinished() {
+            return false;
+        }
+
+        @Override
+        public void abort(Throwable t) {
+            aborted = true;
+        }
+    }
+
+    /**
+     * The back-end API's response: blocks between chunks while paused.
+     */
+    private static final class FakeBackend implements IEngineResult {
+
+        private final int chunks;
+        private final int chunkSize;
+        private final AtomicInteger pauses = new AtomicInteger();
+        private IAsyncHandler<IApimanBuffer> bodyHandler;
+        private IAsyncHandler<Void> endHandler;
+        private boolean paused;
+
+        FakeBackend(int chunks, int chunkSize) {
+            this.chunks = chunks;
+            this.chunkSize = chunkSize;
+        }
+
+        byte[] expected() {
+            ByteArrayOutputStream expected = new ByteArrayOutputStream();
+            for (int i = 0; i < chunks; i++) {
+                expected.write(chunk(i), 0, chunkSize);
+            }
+            return expected.toByteArray();
+        }
+
+        private byte[] chunk(int i) {
+            byte[] chunk = new byte[chunkSize];
+            Arrays.fill(chunk, (byte) i);
+            return chunk;
+        }
+
+        void transmit() {
+            for (int i = 0; i < chunks; i++) {
+                bodyHandler.handle(new ByteBuffer(chunk(i)));
+                synchronized (this) {
+                    while (paused) {
+                        try { wait(); } catch (InterruptedException e) { throw new RuntimeException(e); }
+                    }
+                }
+            }
+            endHandler.handle(null);
+        }
+
+        @Override
+        public synchronized void pause() {
+            if (!paused) {
+                pauses.incrementAndGet();
+            }
+            paused = true;
+        }
+
+        @Override
+        public synchronized void resume() {
+            paused = false;
+            notifyAll();
+        }
+
+        @Override
+        public void bodyHandler(IAsyncHandler<IApimanBuffer> bodyHandler) {
+            this.bodyHandler = bodyHandler;
+        }
+
+        @Override
+        public void endHandler(IAsyncHandler<Void> endHandler) {
+            this.endHandler = endHandler;
+        }
+
+        @Override
+        public ApiResponse getHead() {
+            return null;
+        }
+
+        @Override
+        public boolean isFinished() {
+            return false;
+        }
+
+        @Override
+        public void abort(Throwable t) {
+            resume();
+        }
+
+        @Override
+        public boolean isResponse() {
+            return true;
+        }
+
+        @Override
+        public boolean isFailure() {
+            return false;
+        }
+
+        @Override
+        public ApiResponse getApiResponse() {
+            return null;
+        }
+
+        @Override
+        public PolicyFailure getPolicyFailure() {
+            return null;
+        }
+    }
+
+}
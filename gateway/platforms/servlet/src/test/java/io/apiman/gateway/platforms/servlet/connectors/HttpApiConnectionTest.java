@@ -0,0 +1,158 @@
+/*
+ * Copyright 2017 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.apiman.gateway.platforms.servlet.connectors;
+
+import io.apiman.gateway.engine.IApiConnection;
+import io.apiman.gateway.engine.IApiConnectionResponse;
+import io.apiman.gateway.engine.IApiConnector;
+import io.apiman.gateway.engine.async.IAsyncHandler;
+import io.apiman.gateway.engine.async.IAsyncResult;
+import io.apiman.gateway.engine.async.IAsyncResultHandler;
+import io.apiman.gateway.engine.auth.RequiredAuthType;
+import io.apiman.gateway.engine.beans.Api;
+import io.apiman.gateway.engine.beans.ApiRequest;
+import io.apiman.gateway.engine.io.IApimanBuffer;
+import io.apiman.test.common.mock.EchoServlet;
+
+import java.net.SocketTimeoutException;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests pausing and resuming the response body of the servlet API connection.
+ */
+@SuppressWarnings("nls")
+public class HttpApiConnectionTest {
+
+    private Server server;
+
+    @Before
+    public void setupJetty() throws Exception {
+        ServletContextHandler sch = new ServletContextHandler();
+        sch.setContextPath("/echo");
+        sch.addServlet(new ServletHolder(new EchoServlet()), "/*");
+
+        server = new Server(8010);
+        server.setStopAtShutdown(true);
+        server.setHandler(sch);
+        server.start();
+    }
+
+    @After
+    public void destroyJetty() throws Exception {
+        server.stop();
+        server.destroy();
+    }
+
+    /**
+     * A paused response body continues once it is resumed.
+     */
+    @Test
+    public void testResume() throws Exception {
+        final IApiConnectionResponse response = connect(5000);
+        final AtomicBoolean ended = new AtomicBoolean();
+        response.bodyHandler(new IAsyncHandler<IApimanBuffer>() {
+            @Override
+            public void handle(IApimanBuffer chunk) {
+                response.pause();
+                new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try { Thread.sleep(100); } catch (InterruptedException e) { }
+                        response.resume();
+                    }
+                }).start();
+            }
+        });
+        response.endHandler(new IAsyncHandler<Void>() {
+            @Override
+            public void handle(Void result) {
+                ended.set(true);
+            }
+        });
+        response.transmit();
+        Assert.assertTrue(ended.get());
+    }
+
+    /**
+     * A response body that is never resumed fails once the endpoint's read timeout
+     * has passed, rather than holding on to the transmitting thread for good.
+     */
+    @Test
+    public void testPauseTimeout() throws Exception {
+        final IApiConnectionResponse response = connect(200);
+        final AtomicBoolean ended = new AtomicBoolean();
+        response.bodyHandler(new IAsyncHandler<IApimanBuffer>() {
+            @Override
+            public void handle(IApimanBuffer chunk) {
+                response.pause();
+            }
+        });
+        response.endHandler(new IAsyncHandler<Void>() {
+            @Override
+            public void handle(Void result) {
+                ended.set(true);
+            }
+        });
+        long start = System.currentTimeMillis();
+        try {
+            response.transmit();
+            Assert.fail("Expected the paused response to time out.");
+        } catch (RuntimeException e) {
+            Assert.assertTrue(e.getCause() instanceof SocketTimeoutException);
+        }
+        Assert.assertTrue(System.currentTimeMillis() - start >= 200);
+        Assert.assertFalse(ended.get());
+    }
+
+    /**
+     * Connects to the echo servlet and returns the (not yet transmitted) response.
+     * @param readTimeout
+     */
+    private IApiConnectionResponse connect(int readTimeout) {
+        ApiRequest request = new ApiRequest();
+        request.setDestination("/");
+        request.setType("GET");
+        Api api = new Api();
+        api.setEndpoint("http://localhost:8010/echo");
+        api.setEndpointProperties(new HashMap<String, String>());
+        api.getEndpointProperties().put("timeouts.read", String.valueOf(readTimeout));
+
+        HttpConnectorFactory factory = new HttpConnectorFactory(new HashMap<String, String>());
+        IApiConnector connector = factory.createConnector(request, api, RequiredAuthType.DEFAULT, false);
+        final AtomicReference<IApiConnectionResponse> response = new AtomicReference<>();
+        IApiConnection connection = connector.connect(request, new IAsyncResultHandler<IApiConnectionResponse>() {
+            @Override
+            public void handle(IAsyncResult<IApiConnectionResponse> result) {
+                Assert.assertTrue(result.isSuccess());
+                response.set(result.getResult());
+            }
+        });
+        connection.end();
+        Assert.assertNotNull(response.get());
+        return response.get();
+    }
+
+}
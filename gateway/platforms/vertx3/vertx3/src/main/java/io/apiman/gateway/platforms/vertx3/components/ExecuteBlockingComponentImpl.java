@@ -26,30 +26,97 @@ import io.apiman.gateway.platforms.vertx3.common.config.VertxEngineConfig;
 import io.vertx.core.AsyncResult;
 import io.vertx.core.Future;
 import io.vertx.core.Vertx;
+import io.vertx.core.WorkerExecutor;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
 
 import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Vert.x implementation of {@link IExecuteBlockingComponent}.
  *
+ * The blocking code runs on a dedicated (shared) worker pool rather than the
+ * default Vert.x worker pool, and tasks are not ordered, so that one slow task
+ * doesn't hold up the others.  Supports the following config properties:
+ *
+ * <ul>
+ *   <li>maxThreads - the size of the worker pool (default 20)</li>
+ *   <li>maxQueueDepth - the number of tasks that may wait for a worker (default 100)</li>
+ *   <li>timeout - the time (in millis) after which a task is failed (default 30000)</li>
+ * </ul>
+ *
+ * Tasks beyond the queue depth fail immediately with a {@link RejectedExecutionException}.
+ * A task that times out fails with a {@link TimeoutException} and frees its slot, so
+ * that a few hung tasks can't get every later one rejected.  It can't be interrupted
+ * though, so it carries on in the background (tying up its worker) until it completes;
+ * this is logged.  The result handler is always called on the caller's context.
+ *
+ * These settings (and the dedicated pool) replace the previous behaviour of running
+ * blocking code ordered on the default Vert.x worker pool, without any limit or
+ * timeout.  This is the component used by the default Vert.x configurations.
+ *
  * @author Marc Savy {@literal <msavy@redhat.com>}
  */
 public class ExecuteBlockingComponentImpl implements IExecuteBlockingComponent {
+    private static final String POOL_NAME = "apiman-execute-blocking"; //$NON-NLS-1$
+
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
     private Vertx vertx;
+    private WorkerExecutor workerExecutor;
+    private int maxInFlight;
+    private long timeout;
+    private AtomicInteger inFlight = new AtomicInteger();
 
     public ExecuteBlockingComponentImpl(Vertx vertx, VertxEngineConfig engineConfig, Map<String, String> componentConfig) {
         this.vertx = vertx;
+        int maxThreads = Math.max(getInt(componentConfig, "maxThreads", 20), 1); //$NON-NLS-1$
+        int maxQueueDepth = Math.max(getInt(componentConfig, "maxQueueDepth", 100), 0); //$NON-NLS-1$
+        this.timeout = getInt(componentConfig, "timeout", 30000); //$NON-NLS-1$
+        this.maxInFlight = maxThreads + maxQueueDepth;
+        this.workerExecutor = vertx.createSharedWorkerExecutor(POOL_NAME, maxThreads);
     }
 
     @Override
     public <T> void executeBlocking(IAsyncHandler<IAsyncFuture<T>> blockingCode, IAsyncResultHandler<T> resultHandler) {
-        vertx.<T>executeBlocking(future -> {
+        if (inFlight.incrementAndGet() > maxInFlight) {
+            inFlight.decrementAndGet();
+            resultHandler.handle(AsyncResultImpl.<T>create(new RejectedExecutionException(
+                    "Too many blocking tasks in flight (" + maxInFlight + "); rejected."))); //$NON-NLS-1$ //$NON-NLS-2$
+            return;
+        }
+        AtomicBoolean done = new AtomicBoolean();
+        long timerId = timeout > 0 ? vertx.setTimer(timeout, id -> {
+            if (done.compareAndSet(false, true)) {
+                // Free the slot now: the task may never complete.
+                inFlight.decrementAndGet();
+                logger.warn("Blocking task timed out after " + timeout //$NON-NLS-1$
+                        + "ms; it carries on in the background, occupying a worker until it completes."); //$NON-NLS-1$
+                resultHandler.handle(AsyncResultImpl.<T>create(new TimeoutException(
+                        "Blocking task timed out after " + timeout + "ms."))); //$NON-NLS-1$ //$NON-NLS-2$
+            }
+        }) : -1;
+        workerExecutor.<T>executeBlocking(future -> {
             blockingCode.handle(wrapFuture(future));
-        }, result -> {
-            resultHandler.handle(wrapResult(result));
+        }, false, result -> {
+            if (done.compareAndSet(false, true)) {
+                inFlight.decrementAndGet();
+                if (timerId != -1) {
+                    vertx.cancelTimer(timerId);
+                }
+                resultHandler.handle(wrapResult(result));
+            }
         });
     }
 
+    private static int getInt(Map<String, String> config, String key, int defaultValue) {
+        String value = config == null ? null : config.get(key);
+        return value == null ? defaultValue : Integer.parseInt(value.trim());
+    }
+
     private <T> IAsyncResult<T> wrapResult(AsyncResult<T> result) {
         if (result.succeeded()) {
             return AsyncResultImpl.<T>create(result.result());
@@ -21,6 +21,7 @@ import io.apiman.gateway.engine.async.IAsyncResultHandler;
 import io.apiman.gateway.engine.components.ldap.ILdapClientConnection;
 import io.apiman.gateway.engine.components.ldap.ILdapResult;
 import io.apiman.gateway.engine.components.ldap.LdapConfigBean;
+import io.apiman.gateway.engine.components.ldap.result.DefaultExceptionFactory;
 import io.apiman.gateway.engine.impl.DefaultLdapClientConnection;
 import io.apiman.gateway.engine.impl.DefaultLdapComponent;
 import io.apiman.gateway.platforms.vertx3.common.config.VertxEngineConfig;
@@ -37,26 +38,34 @@ public class LdapClientComponentImpl extends DefaultLdapComponent {
     private Vertx vertx;
 
     public LdapClientComponentImpl(Vertx vertx, VertxEngineConfig engineConfig, Map<String, String> componentConfig) {
+        super(componentConfig);
         this.vertx = vertx;
     }
 
     @Override
     public void connect(LdapConfigBean config, final IAsyncResultHandler<ILdapClientConnection> handler) {
-        final LdapClientConnectionImpl connection = new LdapClientConnectionImpl(vertx, config, DEFAULT_SOCKET_FACTORY);
-        connection.connect(result -> {
-                if (result.isSuccess()) {
+        final LdapClientConnectionImpl connection = new LdapClientConnectionImpl(vertx, config, connectionFactory, DEFAULT_SOCKET_FACTORY);
+        // Taking a pooled connection may mean connecting, and BIND is a blocking operation.
+        vertx.executeBlocking(blocking -> {
+            connection.connect(result -> {
+                if (result.isSuccess() && result.getResult().getResultCode().isSuccess()) {
                     handler.handle(AsyncResultImpl.create(connection));
+                } else if (result.isSuccess()) {
+                    connection.close();
+                    handler.handle(AsyncResultImpl.create(DefaultExceptionFactory.create(result.getResult())));
                 } else {
                     handler.handle(AsyncResultImpl.create(result.getError()));
                 }
             });
+            blocking.complete();
+        }, res -> {});
     }
 
     @Override
     public void bind(LdapConfigBean config, IAsyncResultHandler<ILdapResult> handler) {
         vertx.executeBlocking(blocking -> {
-            DefaultLdapClientConnection.bind(DEFAULT_SOCKET_FACTORY, config, handler);
-            blocking.succeeded();
+            DefaultLdapClientConnection.bind(connectionFactory, DEFAULT_SOCKET_FACTORY, config, handler);
+            blocking.complete();
         }, res -> {});
     }
 }
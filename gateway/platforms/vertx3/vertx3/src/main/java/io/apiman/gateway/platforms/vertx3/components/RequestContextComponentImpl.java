@@ -0,0 +1,53 @@
+/*
+ * Copyright 2017 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.apiman.gateway.platforms.vertx3.components;
+
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import io.apiman.gateway.engine.components.IRequestContextComponent;
+import io.apiman.gateway.platforms.vertx3.common.config.VertxEngineConfig;
+import io.vertx.core.Context;
+import io.vertx.core.Vertx;
+
+/**
+ * Vert.x implementation of {@link IRequestContextComponent}: tasks are run on the
+ * Vert.x context (i.e. the event loop) of the request.
+ *
+ * @author eric.wittmann@redhat.com
+ */
+public class RequestContextComponentImpl implements IRequestContextComponent {
+    private Vertx vertx;
+
+    /**
+     * @param vertx the vertx instance
+     * @param engineConfig the engine config
+     * @param config the config
+     */
+    public RequestContextComponentImpl(Vertx vertx, VertxEngineConfig engineConfig, Map<String, String> config) {
+        this.vertx = vertx;
+    }
+
+    /**
+     * @see io.apiman.gateway.engine.components.IRequestContextComponent#getCurrentContext()
+     */
+    @Override
+    public Executor getCurrentContext() {
+        // The request's own context, as this is called while processing it.
+        Context context = vertx.getOrCreateContext();
+        return task -> context.runOnContext(v -> task.run());
+    }
+}
@@ -23,6 +23,7 @@ import io.apiman.gateway.engine.components.ldap.LdapConfigBean;
 import io.apiman.gateway.engine.components.ldap.LdapSearchScope;
 import io.apiman.gateway.engine.components.ldap.result.LdapException;
 import io.apiman.gateway.engine.impl.DefaultLdapClientConnection;
+import io.apiman.gateway.engine.impl.LDAPConnectionFactory;
 import io.vertx.core.Vertx;
 
 import javax.net.ssl.SSLSocketFactory;
@@ -33,8 +34,9 @@ import javax.net.ssl.SSLSocketFactory;
 public class LdapClientConnectionImpl extends DefaultLdapClientConnection {
     private Vertx vertx;
 
-    public LdapClientConnectionImpl(Vertx vertx, LdapConfigBean config, SSLSocketFactory socketFactory) {
-        super(config, socketFactory);
+    public LdapClientConnectionImpl(Vertx vertx, LdapConfigBean config, LDAPConnectionFactory connectionFactory,
+            SSLSocketFactory socketFactory) {
+        super(config, connectionFactory, socketFactory);
         this.vertx = vertx;
     }
 
@@ -39,6 +39,9 @@ public class ApimanHttpConnectorOptions extends AbstractOptions {
     private int requestTimeout = HttpClientOptions.DEFAULT_CONNECT_TIMEOUT * 2;
     private boolean keepAlive = HttpClientOptions.DEFAULT_KEEP_ALIVE;
     private boolean tryUseCompression = HttpClientOptions.DEFAULT_TRY_USE_COMPRESSION;
+    private int maxPoolSize = HttpClientOptions.DEFAULT_MAX_POOL_SIZE;
+    private boolean pipelining = HttpClientOptions.DEFAULT_PIPELINING;
+    private boolean http2 = false;
     private TLSOptions tlsOptions;
     private URI endpoint;
     private boolean isSsl;
@@ -56,6 +59,9 @@ public class ApimanHttpConnectorOptions extends AbstractOptions {
     protected void parse(Map<String, String> options) {
         connectionTimeout = parseInt(options, "http.timeouts.connect", HttpClientOptions.DEFAULT_CONNECT_TIMEOUT);
         requestTimeout = parseInt(options, "http.timeouts.read", HttpClientOptions.DEFAULT_CONNECT_TIMEOUT * 2);
+        maxPoolSize = parseInt(options, "http.pool.maxSize", HttpClientOptions.DEFAULT_MAX_POOL_SIZE);
+        pipelining = parseBool(options, "http.pool.pipelining", HttpClientOptions.DEFAULT_PIPELINING);
+        http2 = parseBool(options, "http.http2", false);
     }
 
     /**
@@ -151,6 +157,49 @@ public class ApimanHttpConnectorOptions extends AbstractOptions {
         return this;
     }
 
+    /**
+     * @return the maximum number of pooled connections
+     */
+    public int getMaxPoolSize() {
+        return maxPoolSize;
+    }
+    /**
+     * @param maxPoolSize the maximum number of pooled connections
+     * @return this
+     */
+    public ApimanHttpConnectorOptions setMaxPoolSize(int maxPoolSize) {
+        this.maxPoolSize = maxPoolSize;
+        return this;
+    }
+    /**
+     * @return true if HTTP/1.1 pipelining should be used
+     */
+    public boolean isPipelining() {
+        return pipelining;
+    }
+    /**
+     * @param pipelining true if HTTP/1.1 pipelining should be used
+     * @return this
+     */
+    public ApimanHttpConnectorOptions setPipelining(boolean pipelining) {
+        this.pipelining = pipelining;
+        return this;
+    }
+    /**
+     * @return true if HTTP/2 should be used
+     */
+    public boolean isHttp2() {
+        return http2;
+    }
+    /**
+     * @param http2 true if HTTP/2 should be used
+     * @return this
+     */
+    public ApimanHttpConnectorOptions setHttp2(boolean http2) {
+        this.http2 = http2;
+        return this;
+    }
+
     public TLSOptions getTlsOptions() {
         return tlsOptions;
     }
@@ -191,6 +240,9 @@ public class ApimanHttpConnectorOptions extends AbstractOptions {
         result = prime * result + ((tlsOptions == null) ? 0 : tlsOptions.hashCode());
         result = prime * result + (tryUseCompression ? 1231 : 1237);
         result = prime * result + (isSsl ? 0 : 1);
+        result = prime * result + maxPoolSize;
+        result = prime * result + (pipelining ? 1231 : 1237);
+        result = prime * result + (http2 ? 1231 : 1237);
         return result;
     }
     /* (non-Javadoc)
@@ -218,6 +270,14 @@ public class ApimanHttpConnectorOptions extends AbstractOptions {
             return false;
         if (tryUseCompression != other.tryUseCompression)
             return false;
+        if (isSsl != other.isSsl)
+            return false;
+        if (maxPoolSize != other.maxPoolSize)
+            return false;
+        if (pipelining != other.pipelining)
+            return false;
+        if (http2 != other.http2)
+            return false;
         return true;
     }
 
@@ -15,26 +15,38 @@
  */
 package io.apiman.gateway.platforms.vertx3.connector;
 
-import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
 import io.apiman.common.config.options.TLSOptions;
+import io.apiman.gateway.engine.IApiConnectionResponse;
 import io.apiman.gateway.engine.IApiConnector;
 import io.apiman.gateway.engine.IConnectorFactory;
+import io.apiman.gateway.engine.async.IAsyncResultHandler;
 import io.apiman.gateway.engine.auth.RequiredAuthType;
 import io.apiman.gateway.engine.beans.Api;
 import io.apiman.gateway.engine.beans.ApiRequest;
+import io.apiman.gateway.engine.circuitbreaker.BackendGuard;
+import io.apiman.gateway.engine.circuitbreaker.BackendGuards;
+import io.apiman.gateway.engine.circuitbreaker.GuardedConnector;
+import io.apiman.gateway.engine.lb.EndpointPool;
+import io.apiman.gateway.engine.lb.EndpointPools;
+import io.apiman.gateway.engine.lb.LoadBalancedConnector;
+import io.apiman.gateway.engine.lb.LoadBalancedConnector.IEndpointConnector;
 import io.apiman.gateway.platforms.vertx3.http.HttpClientOptionsFactory;
 import io.vertx.core.Vertx;
 import io.vertx.core.http.HttpClient;
 import io.vertx.core.http.HttpClientOptions;
+import io.vertx.core.http.HttpVersion;
 
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 
 /**
  * Create Vert.x connectors to the enable apiman to connect to a backend API.
@@ -49,27 +61,23 @@ public class ConnectorFactory implements IConnectorFactory {
         SUPPRESSED_HEADERS.add("X-API-Key"); //$NON-NLS-1$
     }
 
+    // The number of APIs whose connector settings are kept
+    private static final int MAX_APIS = 2000;
+
     private Vertx vertx;
     private TLSOptions tlsOptions;
     private Map<String, String> config;
-    private LoadingCache<ApimanHttpConnectorOptions, HttpClient> clientCache = CacheBuilder.newBuilder()
-                // TODO make this tuneable.
-                .maximumSize(2000)
-                // Close any evicted connections.
-                .<ApimanHttpConnectorOptions, HttpClient>removalListener(eviction -> eviction.getValue().close())
-                // Either grab from cache or build new (which will be cached automatically).
-                .build(new CacheLoader<ApimanHttpConnectorOptions, HttpClient>() {
-
-                    @Override
-                    public HttpClient load(ApimanHttpConnectorOptions opts) throws Exception {
-                        HttpClientOptions vxClientOptions = HttpClientOptionsFactory.parseTlsOptions(opts.getTlsOptions(), opts.getUri())
-                                .setConnectTimeout(opts.getConnectionTimeout())
-                                .setIdleTimeout(opts.getIdleTimeout())
-                                .setKeepAlive(opts.isKeepAlive())
-                                .setTryUseCompression(opts.isTryUseCompression());
-                        return vertx.createHttpClient(vxClientOptions);
-                    }
-                });
+    private final EndpointPools endpointPools = new EndpointPools();
+    // Resolved connector settings, per API.  Settings that are dropped (the API was
+    // retired or re-published, or hasn't been used in a while) release their clients,
+    // which are only closed once the requests still in flight on them have ended.
+    private final Cache<String, ApiSettings> apiSettings = CacheBuilder.newBuilder()
+            .maximumSize(MAX_APIS)
+            .<String, ApiSettings>removalListener(removal -> removal.getValue().close())
+            .build();
+    // Clients are shared by all endpoints with the same client options, and closed
+    // once neither an endpoint nor an in-flight request uses it any more.
+    private final Map<ApimanHttpConnectorOptions, SharedClient> clients = new HashMap<>();
 
     /**
      * Constructor
@@ -85,33 +93,159 @@ public class ConnectorFactory implements IConnectorFactory {
     // In the future we can switch to different back-end implementations here!
     @Override
     public IApiConnector createConnector(ApiRequest req, Api api, RequiredAuthType authType, boolean hasDataPolicy) {
-        return (request, resultHandler) -> {
-            // Apply options from config as our base case
-            ApimanHttpConnectorOptions httpOptions = new ApimanHttpConnectorOptions(config)
-                    .setHasDataPolicy(hasDataPolicy)
-                    .setRequiredAuthType(authType)
-                    .setTlsOptions(tlsOptions)
-                    .setUri(parseApiEndpoint(api))
-                    .setSsl(api.getEndpoint().toLowerCase().startsWith("https")); //$NON-NLS-1$
-            // If API has endpoint properties indicating timeouts, then override config.
-            setAttributesFromApiEndpointProperties(api, httpOptions);
-            // Get from cache
-            HttpClient client = clientFromCache(httpOptions);
-            return new HttpConnector(vertx, client, request, api, httpOptions, resultHandler).connect();
-         };
-    }
-
-    private HttpClient clientFromCache(ApimanHttpConnectorOptions key) {
+        ApiSettings settings = getApiSettings(api);
+        IEndpointConnector connector = GuardedConnector.guard(api.getEndpointProperties(),
+                endpoint -> settings.resolve(endpoint).guard,
+                (endpoint, request, resultHandler) -> connect(request, api, settings.resolve(endpoint), authType, hasDataPolicy, resultHandler));
+        EndpointPool pool = endpointPools.get(api);
+        if (pool != null) {
+            return new LoadBalancedConnector(pool, connector);
+        }
+        return (request, resultHandler) -> connector.connect(api.getEndpoint(), request, resultHandler);
+    }
+
+    private HttpConnector connect(ApiRequest request, Api api, EndpointSettings endpoint, RequiredAuthType authType,
+            boolean hasDataPolicy, IAsyncResultHandler<IApiConnectionResponse> resultHandler) {
+        ApimanHttpConnectorOptions httpOptions = endpoint.getOptions(authType, hasDataPolicy);
+        // Each request holds its own reference to the client, so that dropping the
+        // endpoint's settings doesn't close it while the request is still in flight.
+        ApimanHttpConnectorOptions clientOptions = endpoint.clientOptions;
+        HttpClient client = acquireClient(clientOptions);
+        HttpConnector connector = null;
         try {
-            return clientCache.get(key);
-        } catch (ExecutionException e) {
-            throw new RuntimeException(e);
+            connector = new HttpConnector(vertx, client, request, api, httpOptions, resultHandler)
+                    .releaseHandler(v -> releaseClient(clientOptions));
+            return connector.connect();
+        } catch (RuntimeException e) {
+            if (connector != null) {
+                connector.release();
+            } else {
+                releaseClient(clientOptions);
+            }
+            throw e;
         }
     }
 
-    private URI parseApiEndpoint(Api api) {
+    /**
+     * @see io.apiman.gateway.engine.IConnectorFactory#apiRetired(io.apiman.gateway.engine.beans.Api)
+     */
+    @Override
+    public void apiRetired(Api api) {
+        apiSettings.invalidate(apiKey(api));
+        endpointPools.remove(api);
+    }
+
+    /**
+     * @see io.apiman.gateway.engine.IConnectorFactory#close()
+     */
+    @Override
+    public void close() {
+        endpointPools.close();
+        apiSettings.invalidateAll();
+        synchronized (clients) {
+            clients.values().forEach(shared -> shared.client.close());
+            clients.clear();
+        }
+    }
+
+    /**
+     * Gets the resolved settings for the given API, resolving them again if the API
+     * has been re-published with a different endpoint configuration (which releases
+     * the old ones).
+     */
+    private ApiSettings getApiSettings(Api api) {
+        String key = apiKey(api);
+        ApiSettings settings = apiSettings.getIfPresent(key);
+        if (settings != null && settings.matches(api)) {
+            return settings;
+        }
+        synchronized (apiSettings) {
+            settings = apiSettings.getIfPresent(key);
+            if (settings == null || !settings.matches(api)) {
+                settings = new ApiSettings(api);
+                apiSettings.put(key, settings);
+            }
+            return settings;
+        }
+    }
+
+    /**
+     * Gets the client used to connect to the given endpoint of the given API.
+     */
+    HttpClient getClient(Api api, String endpoint) {
+        return getApiSettings(api).resolve(endpoint).client;
+    }
+
+    private static String apiKey(Api api) {
+        return api.getOrganizationId() + '|' + api.getApiId() + '|' + api.getVersion();
+    }
+
+    /**
+     * Creates the connector options for the given endpoint of the given API.
+     */
+    private ApimanHttpConnectorOptions createOptions(Api api, String endpoint, URI uri, RequiredAuthType authType,
+            boolean hasDataPolicy) {
+        // Apply options from config as our base case
+        ApimanHttpConnectorOptions httpOptions = new ApimanHttpConnectorOptions(config)
+                .setHasDataPolicy(hasDataPolicy)
+                .setRequiredAuthType(authType)
+                .setTlsOptions(tlsOptions)
+                .setUri(uri)
+                .setSsl(endpoint.toLowerCase().startsWith("https")); //$NON-NLS-1$
+        // If API has endpoint properties indicating timeouts, then override config.
+        setAttributesFromApiEndpointProperties(api, httpOptions);
+        return httpOptions;
+    }
+
+    /**
+     * Gets the client for the given options (creating it if nothing uses one yet),
+     * which must be released once it's no longer used.
+     */
+    private HttpClient acquireClient(ApimanHttpConnectorOptions opts) {
+        synchronized (clients) {
+            SharedClient shared = clients.get(opts);
+            if (shared == null) {
+                shared = new SharedClient(createClient(opts));
+                clients.put(opts, shared);
+            }
+            shared.users++;
+            return shared.client;
+        }
+    }
+
+    /**
+     * Releases a client acquired for the given options, closing it if nothing else
+     * (no endpoint and no request in flight) uses it.
+     */
+    private void releaseClient(ApimanHttpConnectorOptions opts) {
+        synchronized (clients) {
+            SharedClient shared = clients.get(opts);
+            if (shared != null && --shared.users == 0) {
+                clients.remove(opts);
+                shared.client.close();
+            }
+        }
+    }
+
+    private HttpClient createClient(ApimanHttpConnectorOptions opts) {
+        HttpClientOptions vxClientOptions = HttpClientOptionsFactory.parseTlsOptions(opts.getTlsOptions(), opts.getUri())
+                .setConnectTimeout(opts.getConnectionTimeout())
+                .setIdleTimeout(opts.getIdleTimeout())
+                .setKeepAlive(opts.isKeepAlive())
+                .setTryUseCompression(opts.isTryUseCompression())
+                .setMaxPoolSize(opts.getMaxPoolSize())
+                .setPipelining(opts.isPipelining());
+        if (opts.isHttp2()) {
+            vxClientOptions.setProtocolVersion(HttpVersion.HTTP_2)
+                    .setUseAlpn(opts.isSsl())
+                    .setHttp2MaxPoolSize(opts.getMaxPoolSize());
+        }
+        return vertx.createHttpClient(vxClientOptions);
+    }
+
+    private URI parseApiEndpoint(String endpoint) {
         try {
-            return new URI(api.getEndpoint());
+            return new URI(endpoint);
         } catch (URISyntaxException e) {
             throw new RuntimeException(e);
         }
@@ -133,8 +267,131 @@ public class ConnectorFactory implements IConnectorFactory {
                 int connectTimeoutMs = Integer.parseInt(endpointProperties.get("timeouts.connect")); //$NON-NLS-1$
                 options.setConnectionTimeout(connectTimeoutMs);
             }
+            if (endpointProperties.containsKey("pool.maxSize")) { //$NON-NLS-1$
+                options.setMaxPoolSize(Integer.parseInt(endpointProperties.get("pool.maxSize"))); //$NON-NLS-1$
+            }
+            if (endpointProperties.containsKey("pool.pipelining")) { //$NON-NLS-1$
+                options.setPipelining(Boolean.parseBoolean(endpointProperties.get("pool.pipelining"))); //$NON-NLS-1$
+            }
+            if (endpointProperties.containsKey("http2")) { //$NON-NLS-1$
+                options.setHttp2(Boolean.parseBoolean(endpointProperties.get("http2"))); //$NON-NLS-1$
+            }
         } catch (NumberFormatException e) {
             throw new RuntimeException(e);
         }
     }
+
+    /**
+     * The connector settings of a single API, resolved when the API is first used
+     * (rather than for every request) and replaced when it is re-published with a
+     * different endpoint configuration.  Closing them releases the clients (and guards)
+     * of their endpoints - a client is closed once the requests still in flight on it
+     * have ended.
+     */
+    private final class ApiSettings {
+
+        private volatile Api api;
+        private final String endpoint;
+        private final Map<String, String> endpointProperties;
+        private final ConcurrentHashMap<String, EndpointSettings> endpoints = new ConcurrentHashMap<>();
+        private boolean closed;
+
+        private ApiSettings(Api api) {
+            this.api = api;
+            this.endpoint = api.getEndpoint();
+            this.endpointProperties = new HashMap<>(api.getEndpointProperties());
+        }
+
+        /**
+         * Returns true if these settings were resolved for the given API's (current)
+         * endpoint configuration.
+         */
+        private boolean matches(Api api) {
+            if (this.api == api) {
+                return true;
+            }
+            if (endpoint.equals(api.getEndpoint()) && endpointProperties.equals(api.getEndpointProperties())) {
+                // Same configuration - remember this instance to skip the comparison next time.
+                this.api = api;
+                return true;
+            }
+            return false;
+        }
+
+        private EndpointSettings resolve(String endpoint) {
+            EndpointSettings settings = endpoints.get(endpoint);
+            if (settings != null) {
+                return settings;
+            }
+            synchronized (this) {
+                if (!closed) {
+                    return endpoints.computeIfAbsent(endpoint, uri -> new EndpointSettings(api, uri));
+                }
+            }
+            // Retired or re-published since the request started - use the current settings.
+            return getApiSettings(api).resolve(endpoint);
+        }
+
+        private synchronized void close() {
+            closed = true;
+            endpoints.values().forEach(settings -> {
+                releaseClient(settings.clientOptions);
+                if (settings.guard != null) {
+                    BackendGuards.release(settings.guard);
+                }
+            });
+            endpoints.clear();
+        }
+    }
+
+    /**
+     * The connector settings (options, client and guard) of one of an API's endpoints.
+     */
+    private final class EndpointSettings {
+
+        private final Api api;
+        private final String endpoint;
+        private final URI uri;
+        private final ApimanHttpConnectorOptions clientOptions;
+        private final HttpClient client;
+        // Null unless the API's endpoint properties configure a circuit breaker or bulkhead
+        private final BackendGuard guard;
+        // Indexed by auth type and whether there is a data policy
+        private final AtomicReferenceArray<ApimanHttpConnectorOptions> options =
+                new AtomicReferenceArray<>(RequiredAuthType.values().length * 2);
+
+        private EndpointSettings(Api api, String endpoint) {
+            this.api = api;
+            this.endpoint = endpoint;
+            this.uri = parseApiEndpoint(endpoint);
+            this.clientOptions = createOptions(api, endpoint, uri, RequiredAuthType.DEFAULT, false);
+            this.client = acquireClient(clientOptions);
+            this.guard = BackendGuard.isGuarded(api.getEndpointProperties())
+                    ? BackendGuards.acquire(endpoint, api.getEndpointProperties()) : null;
+        }
+
+        private ApimanHttpConnectorOptions getOptions(RequiredAuthType authType, boolean hasDataPolicy) {
+            int idx = authType.ordinal() * 2 + (hasDataPolicy ? 1 : 0);
+            ApimanHttpConnectorOptions rval = options.get(idx);
+            if (rval == null) {
+                // Racing threads may both create them - no harm done.
+                rval = createOptions(api, endpoint, uri, authType, hasDataPolicy);
+                options.set(idx, rval);
+            }
+            return rval;
+        }
+    }
+
+    /**
+     * A client and the number of endpoints and in-flight requests using it.
+     */
+    private static final class SharedClient {
+
+        private final HttpClient client;
+        private int users;
+
+        private SharedClient(HttpClient client) {
+            this.client = client;
+        }
+    }
 }
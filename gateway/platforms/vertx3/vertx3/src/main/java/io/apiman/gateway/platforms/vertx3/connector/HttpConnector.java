@@ -86,10 +86,12 @@ class HttpConnector implements IApiConnectionResponse, IApiConnection {
     private IAsyncHandler<Void> drainHandler;
     private IAsyncHandler<IApimanBuffer> bodyHandler;
     private IAsyncHandler<Void> endHandler;
+    private IAsyncHandler<Void> releaseHandler;
     private ExceptionHandler exceptionHandler;
 
     private boolean inboundFinished = false;
     private boolean outboundFinished = false;
+    private boolean released = false;
 
     private Api api;
     private String apiPath;
@@ -183,6 +185,7 @@ class HttpConnector implements IApiConnectionResponse, IApiConnection {
 
                     vxClientResponse.endHandler((Handler<Void>) v -> {
                         endHandler.handle((Void) null);
+                        release();
                     });
 
                     vxClientResponse.exceptionHandler(exceptionHandler);
@@ -233,6 +236,20 @@ class HttpConnector implements IApiConnectionResponse, IApiConnection {
         clientResponse.resume();
     }
 
+    @Override
+    public void pause() {
+        if (clientResponse != null) {
+            clientResponse.pause();
+        }
+    }
+
+    @Override
+    public void resume() {
+        if (clientResponse != null) {
+            clientResponse.resume();
+        }
+    }
+
     @Override
     public void abort(Throwable t) {
         bodyHandler(null);
@@ -244,6 +261,8 @@ class HttpConnector implements IApiConnectionResponse, IApiConnection {
         if(clientResponse != null) {
             clientResponse.netSocket().close(); //TODO verify
         }
+
+        release();
     }
 
     @Override
@@ -256,6 +275,30 @@ class HttpConnector implements IApiConnectionResponse, IApiConnection {
         this.endHandler = endHandler;
     }
 
+    /**
+     * Sets a handler called (once) when the connector no longer uses its client: the
+     * response has been fully read, the request failed, or it was aborted.
+     *
+     * @param releaseHandler the release handler
+     * @return this connector
+     */
+    public HttpConnector releaseHandler(IAsyncHandler<Void> releaseHandler) {
+        this.releaseHandler = releaseHandler;
+        return this;
+    }
+
+    /**
+     * Calls the release handler, unless it has already been called.
+     */
+    void release() {
+        if (!released) {
+            released = true;
+            if (releaseHandler != null) {
+                releaseHandler.handle((Void) null);
+            }
+        }
+    }
+
     @Override
     public void write(IApimanBuffer chunk) {
         if (inboundFinished) {
@@ -332,6 +375,7 @@ class HttpConnector implements IApiConnectionResponse, IApiConnection {
                 ce.setStatusCode(504); // GATEWAY TIMEOUT
             }
 
+            release();
             resultHandler.handle(AsyncResultImpl
                     .<IApiConnectionResponse> create(ce));
         }
@@ -124,6 +124,11 @@ public class HttpPolicyAdapter {
 
             engineResult.bodyHandler(buffer -> {
                 vertxResponse.write((Buffer) buffer.getNativeBuffer());
+                // Apply back-pressure: stop reading the back-end response until the client catches up.
+                if (vertxResponse.writeQueueFull()) {
+                    engineResult.pause();
+                    vertxResponse.drainHandler(onDrain -> engineResult.resume());
+                }
             });
 
             engineResult.endHandler(end -> vertxResponse.end());
@@ -51,6 +51,14 @@ public abstract class ApimanVerticleWithEngine extends ApimanVerticleBase {
         policyErrorWriter = initPolicyErrorWriter();
     }
 
+    @Override
+    public void stop() throws Exception {
+        if (engine != null) {
+            engine.shutdown();
+        }
+        super.stop();
+    }
+
     private IPolicyFailureWriter initPolicyFailureWriter() {
         Class<? extends IPolicyFailureWriter> clazz = apimanConfig.getPolicyFailureWriterClass(engine.getPluginRegistry());
         Map<String, String> conf = apimanConfig.getPolicyFailureWriterConfig();
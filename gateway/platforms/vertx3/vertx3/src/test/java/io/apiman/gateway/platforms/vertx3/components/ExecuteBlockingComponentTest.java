@@ -22,6 +22,12 @@ import io.vertx.ext.unit.Async;
 import io.vertx.ext.unit.TestContext;
 import io.vertx.ext.unit.junit.VertxUnitRunner;
 
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
+
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
@@ -83,6 +89,72 @@ public class ExecuteBlockingComponentTest {
         });
     }
 
+    @Test
+    public void testTimeoutAndRejection(TestContext context) {
+        Async async = context.async();
+        Map<String, String> config = new HashMap<>();
+        config.put("maxThreads", "1");
+        config.put("maxQueueDepth", "0");
+        config.put("timeout", "100");
+        IExecuteBlockingComponent bounded = new ExecuteBlockingComponentImpl(Vertx.vertx(), null, config);
+        CountDownLatch release = new CountDownLatch(1);
+
+        bounded.<String>executeBlocking(future -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                // done either way
+            }
+            future.completed("Alphonse");
+        },
+        result -> {
+            context.assertTrue(result.getError() instanceof TimeoutException);
+            release.countDown();
+            async.complete();
+        });
+
+        // The only worker is busy, and nothing may queue for it.
+        bounded.<String>executeBlocking(future -> {
+            future.completed("Providence");
+        },
+        result -> {
+            context.assertTrue(result.getError() instanceof RejectedExecutionException);
+        });
+    }
+
+    @Test
+    public void testTimeoutFreesSlot(TestContext context) {
+        Async async = context.async();
+        Map<String, String> config = new HashMap<>();
+        config.put("maxThreads", "1");
+        config.put("maxQueueDepth", "0");
+        config.put("timeout", "100");
+        IExecuteBlockingComponent bounded = new ExecuteBlockingComponentImpl(Vertx.vertx(), null, config);
+        CountDownLatch release = new CountDownLatch(1);
+
+        bounded.<String>executeBlocking(future -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                // done either way
+            }
+            future.completed("Alphonse");
+        },
+        result -> {
+            context.assertTrue(result.getError() instanceof TimeoutException);
+            // The timed out task no longer counts against the limit.
+            bounded.<String>executeBlocking(future -> {
+                future.completed("Cosmoledo");
+            },
+            next -> {
+                context.assertTrue(next.isSuccess());
+                context.assertEquals("Cosmoledo", next.getResult());
+                async.complete();
+            });
+            release.countDown();
+        });
+    }
+
     private static final class ExampleException extends RuntimeException {
         private static final long serialVersionUID = 517125905991693943L;
 
@@ -0,0 +1,219 @@
+/*
+ * Copyright 2017 JBoss Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.apiman.gateway.platforms.vertx3.connector;
+
+import io.apiman.gateway.engine.IApiConnection;
+import io.apiman.gateway.engine.IApiConnectionResponse;
+import io.apiman.gateway.engine.auth.RequiredAuthType;
+import io.apiman.gateway.engine.beans.Api;
+import io.apiman.gateway.engine.beans.ApiRequest;
+import io.vertx.core.Context;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.HttpServer;
+import io.vertx.core.http.HttpServerRequest;
+
+import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests how the Vert.x connector factory shares, replaces and closes its clients.
+ *
+ * @author eric.wittmann@redhat.com
+ */
+@SuppressWarnings("nls")
+public class ConnectorFactoryTest {
+
+    private static final String ENDPOINT = "http://localhost:7297/echo";
+
+    private Vertx vertx;
+    private ConnectorFactory factory;
+
+    @Before
+    public void setUp() {
+        vertx = Vertx.vertx();
+        factory = new ConnectorFactory(vertx, new HashMap<>());
+    }
+
+    @After
+    public void tearDown() {
+        factory.close();
+        vertx.close();
+    }
+
+    /**
+     * The same client is used for every request to an API, and is shared with other
+     * APIs that need the same client options.
+     */
+    @Test
+    public void testReuse() {
+        Api api1 = api("api1", "5000");
+        Api api2 = api("api2", "5000");
+
+        HttpClient client = factory.getClient(api1, ENDPOINT);
+        Assert.assertSame(client, factory.getClient(api1, ENDPOINT));
+        Assert.assertSame(client, factory.getClient(api("api1", "5000"), ENDPOINT));
+        Assert.assertSame(client, factory.getClient(api2, ENDPOINT));
+        Assert.assertFalse(isClosed(client));
+    }
+
+    /**
+     * Re-publishing an API with different client options replaces its client and
+     * closes the old one.
+     */
+    @Test
+    public void testRepublish() {
+        HttpClient client = factory.getClient(api("api1", "5000"), ENDPOINT);
+
+        HttpClient republished = factory.getClient(api("api1", "6000"), ENDPOINT);
+        Assert.assertNotSame(client, republished);
+        Assert.assertTrue(isClosed(client));
+        Assert.assertFalse(isClosed(republished));
+    }
+
+    /**
+     * Re-publishing an API leaves a client that another API still uses open.
+     */
+    @Test
+    public void testRepublishShared() {
+        HttpClient client = factory.getClient(api("api1", "5000"), ENDPOINT);
+        Assert.assertSame(client, factory.getClient(api("api2", "5000"), ENDPOINT));
+
+        factory.getClient(api("api1", "6000"), ENDPOINT);
+        Assert.assertFalse(isClosed(client));
+        Assert.assertSame(client, factory.getClient(api("api2", "5000"), ENDPOINT));
+    }
+
+    /**
+     * Retiring an API closes its client once no other API uses it.
+     */
+    @Test
+    public void testRetire() {
+        Api api1 = api("api1", "5000");
+        Api api2 = api("api2", "5000");
+        Api api3 = api("api3", "6000");
+        HttpClient shared = factory.getClient(api1, ENDPOINT);
+        factory.getClient(api2, ENDPOINT);
+        HttpClient own = factory.getClient(api3, ENDPOINT);
+
+        factory.apiRetired(api3);
+        Assert.assertTrue(isClosed(own));
+
+        factory.apiRetired(api1);
+        Assert.assertFalse(isClosed(shared));
+        factory.apiRetired(api2);
+        Assert.assertTrue(isClosed(shared));
+
+        // Re-published after being retired
+        HttpClient client = factory.getClient(api1, ENDPOINT);
+        Assert.assertNotSame(shared, client);
+        Assert.assertFalse(isClosed(client));
+    }
+
+    /**
+     * A client whose API is re-published stays open until the requests still in
+     * flight on it have ended.
+     */
+    @Test
+    public void testRepublishInFlight() throws Exception {
+        CompletableFuture<HttpServerRequest> received = new CompletableFuture<>();
+        CompletableFuture<Context> serverContext = new CompletableFuture<>();
+        CompletableFuture<Void> listening = new CompletableFuture<>();
+        HttpServer server = vertx.createHttpServer()
+                .requestHandler(request -> {
+                    serverContext.complete(Vertx.currentContext());
+                    received.complete(request);
+                })
+                .listen(7297, result -> listening.complete(null));
+        try {
+            listening.get(10, TimeUnit.SECONDS);
+            Api api = api("api1", "5000");
+            HttpClient client = factory.getClient(api, ENDPOINT);
+
+            ApiRequest request = new ApiRequest();
+            request.setApi(api);
+            request.setType("GET");
+            request.setDestination("/");
+            CompletableFuture<Void> ended = new CompletableFuture<>();
+            IApiConnection connection = factory.createConnector(request, api, RequiredAuthType.DEFAULT, false)
+                    .connect(request, result -> {
+                        IApiConnectionResponse response = result.getResult();
+                        response.bodyHandler(chunk -> {});
+                        response.endHandler(v -> ended.complete(null));
+                        response.transmit();
+                    });
+            connection.end();
+            HttpServerRequest pending = received.get(10, TimeUnit.SECONDS);
+
+            factory.getClient(api("api1", "6000"), ENDPOINT);
+            Assert.assertFalse(isClosed(client));
+
+            serverContext.get().runOnContext(v -> pending.response().end("done"));
+            ended.get(10, TimeUnit.SECONDS);
+            // The client is released right after the end handler is called
+            long deadline = System.currentTimeMillis() + 10000;
+            while (!isClosed(client) && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            Assert.assertTrue(isClosed(client));
+        } finally {
+            server.close();
+        }
+    }
+
+    /**
+     * Closing the factory closes all of its clients.
+     */
+    @Test
+    public void testClose() {
+        HttpClient client1 = factory.getClient(api("api1", "5000"), ENDPOINT);
+        HttpClient client2 = factory.getClient(api("api2", "6000"), ENDPOINT);
+
+        factory.close();
+        Assert.assertTrue(isClosed(client1));
+        Assert.assertTrue(isClosed(client2));
+    }
+
+    private static Api api(String apiId, String connectTimeout) {
+        Api api = new Api();
+        api.setOrganizationId("org");
+        api.setApiId(apiId);
+        api.setVersion("1.0");
+        api.setEndpoint(ENDPOINT);
+        api.getEndpointProperties().put("timeouts.connect", connectTimeout);
+        return api;
+    }
+
+    /**
+     * A closed client refuses to create requests (creating one doesn't send anything).
+     */
+    private static boolean isClosed(HttpClient client) {
+        try {
+            client.request(HttpMethod.GET, 7297, "localhost", "/echo");
+            return false;
+        } catch (IllegalStateException e) {
+            return true;
+        }
+    }
+
+}
@@ -79,6 +79,9 @@ public class WarGateway {
      * Shuts down the gateway.
      */
     public static void shutdown() {
+        if (engine != null) {
+            engine.shutdown();
+        }
         engine = null;
     }
 
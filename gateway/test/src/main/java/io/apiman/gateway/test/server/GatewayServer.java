@@ -104,6 +104,7 @@ public class GatewayServer {
         server.setContextPath("/");
         server.addEventListener(new WarGatewayBootstrapper());
         ServletHolder servlet = new ServletHolder(new WarGatewayServlet());
+        servlet.setAsyncSupported(true);
         server.addServlet(servlet, "/gateway/*");
         servlet = new ServletHolder(new HttpServletDispatcher());
         servlet.setInitParameter("javax.ws.rs.Application", TestGatewayApplication.class.getName());